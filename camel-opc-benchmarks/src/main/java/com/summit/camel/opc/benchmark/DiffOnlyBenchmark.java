@@ -0,0 +1,201 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2ValueStore;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Change detection of one poll cycle in diffOnly mode: the map based
+ * comparison the consumer used to do against {@link Opcda2ValueStore}.
+ * <p>
+ * Both variants get the same boxed values, as produced by the marshaller.
+ * Run with <code>-prof gc</code> to compare allocation rates.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffOnlyBenchmark {
+
+	private static final int CYCLES = 16;
+
+	@Param({"1000", "10000"})
+	int items;
+
+	/**
+	 * Fraction of the items that change every cycle.
+	 */
+	@Param({"0.0", "0.1", "1.0"})
+	double changeRatio;
+
+	private String[] keys;
+	private Object[][] cycles;
+	private int cycle = 0;
+
+	private final Map<String, Map<String, Object>> previousData = new HashMap<String, Map<String, Object>>();
+	private Opcda2ValueStore valueStore;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		keys = new String[items];
+		for (int i = 0; i < items; i++) {
+			keys[i] = "Random.Tag" + i;
+		}
+
+		cycles = new Object[CYCLES][items];
+		for (int i = 0; i < items; i++) {
+			cycles[0][i] = newValue(i, random);
+		}
+		for (int c = 1; c < CYCLES; c++) {
+			for (int i = 0; i < items; i++) {
+				cycles[c][i] = random.nextDouble() < changeRatio ? newValue(i, random) : copy(cycles[c - 1][i]);
+			}
+		}
+
+		valueStore = new Opcda2ValueStore(items);
+		for (int c = 0; c < CYCLES; c++) {
+			mapBased(c, null);
+			storeBased(c, null);
+		}
+	}
+
+	/**
+	 * A mix of the types a simulation server typically serves.
+	 */
+	private static Object newValue(int i, Random random) {
+		switch (i % 5) {
+			case 0:
+				return Double.valueOf(random.nextDouble());
+			case 1:
+				return Float.valueOf(random.nextFloat());
+			case 2:
+				return Integer.valueOf(random.nextInt());
+			case 3:
+				return "value" + random.nextInt(1000);
+			default:
+				return new Double[]{random.nextDouble(), random.nextDouble(), random.nextDouble()};
+		}
+	}
+
+	/**
+	 * Every read produces new instances, even for unchanged values.
+	 */
+	private static Object copy(Object value) {
+		if (value instanceof Double) {
+			return new Double((Double) value);
+		} else if (value instanceof Float) {
+			return new Float((Float) value);
+		} else if (value instanceof Integer) {
+			return new Integer((Integer) value);
+		} else if (value instanceof String) {
+			return new String((String) value);
+		} else {
+			return ((Double[]) value).clone();
+		}
+	}
+
+	@Benchmark
+	public void mapBased(Blackhole bh) {
+		mapBased(nextCycle(), bh);
+	}
+
+	@Benchmark
+	public void storeBased(Blackhole bh) {
+		storeBased(nextCycle(), bh);
+	}
+
+	private int nextCycle() {
+		cycle = (cycle + 1) % CYCLES;
+		return cycle;
+	}
+
+	private void mapBased(int c, Blackhole bh) {
+		Object[] values = cycles[c];
+		Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
+		for (int i = 0; i < items; i++) {
+			Map<String, Object> itemStateAsMap = new TreeMap<String, Object>();
+			itemStateAsMap.put("value", values[i]);
+
+			Map<String, Object> previousItem = previousData.get(keys[i]);
+			if (previousItem == null) {
+				data.put(keys[i], itemStateAsMap);
+				previousData.put(keys[i], itemStateAsMap);
+			} else {
+				final Object newValue = itemStateAsMap.get("value");
+				final Object oldValue = previousItem.get("value");
+				boolean diff = false;
+
+				if (newValue instanceof Object[] && oldValue instanceof Object[]) {
+					if (!Arrays.equals((Object[]) newValue, (Object[]) oldValue)) {
+						diff = true;
+					}
+				} else if (!newValue.equals(oldValue)) {
+					diff = true;
+				}
+				if (diff) {
+					data.put(keys[i], itemStateAsMap);
+					previousData.put(keys[i], itemStateAsMap);
+				}
+			}
+		}
+		if (bh != null) {
+			bh.consume(data);
+		}
+	}
+
+	private void storeBased(int c, Blackhole bh) {
+		Object[] values = cycles[c];
+		Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
+		for (int i = 0; i < items; i++) {
+			if (!valueStore.update(i, values[i])) {
+				continue;
+			}
+			Map<String, Object> itemStateAsMap = new TreeMap<String, Object>();
+			itemStateAsMap.put("value", values[i]);
+			data.put(keys[i], itemStateAsMap);
+		}
+		if (bh != null) {
+			bh.consume(data);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.simulator.SimulatedTransportFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.ScheduledPollConsumer;
+import org.apache.camel.impl.SimpleRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Poll cycles per second of an opcda2 consumer against the simulated
+ * server, from the reads through to the exchange handed to the route.
+ * <p>
+ * The consumer's scheduler is not started, each invocation runs one poll
+ * cycle on the benchmark thread. Latencies are injected by the simulator
+ * per call and per item, so bulkRead and chunking show their effect.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PollThroughputBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	int tags;
+
+	@Param({"false", "true"})
+	boolean bulkRead;
+
+	@Param({"false", "true"})
+	boolean diffOnly;
+
+	/**
+	 * Simulated cost of one call, without its items.
+	 */
+	@Param({"0", "500"})
+	long callLatencyMicros;
+
+	/**
+	 * Simulated cost of one item of a call.
+	 */
+	@Param({"0"})
+	long itemLatencyMicros;
+
+	private DefaultCamelContext context;
+	private ScheduledPollConsumer consumer;
+	private final AtomicInteger exchanges = new AtomicInteger();
+
+	@Setup
+	public void setup() throws Exception {
+		SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+		simulator.setTagCount(tags);
+		simulator.setChangeRate(100);
+		simulator.setCallLatency(callLatencyMicros);
+		simulator.setItemLatency(itemLatencyMicros);
+		SimpleRegistry registry = new SimpleRegistry();
+		registry.put("simulator", simulator);
+
+		context = new DefaultCamelContext(registry);
+		context.start();
+		Opcda2Endpoint endpoint = context.getEndpoint("opcda2:simulator/Simulation Items/Random?transport=#simulator"
+				+ "&bulkRead=" + bulkRead + "&diffOnly=" + diffOnly, Opcda2Endpoint.class);
+		consumer = (ScheduledPollConsumer) endpoint.createConsumer(new Processor() {
+
+			@Override
+			public void process(Exchange exchange) throws Exception {
+				exchanges.incrementAndGet();
+			}
+		});
+		consumer.setStartScheduler(false);
+		consumer.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		consumer.stop();
+		context.stop();
+	}
+
+	@Benchmark
+	public int pollCycle() {
+		consumer.run();
+		return exchanges.get();
+	}
+}
@@ -0,0 +1,137 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.Opcda2ShardedReader;
+import com.summit.camel.opc.simulator.SimulatedTransportFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.ScheduledPollConsumer;
+import org.apache.camel.impl.SimpleRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Poll cycle latency of a large item set split over 1 to 16 shards, read in
+ * parallel by the consumer's {@link Opcda2ShardedReader}, against the
+ * simulated server.
+ * <p>
+ * The simulator charges every SyncIO read a fixed round trip plus a per
+ * item cost, and serializes the calls of a session like DCOM does. With
+ * <code>sessions=shared</code> all shards go through the endpoint's
+ * session (shards without shardSessions), so only the per call overhead
+ * is spread; with <code>sessions=perShard</code> each shard has its own
+ * session and the reads really overlap. The consumer's scheduler is not
+ * started, each invocation runs one poll cycle on the benchmark
+ * thread.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShardedPollBenchmark {
+
+	@Param({"1", "2", "4", "8", "16"})
+	int shards;
+
+	@Param({"shared", "perShard"})
+	String sessions;
+
+	@Param({"10000"})
+	int items;
+
+	/**
+	 * Maximum items per SyncIO call (bulkReadChunkSize).
+	 */
+	@Param({"500"})
+	int chunkSize;
+
+	/**
+	 * Simulated cost of one call, without its items.
+	 */
+	@Param({"2000"})
+	long roundTripMicros;
+
+	/**
+	 * Simulated cost of one item of a call.
+	 */
+	@Param({"20"})
+	long itemMicros;
+
+	private DefaultCamelContext context;
+	private ScheduledPollConsumer consumer;
+	private final AtomicInteger exchanges = new AtomicInteger();
+
+	@Setup
+	public void setup() throws Exception {
+		SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+		simulator.setTagCount(items);
+		simulator.setChangeRate(100);
+		simulator.setCallLatency(roundTripMicros);
+		simulator.setItemLatency(itemMicros);
+		SimpleRegistry registry = new SimpleRegistry();
+		registry.put("simulator", simulator);
+
+		context = new DefaultCamelContext(registry);
+		context.start();
+		Opcda2Endpoint endpoint = context.getEndpoint("opcda2:simulator/Simulation Items/Random?transport=#simulator"
+				+ "&bulkRead=true&bulkReadChunkSize=" + chunkSize + "&shards=" + shards
+				+ "&shardSessions=" + "perShard".equals(sessions), Opcda2Endpoint.class);
+		consumer = (ScheduledPollConsumer) endpoint.createConsumer(new Processor() {
+
+			@Override
+			public void process(Exchange exchange) throws Exception {
+				exchanges.incrementAndGet();
+			}
+		});
+		consumer.setStartScheduler(false);
+		consumer.start();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		consumer.stop();
+		context.stop();
+	}
+
+	@Benchmark
+	public int pollCycle() {
+		consumer.run();
+		return exchanges.get();
+	}
+}
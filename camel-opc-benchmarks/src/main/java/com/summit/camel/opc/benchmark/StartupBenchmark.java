@@ -0,0 +1,114 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.simulator.SimulatedTransportFactory;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to start a route consuming an opcda2 endpoint: connecting, browsing
+ * the namespace and adding the items, against the simulated server.
+ * <p>
+ * Every invocation starts a fresh context against a fresh server, so the
+ * namespace cache and connection registry start empty.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	int tags;
+
+	@Param({"1", "4"})
+	int shards;
+
+	/**
+	 * Simulated cost of one call, without its items.
+	 */
+	@Param({"500"})
+	long callLatencyMicros;
+
+	/**
+	 * Simulated cost of one item of a call.
+	 */
+	@Param({"5"})
+	long itemLatencyMicros;
+
+	/**
+	 * Simulated time to connect a session.
+	 */
+	@Param({"50"})
+	long connectLatencyMillis;
+
+	private DefaultCamelContext context;
+
+	@Setup(Level.Invocation)
+	public void setup() throws Exception {
+		SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+		simulator.setTagCount(tags);
+		simulator.setCallLatency(callLatencyMicros);
+		simulator.setItemLatency(itemLatencyMicros);
+		simulator.setConnectLatency(connectLatencyMillis);
+		SimpleRegistry registry = new SimpleRegistry();
+		registry.put("simulator", simulator);
+
+		context = new DefaultCamelContext(registry);
+		context.addRoutes(new RouteBuilder() {
+
+			@Override
+			public void configure() {
+				from("opcda2:simulator/Simulation Items/Random?transport=#simulator&delay=60000&shards=" + shards)
+						.to("log:startup?level=TRACE");
+			}
+		});
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDown() throws Exception {
+		context.stop();
+	}
+
+	@Benchmark
+	public void start() throws Exception {
+		context.start();
+	}
+}
@@ -0,0 +1,167 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.JIVariantDecoder;
+import com.summit.camel.opc.JIVariantMarshaller;
+import com.summit.camel.opc.Opcda2DecoderCache;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICurrency;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Variant conversion of one value per VT type: {@link JIVariantMarshaller}
+ * against the cached {@link JIVariantDecoder}s, boxed and unboxed.
+ * <p>
+ * VT_INT and VT_UINT are not listed, JInterop has no constructor for them
+ * and they share the VT_I8 and VT_UI4 code paths. Run with
+ * <code>-prof gc</code> to compare allocation rates.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VariantDecodeBenchmark {
+
+	private static final int ARRAY_LENGTH = 64;
+
+	@Param({"VT_I1", "VT_I2", "VT_I4", "VT_I8", "VT_R4", "VT_R8", "VT_UI1", "VT_UI2", "VT_UI4",
+		"VT_BOOL", "VT_DATE", "VT_BSTR", "VT_CY",
+		"VT_ARRAY_I4", "VT_ARRAY_R4", "VT_ARRAY_R8", "VT_ARRAY_BOOL", "VT_ARRAY_BSTR"})
+	String type;
+
+	private JIVariant variant;
+	private final Opcda2DecoderCache boxedDecoders = new Opcda2DecoderCache(false);
+	private final Opcda2DecoderCache primitiveDecoders = new Opcda2DecoderCache(true);
+	private JIVariantDecoder decoder;
+	private boolean scalar;
+
+	@Setup
+	public void setup() throws JIException {
+		variant = newVariant(type);
+		decoder = boxedDecoders.decoderFor(0, variant);
+		Object value = decoder.decode(variant);
+		scalar = value instanceof Number || value instanceof Boolean || value instanceof Date;
+	}
+
+	static JIVariant newVariant(String type) {
+		if ("VT_I1".equals(type)) {
+			return new JIVariant((char) 42);
+		} else if ("VT_I2".equals(type)) {
+			return new JIVariant((short) 42);
+		} else if ("VT_I4".equals(type)) {
+			return new JIVariant(42);
+		} else if ("VT_I8".equals(type)) {
+			return new JIVariant(42L);
+		} else if ("VT_R4".equals(type)) {
+			return new JIVariant(4.2f);
+		} else if ("VT_R8".equals(type)) {
+			return new JIVariant(4.2d);
+		} else if ("VT_UI1".equals(type)) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Short.valueOf((short) 200), JIFlags.FLAG_REPRESENTATION_UNSIGNED_BYTE));
+		} else if ("VT_UI2".equals(type)) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Integer.valueOf(60000), JIFlags.FLAG_REPRESENTATION_UNSIGNED_SHORT));
+		} else if ("VT_UI4".equals(type)) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Long.valueOf(4000000000L), JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT));
+		} else if ("VT_BOOL".equals(type)) {
+			return new JIVariant(true);
+		} else if ("VT_DATE".equals(type)) {
+			return new JIVariant(new Date());
+		} else if ("VT_BSTR".equals(type)) {
+			return new JIVariant("Simulated value");
+		} else if ("VT_CY".equals(type)) {
+			return new JIVariant(new JICurrency(1234, 5678));
+		} else if ("VT_ARRAY_I4".equals(type)) {
+			Integer[] array = new Integer[ARRAY_LENGTH];
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				array[i] = Integer.valueOf(i);
+			}
+			return new JIVariant(new JIArray(array, true));
+		} else if ("VT_ARRAY_R4".equals(type)) {
+			Float[] array = new Float[ARRAY_LENGTH];
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				array[i] = Float.valueOf(i / 2f);
+			}
+			return new JIVariant(new JIArray(array, true));
+		} else if ("VT_ARRAY_R8".equals(type)) {
+			Double[] array = new Double[ARRAY_LENGTH];
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				array[i] = Double.valueOf(i / 2d);
+			}
+			return new JIVariant(new JIArray(array, true));
+		} else if ("VT_ARRAY_BOOL".equals(type)) {
+			Boolean[] array = new Boolean[ARRAY_LENGTH];
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				array[i] = Boolean.valueOf(i % 2 == 0);
+			}
+			return new JIVariant(new JIArray(array, true));
+		} else if ("VT_ARRAY_BSTR".equals(type)) {
+			String[] array = new String[ARRAY_LENGTH];
+			for (int i = 0; i < ARRAY_LENGTH; i++) {
+				array[i] = "Value" + i;
+			}
+			return new JIVariant(new JIArray(array, true));
+		}
+		throw new IllegalArgumentException(type);
+	}
+
+	@Benchmark
+	public Object marshaller() throws JIException {
+		return JIVariantMarshaller.toJavaType(variant);
+	}
+
+	@Benchmark
+	public Object cachedDecoder() throws JIException {
+		return boxedDecoders.decode(0, variant);
+	}
+
+	@Benchmark
+	public Object cachedPrimitiveArrayDecoder() throws JIException {
+		return primitiveDecoders.decode(0, variant);
+	}
+
+	/**
+	 * The unboxed path, only meaningful for numeric, boolean and date types.
+	 */
+	@Benchmark
+	public long decodeLong() throws JIException {
+		return scalar ? decoder.decodeLong(variant) : 0;
+	}
+}
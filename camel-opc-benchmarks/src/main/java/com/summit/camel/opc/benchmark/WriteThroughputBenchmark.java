@@ -0,0 +1,116 @@
+package com.summit.camel.opc.benchmark;
+
+/*
+ * #%L
+ * Camel-OPC :: Benchmarks
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.simulator.SimulatedServer;
+import com.summit.camel.opc.simulator.SimulatedTransportFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.SimpleRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write exchanges per second through an opcda2 producer against the
+ * simulated server's writable Bucket Brigade items.
+ * <p>
+ * Each exchange writes <code>tagsPerWrite</code> tags, one call per tag, or
+ * in one call per <code>writeChunkSize</code> tags with batchWrite.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteThroughputBenchmark {
+
+	@Param({"1", "100", "1000"})
+	int tagsPerWrite;
+
+	@Param({"false", "true"})
+	boolean batchWrite;
+
+	@Param({"0"})
+	int writeChunkSize;
+
+	/**
+	 * Simulated cost of one call, without its items.
+	 */
+	@Param({"0", "500"})
+	long callLatencyMicros;
+
+	private DefaultCamelContext context;
+	private ProducerTemplate template;
+	private String uri;
+	private Map<String, Map<String, Object>> body;
+
+	@Setup
+	public void setup() throws Exception {
+		SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+		simulator.setTagCount(tagsPerWrite);
+		simulator.setTypes("Real8");
+		simulator.setCallLatency(callLatencyMicros);
+		SimpleRegistry registry = new SimpleRegistry();
+		registry.put("simulator", simulator);
+
+		context = new DefaultCamelContext(registry);
+		context.start();
+		template = context.createProducerTemplate();
+		uri = "opcda2:simulator/Simulation Items/" + SimulatedServer.BUCKET_BRIGADE + "?transport=#simulator"
+				+ "&batchWrite=" + batchWrite + "&writeChunkSize=" + writeChunkSize;
+
+		body = new HashMap<String, Map<String, Object>>();
+		for (String itemId : simulator.getServer().getItemIds()) {
+			if (itemId.startsWith(SimulatedServer.BUCKET_BRIGADE)) {
+				body.put(itemId, Collections.<String, Object>singletonMap(Opcda2Endpoint.VALUE, Double.valueOf(itemId.hashCode())));
+			}
+		}
+		//Creates the producer and resolves its encoders outside the measurement.
+		template.sendBody(uri, body);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		context.stop();
+	}
+
+	@Benchmark
+	public void write() {
+		template.sendBody(uri, body);
+	}
+}
@@ -0,0 +1,208 @@
+package com.summit.camel.opc.micrometer;
+
+/*
+ * #%L
+ * Camel-OPC :: Micrometer
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2Metrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Opcda2Metrics} also published to a Micrometer registry, tagged
+ * with the endpoint's key.
+ * <p>
+ * Created by {@link Opcda2MicrometerMetricsFactory}.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2MicrometerMetrics extends Opcda2Metrics {
+
+	public static final String TAG = "endpoint";
+
+	private final Timer cycle;
+	private final Timer read;
+	private final Timer decode;
+	private final DistributionSummary itemsRead;
+	private final DistributionSummary itemsChanged;
+	private final DistributionSummary exchangeSize;
+	private final Counter badQuality;
+	private final Counter readErrors;
+	private final Timer write;
+	private final Counter writeItems;
+	private final Counter writeFailures;
+	private final Counter reconnects;
+	private final Timer lag;
+	private final Counter overruns;
+	private final Counter skippedCycles;
+	private final Counter streamDropped;
+	private final Counter streamCoalesced;
+	private final Counter journaled;
+	private final Counter replayed;
+	private final Counter journalDropped;
+	private final Counter cacheHits;
+	private final Counter cacheMisses;
+
+	/**
+	 * @param registry the registry to publish to
+	 * @param endpoint value of the {@link #TAG} tag
+	 */
+	public Opcda2MicrometerMetrics(MeterRegistry registry, String endpoint) {
+		cycle = Timer.builder("opcda2.cycle").tag(TAG, endpoint).description("Poll cycle or subscription flush").register(registry);
+		read = Timer.builder("opcda2.read").tag(TAG, endpoint).description("Read call to the server").register(registry);
+		decode = Timer.builder("opcda2.decode").tag(TAG, endpoint).description("Decoding and filtering of a cycle").register(registry);
+		itemsRead = DistributionSummary.builder("opcda2.items.read").tag(TAG, endpoint).baseUnit("items").register(registry);
+		itemsChanged = DistributionSummary.builder("opcda2.items.changed").tag(TAG, endpoint).baseUnit("items").register(registry);
+		exchangeSize = DistributionSummary.builder("opcda2.exchange.size").tag(TAG, endpoint).baseUnit("items").register(registry);
+		badQuality = Counter.builder("opcda2.quality.bad").tag(TAG, endpoint).baseUnit("items").register(registry);
+		readErrors = Counter.builder("opcda2.read.errors").tag(TAG, endpoint).baseUnit("items").register(registry);
+		write = Timer.builder("opcda2.write").tag(TAG, endpoint).description("Write call to the server").register(registry);
+		writeItems = Counter.builder("opcda2.write.items").tag(TAG, endpoint).baseUnit("items").register(registry);
+		writeFailures = Counter.builder("opcda2.write.failures").tag(TAG, endpoint).baseUnit("items").register(registry);
+		reconnects = Counter.builder("opcda2.reconnects").tag(TAG, endpoint).register(registry);
+		lag = Timer.builder("opcda2.cycle.lag").tag(TAG, endpoint).description("Delay of a poll cycle behind its slot").register(registry);
+		overruns = Counter.builder("opcda2.cycle.overruns").tag(TAG, endpoint).register(registry);
+		skippedCycles = Counter.builder("opcda2.cycle.skipped").tag(TAG, endpoint).register(registry);
+		streamDropped = Counter.builder("opcda2.stream.dropped").tag(TAG, endpoint).baseUnit("items").register(registry);
+		streamCoalesced = Counter.builder("opcda2.stream.coalesced").tag(TAG, endpoint).baseUnit("items").register(registry);
+		journaled = Counter.builder("opcda2.journal.appended").tag(TAG, endpoint).register(registry);
+		replayed = Counter.builder("opcda2.journal.replayed").tag(TAG, endpoint).register(registry);
+		journalDropped = Counter.builder("opcda2.journal.dropped").tag(TAG, endpoint).baseUnit("items").register(registry);
+		cacheHits = Counter.builder("opcda2.cache.hits").tag(TAG, endpoint).baseUnit("items").register(registry);
+		cacheMisses = Counter.builder("opcda2.cache.misses").tag(TAG, endpoint).baseUnit("items").register(registry);
+	}
+
+	@Override
+	public void recordCycle(long durationNanos, int read, int changed) {
+		super.recordCycle(durationNanos, read, changed);
+		cycle.record(durationNanos, TimeUnit.NANOSECONDS);
+		itemsRead.record(read);
+		itemsChanged.record(changed);
+	}
+
+	@Override
+	public void recordRead(long latencyNanos) {
+		super.recordRead(latencyNanos);
+		read.record(latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordDecode(long durationNanos) {
+		super.recordDecode(durationNanos);
+		decode.record(durationNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordExchange(int items) {
+		super.recordExchange(items);
+		exchangeSize.record(items);
+	}
+
+	@Override
+	public void recordBadQuality(int count) {
+		super.recordBadQuality(count);
+		if (count > 0) {
+			badQuality.increment(count);
+		}
+	}
+
+	@Override
+	public void recordReadErrors(int count) {
+		super.recordReadErrors(count);
+		if (count > 0) {
+			readErrors.increment(count);
+		}
+	}
+
+	@Override
+	public void recordWrite(long latencyNanos, int items, int failed) {
+		super.recordWrite(latencyNanos, items, failed);
+		write.record(latencyNanos, TimeUnit.NANOSECONDS);
+		writeItems.increment(items);
+		if (failed > 0) {
+			writeFailures.increment(failed);
+		}
+	}
+
+	@Override
+	public void recordReconnect() {
+		super.recordReconnect();
+		reconnects.increment();
+	}
+
+	@Override
+	public void recordLag(long lagNanos) {
+		super.recordLag(lagNanos);
+		lag.record(lagNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordOverrun() {
+		super.recordOverrun();
+		overruns.increment();
+	}
+
+	@Override
+	public void recordStreamOverflow(long dropped, long coalesced) {
+		super.recordStreamOverflow(dropped, coalesced);
+		if (dropped > 0) {
+			streamDropped.increment(dropped);
+		}
+		if (coalesced > 0) {
+			streamCoalesced.increment(coalesced);
+		}
+	}
+
+	@Override
+	public void recordJournaled() {
+		super.recordJournaled();
+		journaled.increment();
+	}
+
+	@Override
+	public void recordReplayed() {
+		super.recordReplayed();
+		replayed.increment();
+	}
+
+	@Override
+	public void recordJournalDropped(int items) {
+		super.recordJournalDropped(items);
+		if (items > 0) {
+			journalDropped.increment(items);
+		}
+	}
+
+	@Override
+	public void recordCacheRead(int hits, int misses) {
+		super.recordCacheRead(hits, misses);
+		cacheHits.increment(hits);
+		cacheMisses.increment(misses);
+	}
+
+	@Override
+	public void recordSkipped(long count) {
+		super.recordSkipped(count);
+		if (count > 0) {
+			skippedCycles.increment(count);
+		}
+	}
+}
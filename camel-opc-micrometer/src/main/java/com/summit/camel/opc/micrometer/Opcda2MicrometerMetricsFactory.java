@@ -0,0 +1,55 @@
+package com.summit.camel.opc.micrometer;
+
+/*
+ * #%L
+ * Camel-OPC :: Micrometer
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.Opcda2Metrics;
+import com.summit.camel.opc.Opcda2MetricsFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes endpoints' metrics to a Micrometer registry, set it on an
+ * endpoint with <code>metricsFactory=#beanName</code>.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2MicrometerMetricsFactory implements Opcda2MetricsFactory {
+
+	private final MeterRegistry registry;
+
+	/**
+	 * @param registry the registry to publish to
+	 */
+	public Opcda2MicrometerMetricsFactory(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public Opcda2Metrics createMetrics(Opcda2Endpoint endpoint) {
+		return new Opcda2MicrometerMetrics(registry, endpoint.getEndpointKey());
+	}
+
+	/**
+	 * @return the registry
+	 */
+	public MeterRegistry getRegistry() {
+		return registry;
+	}
+}
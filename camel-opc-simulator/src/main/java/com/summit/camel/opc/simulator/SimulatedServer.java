@@ -0,0 +1,304 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * An in-process stand-in for an OPC DA simulation server.
+ * <p>
+ * The namespace has two branches below <code>Simulation Items</code>:
+ * <code>Random</code>, whose values change <code>changeRate</code> times
+ * per second and are read only, and <code>Bucket Brigade</code>, whose
+ * values only change when written. Each branch holds
+ * <code>tagCount</code> items, cycling through the configured types, with
+ * ids like <code>Random.Real8_12</code>.</p>
+ * <p>
+ * Random values are computed from the item and the time, so reads are cheap
+ * and every session sees the same values. Each call can be charged a fixed
+ * latency plus a latency per item, see {@link #delay(int)}.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class SimulatedServer {
+
+	public static final String ROOT = "Simulation Items";
+	public static final String RANDOM = "Random";
+	public static final String BUCKET_BRIGADE = "Bucket Brigade";
+	/**
+	 * OPC_E_UNKNOWNITEMID, for items that are not in the namespace.
+	 */
+	public static final int OPC_E_UNKNOWNITEMID = 0xC0040007;
+	/**
+	 * OPC_E_BADRIGHTS, for writes to read only items.
+	 */
+	public static final int OPC_E_BADRIGHTS = 0xC0040006;
+	/**
+	 * OPC_QUALITY_GOOD.
+	 */
+	public static final short QUALITY_GOOD = 192;
+
+	private final SimulatedType[] types;
+	private final int tagCount;
+	private final double changeRate;
+	private final long callLatencyNanos;
+	private final long itemLatencyNanos;
+	private final long start = System.currentTimeMillis();
+	private final Map<String, Tag> tags = new HashMap<String, Tag>();
+	private final Map<String, String> randomLeaves = new LinkedHashMap<String, String>();
+	private final Map<String, String> bucketLeaves = new LinkedHashMap<String, String>();
+	private volatile boolean available = true;
+	private volatile int epoch = 0;
+
+	/**
+	 * @param tagCount items per branch
+	 * @param types value types, assigned to the items in turn
+	 * @param changeRate changes per second of each Random item, 0 never
+	 * changes them.
+	 * @param callLatencyMicros latency of every call
+	 * @param itemLatencyMicros latency added per item of a call
+	 */
+	public SimulatedServer(int tagCount, SimulatedType[] types, double changeRate, long callLatencyMicros, long itemLatencyMicros) {
+		if (types.length == 0) {
+			throw new IllegalArgumentException(NO_TYPES_MSG);
+		}
+		this.types = types.clone();
+		this.tagCount = tagCount;
+		this.changeRate = changeRate;
+		this.callLatencyNanos = TimeUnit.MICROSECONDS.toNanos(callLatencyMicros);
+		this.itemLatencyNanos = TimeUnit.MICROSECONDS.toNanos(itemLatencyMicros);
+
+		for (int i = 0; i < tagCount; i++) {
+			final SimulatedType type = this.types[i % this.types.length];
+			final String name = type.name() + "_" + i;
+			Tag random = new Tag(RANDOM + "." + name, type, i, false);
+			tags.put(random.itemId, random);
+			randomLeaves.put(name, random.itemId);
+			Tag bucket = new Tag(BUCKET_BRIGADE + "." + name, type, i, true);
+			bucket.value = type.value(seed(i, 0));
+			bucket.timestamp = start;
+			tags.put(bucket.itemId, bucket);
+			bucketLeaves.put(name, bucket.itemId);
+		}
+	}
+	public static final String NO_TYPES_MSG = "At least one simulated type is needed";
+
+	/**
+	 * @param itemId an item id
+	 * @return true if the item is in the namespace
+	 */
+	public boolean exists(String itemId) {
+		return tags.containsKey(itemId);
+	}
+
+	/**
+	 * @param itemId an item in the namespace
+	 * @return the VT type of the item's values
+	 */
+	public int getType(String itemId) {
+		return tags.get(itemId).type.getVtType();
+	}
+
+	/**
+	 * @param path branch names from the root
+	 * @return the names of the branch's sub-branches
+	 */
+	public List<String> browseBranches(List<String> path) {
+		if (path.isEmpty()) {
+			return Collections.singletonList(ROOT);
+		}
+		if (path.size() == 1 && ROOT.equals(path.get(0))) {
+			return Arrays.asList(RANDOM, BUCKET_BRIGADE);
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * @param path branch names from the root
+	 * @return leaf name to item id, for the branch's leaves
+	 */
+	public Map<String, String> browseLeaves(List<String> path) {
+		if (path.size() == 2 && ROOT.equals(path.get(0))) {
+			if (RANDOM.equals(path.get(1))) {
+				return Collections.unmodifiableMap(randomLeaves);
+			} else if (BUCKET_BRIGADE.equals(path.get(1))) {
+				return Collections.unmodifiableMap(bucketLeaves);
+			}
+		}
+		return Collections.emptyMap();
+	}
+
+	/**
+	 * @return the id of every item
+	 */
+	public List<String> browseFlat() {
+		return new ArrayList<String>(tags.keySet());
+	}
+
+	/**
+	 * @param itemId an item in the namespace
+	 * @param now the time of the read (ms)
+	 * @return the item's state at that time
+	 */
+	public ItemState read(String itemId, long now) {
+		final Tag tag = tags.get(itemId);
+		if (tag.writable) {
+			synchronized (tag) {
+				return new ItemState(0, tag.value, toCalendar(tag.timestamp), QUALITY_GOOD);
+			}
+		}
+		final long change = changeRate > 0 ? (long) ((now - start) * changeRate / 1000.0 + tag.phase) : 0;
+		final long changedAt = changeRate > 0 ? start + (long) ((change - tag.phase) * 1000.0 / changeRate) : start;
+		return new ItemState(0, tag.type.value(seed(tag.index, change)), toCalendar(Math.max(start, changedAt)), QUALITY_GOOD);
+	}
+
+	/**
+	 * @param itemId an item in the namespace
+	 * @param value the value to write, kept as is
+	 * @return the HRESULT of the write
+	 */
+	public int write(String itemId, JIVariant value) {
+		final Tag tag = tags.get(itemId);
+		if (!tag.writable) {
+			return OPC_E_BADRIGHTS;
+		}
+		synchronized (tag) {
+			tag.value = value;
+			tag.timestamp = System.currentTimeMillis();
+		}
+		return 0;
+	}
+
+	/**
+	 * Blocks for the simulated latency of one call.
+	 *
+	 * @param items the number of items of the call
+	 */
+	public void delay(int items) {
+		sleepNanos(callLatencyNanos + items * itemLatencyNanos);
+	}
+
+	static void sleepNanos(long nanos) {
+		final long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return the item ids of both branches, Random first
+	 */
+	public List<String> getItemIds() {
+		List<String> retVal = new ArrayList<String>(randomLeaves.values());
+		retVal.addAll(bucketLeaves.values());
+		return retVal;
+	}
+
+	/**
+	 * Takes the server down or brings it back, e.g. to test reconnects.
+	 * Sessions opened before an outage stay broken after it.
+	 *
+	 * @param available false to refuse connects and fail every call
+	 */
+	public synchronized void setAvailable(boolean available) {
+		if (this.available && !available) {
+			epoch++;
+		}
+		this.available = available;
+	}
+
+	/**
+	 * @return false during an outage
+	 */
+	public boolean isAvailable() {
+		return available;
+	}
+
+	/**
+	 * @return the number of outages so far, sessions opened in an earlier
+	 * epoch are broken.
+	 */
+	public int getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return items per branch
+	 */
+	public int getTagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * @return the changes per second of each Random item
+	 */
+	public double getChangeRate() {
+		return changeRate;
+	}
+
+	private static long seed(int index, long change) {
+		long h = index * 0x9E3779B97F4A7C15L + change;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h & Long.MAX_VALUE;
+	}
+
+	private static Calendar toCalendar(long millis) {
+		Calendar retVal = Calendar.getInstance();
+		retVal.setTimeInMillis(millis);
+		return retVal;
+	}
+
+	private static final class Tag {
+
+		private final String itemId;
+		private final SimulatedType type;
+		private final int index;
+		private final boolean writable;
+		/**
+		 * Spreads the changes of the Random items over the change period.
+		 */
+		private final double phase;
+		private JIVariant value;
+		private long timestamp;
+
+		Tag(String itemId, SimulatedType type, int index, boolean writable) {
+			this.itemId = itemId;
+			this.type = type;
+			this.index = index;
+			this.writable = writable;
+			this.phase = (seed(index, -1) % 1000) / 1000.0;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.OPCConnectionException;
+import com.summit.camel.opc.Opcda2Transport;
+import com.summit.camel.opc.Opcda2TransportGroup;
+import com.summit.camel.opc.Opcda2TransportItem;
+import com.summit.camel.opc.Opcda2TransportListener;
+import com.summit.camel.opc.Opcda2TransportSubscription;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * One session with a {@link SimulatedServer}.
+ * <p>
+ * Like a DCOM session, a session handles one call at a time: concurrent
+ * calls on the same session wait for each other, calls on different
+ * sessions overlap. Subscriptions read their group's items from the server
+ * at the update rate and call back for the items whose timestamp moved.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class SimulatedTransport implements Opcda2Transport {
+
+	/**
+	 * RPC_E_DISCONNECTED, for calls on a closed session.
+	 */
+	public static final int RPC_E_DISCONNECTED = 0x80010108;
+
+	private final SimulatedServer server;
+	private final long connectLatencyMillis;
+	private final Map<String, SimulatedGroup> groups = new HashMap<String, SimulatedGroup>();
+	private volatile boolean connected = false;
+	private int epoch;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param server the server
+	 * @param connectLatencyMillis time a connect takes
+	 */
+	public SimulatedTransport(SimulatedServer server, long connectLatencyMillis) {
+		this.server = server;
+		this.connectLatencyMillis = connectLatencyMillis;
+	}
+
+	@Override
+	public synchronized void connect() throws OPCConnectionException {
+		SimulatedServer.sleepNanos(TimeUnit.MILLISECONDS.toNanos(connectLatencyMillis));
+		if (!server.isAvailable()) {
+			throw new OPCConnectionException(SERVER_UNAVAILABLE_MSG);
+		}
+		epoch = server.getEpoch();
+		connected = true;
+	}
+	public static final String SERVER_UNAVAILABLE_MSG = "The simulated server is not available";
+
+	@Override
+	public synchronized void disconnect() {
+		connected = false;
+		groups.clear();
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+	}
+
+	@Override
+	public synchronized Opcda2TransportGroup addGroup(String name) throws OPCConnectionException {
+		checkConnected();
+		if (groups.containsKey(name)) {
+			throw new OPCConnectionException(String.format(DUPLICATE_GROUP_MSG, name));
+		}
+		server.delay(0);
+		SimulatedGroup group = new SimulatedGroup(name);
+		groups.put(name, group);
+		return group;
+	}
+	public static final String DUPLICATE_GROUP_MSG = "Group %s already exists";
+
+	@Override
+	public synchronized List<String> browseBranches(List<String> path) throws OPCConnectionException {
+		checkConnected();
+		server.delay(0);
+		return server.browseBranches(path);
+	}
+
+	@Override
+	public synchronized Map<String, String> browseLeaves(List<String> path) throws OPCConnectionException {
+		checkConnected();
+		Map<String, String> retVal = server.browseLeaves(path);
+		server.delay(retVal.size());
+		return retVal;
+	}
+
+	@Override
+	public synchronized List<String> browseFlat() throws OPCConnectionException {
+		checkConnected();
+		List<String> retVal = server.browseFlat();
+		server.delay(retVal.size());
+		return retVal;
+	}
+
+	/**
+	 * Starts polling a subscription's items at the update rate, on the
+	 * session's scheduler.
+	 */
+	private synchronized void schedule(SimulatedSubscription subscription, int updateRate) throws OPCConnectionException {
+		checkConnected();
+		server.delay(subscription.itemIds.size());
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SimulatedSubscription");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		subscription.future = scheduler.scheduleWithFixedDelay(subscription, 0, Math.max(updateRate, 1), TimeUnit.MILLISECONDS);
+	}
+
+	private void checkConnected() throws OPCConnectionException {
+		if (!isConnected()) {
+			throw new OPCConnectionException(NOT_CONNECTED_MSG);
+		}
+	}
+	public static final String NOT_CONNECTED_MSG = "The simulated session is not connected";
+
+	/**
+	 * @throws JIException with RPC_E_DISCONNECTED if the session is closed
+	 */
+	private void checkCall() throws JIException {
+		if (!isConnected()) {
+			throw new JIException(RPC_E_DISCONNECTED, NOT_CONNECTED_MSG);
+		}
+	}
+
+	/**
+	 * @return the server
+	 */
+	public SimulatedServer getServer() {
+		return server;
+	}
+
+	/**
+	 * @return true while connected, and the server had no outage since
+	 */
+	public boolean isConnected() {
+		return connected && server.isAvailable() && epoch == server.getEpoch();
+	}
+
+	/**
+	 * A group of a simulated session.
+	 */
+	private final class SimulatedGroup implements Opcda2TransportGroup {
+
+		private final String name;
+		private final List<String> itemIds = new ArrayList<String>();
+
+		SimulatedGroup(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Map<String, Opcda2TransportItem> addItems(Collection<String> itemIds, Map<String, Integer> failed) throws OPCConnectionException {
+			synchronized (SimulatedTransport.this) {
+				checkConnected();
+				server.delay(itemIds.size());
+			}
+			Map<String, Opcda2TransportItem> retVal = new HashMap<String, Opcda2TransportItem>(itemIds.size() * 2);
+			for (String itemId : itemIds) {
+				if (server.exists(itemId)) {
+					retVal.put(itemId, new SimulatedItem(itemId, this));
+				} else {
+					failed.put(itemId, SimulatedServer.OPC_E_UNKNOWNITEMID);
+				}
+			}
+			synchronized (this) {
+				this.itemIds.addAll(retVal.keySet());
+			}
+			return retVal;
+		}
+
+		@Override
+		public Map<Opcda2TransportItem, ItemState> read(boolean device, Collection<Opcda2TransportItem> items) throws JIException {
+			synchronized (SimulatedTransport.this) {
+				checkCall();
+				server.delay(items.size());
+			}
+			final long now = System.currentTimeMillis();
+			Map<Opcda2TransportItem, ItemState> retVal = new HashMap<Opcda2TransportItem, ItemState>(items.size() * 2);
+			for (Opcda2TransportItem item : items) {
+				retVal.put(item, server.read(item.getId(), now));
+			}
+			return retVal;
+		}
+
+		@Override
+		public Map<Opcda2TransportItem, Integer> write(Map<Opcda2TransportItem, JIVariant> values) throws JIException {
+			synchronized (SimulatedTransport.this) {
+				checkCall();
+				server.delay(values.size());
+			}
+			Map<Opcda2TransportItem, Integer> retVal = new HashMap<Opcda2TransportItem, Integer>(values.size() * 2);
+			for (Map.Entry<Opcda2TransportItem, JIVariant> entry : values.entrySet()) {
+				retVal.put(entry.getKey(), server.write(entry.getKey().getId(), entry.getValue()));
+			}
+			return retVal;
+		}
+
+		@Override
+		public Opcda2TransportSubscription subscribe(int updateRate, Opcda2TransportListener listener) throws OPCConnectionException {
+			final SimulatedSubscription subscription;
+			synchronized (this) {
+				subscription = new SimulatedSubscription(new ArrayList<String>(itemIds), listener);
+			}
+			schedule(subscription, updateRate);
+			return subscription;
+		}
+
+		@Override
+		public void remove() throws OPCConnectionException {
+			synchronized (SimulatedTransport.this) {
+				groups.remove(name);
+			}
+		}
+	}
+
+	/**
+	 * Polls its items on the session's scheduler.
+	 */
+	private final class SimulatedSubscription implements Opcda2TransportSubscription, Runnable {
+
+		private final List<String> itemIds;
+		private final long[] timestamps;
+		private final Opcda2TransportListener listener;
+		private ScheduledFuture<?> future;
+
+		SimulatedSubscription(List<String> itemIds, Opcda2TransportListener listener) {
+			this.itemIds = itemIds;
+			this.timestamps = new long[itemIds.size()];
+			this.listener = listener;
+		}
+
+		@Override
+		public void run() {
+			synchronized (SimulatedTransport.this) {
+				if (!isConnected()) {
+					return;
+				}
+				server.delay(0);
+			}
+			final long now = System.currentTimeMillis();
+			for (int i = 0; i < itemIds.size(); i++) {
+				final ItemState state = server.read(itemIds.get(i), now);
+				final long timestamp = state.getTimestamp().getTimeInMillis();
+				if (timestamps[i] != timestamp) {
+					timestamps[i] = timestamp;
+					listener.changed(itemIds.get(i), state);
+				}
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (SimulatedTransport.this) {
+				future.cancel(false);
+			}
+		}
+	}
+
+	/**
+	 * An item of a simulated group.
+	 */
+	private final class SimulatedItem implements Opcda2TransportItem {
+
+		private final String itemId;
+		private final SimulatedGroup group;
+
+		SimulatedItem(String itemId, SimulatedGroup group) {
+			this.itemId = itemId;
+			this.group = group;
+		}
+
+		@Override
+		public String getId() {
+			return itemId;
+		}
+
+		@Override
+		public Opcda2TransportGroup getGroup() {
+			return group;
+		}
+
+		@Override
+		public int getCanonicalType() {
+			return server.getType(itemId);
+		}
+
+		@Override
+		public ItemState read(boolean device) throws JIException {
+			synchronized (SimulatedTransport.this) {
+				checkCall();
+				server.delay(1);
+			}
+			return server.read(itemId, System.currentTimeMillis());
+		}
+
+		@Override
+		public Integer write(JIVariant value) throws JIException {
+			synchronized (SimulatedTransport.this) {
+				checkCall();
+				server.delay(1);
+			}
+			return server.write(itemId, value);
+		}
+	}
+}
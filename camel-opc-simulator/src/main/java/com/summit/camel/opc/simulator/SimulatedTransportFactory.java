@@ -0,0 +1,169 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import com.summit.camel.opc.OPCConnectionException;
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.Opcda2Transport;
+import com.summit.camel.opc.Opcda2TransportFactory;
+
+/**
+ * Points opcda2 endpoints at a {@link SimulatedServer}.
+ * <p>
+ * Select it by name, with <code>transport.</code> prefixed settings, e.g.
+ * <code>opcda2:sim/Simulation Items/Random?transport=simulator&amp;transport.tagCount=1000</code>,
+ * or register a factory in the Camel registry and reference it with
+ * <code>transport=#simulator</code>. The endpoint's host, credentials and
+ * clsId are ignored. All endpoints using the same factory talk to the same
+ * server, which is created with the factory's settings on first use.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class SimulatedTransportFactory implements Opcda2TransportFactory {
+
+	private int tagCount = 100;
+	private String types = "Int2,Int4,Real4,Real8,Boolean,String,Time";
+	private double changeRate = 1;
+	private long callLatency = 0;
+	private long itemLatency = 0;
+	private long connectLatency = 0;
+	private SimulatedServer server;
+
+	@Override
+	public String getKey(Opcda2Endpoint endpoint) {
+		return "simulator@" + Integer.toHexString(System.identityHashCode(this));
+	}
+
+	@Override
+	public Opcda2Transport createTransport(Opcda2Endpoint endpoint) throws OPCConnectionException {
+		try {
+			return new SimulatedTransport(getServer(), connectLatency);
+		} catch (IllegalArgumentException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * @return the server, created with the current settings on first use
+	 */
+	public synchronized SimulatedServer getServer() {
+		if (server == null) {
+			server = new SimulatedServer(tagCount, SimulatedType.parse(types), changeRate, callLatency, itemLatency);
+		}
+		return server;
+	}
+
+	/**
+	 * @return the tagCount
+	 */
+	public int getTagCount() {
+		return tagCount;
+	}
+
+	/**
+	 * Number of items in each of the Random and Bucket Brigade branches.
+	 *
+	 * @param tagCount the tagCount to set
+	 */
+	public void setTagCount(int tagCount) {
+		this.tagCount = tagCount;
+	}
+
+	/**
+	 * @return the types
+	 */
+	public String getTypes() {
+		return types;
+	}
+
+	/**
+	 * Comma separated {@link SimulatedType} names, assigned to the items in
+	 * turn.
+	 *
+	 * @param types the types to set
+	 */
+	public void setTypes(String types) {
+		this.types = types;
+	}
+
+	/**
+	 * @return the changeRate
+	 */
+	public double getChangeRate() {
+		return changeRate;
+	}
+
+	/**
+	 * Changes per second of each Random item, 0 keeps them constant.
+	 *
+	 * @param changeRate the changeRate to set
+	 */
+	public void setChangeRate(double changeRate) {
+		this.changeRate = changeRate;
+	}
+
+	/**
+	 * @return the callLatency
+	 */
+	public long getCallLatency() {
+		return callLatency;
+	}
+
+	/**
+	 * Latency (microseconds) of every server call.
+	 *
+	 * @param callLatency the callLatency to set
+	 */
+	public void setCallLatency(long callLatency) {
+		this.callLatency = callLatency;
+	}
+
+	/**
+	 * @return the itemLatency
+	 */
+	public long getItemLatency() {
+		return itemLatency;
+	}
+
+	/**
+	 * Latency (microseconds) added to a call for each of its items.
+	 *
+	 * @param itemLatency the itemLatency to set
+	 */
+	public void setItemLatency(long itemLatency) {
+		this.itemLatency = itemLatency;
+	}
+
+	/**
+	 * @return the connectLatency
+	 */
+	public long getConnectLatency() {
+		return connectLatency;
+	}
+
+	/**
+	 * Time (ms) it takes to connect a session.
+	 *
+	 * @param connectLatency the connectLatency to set
+	 */
+	public void setConnectLatency(long connectLatency) {
+		this.connectLatency = connectLatency;
+	}
+}
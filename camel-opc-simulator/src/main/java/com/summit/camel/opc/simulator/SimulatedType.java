@@ -0,0 +1,187 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Date;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICurrency;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * The value types a {@link SimulatedServer} serves, named like the items of
+ * the usual simulation servers (<code>Random.Real8</code>, ...).
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public enum SimulatedType {
+
+	Int2(JIVariant.VT_I2) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant((short) seed);
+		}
+	},
+	Int4(JIVariant.VT_I4) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant((int) seed);
+		}
+	},
+	Real4(JIVariant.VT_R4) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant((float) real(seed));
+		}
+	},
+	Real8(JIVariant.VT_R8) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(real(seed));
+		}
+	},
+	Money(JIVariant.VT_CY) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(new JICurrency((int) (seed & 0xffff), (int) ((seed >>> 16) % 10000)));
+		}
+	},
+	Boolean(JIVariant.VT_BOOL) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant((seed & 1) == 1);
+		}
+	},
+	String(JIVariant.VT_BSTR) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(new JIString(word(seed)));
+		}
+	},
+	Time(JIVariant.VT_DATE) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(new Date((seed & 0xffffffffL) * 1000L));
+		}
+	},
+	UInt1(JIVariant.VT_UI1) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Short.valueOf((short) (seed & 0xff)), JIVariant.VT_UI1));
+		}
+	},
+	UInt2(JIVariant.VT_UI2) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Integer.valueOf((int) (seed & 0xffff)), JIVariant.VT_UI2));
+		}
+	},
+	UInt4(JIVariant.VT_UI4) {
+		@Override
+		JIVariant value(long seed) {
+			return new JIVariant(JIUnsignedFactory.getUnsigned(Long.valueOf(seed & 0xffffffffL), JIVariant.VT_UI4));
+		}
+	},
+	ArrayOfReal8(JIVariant.VT_ARRAY | JIVariant.VT_R8) {
+		@Override
+		JIVariant value(long seed) {
+			Double[] retVal = new Double[ARRAY_LENGTH];
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = real(seed + i);
+			}
+			return new JIVariant(new JIArray(retVal, true));
+		}
+	},
+	ArrayOfInt4(JIVariant.VT_ARRAY | JIVariant.VT_I4) {
+		@Override
+		JIVariant value(long seed) {
+			Integer[] retVal = new Integer[ARRAY_LENGTH];
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = (int) (seed + i);
+			}
+			return new JIVariant(new JIArray(retVal, true));
+		}
+	},
+	ArrayOfString(JIVariant.VT_ARRAY | JIVariant.VT_BSTR) {
+		@Override
+		JIVariant value(long seed) {
+			JIString[] retVal = new JIString[ARRAY_LENGTH];
+			for (int i = 0; i < retVal.length; i++) {
+				retVal[i] = new JIString(word(seed + i));
+			}
+			return new JIVariant(new JIArray(retVal, true));
+		}
+	};
+
+	/**
+	 * Length of the array values.
+	 */
+	public static final int ARRAY_LENGTH = 8;
+	private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+
+	private final int vtType;
+
+	private SimulatedType(int vtType) {
+		this.vtType = vtType;
+	}
+
+	/**
+	 * @return the VT type of the values
+	 */
+	public int getVtType() {
+		return vtType;
+	}
+
+	/**
+	 * @param seed the same seed always gives the same value
+	 * @return a value of this type
+	 */
+	abstract JIVariant value(long seed);
+
+	private static double real(long seed) {
+		return (seed % 1000000) / 100.0;
+	}
+
+	private static String word(long seed) {
+		return WORDS[(int) ((seed & 0x7fffffff) % WORDS.length)] + (seed & 0xff);
+	}
+
+	/**
+	 * Parses the <code>types</code> option of the simulator.
+	 *
+	 * @param types type names, comma separated
+	 * @return the types, in order
+	 * @throws IllegalArgumentException for an unknown name or an empty list
+	 */
+	static SimulatedType[] parse(String types) {
+		String[] names = types.split(",");
+		SimulatedType[] retVal = new SimulatedType[names.length];
+		for (int i = 0; i < names.length; i++) {
+			try {
+				retVal[i] = valueOf(names[i].trim());
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException(java.lang.String.format(UNKNOWN_TYPE_MSG, names[i].trim()), ex);
+			}
+		}
+		return retVal;
+	}
+	public static final java.lang.String UNKNOWN_TYPE_MSG = "Unknown simulated type '%s'";
+}
@@ -0,0 +1,160 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.summit.camel.opc.Opcda2Endpoint;
+import java.util.Map;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class SimulatedComponentTest extends CamelTestSupport {
+
+    @Test
+    public void testPoll() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:result");
+        mock.expectedMinimumMessageCount(3);
+
+        assertMockEndpointsSatisfied();
+        for (Exchange exchange : mock.getExchanges()) {
+            Map<?, ?> body = exchange.getIn().getBody(Map.class);
+            assertEquals(10, body.size());
+        }
+    }
+
+    @Test
+    public void testReadFromCache() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:result");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+
+        Map<?, ?> body = template.requestBodyAndHeader(POLL_URI, null,
+                Opcda2Endpoint.OPERATION, Opcda2Endpoint.OPERATION_READ, Map.class);
+        assertEquals(10, body.size());
+        Opcda2Endpoint endpoint = context.getEndpoint(POLL_URI, Opcda2Endpoint.class);
+        assertEquals(10, endpoint.getMetrics().getCacheHits());
+        assertEquals(0, endpoint.getMetrics().getCacheMisses());
+    }
+    private static final String POLL_URI = "opcda2:simulator/Simulation Items/Random?delay=100&transport=#simulator";
+
+    @Test
+    public void testSelectors() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:selected");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+
+        Map<?, ?> body = mock.getExchanges().get(0).getIn().getBody(Map.class);
+        assertEquals(6, body.size());
+        assertTrue(body.containsKey("Random.Int2_7"));
+        assertTrue(body.containsKey("Bucket Brigade.Real4_9"));
+        assertFalse(body.containsKey("Random.Int4_8"));
+    }
+
+    @Test
+    public void testParallelBrowse() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:browsed");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+
+        assertEquals(20, mock.getExchanges().get(0).getIn().getBody(Map.class).size());
+    }
+
+    @Test
+    public void testSubscribeByName() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:subscribed");
+        mock.expectedMinimumMessageCount(3);
+
+        assertMockEndpointsSatisfied();
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:streamed");
+        mock.expectedMinimumMessageCount(10);
+
+        assertMockEndpointsSatisfied();
+        for (Exchange exchange : mock.getExchanges()) {
+            Map<?, ?> body = exchange.getIn().getBody(Map.class);
+            assertTrue(body.size() >= 1 && body.size() <= 3);
+        }
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:reconnected");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+
+        flaky.getServer().setAvailable(false);
+        Thread.sleep(300);
+        mock.reset();
+        flaky.getServer().setAvailable(true);
+        mock.expectedMinimumMessageCount(3);
+        assertMockEndpointsSatisfied();
+
+        Opcda2Endpoint endpoint = context.getEndpoint(FLAKY_URI, Opcda2Endpoint.class);
+        assertTrue(endpoint.isConnected());
+        assertEquals(1, endpoint.getGeneration());
+        assertEquals(1, endpoint.getMetrics().getReconnects());
+        for (Exchange exchange : mock.getExchanges()) {
+            assertEquals(10, exchange.getIn().getBody(Map.class).size());
+        }
+    }
+    private static final String FLAKY_URI = "opcda2:flaky/Simulation Items/Random?delay=50&transport=#flaky&reconnectDelay=20";
+
+    private SimulatedTransportFactory flaky;
+
+    @Override
+    protected JndiRegistry createRegistry() throws Exception {
+        SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+        simulator.setTagCount(10);
+        simulator.setChangeRate(10);
+        flaky = new SimulatedTransportFactory();
+        flaky.setTagCount(10);
+
+        JndiRegistry registry = super.createRegistry();
+        registry.bind("simulator", simulator);
+        registry.bind("flaky", flaky);
+        return registry;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+
+            @Override
+            public void configure() {
+                from(POLL_URI).to("mock:result");
+                from("opcda2:simulator/Simulation Items/Random?subscribe=true&updateRate=100"
+                        + "&transport=simulator&transport.tagCount=5&transport.changeRate=10").to("mock:subscribed");
+                from(FLAKY_URI).to("mock:reconnected");
+                from("opcda2:simulator/Simulation Items?delay=100&transport=#simulator"
+                        + "&include=Random.Int*;regex:Bucket Brigade.Real.*&exclude=*_8").to("mock:selected");
+                from("opcda2:simulator/Simulation Items?delay=100&transport=#simulator&browseParallelism=2").to("mock:browsed");
+                from("opcda2:simulator/Simulation Items/Random?delay=100&transport=#simulator"
+                        + "&streaming=true&batchSize=3&bufferSize=16&overflowPolicy=COALESCE").to("mock:streamed");
+            }
+        };
+    }
+}
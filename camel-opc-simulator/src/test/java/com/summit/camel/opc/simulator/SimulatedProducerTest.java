@@ -0,0 +1,184 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.summit.camel.opc.CamelOpcException;
+import com.summit.camel.opc.Opcda2AsyncProducer;
+import com.summit.camel.opc.Opcda2Endpoint;
+import com.summit.camel.opc.Opcda2Metrics;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class SimulatedProducerTest extends CamelTestSupport {
+
+    private static final String BATCH_URI = "opcda2:simulator/Simulation Items?transport=#simulator&batchWrite=true&writeChunkSize=2";
+    private static final String ITEM_URI = "opcda2:simulator/Simulation Items?transport=#simulator";
+
+    private SimulatedTransportFactory simulator;
+    private SimulatedTransportFactory slow;
+
+    @Test
+    public void testBatchWrite() throws Exception {
+        assertWritten(write(BATCH_URI, body()));
+
+        Opcda2Metrics metrics = context.getEndpoint(BATCH_URI, Opcda2Endpoint.class).getMetrics();
+        // four items in chunks of two
+        assertEquals(2, metrics.getWriteCalls());
+        assertEquals(4, metrics.getWriteItems());
+        assertEquals(1, metrics.getWriteFailures());
+    }
+
+    @Test
+    public void testItemWrites() throws Exception {
+        assertWritten(write(ITEM_URI, body()));
+
+        Opcda2Metrics metrics = context.getEndpoint(ITEM_URI, Opcda2Endpoint.class).getMetrics();
+        assertEquals(4, metrics.getWriteCalls());
+        assertEquals(1, metrics.getWriteFailures());
+    }
+
+    @Test
+    public void testUnknownTag() throws Exception {
+        Map<String, Object> body = body();
+        body.put("Bucket Brigade.Nothing", value(0));
+        assertTrue(write(BATCH_URI, body).getException() instanceof CamelOpcException);
+        // nothing is written when the exchange is refused
+        assertEquals(0, context.getEndpoint(BATCH_URI, Opcda2Endpoint.class).getMetrics().getWriteCalls());
+    }
+
+    @Test
+    public void testAsyncBackPressure() throws Exception {
+        Opcda2Endpoint endpoint = context.getEndpoint(ASYNC_URI, Opcda2Endpoint.class);
+        final Opcda2AsyncProducer producer = (Opcda2AsyncProducer) endpoint.createProducer();
+        producer.start();
+        try {
+            final CountDownLatch written = new CountDownLatch(3);
+            final AsyncCallback callback = new AsyncCallback() {
+
+                @Override
+                public void done(boolean doneSync) {
+                    written.countDown();
+                }
+            };
+            final Exchange[] exchanges = new Exchange[3];
+            for (int i = 0; i < exchanges.length; i++) {
+                exchanges[i] = endpoint.createExchange();
+                exchanges[i].getIn().setBody(Collections.singletonMap("Bucket Brigade.Int4_0", value(i)));
+            }
+
+            // queued without waiting for the server
+            assertFalse(producer.process(exchanges[0], callback));
+            assertFalse(producer.process(exchanges[1], callback));
+            assertEquals(2, producer.getInFlight());
+
+            final CountDownLatch queued = new CountDownLatch(1);
+            Thread sender = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    producer.process(exchanges[2], callback);
+                    queued.countDown();
+                }
+            });
+            sender.start();
+            // the third one is held back until a write is confirmed
+            assertFalse(queued.await(50, TimeUnit.MILLISECONDS));
+            assertTrue(queued.await(5, TimeUnit.SECONDS));
+
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+            assertEquals(0, producer.getInFlight());
+            for (Exchange exchange : exchanges) {
+                assertNull(exchange.getException());
+                assertEquals(0, exchange.getIn().getHeader(Opcda2Endpoint.WRITE_RESULTS, Map.class).get("Bucket Brigade.Int4_0"));
+            }
+            // one writer thread keeps the writes in order
+            assertEquals(2, slow.getServer().read("Bucket Brigade.Int4_0", System.currentTimeMillis()).getValue().getObjectAsInt());
+        } finally {
+            producer.stop();
+        }
+    }
+    private static final String ASYNC_URI = "opcda2:slow/Simulation Items/Bucket Brigade?transport=#slow"
+            + "&asyncWrite=true&maxInFlight=2&writeThreads=1";
+
+    private void assertWritten(Exchange exchange) throws Exception {
+        assertNull(exchange.getException());
+        Map<?, ?> results = exchange.getIn().getHeader(Opcda2Endpoint.WRITE_RESULTS, Map.class);
+        assertEquals(4, results.size());
+        assertEquals(0, results.get("Bucket Brigade.Int4_0"));
+        assertEquals(0, results.get("Bucket Brigade.Real8_1"));
+        assertEquals(0, results.get("Bucket Brigade.Int4_2"));
+        assertEquals(SimulatedServer.OPC_E_BADRIGHTS, results.get("Random.Int4_0"));
+
+        final long now = System.currentTimeMillis();
+        assertEquals(7, simulator.getServer().read("Bucket Brigade.Int4_0", now).getValue().getObjectAsInt());
+        assertEquals(1.5, simulator.getServer().read("Bucket Brigade.Real8_1", now).getValue().getObjectAsDouble(), 0);
+        assertEquals(-3, simulator.getServer().read("Bucket Brigade.Int4_2", now).getValue().getObjectAsInt());
+    }
+
+    private Exchange write(String uri, final Map<String, Object> body) {
+        return template.send(uri, new Processor() {
+
+            @Override
+            public void process(Exchange exchange) {
+                exchange.getIn().setBody(body);
+            }
+        });
+    }
+
+    private static Map<String, Object> body() {
+        Map<String, Object> retVal = new LinkedHashMap<String, Object>();
+        retVal.put("Bucket Brigade.Int4_0", value(7));
+        retVal.put("Bucket Brigade.Real8_1", value(1.5));
+        retVal.put("Bucket Brigade.Int4_2", value(-3));
+        retVal.put("Random.Int4_0", value(1));
+        return retVal;
+    }
+
+    private static Map<String, Object> value(Object value) {
+        return Collections.singletonMap(Opcda2Endpoint.VALUE, value);
+    }
+
+    @Override
+    protected JndiRegistry createRegistry() throws Exception {
+        simulator = new SimulatedTransportFactory();
+        simulator.setTagCount(4);
+        simulator.setTypes("Int4,Real8");
+
+        slow = new SimulatedTransportFactory();
+        slow.setTagCount(4);
+        slow.setTypes("Int4,Real8");
+        slow.setCallLatency(200000);
+
+        JndiRegistry registry = super.createRegistry();
+        registry.bind("simulator", simulator);
+        registry.bind("slow", slow);
+        return registry;
+    }
+}
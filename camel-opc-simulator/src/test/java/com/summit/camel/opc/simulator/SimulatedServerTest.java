@@ -0,0 +1,173 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.summit.camel.opc.OPCConnectionException;
+import com.summit.camel.opc.Opcda2TransportGroup;
+import com.summit.camel.opc.Opcda2TransportItem;
+import com.summit.camel.opc.Opcda2TransportListener;
+import com.summit.camel.opc.Opcda2TransportSubscription;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.lib.da.ItemState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SimulatedServerTest {
+
+    @Test
+    public void testNamespace() {
+        SimulatedServer server = new SimulatedServer(3, SimulatedType.parse("Int4,Real8"), 1, 0, 0);
+
+        assertEquals(Collections.singletonList(SimulatedServer.ROOT), server.browseBranches(Collections.<String>emptyList()));
+        Map<String, String> leaves = server.browseLeaves(Arrays.asList(SimulatedServer.ROOT, SimulatedServer.RANDOM));
+        assertEquals(3, leaves.size());
+        assertEquals(6, server.getItemIds().size());
+        for (String itemId : server.getItemIds()) {
+            assertTrue(server.exists(itemId));
+        }
+        assertFalse(server.exists("Random.Nothing"));
+    }
+
+    @Test
+    public void testTypes() throws Exception {
+        SimulatedServer server = new SimulatedServer(2, SimulatedType.parse("Int4,String"), 1, 0, 0);
+        List<String> itemIds = server.getItemIds();
+
+        assertEquals(JIVariant.VT_I4, server.read(itemIds.get(0), 0).getValue().getType());
+        assertEquals(JIVariant.VT_BSTR, server.read(itemIds.get(1), 0).getValue().getType());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() {
+        SimulatedType.parse("Int4,Quaternion");
+    }
+
+    @Test
+    public void testChangeRate() throws Exception {
+        SimulatedServer constant = new SimulatedServer(1, SimulatedType.parse("Real8"), 0, 0, 0);
+        String itemId = constant.getItemIds().get(0);
+        assertEquals(constant.read(itemId, 0).getValue().getObject(), constant.read(itemId, 60000).getValue().getObject());
+
+        SimulatedServer changing = new SimulatedServer(1, SimulatedType.parse("Real8"), 1, 0, 0);
+        final long now = System.currentTimeMillis();
+        assertEquals(changing.read(itemId, now).getValue().getObject(), changing.read(itemId, now).getValue().getObject());
+        assertFalse(changing.read(itemId, now).getValue().getObject().equals(changing.read(itemId, now + 60000).getValue().getObject()));
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        SimulatedServer server = new SimulatedServer(1, SimulatedType.parse("Int4"), 1, 0, 0);
+        List<String> itemIds = server.getItemIds();
+
+        assertEquals(SimulatedServer.OPC_E_BADRIGHTS, server.write(itemIds.get(0), new JIVariant(5)));
+        assertEquals(0, server.write(itemIds.get(1), new JIVariant(5)));
+        assertEquals(5, server.read(itemIds.get(1), 0).getValue().getObject());
+    }
+
+    @Test
+    public void testTransport() throws Exception {
+        SimulatedServer server = new SimulatedServer(2, SimulatedType.parse("Int4"), 1, 0, 0);
+        SimulatedTransport transport = new SimulatedTransport(server, 0);
+        transport.connect();
+
+        Opcda2TransportGroup group = transport.addGroup("test");
+        Map<String, Integer> failed = new HashMap<String, Integer>();
+        Map<String, Opcda2TransportItem> items = group.addItems(Arrays.asList(server.getItemIds().get(0), "Random.Nothing"), failed);
+        assertEquals(1, items.size());
+        assertEquals(Integer.valueOf(SimulatedServer.OPC_E_UNKNOWNITEMID), failed.get("Random.Nothing"));
+
+        Map<Opcda2TransportItem, ItemState> read = group.read(false, items.values());
+        assertEquals(1, read.size());
+        assertEquals(SimulatedServer.QUALITY_GOOD, read.values().iterator().next().getQuality());
+    }
+
+    @Test(expected = OPCConnectionException.class)
+    public void testDuplicateGroup() throws Exception {
+        SimulatedTransport transport = new SimulatedTransport(new SimulatedServer(1, SimulatedType.parse("Int4"), 1, 0, 0), 0);
+        transport.connect();
+        transport.addGroup("test");
+        transport.addGroup("test");
+    }
+
+    @Test
+    public void testOutage() throws Exception {
+        SimulatedServer server = new SimulatedServer(1, SimulatedType.parse("Int4"), 1, 0, 0);
+        SimulatedTransport transport = new SimulatedTransport(server, 0);
+        transport.connect();
+        Map<String, Opcda2TransportItem> items = transport.addGroup("test").addItems(server.getItemIds(), new HashMap<String, Integer>());
+        Opcda2TransportItem item = items.values().iterator().next();
+
+        server.setAvailable(false);
+        try {
+            item.read(false);
+            fail("read on a lost session");
+        } catch (JIException ex) {
+            assertEquals(SimulatedTransport.RPC_E_DISCONNECTED, ex.getErrorCode());
+        }
+        try {
+            transport.connect();
+            fail("connect to an unavailable server");
+        } catch (OPCConnectionException ex) {
+            assertEquals(SimulatedTransport.SERVER_UNAVAILABLE_MSG, ex.getMessage());
+        }
+
+        server.setAvailable(true);
+        assertFalse(transport.isConnected());
+        transport.disconnect();
+        transport.connect();
+        assertTrue(transport.isConnected());
+        items = transport.addGroup("test").addItems(server.getItemIds(), new HashMap<String, Integer>());
+        assertEquals(SimulatedServer.QUALITY_GOOD, items.values().iterator().next().read(false).getQuality());
+    }
+
+    @Test
+    public void testSubscribe() throws Exception {
+        SimulatedServer server = new SimulatedServer(3, SimulatedType.parse("Int4"), 1, 0, 0);
+        SimulatedTransport transport = new SimulatedTransport(server, 0);
+        transport.connect();
+
+        final CountDownLatch initial = new CountDownLatch(6);
+        Opcda2TransportGroup group = transport.addGroup("test");
+        group.addItems(server.getItemIds(), new HashMap<String, Integer>());
+        Opcda2TransportSubscription subscription = group.subscribe(10, new Opcda2TransportListener() {
+
+            @Override
+            public void changed(String itemId, ItemState state) {
+                initial.countDown();
+            }
+        });
+        assertTrue(initial.await(5, TimeUnit.SECONDS));
+        subscription.cancel();
+        transport.disconnect();
+    }
+}
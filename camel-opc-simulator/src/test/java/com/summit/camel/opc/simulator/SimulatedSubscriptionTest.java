@@ -0,0 +1,156 @@
+package com.summit.camel.opc.simulator;
+
+/*
+ * #%L
+ * Camel-OPC :: Simulator
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import com.summit.camel.opc.Opcda2Endpoint;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.camel.Exchange;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.mock.MockEndpoint;
+import org.apache.camel.impl.JndiRegistry;
+import org.apache.camel.test.junit4.CamelTestSupport;
+import org.junit.Test;
+
+public class SimulatedSubscriptionTest extends CamelTestSupport {
+
+    private static final int TAGS = 6;
+
+    @Test
+    public void testOnlyChangesFlushed() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:unchanged");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+        Thread.sleep(500);
+
+        // Bucket Brigade items never change by themselves, each is reported
+        // once and no empty exchanges are sent
+        for (Integer emitted : countItems(mock).values()) {
+            assertEquals(1, emitted.intValue());
+        }
+        assertEquals(TAGS, countItems(mock).size());
+    }
+
+    @Test
+    public void testWritesFlushed() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:unchanged");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+        Thread.sleep(200);
+        mock.reset();
+        mock.expectedMessageCount(1);
+
+        Map<String, Object> write = new HashMap<String, Object>();
+        write.put("Bucket Brigade.Int4_0", Collections.singletonMap(Opcda2Endpoint.VALUE, 42));
+        template.sendBody(BUCKET_URI, write);
+        assertMockEndpointsSatisfied();
+
+        Map<?, ?> body = mock.getExchanges().get(0).getIn().getBody(Map.class);
+        assertEquals(1, body.size());
+        assertEquals(42, ((Map<?, ?>) body.get("Bucket Brigade.Int4_0")).get(Opcda2Endpoint.VALUE));
+    }
+
+    @Test
+    public void testDeadband() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:deadband");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+        Thread.sleep(500);
+
+        // Random items change ten times a second, but never by more than
+        // the deadband once the first value is emitted
+        for (Integer emitted : countItems(mock).values()) {
+            assertEquals(1, emitted.intValue());
+        }
+        assertEquals(TAGS, countItems(mock).size());
+    }
+
+    @Test
+    public void testNoDeadbandWithoutDiffOnly() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:changes");
+        mock.expectedMinimumMessageCount(3);
+        assertMockEndpointsSatisfied();
+
+        int total = 0;
+        for (Integer emitted : countItems(mock).values()) {
+            total += emitted;
+        }
+        assertTrue(total > TAGS);
+    }
+
+    @Test
+    public void testHeartbeat() throws Exception {
+        MockEndpoint mock = getMockEndpoint("mock:heartbeat");
+        mock.expectedMinimumMessageCount(1);
+        assertMockEndpointsSatisfied();
+        Thread.sleep(600);
+
+        // unchanged items are emitted again once the heartbeat is due
+        for (Integer emitted : countItems(mock).values()) {
+            assertTrue(emitted > 1);
+        }
+    }
+
+    private static Map<Object, Integer> countItems(MockEndpoint mock) {
+        Map<Object, Integer> retVal = new HashMap<Object, Integer>();
+        for (Exchange exchange : mock.getExchanges()) {
+            Map<?, ?> body = exchange.getIn().getBody(Map.class);
+            assertFalse(body.isEmpty());
+            for (Object itemId : body.keySet()) {
+                final Integer count = retVal.get(itemId);
+                retVal.put(itemId, count == null ? 1 : count + 1);
+            }
+        }
+        return retVal;
+    }
+
+    private static final String BUCKET_URI = "opcda2:simulator/Simulation Items/Bucket Brigade?subscribe=true&updateRate=50"
+            + "&transport=#simulator";
+    private static final String RANDOM_URI = "opcda2:simulator/Simulation Items/Random?subscribe=true&updateRate=50"
+            + "&transport=#simulator";
+
+    @Override
+    protected JndiRegistry createRegistry() throws Exception {
+        SimulatedTransportFactory simulator = new SimulatedTransportFactory();
+        simulator.setTagCount(TAGS);
+        simulator.setTypes("Int4,Real8");
+        simulator.setChangeRate(10);
+
+        JndiRegistry registry = super.createRegistry();
+        registry.bind("simulator", simulator);
+        return registry;
+    }
+
+    @Override
+    protected RouteBuilder createRouteBuilder() throws Exception {
+        return new RouteBuilder() {
+
+            @Override
+            public void configure() {
+                from(BUCKET_URI).to("mock:unchanged");
+                from(RANDOM_URI + "&diffOnly=true&deadband=1e12").to("mock:deadband");
+                from(RANDOM_URI + "&deadband=1e12").to("mock:changes");
+                from(BUCKET_URI + "&diffOnly=true&heartbeat=100").to("mock:heartbeat");
+            }
+        };
+    }
+}
@@ -0,0 +1,536 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICurrency;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Converts the variants of one VT type to Java, without the type dispatch
+ * {@link JIVariantMarshaller#toJavaType(JIVariant)} does on every call.
+ * <p>
+ * Decoders are stateless and shared, {@link #forType(int, boolean)} looks
+ * them up once per item (see {@link Opcda2DecoderCache}). Scalars decode to
+ * the same boxed types as the marshaller. Numeric arrays decode to either
+ * the marshaller's boxed arrays or to primitive arrays (byte[], short[],
+ * int[], long[], float[], double[], boolean[]). Currency is always
+ * converted exactly. Variants without a value (VT_EMPTY, VT_NULL) decode to
+ * null.</p>
+ * <p>
+ * Unsigned types keep the marshaller's contract: VT_UI1, VT_UI2 and
+ * VT_UI4/VT_UINT decode to Byte, Short and Integer (byte[], short[] and
+ * int[] arrays) holding the same bits, so a VT_UI2 of 65535 is -1. The
+ * unboxed reads return these same values, so deadbands and history see
+ * what the exchanges carry.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public abstract class JIVariantDecoder {
+
+	/**
+	 * Values only available boxed, through {@link #decode(JIVariant)}.
+	 */
+	public static final int BOXED = 0;
+	/**
+	 * Integers, read with {@link #decodeLong(JIVariant)}.
+	 */
+	public static final int LONG = 1;
+	/**
+	 * Floats and doubles, read with {@link #decodeDouble(JIVariant)}.
+	 */
+	public static final int DOUBLE = 2;
+	/**
+	 * Booleans, read with {@link #decodeLong(JIVariant)} as 0 or 1.
+	 */
+	public static final int BOOLEAN = 3;
+
+	private final int type;
+	private final int kind;
+
+	protected JIVariantDecoder(int type) {
+		this.type = type;
+		this.kind = kindOf(type);
+	}
+
+	/**
+	 * @return the VT type this decoder handles
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @return how the values can be read without boxing, {@link #LONG},
+	 * {@link #DOUBLE}, {@link #BOOLEAN} or {@link #BOXED}
+	 */
+	public int getKind() {
+		return kind;
+	}
+
+	private static int kindOf(int type) {
+		switch (type) {
+			case JIVariant.VT_I1:
+			case JIVariant.VT_I2:
+			case JIVariant.VT_I4:
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+			case JIVariant.VT_UI1:
+			case JIVariant.VT_UI2:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+				return LONG;
+			case JIVariant.VT_R4:
+			case JIVariant.VT_R8:
+				return DOUBLE;
+			case JIVariant.VT_BOOL:
+				return BOOLEAN;
+			default:
+				return BOXED;
+		}
+	}
+
+	public abstract Object decode(JIVariant variant) throws JIException;
+
+	/**
+	 * Decodes an integer, boolean (0/1) or date (ms) variant without
+	 * boxing. The value is always the one {@link #decode(JIVariant)}
+	 * returns, so unsigned types return the signed value of their width.
+	 */
+	public long decodeLong(JIVariant variant) throws JIException {
+		return ((Number) decode(variant)).longValue();
+	}
+
+	/**
+	 * Decodes a numeric variant without boxing.
+	 */
+	public double decodeDouble(JIVariant variant) throws JIException {
+		return decodeLong(variant);
+	}
+
+	/**
+	 * @param type a VT type, including {@link JIVariant#VT_ARRAY} for arrays
+	 * @param primitiveArrays decode numeric and boolean arrays to primitive
+	 * arrays
+	 * @return the decoder for the type, types the marshaller has no special
+	 * case for are delegated to it
+	 */
+	public static JIVariantDecoder forType(int type, boolean primitiveArrays) {
+		if ((type & JIVariant.VT_ARRAY) == JIVariant.VT_ARRAY) {
+			final int elementType = type ^ JIVariant.VT_ARRAY;
+			if (primitiveArrays && elementType < PRIMITIVE_ARRAYS.length && PRIMITIVE_ARRAYS[elementType] != null) {
+				return PRIMITIVE_ARRAYS[elementType];
+			}
+			return new BoxedArrayDecoder(type);
+		}
+		if (type >= 0 && type < SCALARS.length && SCALARS[type] != null) {
+			return SCALARS[type];
+		}
+		return new MarshallerDecoder(type);
+	}
+
+	private static final JIVariantDecoder[] SCALARS = new JIVariantDecoder[JIVariant.VT_UINT + 1];
+	private static final JIVariantDecoder[] PRIMITIVE_ARRAYS = new JIVariantDecoder[JIVariant.VT_UINT + 1];
+
+	static {
+		SCALARS[JIVariant.VT_EMPTY] = new JIVariantDecoder(JIVariant.VT_EMPTY) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				//No value, e.g. with bad quality.
+				return null;
+			}
+		};
+		SCALARS[JIVariant.VT_NULL] = new AliasDecoder(JIVariant.VT_NULL, SCALARS[JIVariant.VT_EMPTY]);
+		SCALARS[JIVariant.VT_I1] = new JIVariantDecoder(JIVariant.VT_I1) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Byte.valueOf((byte) variant.getObjectAsChar());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (byte) variant.getObjectAsChar();
+			}
+		};
+		SCALARS[JIVariant.VT_I2] = new JIVariantDecoder(JIVariant.VT_I2) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Short.valueOf(variant.getObjectAsShort());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsShort();
+			}
+		};
+		SCALARS[JIVariant.VT_I4] = new JIVariantDecoder(JIVariant.VT_I4) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Integer.valueOf(variant.getObjectAsInt());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsInt();
+			}
+		};
+		SCALARS[JIVariant.VT_I8] = new JIVariantDecoder(JIVariant.VT_I8) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Long.valueOf(variant.getObjectAsLong());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsLong();
+			}
+		};
+		SCALARS[JIVariant.VT_INT] = new JIVariantDecoder(JIVariant.VT_INT) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Long.valueOf(variant.getObjectAsInt());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsInt();
+			}
+		};
+		SCALARS[JIVariant.VT_R4] = new JIVariantDecoder(JIVariant.VT_R4) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Float.valueOf(variant.getObjectAsFloat());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (long) variant.getObjectAsFloat();
+			}
+
+			@Override
+			public double decodeDouble(JIVariant variant) throws JIException {
+				return variant.getObjectAsFloat();
+			}
+		};
+		SCALARS[JIVariant.VT_R8] = new JIVariantDecoder(JIVariant.VT_R8) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Double.valueOf(variant.getObjectAsDouble());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (long) variant.getObjectAsDouble();
+			}
+
+			@Override
+			public double decodeDouble(JIVariant variant) throws JIException {
+				return variant.getObjectAsDouble();
+			}
+		};
+		SCALARS[JIVariant.VT_UI1] = new UnsignedDecoder(JIVariant.VT_UI1) {
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (byte) unsignedValue(variant);
+			}
+
+			@Override
+			Object box(long value) {
+				return Byte.valueOf((byte) value);
+			}
+		};
+		SCALARS[JIVariant.VT_UI2] = new UnsignedDecoder(JIVariant.VT_UI2) {
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (short) unsignedValue(variant);
+			}
+
+			@Override
+			Object box(long value) {
+				return Short.valueOf((short) value);
+			}
+		};
+		SCALARS[JIVariant.VT_UI4] = new UnsignedDecoder(JIVariant.VT_UI4) {
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return (int) unsignedValue(variant);
+			}
+
+			@Override
+			Object box(long value) {
+				return Integer.valueOf((int) value);
+			}
+		};
+		SCALARS[JIVariant.VT_UINT] = new AliasDecoder(JIVariant.VT_UINT, SCALARS[JIVariant.VT_UI4]);
+		SCALARS[JIVariant.VT_BOOL] = new JIVariantDecoder(JIVariant.VT_BOOL) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return Boolean.valueOf(variant.getObjectAsBoolean());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsBoolean() ? 1 : 0;
+			}
+		};
+		SCALARS[JIVariant.VT_DATE] = new JIVariantDecoder(JIVariant.VT_DATE) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return variant.getObjectAsDate();
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return variant.getObjectAsDate().getTime();
+			}
+		};
+		SCALARS[JIVariant.VT_BSTR] = new JIVariantDecoder(JIVariant.VT_BSTR) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return String.valueOf(variant.getObjectAsString2());
+			}
+		};
+		SCALARS[JIVariant.VT_CY] = new JIVariantDecoder(JIVariant.VT_CY) {
+
+			@Override
+			public Object decode(JIVariant variant) throws JIException {
+				return JIVariantMarshaller.currencyToBigDecimal((JICurrency) variant.getObject());
+			}
+
+			@Override
+			public long decodeLong(JIVariant variant) throws JIException {
+				return ((JICurrency) variant.getObject()).getUnits();
+			}
+
+			@Override
+			public double decodeDouble(JIVariant variant) throws JIException {
+				JICurrency currency = (JICurrency) variant.getObject();
+				return currency.getUnits() + currency.getFractionalUnits() / 10000d;
+			}
+		};
+
+		PRIMITIVE_ARRAYS[JIVariant.VT_I1] = new PrimitiveArrayDecoder(JIVariant.VT_I1) {
+
+			@Override
+			Object convert(Object[] elements) {
+				byte[] retVal = new byte[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = elements[i] instanceof Character
+							? (byte) ((Character) elements[i]).charValue()
+							: (byte) longValue(elements[i]);
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_UI1] = new AliasDecoder(JIVariant.VT_ARRAY | JIVariant.VT_UI1, PRIMITIVE_ARRAYS[JIVariant.VT_I1]);
+		PRIMITIVE_ARRAYS[JIVariant.VT_I2] = new PrimitiveArrayDecoder(JIVariant.VT_I2) {
+
+			@Override
+			Object convert(Object[] elements) {
+				short[] retVal = new short[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = (short) longValue(elements[i]);
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_UI2] = new AliasDecoder(JIVariant.VT_ARRAY | JIVariant.VT_UI2, PRIMITIVE_ARRAYS[JIVariant.VT_I2]);
+		PRIMITIVE_ARRAYS[JIVariant.VT_I4] = new PrimitiveArrayDecoder(JIVariant.VT_I4) {
+
+			@Override
+			Object convert(Object[] elements) {
+				int[] retVal = new int[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = (int) longValue(elements[i]);
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_UI4] = new AliasDecoder(JIVariant.VT_ARRAY | JIVariant.VT_UI4, PRIMITIVE_ARRAYS[JIVariant.VT_I4]);
+		PRIMITIVE_ARRAYS[JIVariant.VT_UINT] = new AliasDecoder(JIVariant.VT_ARRAY | JIVariant.VT_UINT, PRIMITIVE_ARRAYS[JIVariant.VT_I4]);
+		PRIMITIVE_ARRAYS[JIVariant.VT_I8] = new PrimitiveArrayDecoder(JIVariant.VT_I8) {
+
+			@Override
+			Object convert(Object[] elements) {
+				long[] retVal = new long[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = longValue(elements[i]);
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_INT] = new AliasDecoder(JIVariant.VT_ARRAY | JIVariant.VT_INT, PRIMITIVE_ARRAYS[JIVariant.VT_I8]);
+		PRIMITIVE_ARRAYS[JIVariant.VT_R4] = new PrimitiveArrayDecoder(JIVariant.VT_R4) {
+
+			@Override
+			Object convert(Object[] elements) {
+				float[] retVal = new float[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = ((Number) elements[i]).floatValue();
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_R8] = new PrimitiveArrayDecoder(JIVariant.VT_R8) {
+
+			@Override
+			Object convert(Object[] elements) {
+				double[] retVal = new double[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = ((Number) elements[i]).doubleValue();
+				}
+				return retVal;
+			}
+		};
+		PRIMITIVE_ARRAYS[JIVariant.VT_BOOL] = new PrimitiveArrayDecoder(JIVariant.VT_BOOL) {
+
+			@Override
+			Object convert(Object[] elements) {
+				boolean[] retVal = new boolean[elements.length];
+				for (int i = 0; i < elements.length; i++) {
+					retVal[i] = ((Boolean) elements[i]).booleanValue();
+				}
+				return retVal;
+			}
+		};
+	}
+
+	/**
+	 * @param element an array element, boxed by JInterop
+	 * @return its value, unsigned elements keep their unsigned value
+	 */
+	static long longValue(Object element) {
+		if (element instanceof IJIUnsigned) {
+			return ((IJIUnsigned) element).getValue().longValue();
+		}
+		return ((Number) element).longValue();
+	}
+
+	/**
+	 * Decodes an unsigned type to the signed type of the same width, as the
+	 * marshaller does. {@link #decodeLong(JIVariant)} returns the same
+	 * (signed) value, without boxing.
+	 */
+	private abstract static class UnsignedDecoder extends JIVariantDecoder {
+
+		UnsignedDecoder(int type) {
+			super(type);
+		}
+
+		@Override
+		public Object decode(JIVariant variant) throws JIException {
+			return box(decodeLong(variant));
+		}
+
+		abstract Object box(long value);
+
+		static long unsignedValue(JIVariant variant) throws JIException {
+			return variant.getObjectAsUnsigned().getValue().longValue();
+		}
+	}
+
+	private abstract static class PrimitiveArrayDecoder extends JIVariantDecoder {
+
+		PrimitiveArrayDecoder(int elementType) {
+			super(JIVariant.VT_ARRAY | elementType);
+		}
+
+		@Override
+		public Object decode(JIVariant variant) throws JIException {
+			JIArray array = variant.getObjectAsArray();
+			return convert((Object[]) array.getArrayInstance());
+		}
+
+		abstract Object convert(Object[] elements);
+	}
+
+	/**
+	 * Decodes a type like another one, under its own type so the decoder
+	 * caches keep it.
+	 */
+	private static final class AliasDecoder extends JIVariantDecoder {
+
+		private final JIVariantDecoder target;
+
+		AliasDecoder(int type, JIVariantDecoder target) {
+			super(type);
+			this.target = target;
+		}
+
+		@Override
+		public Object decode(JIVariant variant) throws JIException {
+			return target.decode(variant);
+		}
+
+		@Override
+		public long decodeLong(JIVariant variant) throws JIException {
+			return target.decodeLong(variant);
+		}
+
+		@Override
+		public double decodeDouble(JIVariant variant) throws JIException {
+			return target.decodeDouble(variant);
+		}
+	}
+
+	/**
+	 * Arrays as {@link JIVariantMarshaller#jIArrayToJavaArray(JIArray, int)}
+	 * returns them.
+	 */
+	private static final class BoxedArrayDecoder extends JIVariantDecoder {
+
+		BoxedArrayDecoder(int type) {
+			super(type);
+		}
+
+		@Override
+		public Object decode(JIVariant variant) throws JIException {
+			return JIVariantMarshaller.jIArrayToJavaArray(variant.getObjectAsArray(), getType());
+		}
+	}
+
+	private static final class MarshallerDecoder extends JIVariantDecoder {
+
+		MarshallerDecoder(int type) {
+			super(type);
+		}
+
+		@Override
+		public Object decode(JIVariant variant) throws JIException {
+			return JIVariantMarshaller.toJavaType(variant);
+		}
+	}
+}
@@ -0,0 +1,406 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Date;
+import org.jinterop.dcom.core.IJIUnsigned;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICurrency;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIUnsignedByte;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIUnsignedInteger;
+import org.jinterop.dcom.core.JIUnsignedShort;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Converts Java values to the JIVariant of one VT type, the write side of
+ * {@link JIVariantDecoder}.
+ * <p>
+ * The producer resolves an encoder per item from the type of the item's
+ * value, and then coerces whatever the exchange holds to that type.
+ * Numbers are narrowed or widened as needed, strings are parsed, and
+ * arrays (boxed or primitive) are written as typed JIArrays.
+ * {@link #DYNAMIC} picks the type from the Java value instead. It is used
+ * for items whose type is not known.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public abstract class JIVariantEncoder {
+
+	private final int type;
+
+	protected JIVariantEncoder(int type) {
+		this.type = type;
+	}
+
+	/**
+	 * @return the VT type this encoder writes, VT_EMPTY for
+	 * {@link #DYNAMIC}
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * @param value the value to write
+	 * @return the variant to write
+	 * @throws CamelOpcException if the value cannot be converted to this
+	 * encoder's type
+	 */
+	public abstract JIVariant encode(Object value) throws CamelOpcException;
+
+	/**
+	 * @param type a VT type, including {@link JIVariant#VT_ARRAY} for arrays
+	 * @return the encoder for the type, {@link #DYNAMIC} if the type is not
+	 * supported
+	 */
+	public static JIVariantEncoder forType(int type) {
+		if ((type & JIVariant.VT_ARRAY) == JIVariant.VT_ARRAY) {
+			final int elementType = type ^ JIVariant.VT_ARRAY;
+			if (elementType < SCALARS.length && SCALARS[elementType] != null) {
+				return new ArrayEncoder(SCALARS[elementType]);
+			}
+			return DYNAMIC;
+		}
+		if (type >= 0 && type < SCALARS.length && SCALARS[type] != null) {
+			return SCALARS[type];
+		}
+		return DYNAMIC;
+	}
+
+	/**
+	 * Elements of a typed array, as JInterop expects them in a JIArray.
+	 *
+	 * @param value the element
+	 * @return the converted element
+	 * @throws CamelOpcException if the element cannot be converted
+	 */
+	abstract Object toElement(Object value) throws CamelOpcException;
+
+	/**
+	 * @return the component type of the arrays {@link #toElement(Object)}
+	 * fills
+	 */
+	abstract Class<?> getElementClass();
+
+	private static final ScalarEncoder[] SCALARS = new ScalarEncoder[JIVariant.VT_UINT + 1];
+
+	static {
+		SCALARS[JIVariant.VT_I1] = new ScalarEncoder(JIVariant.VT_I1, Character.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Character.valueOf((char) toNumber(value, getType()).byteValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant((char) toNumber(value, getType()).byteValue());
+			}
+		};
+		SCALARS[JIVariant.VT_I2] = new ScalarEncoder(JIVariant.VT_I2, Short.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Short.valueOf(toNumber(value, getType()).shortValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(toNumber(value, getType()).shortValue());
+			}
+		};
+		SCALARS[JIVariant.VT_I4] = new ScalarEncoder(JIVariant.VT_I4, Integer.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Integer.valueOf(toNumber(value, getType()).intValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(toNumber(value, getType()).intValue());
+			}
+		};
+		SCALARS[JIVariant.VT_INT] = SCALARS[JIVariant.VT_I4];
+		SCALARS[JIVariant.VT_I8] = new ScalarEncoder(JIVariant.VT_I8, Long.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Long.valueOf(toNumber(value, getType()).longValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(toNumber(value, getType()).longValue());
+			}
+		};
+		SCALARS[JIVariant.VT_R4] = new ScalarEncoder(JIVariant.VT_R4, Float.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Float.valueOf(toNumber(value, getType()).floatValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(toNumber(value, getType()).floatValue());
+			}
+		};
+		SCALARS[JIVariant.VT_R8] = new ScalarEncoder(JIVariant.VT_R8, Double.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return Double.valueOf(toNumber(value, getType()).doubleValue());
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(toNumber(value, getType()).doubleValue());
+			}
+		};
+		SCALARS[JIVariant.VT_UI1] = new ScalarEncoder(JIVariant.VT_UI1, JIUnsignedByte.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return JIUnsignedFactory.getUnsigned(Short.valueOf((short) (toNumber(value, getType()).intValue() & 0xff)),
+						JIFlags.FLAG_REPRESENTATION_UNSIGNED_BYTE);
+			}
+		};
+		SCALARS[JIVariant.VT_UI2] = new ScalarEncoder(JIVariant.VT_UI2, JIUnsignedShort.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return JIUnsignedFactory.getUnsigned(Integer.valueOf(toNumber(value, getType()).intValue() & 0xffff),
+						JIFlags.FLAG_REPRESENTATION_UNSIGNED_SHORT);
+			}
+		};
+		SCALARS[JIVariant.VT_UI4] = new ScalarEncoder(JIVariant.VT_UI4, JIUnsignedInteger.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return JIUnsignedFactory.getUnsigned(Long.valueOf(toNumber(value, getType()).longValue() & 0xffffffffL),
+						JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT);
+			}
+		};
+		SCALARS[JIVariant.VT_UINT] = SCALARS[JIVariant.VT_UI4];
+		SCALARS[JIVariant.VT_BOOL] = new ScalarEncoder(JIVariant.VT_BOOL, Boolean.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				if (value instanceof Boolean) {
+					return value;
+				} else if (value instanceof String) {
+					return Boolean.valueOf((String) value);
+				}
+				return Boolean.valueOf(toNumber(value, getType()).doubleValue() != 0);
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(((Boolean) toElement(value)).booleanValue());
+			}
+		};
+		SCALARS[JIVariant.VT_DATE] = new ScalarEncoder(JIVariant.VT_DATE, Date.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				if (value instanceof Date) {
+					return value;
+				} else if (value instanceof Number) {
+					return new Date(((Number) value).longValue());
+				}
+				throw new CamelOpcException(String.format(NOT_CONVERTIBLE_MSG, value, Integer.toHexString(getType())));
+			}
+		};
+		SCALARS[JIVariant.VT_BSTR] = new ScalarEncoder(JIVariant.VT_BSTR, JIString.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return new JIString(String.valueOf(value));
+			}
+
+			@Override
+			public JIVariant encode(Object value) throws CamelOpcException {
+				return new JIVariant(String.valueOf(value));
+			}
+		};
+		SCALARS[JIVariant.VT_CY] = new ScalarEncoder(JIVariant.VT_CY, JICurrency.class) {
+
+			@Override
+			Object toElement(Object value) throws CamelOpcException {
+				return toCurrency(value);
+			}
+		};
+	}
+
+	/**
+	 * Types the producer writes without knowing the item's type, as it
+	 * always did: the variant type follows the Java type. Arrays are typed
+	 * after their component type.
+	 */
+	public static final JIVariantEncoder DYNAMIC = new JIVariantEncoder(JIVariant.VT_EMPTY) {
+
+		@Override
+		public JIVariant encode(Object value) throws CamelOpcException {
+			JIVariant writeValue;
+			if (value instanceof Boolean) {
+				writeValue = new JIVariant((Boolean) value);
+			} else if (value instanceof Character) {
+				writeValue = new JIVariant((Character) value);
+			} else if (value instanceof Date) {
+				writeValue = new JIVariant((Date) value);
+			} else if (value instanceof Double) {
+				writeValue = new JIVariant((Double) value);
+			} else if (value instanceof Float) {
+				writeValue = new JIVariant((Float) value);
+			} else if (value instanceof Integer) {
+				writeValue = new JIVariant((Integer) value);
+			} else if (value instanceof String) {
+				writeValue = new JIVariant((String) value);
+			} else if (value instanceof Byte) {
+				writeValue = new JIVariant((Byte) value);
+			} else if (value instanceof Short) {
+				writeValue = new JIVariant((Short) value);
+			} else if (value instanceof BigDecimal) {
+				writeValue = new JIVariant(toCurrency(value));
+			} else if (value instanceof Long) {
+				writeValue = new JIVariant((Long) value);
+			} else if (value != null && value.getClass().isArray()) {
+				JIVariantEncoder encoder = forType(TagSnapshot.typeOf(value));
+				if (encoder == DYNAMIC) {
+					throw new CamelOpcException(String.format(NOT_SUPPORTED_MSG, value.getClass()));
+				}
+				writeValue = encoder.encode(value);
+			} else {
+				throw new CamelOpcException(String.format(NOT_SUPPORTED_MSG, value == null ? null : value.getClass()));
+			}
+			return writeValue;
+		}
+
+		@Override
+		Object toElement(Object value) throws CamelOpcException {
+			throw new CamelOpcException(String.format(NOT_SUPPORTED_MSG, value == null ? null : value.getClass()));
+		}
+
+		@Override
+		Class<?> getElementClass() {
+			return Object.class;
+		}
+	};
+	public static final String NOT_SUPPORTED_MSG = "Data Type not supported: %s";
+	public static final String NOT_CONVERTIBLE_MSG = "Unable to convert %s to VT type 0x%s";
+
+	static Number toNumber(Object value, int type) throws CamelOpcException {
+		if (value instanceof Number) {
+			return (Number) value;
+		} else if (value instanceof Boolean) {
+			return Integer.valueOf(((Boolean) value).booleanValue() ? 1 : 0);
+		} else if (value instanceof Character) {
+			return Integer.valueOf(((Character) value).charValue());
+		} else if (value instanceof String) {
+			try {
+				return new BigDecimal(((String) value).trim());
+			} catch (NumberFormatException ex) {
+				throw new CamelOpcException(String.format(NOT_CONVERTIBLE_MSG, value, Integer.toHexString(type)));
+			}
+		}
+		throw new CamelOpcException(String.format(NOT_CONVERTIBLE_MSG, value, Integer.toHexString(type)));
+	}
+
+	/**
+	 * Converts exactly, rounding to the 4 decimals of the CY type.
+	 */
+	static JICurrency toCurrency(Object value) throws CamelOpcException {
+		Number number = toNumber(value, JIVariant.VT_CY);
+		BigDecimal decimal = number instanceof BigDecimal ? (BigDecimal) number : new BigDecimal(number.toString());
+		decimal = decimal.setScale(4, RoundingMode.HALF_EVEN);
+		BigDecimal units = decimal.setScale(0, RoundingMode.DOWN);
+		return new JICurrency(units.intValue(), decimal.subtract(units).movePointRight(4).intValue());
+	}
+
+	/**
+	 * Scalar types, {@link #encode(Object)} defaults to wrapping
+	 * {@link #toElement(Object)}.
+	 */
+	private abstract static class ScalarEncoder extends JIVariantEncoder {
+
+		private final Class<?> elementClass;
+
+		ScalarEncoder(int type, Class<?> elementClass) {
+			super(type);
+			this.elementClass = elementClass;
+		}
+
+		@Override
+		public JIVariant encode(Object value) throws CamelOpcException {
+			Object element = toElement(value);
+			if (element instanceof Date) {
+				return new JIVariant((Date) element);
+			} else if (element instanceof JICurrency) {
+				return new JIVariant((JICurrency) element);
+			}
+			return new JIVariant((IJIUnsigned) element);
+		}
+
+		@Override
+		Class<?> getElementClass() {
+			return elementClass;
+		}
+	}
+
+	private static final class ArrayEncoder extends JIVariantEncoder {
+
+		private final JIVariantEncoder element;
+
+		ArrayEncoder(JIVariantEncoder element) {
+			super(JIVariant.VT_ARRAY | element.getType());
+			this.element = element;
+		}
+
+		@Override
+		public JIVariant encode(Object value) throws CamelOpcException {
+			if (value == null || !value.getClass().isArray()) {
+				throw new CamelOpcException(String.format(NOT_CONVERTIBLE_MSG, value, Integer.toHexString(getType())));
+			}
+			final int length = Array.getLength(value);
+			final Object[] elements = (Object[]) Array.newInstance(element.getElementClass(), length);
+			for (int i = 0; i < length; i++) {
+				elements[i] = element.toElement(Array.get(value, i));
+			}
+			return new JIVariant(new JIArray(elements, true));
+		}
+
+		@Override
+		Object toElement(Object value) throws CamelOpcException {
+			throw new CamelOpcException(String.format(NOT_SUPPORTED_MSG, value == null ? null : value.getClass()));
+		}
+
+		@Override
+		Class<?> getElementClass() {
+			return Object.class;
+		}
+	}
+}
@@ -89,8 +89,12 @@ public class JIVariantMarshaller {
 		}
 	}
 
-	private static BigDecimal currencyToBigDecimal(JICurrency currency) {
-		BigDecimal cyRetVal = new BigDecimal(currency.getUnits() + ((double) currency.getFractionalUnits() / 10000));
+	/**
+	 * Converts a currency exactly, CY being a fixed point number with 4
+	 * decimals.
+	 */
+	static BigDecimal currencyToBigDecimal(JICurrency currency) {
+		BigDecimal cyRetVal = BigDecimal.valueOf(currency.getUnits()).add(BigDecimal.valueOf(currency.getFractionalUnits(), 4));
 		return cyRetVal;
 	}
 
@@ -0,0 +1,115 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultAsyncProducer;
+import org.apache.camel.util.ServiceHelper;
+
+/**
+ * The opcda2 asynchronous producer.
+ * <p>
+ * Writes are handed to a small pool of writer threads, so the routing
+ * thread is released as soon as the exchange is queued. The exchange is
+ * completed once the server has confirmed the write. At most maxInFlight
+ * exchanges are queued or being written; further exchanges block the
+ * calling thread until a slot frees up, which pushes back on the route
+ * instead of piling up writes.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2AsyncProducer extends DefaultAsyncProducer {
+
+	private final Opcda2Endpoint endpoint;
+	private final Opcda2Producer writer;
+	private final Semaphore inFlight;
+	private ExecutorService executor;
+
+	public Opcda2AsyncProducer(Opcda2Endpoint endpoint) {
+		super(endpoint);
+		this.endpoint = endpoint;
+		this.writer = new Opcda2Producer(endpoint);
+		this.inFlight = new Semaphore(Math.max(1, endpoint.getMaxInFlight()), true);
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		ServiceHelper.startService(writer);
+		executor = endpoint.getCamelContext().getExecutorServiceManager()
+				.newFixedThreadPool(this, "Opcda2AsyncProducer", Math.max(1, endpoint.getWriteThreads()));
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		if (executor != null) {
+			endpoint.getCamelContext().getExecutorServiceManager().shutdownGraceful(executor);
+			executor = null;
+		}
+		ServiceHelper.stopService(writer);
+		super.doStop();
+	}
+
+	@Override
+	public boolean process(final Exchange exchange, final AsyncCallback callback) {
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			exchange.setException(ex);
+			callback.done(true);
+			return true;
+		}
+
+		try {
+			executor.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						writer.process(exchange);
+					} catch (Exception ex) {
+						exchange.setException(ex);
+					} finally {
+						inFlight.release();
+						callback.done(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			inFlight.release();
+			exchange.setException(ex);
+			callback.done(true);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of exchanges currently queued or being written.
+	 */
+	public int getInFlight() {
+		return Math.max(1, endpoint.getMaxInFlight()) - inFlight.availablePermits();
+	}
+}
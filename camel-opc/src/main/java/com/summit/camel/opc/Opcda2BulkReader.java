@@ -0,0 +1,182 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.lib.da.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads a set of items through the group's SyncIO interface, one call per
+ * chunk instead of one call per item.
+ * <p>
+ * If a chunk read fails as a whole, the items of that chunk are read one by
+ * one so a single bad item does not cost the rest of the cycle. Items that
+ * still fail are left out of the result and reported through
+ * {@link #getLastErrors()}. A failure that means the session is lost (see
+ * {@link Opcda2Connection#isSessionLost(java.lang.Throwable)}) ends the
+ * read instead, every further call would only wait for the same
+ * failure.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2BulkReader {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2BulkReader.class);
+
+	private final Opcda2TransportGroup group;
+	private final int chunkSize;
+	private final Map<String, Exception> lastErrors = new HashMap<String, Exception>();
+	private long roundTrips = 0;
+	private int lastRoundTrips = 0;
+	private Opcda2Metrics metrics;
+
+	/**
+	 * @param group the group all read items belong to
+	 * @param chunkSize maximum items per SyncIO call, &lt;= 0 reads the whole
+	 * set in one call.
+	 */
+	public Opcda2BulkReader(Opcda2TransportGroup group, int chunkSize) {
+		this.group = group;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Reads all of the given items.
+	 *
+	 * @param items the items to read, they must belong to this reader's group
+	 * @param device true for a device read, false to read from the server's
+	 * cache (the group must be active for the cache to be maintained).
+	 * @return the state of every item that could be read.
+	 * @throws JIException if the session is lost.
+	 */
+	public Map<Opcda2TransportItem, ItemState> read(Collection<Opcda2TransportItem> items, boolean device) throws JIException {
+		Map<Opcda2TransportItem, ItemState> retVal = new HashMap<Opcda2TransportItem, ItemState>(items.size() * 2);
+		lastErrors.clear();
+		lastRoundTrips = 0;
+
+		if (items.isEmpty()) {
+			return retVal;
+		}
+
+		final int size = chunkSize > 0 ? chunkSize : items.size();
+		List<Opcda2TransportItem> chunk = new ArrayList<Opcda2TransportItem>(Math.min(size, items.size()));
+		for (Opcda2TransportItem item : items) {
+			chunk.add(item);
+			if (chunk.size() == size) {
+				readChunk(chunk, device, retVal);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			readChunk(chunk, device, retVal);
+		}
+
+		roundTrips += lastRoundTrips;
+		return retVal;
+	}
+
+	private void readChunk(List<Opcda2TransportItem> chunk, boolean device, Map<Opcda2TransportItem, ItemState> results) throws JIException {
+		Opcda2TransportItem[] chunkArray = chunk.toArray(new Opcda2TransportItem[chunk.size()]);
+		try {
+			lastRoundTrips++;
+			final long start = System.nanoTime();
+			Map<Opcda2TransportItem, ItemState> chunkResult = group.read(device, Arrays.asList(chunkArray));
+			if (metrics != null) {
+				metrics.recordRead(System.nanoTime() - start);
+			}
+			for (Opcda2TransportItem item : chunkArray) {
+				ItemState is = chunkResult.get(item);
+				if (is == null) {
+					lastErrors.put(item.getId(), new CamelOpcException(String.format(NO_RESULT_MSG, item.getId())));
+				} else {
+					results.put(item, is);
+				}
+			}
+		} catch (JIException ex) {
+			if (Opcda2Connection.isSessionLost(ex)) {
+				roundTrips += lastRoundTrips;
+				throw ex;
+			}
+			logger.warn(String.format(CHUNK_FAILED_MSG, chunkArray.length, ex.getMessage()));
+			for (Opcda2TransportItem item : chunkArray) {
+				try {
+					lastRoundTrips++;
+					final long start = System.nanoTime();
+					results.put(item, item.read(device));
+					if (metrics != null) {
+						metrics.recordRead(System.nanoTime() - start);
+					}
+				} catch (JIException itemEx) {
+					if (Opcda2Connection.isSessionLost(itemEx)) {
+						roundTrips += lastRoundTrips;
+						throw itemEx;
+					}
+					lastErrors.put(item.getId(), itemEx);
+				}
+			}
+		}
+	}
+	public static final String NO_RESULT_MSG = "Server returned no result for item %s";
+	public static final String CHUNK_FAILED_MSG = "Bulk read of %d items failed, falling back to item reads: %s";
+
+	/**
+	 * @return item id to cause, for the items that could not be read during
+	 * the last call to {@link #read(java.util.Collection, boolean)}.
+	 */
+	public Map<String, Exception> getLastErrors() {
+		return lastErrors;
+	}
+
+	/**
+	 * @return the number of server calls made by the last read.
+	 */
+	public int getLastRoundTrips() {
+		return lastRoundTrips;
+	}
+
+	/**
+	 * @return the number of server calls made since this reader was created.
+	 */
+	public long getRoundTrips() {
+		return roundTrips;
+	}
+
+	/**
+	 * @param metrics records the latency of each server call, may be null
+	 */
+	public void setMetrics(Opcda2Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the chunkSize
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+}
@@ -0,0 +1,336 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a new item state is significant enough to be emitted.
+ * <p>
+ * A state is significant if its value changed by more than the item's
+ * deadband, or (when enabled) its quality or timestamp changed, or the item
+ * has not been emitted for longer than the heartbeat. Comparisons are made
+ * against the last <em>emitted</em> state, so slow drifts are still
+ * reported once they add up to more than the deadband.</p>
+ * <p>
+ * Deadbands are either absolute, or a percentage of the last emitted value.
+ * They can be set per item with rules of the form
+ * <code>pattern=value</code> (absolute) or <code>pattern=value%</code>
+ * (percent, <code>pct</code> is accepted instead of <code>%</code> to keep
+ * URIs readable), separated by <code>;</code>. Patterns are globs on the
+ * item id, the first matching rule wins.</p>
+ * <p>
+ * Not thread safe, each consumer owns its filter.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ChangeFilter {
+
+	private final Opcda2ValueStore values;
+	private final double defaultDeadband;
+	private final boolean defaultPercent;
+	private final List<Rule> rules;
+	private final boolean qualitySignificant;
+	private final boolean timestampSignificant;
+	private final long heartbeat;
+
+	private boolean[] bound = new boolean[0];
+	private double[] deadbands = new double[0];
+	private boolean[] percent = new boolean[0];
+	private short[] qualities = new short[0];
+	private long[] timestamps = new long[0];
+	private long[] emitted = new long[0];
+
+	/**
+	 * @param deadband absolute deadband of items without a matching rule
+	 * @param percentDeadband percent deadband of items without a matching
+	 * rule, takes precedence over deadband if &gt; 0
+	 * @param deadbandRules per item rules, may be null
+	 * @param qualitySignificant emit quality changes of unchanged values
+	 * @param timestampSignificant emit timestamp changes of unchanged values
+	 * @param heartbeat re-emit items that were not emitted for this many ms,
+	 * 0 disables the heartbeat
+	 */
+	public Opcda2ChangeFilter(double deadband, double percentDeadband, String deadbandRules,
+			boolean qualitySignificant, boolean timestampSignificant, long heartbeat) {
+		this.values = new Opcda2ValueStore(0);
+		this.defaultPercent = percentDeadband > 0;
+		this.defaultDeadband = defaultPercent ? percentDeadband : deadband;
+		this.rules = parseRules(deadbandRules);
+		this.qualitySignificant = qualitySignificant;
+		this.timestampSignificant = timestampSignificant;
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * Builds the filter configured on an endpoint.
+	 *
+	 * @param endpoint the endpoint
+	 * @return the filter
+	 */
+	public static Opcda2ChangeFilter forEndpoint(Opcda2Endpoint endpoint) {
+		return new Opcda2ChangeFilter(endpoint.getDeadband(), endpoint.getPercentDeadband(), endpoint.getDeadbands(),
+				endpoint.isQualityChangeSignificant(), endpoint.isTimestampChangeSignificant(), endpoint.getHeartbeat());
+	}
+
+	/**
+	 * Checks a new state, and records it as emitted if it is significant.
+	 *
+	 * @param index the item's index
+	 * @param itemId the item's id, used to find its deadband the first time
+	 * the index is seen
+	 * @param value the converted value
+	 * @param quality the OPC quality
+	 * @param timestamp the server timestamp (ms)
+	 * @param now current time (ms), for the heartbeat
+	 * @return true if the state should be emitted.
+	 */
+	public boolean accept(int index, String itemId, Object value, short quality, long timestamp, long now) {
+		bind(index, itemId);
+
+		final boolean withinDeadband = value instanceof Number && isWithinDeadband(index, ((Number) value).doubleValue());
+		if (!withinDeadband && values.update(index, value)) {
+			return emitted(index, quality, timestamp, now);
+		}
+		if (!isSignificant(index, quality, timestamp, now)) {
+			return false;
+		}
+		if (withinDeadband) {
+			//Emitted for another reason, still record the value sent.
+			values.update(index, value);
+		}
+		return emitted(index, quality, timestamp, now);
+	}
+
+	/**
+	 * {@link #accept(int, java.lang.String, java.lang.Object, short, long, long)}
+	 * for an integer value, without boxing it.
+	 */
+	public boolean acceptLong(int index, String itemId, long value, short quality, long timestamp, long now) {
+		bind(index, itemId);
+
+		final boolean withinDeadband = isWithinDeadband(index, value);
+		if (!withinDeadband && values.updateLong(index, value)) {
+			return emitted(index, quality, timestamp, now);
+		}
+		if (!isSignificant(index, quality, timestamp, now)) {
+			return false;
+		}
+		if (withinDeadband) {
+			values.updateLong(index, value);
+		}
+		return emitted(index, quality, timestamp, now);
+	}
+
+	/**
+	 * {@link #accept(int, java.lang.String, java.lang.Object, short, long, long)}
+	 * for a floating point value, without boxing it.
+	 */
+	public boolean acceptDouble(int index, String itemId, double value, short quality, long timestamp, long now) {
+		bind(index, itemId);
+
+		final boolean withinDeadband = isWithinDeadband(index, value);
+		if (!withinDeadband && values.updateDouble(index, value)) {
+			return emitted(index, quality, timestamp, now);
+		}
+		if (!isSignificant(index, quality, timestamp, now)) {
+			return false;
+		}
+		if (withinDeadband) {
+			values.updateDouble(index, value);
+		}
+		return emitted(index, quality, timestamp, now);
+	}
+
+	/**
+	 * {@link #accept(int, java.lang.String, java.lang.Object, short, long, long)}
+	 * for a boolean value, without boxing it.
+	 */
+	public boolean acceptBoolean(int index, String itemId, boolean value, short quality, long timestamp, long now) {
+		bind(index, itemId);
+
+		if (values.updateBoolean(index, value) || isSignificant(index, quality, timestamp, now)) {
+			return emitted(index, quality, timestamp, now);
+		}
+		return false;
+	}
+
+	private boolean isSignificant(int index, short quality, long timestamp, long now) {
+		return (qualitySignificant && qualities[index] != quality)
+				|| (timestampSignificant && timestamps[index] != timestamp)
+				|| isHeartbeatDue(index, now);
+	}
+
+	private boolean emitted(int index, short quality, long timestamp, long now) {
+		qualities[index] = quality;
+		timestamps[index] = timestamp;
+		emitted[index] = now;
+		return true;
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param now current time (ms)
+	 * @return true if the heartbeat is enabled and the item was emitted
+	 * before, but not within the last heartbeat.
+	 */
+	public boolean isHeartbeatDue(int index, long now) {
+		return heartbeat > 0 && index < emitted.length && emitted[index] != 0 && now - emitted[index] >= heartbeat;
+	}
+
+	/**
+	 * Records an emission that did not go through
+	 * {@link #accept(int, java.lang.String, java.lang.Object, short, long, long)},
+	 * e.g. a heartbeat re-emit.
+	 *
+	 * @param index the item's index
+	 * @param now current time (ms)
+	 */
+	public void markEmitted(int index, long now) {
+		if (index < emitted.length) {
+			emitted[index] = now;
+		}
+	}
+
+	/**
+	 * Forgets everything, the next state of each item is significant.
+	 */
+	public void clear() {
+		values.clear();
+		Arrays.fill(bound, false);
+		Arrays.fill(emitted, 0);
+	}
+
+	private boolean isWithinDeadband(int index, double value) {
+		final double deadband = deadbands[index];
+		if (deadband <= 0 || !values.isNumeric(index)) {
+			return false;
+		}
+		final double last = values.doubleValue(index);
+		final double threshold = percent[index] ? Math.abs(last) * deadband / 100 : deadband;
+		return Math.abs(value - last) <= threshold;
+	}
+
+	private void bind(int index, String itemId) {
+		ensureCapacity(index + 1);
+		if (bound[index]) {
+			return;
+		}
+		deadbands[index] = defaultDeadband;
+		percent[index] = defaultPercent;
+		for (Rule rule : rules) {
+			if (rule.pattern.matcher(itemId).matches()) {
+				deadbands[index] = rule.deadband;
+				percent[index] = rule.percent;
+				break;
+			}
+		}
+		values.reset(index);
+		emitted[index] = 0;
+		bound[index] = true;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > bound.length) {
+			int newCapacity = Math.max(capacity, bound.length * 2);
+			bound = Arrays.copyOf(bound, newCapacity);
+			deadbands = Arrays.copyOf(deadbands, newCapacity);
+			percent = Arrays.copyOf(percent, newCapacity);
+			qualities = Arrays.copyOf(qualities, newCapacity);
+			timestamps = Arrays.copyOf(timestamps, newCapacity);
+			emitted = Arrays.copyOf(emitted, newCapacity);
+		}
+	}
+
+	static List<Rule> parseRules(String deadbandRules) {
+		List<Rule> retVal = new ArrayList<Rule>();
+		if (deadbandRules == null || deadbandRules.trim().isEmpty()) {
+			return retVal;
+		}
+		for (String spec : deadbandRules.split(";")) {
+			if (spec.trim().isEmpty()) {
+				continue;
+			}
+			int split = spec.lastIndexOf('=');
+			if (split <= 0) {
+				throw new IllegalArgumentException(String.format(INVALID_RULE_MSG, spec));
+			}
+			String value = spec.substring(split + 1).trim();
+			boolean isPercent = false;
+			if (value.endsWith("%")) {
+				value = value.substring(0, value.length() - 1);
+				isPercent = true;
+			} else if (value.endsWith("pct")) {
+				value = value.substring(0, value.length() - 3);
+				isPercent = true;
+			}
+			try {
+				retVal.add(new Rule(globToPattern(spec.substring(0, split).trim()), Double.parseDouble(value.trim()), isPercent));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format(INVALID_RULE_MSG, spec), ex);
+			}
+		}
+		return retVal;
+	}
+	public static final String INVALID_RULE_MSG = "Invalid deadband rule '%s', expected pattern=value or pattern=value%%";
+
+	/**
+	 * Compiles a glob (<code>*</code> any characters, <code>?</code> one
+	 * character) to a regular expression.
+	 *
+	 * @param glob the glob
+	 * @return the compiled pattern
+	 */
+	static Pattern globToPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : glob.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			} else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+
+	static final class Rule {
+
+		final Pattern pattern;
+		final double deadband;
+		final boolean percent;
+
+		Rule(Pattern pattern, double deadband, boolean percent) {
+			this.pattern = pattern;
+			this.deadband = deadband;
+			this.percent = percent;
+		}
+	}
+}
@@ -19,9 +19,13 @@ package com.summit.camel.opc;
  * limitations under the License.
  * #L%
  */
+import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import org.apache.camel.Endpoint;
 import org.apache.camel.impl.DefaultComponent;
+import org.apache.camel.util.EndpointHelper;
+import org.apache.camel.util.IntrospectionSupport;
 
 /**
  * Represents the component that manages {@link Opcda2Endpoint}.
@@ -30,10 +34,84 @@ import org.apache.camel.impl.DefaultComponent;
  */
 public class Opcda2Component extends DefaultComponent {
 
+	/**
+	 * Where transports are looked up by name, each file holding
+	 * <code>class=</code> the {@link Opcda2TransportFactory} implementation.
+	 */
+	public static final String TRANSPORT_RESOURCE_PATH = "META-INF/services/com/summit/camel/opc/transport/";
+	public static final String TRANSPORT = "transport";
+
+	private final Opcda2ConnectionRegistry connectionRegistry = new Opcda2ConnectionRegistry();
+	private final Map<String, Opcda2TransportFactory> transports = new HashMap<String, Opcda2TransportFactory>();
+
 	@Override
 	protected Endpoint createEndpoint(String uri, String remaining, Map<String, Object> parameters) throws Exception {
 		Endpoint endpoint = new Opcda2Endpoint(uri, this);
+		Map<String, Object> transportOptions = IntrospectionSupport.extractProperties(parameters, TRANSPORT + ".");
+		Object transport = parameters.get(TRANSPORT);
+		if (transport instanceof String && !EndpointHelper.isReferenceParameter((String) transport)) {
+			parameters.put(TRANSPORT, resolveTransport((String) transport, transportOptions));
+		} else if (!transportOptions.isEmpty()) {
+			throw new IllegalArgumentException(String.format(TRANSPORT_OPTIONS_MSG, transportOptions.keySet()));
+		}
 		setProperties(endpoint, parameters);
 		return endpoint;
 	}
+	public static final String TRANSPORT_OPTIONS_MSG = "Transport options %s need a transport given by name";
+
+	/**
+	 * Looks up a transport by name. Endpoints naming the same transport with
+	 * the same options share its factory, and so its sessions.
+	 *
+	 * @param name the transport's name
+	 * @param options the transport's <code>transport.</code> options,
+	 * without the prefix
+	 * @return the transport's factory
+	 * @throws Exception if no transport has that name, or an option is not
+	 * a property of it.
+	 */
+	synchronized Opcda2TransportFactory resolveTransport(String name, Map<String, Object> options) throws Exception {
+		final String key = name + new TreeMap<String, Object>(options);
+		Opcda2TransportFactory retVal = transports.get(key);
+		if (retVal != null) {
+			return retVal;
+		}
+		Object factory = getCamelContext().getFactoryFinder(TRANSPORT_RESOURCE_PATH).newInstance(name);
+		if (!(factory instanceof Opcda2TransportFactory)) {
+			throw new IllegalArgumentException(String.format(NOT_A_TRANSPORT_MSG, name, factory.getClass().getName()));
+		}
+		retVal = (Opcda2TransportFactory) factory;
+		Map<String, Object> unused = new HashMap<String, Object>(options);
+		setProperties(retVal, unused);
+		if (!unused.isEmpty()) {
+			throw new IllegalArgumentException(String.format(UNKNOWN_TRANSPORT_OPTIONS_MSG, name, unused.keySet()));
+		}
+		transports.put(key, retVal);
+		return retVal;
+	}
+	public static final String NOT_A_TRANSPORT_MSG = "Transport %s is a %s, not an Opcda2TransportFactory";
+	public static final String UNKNOWN_TRANSPORT_OPTIONS_MSG = "Transport %s has no options %s";
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		connectionRegistry.setCamelContext(getCamelContext());
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		connectionRegistry.closeAll();
+		synchronized (this) {
+			transports.clear();
+		}
+		super.doStop();
+	}
+
+	/**
+	 * @return the registry of the OPC server sessions shared by this
+	 * component's endpoints.
+	 */
+	public Opcda2ConnectionRegistry getConnectionRegistry() {
+		return connectionRegistry;
+	}
 }
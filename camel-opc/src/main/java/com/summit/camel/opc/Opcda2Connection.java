@@ -0,0 +1,315 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.lib.common.ConnectionInformation;
+import org.openscada.opc.lib.common.NotConnectedException;
+
+/**
+ * A (possibly shared) session with one OPC server, handed out by
+ * {@link Opcda2ConnectionRegistry}.
+ * <p>
+ * When a call fails because the session is gone (see
+ * {@link #isSessionLost(java.lang.Throwable)}), the registry reconnects
+ * the same transport with exponential backoff. Its users are told through
+ * {@link Listener}, and restore their groups and items once it is back.
+ * Each successful reconnect starts a new {@link #getGeneration()
+ * generation}: handles from earlier generations are dead.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2Connection {
+
+	private final String key;
+	private final Opcda2Transport transport;
+	private final Opcda2NamespaceCache namespace;
+	private final Opcda2ValueCache values = new Opcda2ValueCache();
+	private int references = 0;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private volatile boolean connected = true;
+	private volatile long generation = 0;
+	private long lostAt = 0;
+	private long downtime = 0;
+	private int attempt = 0;
+	private long reconnectDelay = 1000;
+	private long maxReconnectDelay = 60000;
+
+	Opcda2Connection(String key, Opcda2Transport transport) {
+		this.key = key;
+		this.transport = transport;
+		this.namespace = new Opcda2NamespaceCache(key);
+	}
+
+	/**
+	 * Builds the registry key of a connection, sessions are shared between
+	 * endpoints with the same host, domain, user, clsId and progId.
+	 *
+	 * @param connInfo the connection settings of an endpoint
+	 * @return the registry key
+	 */
+	static String keyOf(ConnectionInformation connInfo) {
+		return String.format("%s|%s|%s|%s|%s",
+				connInfo.getHost(),
+				connInfo.getDomain(),
+				connInfo.getUser(),
+				connInfo.getClsid(),
+				connInfo.getProgId());
+	}
+
+	/**
+	 * @param cause a failure of a call on this session
+	 * @return true if the failure means the session is gone: an RPC error
+	 * of the DCOM layer, a broken socket, or a call on a disconnected
+	 * server.
+	 */
+	public static boolean isSessionLost(Throwable cause) {
+		for (Throwable t = cause; t != null; t = t.getCause()) {
+			if (t instanceof JIException) {
+				switch (((JIException) t).getErrorCode()) {
+					case RPC_E_DISCONNECTED:
+					case RPC_E_SERVER_DIED:
+					case RPC_E_SERVER_DIED_DNE:
+					case RPC_S_SERVER_UNAVAILABLE:
+					case RPC_S_CALL_FAILED:
+					case RPC_S_CALL_FAILED_DNE:
+						return true;
+					default:
+						break;
+				}
+			} else if (t instanceof IOException || t instanceof NotConnectedException) {
+				return true;
+			}
+			if (t.getCause() == t) {
+				break;
+			}
+		}
+		return false;
+	}
+	public static final int RPC_E_DISCONNECTED = 0x80010108;
+	public static final int RPC_E_SERVER_DIED = 0x80010007;
+	public static final int RPC_E_SERVER_DIED_DNE = 0x80010012;
+	public static final int RPC_S_SERVER_UNAVAILABLE = 0x800706BA;
+	public static final int RPC_S_CALL_FAILED = 0x800706BE;
+	public static final int RPC_S_CALL_FAILED_DNE = 0x800706BF;
+
+	/**
+	 * @param initialDelay delay before the first attempt (ms)
+	 * @param maxDelay upper bound of the delay (ms)
+	 * @param attempt the attempt, from 1
+	 * @return the delay before the attempt, doubled after each failure
+	 */
+	static long backoff(long initialDelay, long maxDelay, int attempt) {
+		final int doublings = Math.min(Math.max(attempt - 1, 0), 62);
+		final long delay = initialDelay << doublings;
+		return delay < initialDelay || (delay >> doublings) != initialDelay ? maxDelay : Math.min(delay, maxDelay);
+	}
+
+	/**
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the connected transport
+	 */
+	public Opcda2Transport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the browsed namespace of the server, shared by all endpoints of
+	 * this session.
+	 */
+	public Opcda2NamespaceCache getNamespace() {
+		return namespace;
+	}
+
+	/**
+	 * @return the latest item states read on this session, shared by all
+	 * endpoints of this session, cleared when the session is lost.
+	 */
+	public Opcda2ValueCache getValues() {
+		return values;
+	}
+
+	/**
+	 * @return the number of endpoints currently using this session
+	 */
+	public synchronized int getReferences() {
+		return references;
+	}
+
+	synchronized int retain() {
+		return ++references;
+	}
+
+	synchronized int release() {
+		return --references;
+	}
+
+	/**
+	 * @return false from the session being lost until it is restored
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return the number of times the session was restored
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the users to tell about state changes
+	 */
+	List<Listener> getListeners() {
+		return listeners;
+	}
+
+	void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @return true if the session was connected, false if it was already
+	 * known to be lost.
+	 */
+	synchronized boolean markLost() {
+		if (!connected) {
+			return false;
+		}
+		connected = false;
+		lostAt = System.currentTimeMillis();
+		attempt = 0;
+		values.clear();
+		return true;
+	}
+
+	/**
+	 * @return the next reconnect attempt, from 1
+	 */
+	synchronized int nextAttempt() {
+		return ++attempt;
+	}
+
+	synchronized void markRestored() {
+		generation++;
+		connected = true;
+		downtime = System.currentTimeMillis() - lostAt;
+	}
+
+	/**
+	 * Marks the session lost again when a reconnect attempt failed, without
+	 * restarting the count of attempts.
+	 */
+	synchronized void markFailed() {
+		connected = false;
+	}
+
+	/**
+	 * @return time since the session was lost (ms), or how long it was down
+	 * the last time once it is restored.
+	 */
+	synchronized long getDowntime() {
+		return connected ? downtime : System.currentTimeMillis() - lostAt;
+	}
+
+	/**
+	 * @return the delay before the first reconnect attempt (ms)
+	 */
+	public long getReconnectDelay() {
+		return reconnectDelay;
+	}
+
+	/**
+	 * @param reconnectDelay the delay before the first reconnect attempt (ms)
+	 */
+	void setReconnectDelay(long reconnectDelay) {
+		this.reconnectDelay = reconnectDelay;
+	}
+
+	/**
+	 * @return the upper bound of the delay between reconnect attempts (ms)
+	 */
+	public long getMaxReconnectDelay() {
+		return maxReconnectDelay;
+	}
+
+	/**
+	 * @param maxReconnectDelay the upper bound of the delay between
+	 * reconnect attempts (ms)
+	 */
+	void setMaxReconnectDelay(long maxReconnectDelay) {
+		this.maxReconnectDelay = maxReconnectDelay;
+	}
+
+	/**
+	 * A user of the session, usually an endpoint.
+	 */
+	interface Listener {
+
+		/**
+		 * Called once when the session is found lost, before reconnecting.
+		 *
+		 * @param connection the session
+		 */
+		void connectionLost(Opcda2Connection connection);
+
+		/**
+		 * Called on the reconnect thread once the transport is connected
+		 * again, to add the user's groups and items back.
+		 *
+		 * @param connection the session
+		 * @throws OPCConnectionException if they could not be restored, this
+		 * user is then retried alone.
+		 */
+		void connectionRestored(Opcda2Connection connection) throws OPCConnectionException;
+	}
+
+	static final class Opcda2ConnectionThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		Opcda2ConnectionThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "_" + count.getAndIncrement());
+			return t;
+		}
+	}
+}
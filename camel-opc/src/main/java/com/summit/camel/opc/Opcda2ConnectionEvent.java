@@ -0,0 +1,123 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.EventObject;
+
+/**
+ * A change of state of a server session, sent to Camel's event notifiers
+ * (see <code>ManagementStrategy#addEventNotifier</code>) and logged.
+ * <p>
+ * The source is the session's {@link Opcda2Connection}.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ConnectionEvent extends EventObject {
+
+	private static final long serialVersionUID = 1L;
+
+	public enum Type {
+
+		/**
+		 * A call failed because the session is gone.
+		 */
+		LOST,
+		/**
+		 * A reconnect attempt is about to be made.
+		 */
+		RECONNECTING,
+		/**
+		 * A reconnect attempt failed, the next one is scheduled.
+		 */
+		RECONNECT_FAILED,
+		/**
+		 * The session is connected again, the endpoints' items are restored
+		 * next.
+		 */
+		RECONNECTED,
+		/**
+		 * An endpoint's items could not be restored on the reconnected
+		 * session, that endpoint alone is retried.
+		 */
+		RESTORE_FAILED
+	}
+
+	private final Type type;
+	private final int attempt;
+	private final long downtime;
+	private final Exception cause;
+
+	/**
+	 * @param connection the session
+	 * @param type what happened
+	 * @param attempt the reconnect or restore attempt, from 1, 0 for LOST
+	 * @param downtime time since the session was lost (ms)
+	 * @param cause why the session was lost or the attempt failed, may be
+	 * null
+	 */
+	public Opcda2ConnectionEvent(Opcda2Connection connection, Type type, int attempt, long downtime, Exception cause) {
+		super(connection);
+		this.type = type;
+		this.attempt = attempt;
+		this.downtime = downtime;
+		this.cause = cause;
+	}
+
+	/**
+	 * @return the session
+	 */
+	public Opcda2Connection getConnection() {
+		return (Opcda2Connection) getSource();
+	}
+
+	/**
+	 * @return the type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * @return the reconnect or restore attempt, from 1, 0 for LOST
+	 */
+	public int getAttempt() {
+		return attempt;
+	}
+
+	/**
+	 * @return time since the session was lost (ms)
+	 */
+	public long getDowntime() {
+		return downtime;
+	}
+
+	/**
+	 * @return why the session was lost or the attempt failed, may be null
+	 */
+	public Exception getCause() {
+		return cause;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(TO_STRING_MSG, getConnection().getKey(), type, attempt, downtime);
+	}
+	public static final String TO_STRING_MSG = "OPC session %s %s (attempt %d, down %d ms)";
+}
@@ -0,0 +1,347 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.CamelContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out reference counted OPC server sessions, so endpoints talking to
+ * the same server share one DCOM session and one thread pool.
+ * <p>
+ * Each endpoint still adds its own group to the shared server. The session
+ * is disconnected when the last endpoint releases it.</p>
+ * <p>
+ * Sessions reported lost through
+ * {@link #sessionLost(com.summit.camel.opc.Opcda2Connection, java.lang.Exception)}
+ * are reconnected on a single background thread, with the delay doubling
+ * after each failed attempt. Their users then restore their own groups and
+ * items, a user that fails is retried alone. Every state change is sent as
+ * an {@link Opcda2ConnectionEvent}.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ConnectionRegistry {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2ConnectionRegistry.class);
+
+	private final Map<String, Opcda2Connection> connections = new HashMap<String, Opcda2Connection>();
+	private final Map<String, CountDownLatch> connecting = new HashMap<String, CountDownLatch>();
+	private CamelContext camelContext;
+	private ScheduledExecutorService reconnectExecutor;
+
+	/**
+	 * Returns the endpoint's session, connecting it if this is the first
+	 * user.
+	 *
+	 * @param factory the endpoint's transport
+	 * @param endpoint the endpoint
+	 * @return a connected session, to be handed back through
+	 * {@link #release(com.summit.camel.opc.Opcda2Connection)}
+	 * @throws OPCConnectionException if the server could not be connected.
+	 */
+	public Opcda2Connection acquire(Opcda2TransportFactory factory, Opcda2Endpoint endpoint) throws OPCConnectionException {
+		return acquire(factory, endpoint, 0);
+	}
+
+	/**
+	 * Returns one of several sessions for the same server, so an endpoint
+	 * can spread its calls over more than one session.
+	 * <p>
+	 * A new session is connected outside the registry's lock, only users of
+	 * the same session wait for it.</p>
+	 *
+	 * @param factory the endpoint's transport
+	 * @param endpoint the endpoint
+	 * @param session the session number, 0 is the session
+	 * {@link #acquire(com.summit.camel.opc.Opcda2TransportFactory, com.summit.camel.opc.Opcda2Endpoint)}
+	 * returns.
+	 * @return a connected session, to be handed back through
+	 * {@link #release(com.summit.camel.opc.Opcda2Connection)}
+	 * @throws OPCConnectionException if the server could not be connected.
+	 */
+	public Opcda2Connection acquire(Opcda2TransportFactory factory, Opcda2Endpoint endpoint, int session) throws OPCConnectionException {
+		final String key = session > 0 ? factory.getKey(endpoint) + "#" + session : factory.getKey(endpoint);
+		final CountDownLatch connected = new CountDownLatch(1);
+		while (true) {
+			final CountDownLatch pending;
+			synchronized (this) {
+				final Opcda2Connection connection = connections.get(key);
+				if (connection != null) {
+					connection.retain();
+					return connection;
+				}
+				pending = connecting.get(key);
+				if (pending == null) {
+					connecting.put(key, connected);
+					break;
+				}
+			}
+			// another user is connecting this session, use it once that is
+			// done or try on our own if it failed
+			try {
+				pending.await();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new OPCConnectionException(String.format(ACQUIRE_INTERRUPTED_MSG, key), ex);
+			}
+		}
+
+		// connect outside the lock, an unreachable server must not hold up
+		// the users of other sessions
+		Opcda2Connection connection = null;
+		try {
+			final Opcda2Transport transport = factory.createTransport(endpoint);
+			transport.connect();
+
+			connection = new Opcda2Connection(key, transport);
+			connection.setReconnectDelay(endpoint.getReconnectDelay());
+			connection.setMaxReconnectDelay(endpoint.getMaxReconnectDelay());
+			logger.info(String.format(CONNECTED_MSG, endpoint.getHost(), key));
+		} finally {
+			synchronized (this) {
+				connecting.remove(key);
+				if (connection != null) {
+					connections.put(key, connection);
+					connection.retain();
+				}
+			}
+			connected.countDown();
+		}
+		return connection;
+	}
+	public static final String ACQUIRE_INTERRUPTED_MSG = "Interrupted waiting for OPC server session %s";
+	public static final String CONNECTED_MSG = "Connected to OPC server %s (%s)";
+
+	/**
+	 * Hands a session back, disconnecting it if this was the last user.
+	 *
+	 * @param connection a session returned by
+	 * {@link #acquire(com.summit.camel.opc.Opcda2TransportFactory, com.summit.camel.opc.Opcda2Endpoint)}
+	 */
+	public synchronized void release(Opcda2Connection connection) {
+		if (connection.release() <= 0) {
+			connections.remove(connection.getKey());
+			close(connection);
+		}
+	}
+
+	/**
+	 * Disconnects every session, regardless of how many endpoints still use
+	 * them.
+	 */
+	public synchronized void closeAll() {
+		for (Opcda2Connection connection : new ArrayList<Opcda2Connection>(connections.values())) {
+			close(connection);
+		}
+		connections.clear();
+		if (reconnectExecutor != null) {
+			if (camelContext != null) {
+				camelContext.getExecutorServiceManager().shutdownNow(reconnectExecutor);
+			} else {
+				reconnectExecutor.shutdownNow();
+			}
+			reconnectExecutor = null;
+		}
+	}
+
+	/**
+	 * Starts reconnecting a session a call found lost, unless that is already
+	 * under way. Its users are told first, so they stop using it until it is
+	 * restored.
+	 *
+	 * @param connection the session
+	 * @param cause the failure of the call
+	 */
+	public void sessionLost(Opcda2Connection connection, Exception cause) {
+		if (!connection.markLost()) {
+			return;
+		}
+		logger.warn(String.format(SESSION_LOST_MSG, connection.getKey(), cause != null ? cause.getMessage() : null));
+		fire(new Opcda2ConnectionEvent(connection, Opcda2ConnectionEvent.Type.LOST, 0, 0, cause));
+		for (Opcda2Connection.Listener listener : connection.getListeners()) {
+			listener.connectionLost(connection);
+		}
+		schedule(connection, connection.nextAttempt());
+	}
+	public static final String SESSION_LOST_MSG = "Lost OPC server session %s: %s";
+
+	private void schedule(final Opcda2Connection connection, final int attempt) {
+		submit(connection, attempt, new Runnable() {
+			@Override
+			public void run() {
+				reconnect(connection, attempt);
+			}
+		});
+	}
+
+	private void scheduleRestore(final Opcda2Connection connection, final List<Opcda2Connection.Listener> listeners, final long generation, final int attempt) {
+		submit(connection, attempt, new Runnable() {
+			@Override
+			public void run() {
+				restore(connection, listeners, generation, attempt);
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the reconnect thread after the backoff of an attempt,
+	 * unless the session was released meanwhile.
+	 */
+	private void submit(Opcda2Connection connection, int attempt, Runnable task) {
+		final long delay = Opcda2Connection.backoff(connection.getReconnectDelay(), connection.getMaxReconnectDelay(), attempt);
+		final ScheduledExecutorService executor;
+		synchronized (this) {
+			if (connections.get(connection.getKey()) != connection) {
+				return;
+			}
+			executor = getReconnectExecutor();
+		}
+		executor.schedule(task, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * One reconnect attempt: a fresh session for the same transport, then
+	 * every user's groups and items. A failed connect schedules the next
+	 * attempt, users that fail to restore are retried on their own.
+	 */
+	void reconnect(Opcda2Connection connection, int attempt) {
+		synchronized (this) {
+			if (connections.get(connection.getKey()) != connection) {
+				return;
+			}
+		}
+		fire(new Opcda2ConnectionEvent(connection, Opcda2ConnectionEvent.Type.RECONNECTING, attempt, connection.getDowntime(), null));
+		try {
+			synchronized (connection.getTransport()) {
+				connection.getTransport().disconnect();
+				connection.getTransport().connect();
+			}
+		} catch (Exception ex) {
+			connection.markFailed();
+			logger.warn(String.format(RECONNECT_FAILED_MSG, connection.getKey(), attempt, ex.getMessage()));
+			fire(new Opcda2ConnectionEvent(connection, Opcda2ConnectionEvent.Type.RECONNECT_FAILED, attempt, connection.getDowntime(), ex));
+			schedule(connection, connection.nextAttempt());
+			return;
+		}
+		connection.markRestored();
+		final long downtime = connection.getDowntime();
+		logger.info(String.format(RECONNECTED_MSG, connection.getKey(), attempt, downtime));
+		fire(new Opcda2ConnectionEvent(connection, Opcda2ConnectionEvent.Type.RECONNECTED, attempt, downtime, null));
+		restore(connection, new ArrayList<Opcda2Connection.Listener>(connection.getListeners()), connection.getGeneration(), 1);
+	}
+	public static final String RECONNECT_FAILED_MSG = "Reconnect %2$d of OPC server session %1$s failed: %3$s";
+	public static final String RECONNECTED_MSG = "Reconnected OPC server session %s after %d attempts, %d ms down";
+
+	/**
+	 * Tells users their session is back, so they add their groups and items
+	 * again. One user failing does not undo the others: it alone is retried,
+	 * with backoff, as long as the session stays up. A failure that finds the
+	 * session lost again reconnects it, and every user is restored after
+	 * that.
+	 *
+	 * @param listeners the users still to restore
+	 * @param generation the session's generation they are restored on
+	 * @param attempt the restore attempt, from 1
+	 */
+	void restore(Opcda2Connection connection, List<Opcda2Connection.Listener> listeners, long generation, int attempt) {
+		synchronized (this) {
+			if (connections.get(connection.getKey()) != connection) {
+				return;
+			}
+		}
+		final List<Opcda2Connection.Listener> failed = new ArrayList<Opcda2Connection.Listener>();
+		for (Opcda2Connection.Listener listener : listeners) {
+			if (!connection.isConnected() || connection.getGeneration() != generation) {
+				return;
+			}
+			if (!connection.getListeners().contains(listener)) {
+				continue;
+			}
+			try {
+				listener.connectionRestored(connection);
+			} catch (Exception ex) {
+				logger.warn(String.format(RESTORE_FAILED_MSG, connection.getKey(), attempt, ex.getMessage()));
+				fire(new Opcda2ConnectionEvent(connection, Opcda2ConnectionEvent.Type.RESTORE_FAILED, attempt, connection.getDowntime(), ex));
+				if (Opcda2Connection.isSessionLost(ex)) {
+					sessionLost(connection, ex);
+					return;
+				}
+				failed.add(listener);
+			}
+		}
+		if (!failed.isEmpty()) {
+			scheduleRestore(connection, failed, generation, attempt + 1);
+		}
+	}
+	public static final String RESTORE_FAILED_MSG = "Restore %2$d of a user of OPC server session %1$s failed, retrying it alone: %3$s";
+
+	private void fire(Opcda2ConnectionEvent event) {
+		logger.debug(event.toString());
+		if (camelContext == null || camelContext.getManagementStrategy() == null) {
+			return;
+		}
+		try {
+			camelContext.getManagementStrategy().notify(event);
+		} catch (Exception ex) {
+			logger.debug(String.format(NOTIFY_FAILED_MSG, event, ex.getMessage()));
+		}
+	}
+	public static final String NOTIFY_FAILED_MSG = "Unable to notify %s: %s";
+
+	private ScheduledExecutorService getReconnectExecutor() {
+		if (reconnectExecutor == null) {
+			reconnectExecutor = camelContext != null
+					? camelContext.getExecutorServiceManager().newSingleThreadScheduledExecutor(this, "OPC Reconnect")
+					: Executors.newSingleThreadScheduledExecutor(new Opcda2Connection.Opcda2ConnectionThreadFactory("OPC_Reconnect"));
+		}
+		return reconnectExecutor;
+	}
+
+	/**
+	 * @param camelContext the context to send {@link Opcda2ConnectionEvent}s
+	 * to and to take the reconnect thread from
+	 */
+	public synchronized void setCamelContext(CamelContext camelContext) {
+		this.camelContext = camelContext;
+	}
+
+	/**
+	 * @return the number of open sessions
+	 */
+	public synchronized int size() {
+		return connections.size();
+	}
+
+	private void close(Opcda2Connection connection) {
+		logger.info(String.format(DISCONNECTED_MSG, connection.getKey()));
+		connection.getTransport().disconnect();
+	}
+	public static final String DISCONNECTED_MSG = "Disconnecting OPC server session %s";
+}
@@ -19,110 +19,662 @@ package com.summit.camel.opc;
  * limitations under the License.
  * #L%
  */
+import java.io.File;
+import java.io.IOException;
 import java.net.UnknownHostException;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.impl.ScheduledPollConsumer;
 import org.jinterop.dcom.common.JIException;
 import org.openscada.opc.lib.common.AlreadyConnectedException;
-import org.openscada.opc.lib.da.Item;
 import org.openscada.opc.lib.da.ItemState;
-
-import static com.summit.camel.opc.Opcda2Endpoint.VALUE;
-import static com.summit.camel.opc.Opcda2Endpoint.TIMESTAMP;
-import static com.summit.camel.opc.Opcda2Endpoint.QUALITY;
-import static com.summit.camel.opc.Opcda2Endpoint.ERROR_CODE;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * The opcda2 consumer.
+ * <p>
+ * Polls the endpoint's polled groups, each at its own rate: the consumer
+ * runs at the fastest group's rate and reads the groups that are due. If
+ * some of the endpoint's groups are subscribed to, they are handled by an
+ * {@link Opcda2SubscriptionConsumer} this consumer starts and stops.</p>
+ * <p>
+ * When the endpoint's groups are sharded, the shards of a group are read in
+ * parallel and merged before the group is emitted. Every exchange of a
+ * cycle carries the same {@link Opcda2Endpoint#CYCLE_ID} header.</p>
+ * <p>
+ * Cycles are timed by an {@link Opcda2PollScheduler}, at a fixed delay or
+ * rate, and carry how late they started in the
+ * {@link Opcda2Endpoint#CYCLE_LAG} header.</p>
+ * <p>
+ * With the endpoint's <code>streaming</code> option, changed items are put
+ * in an {@link Opcda2TagBuffer} instead, and a separate thread emits them
+ * in exchanges of up to <code>batchSize</code> items. Streamed exchanges
+ * hold items of any group and carry no group or cycle headers.</p>
+ * <p>
+ * With the endpoint's <code>journal</code> option, exchanges the route
+ * fails are kept in an {@link Opcda2Journal}, and so are later ones while
+ * it still fails. They are replayed in order, with the
+ * {@link Opcda2Endpoint#REPLAYED} header, before the next exchange once
+ * the route accepts them again.</p>
+ * <p>
+ * Every item read, changed or not, is put in the session's
+ * {@link Opcda2ValueCache} for producer reads, and added to the endpoint's
+ * {@link Opcda2History} when it keeps one.</p>
+ * <p>
+ * Nothing is polled while the endpoint's session is lost. Once its items
+ * are restored, the readers are rebuilt and the first cycle emits every
+ * item again.</p>
  *
  * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
  */
 public class Opcda2Consumer extends ScheduledPollConsumer {
 
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2Consumer.class);
+
 	private final Opcda2Endpoint endpoint;
-	Map<String, Map<String, Object>> previousData = new HashMap<String, Map<String, Object>>();
+	private final List<Opcda2ItemGroup> groups;
+	private final Opcda2BulkReader[] bulkReaders;
+	private final Opcda2ShardedReader[] shardedReaders;
+	private ExecutorService shardExecutor;
+	private volatile long cycleId;
+	private final long[] lastPolls;
+	private final Opcda2ChangeFilter changeFilter;
+	private final Opcda2DecoderCache decoders;
+	private final Opcda2History history;
+	private final Opcda2SubscriptionConsumer subscriptions;
+	private final Opcda2Metrics metrics;
+	private final Opcda2PollScheduler scheduler;
+	private volatile Opcda2TagBuffer<Map<String, Object>> buffer;
+	private ExecutorService streamExecutor;
+	private Opcda2Journal journal;
+	private long streamDropped;
+	private long streamCoalesced;
+	private int generation;
+	private int itemCount;
+	private int cycleRead;
+	private int cycleChanged;
+	private int cycleBad;
+	private long cycleDecodeNanos;
 
 	public Opcda2Consumer(Opcda2Endpoint endpoint, Processor processor) throws IllegalArgumentException, UnknownHostException, JIException, AlreadyConnectedException {
 		super(endpoint, processor);
 
-		super.setDelay(endpoint.getDelay());
 		this.endpoint = endpoint;
+		this.groups = endpoint.getItemGroups();
+		this.itemCount = endpoint.getOpcItems().size();
+		this.changeFilter = Opcda2ChangeFilter.forEndpoint(endpoint);
+		this.decoders = new Opcda2DecoderCache(endpoint.isPrimitiveArrays());
+		this.history = endpoint.getHistory();
+		this.bulkReaders = new Opcda2BulkReader[groups.size()];
+		this.shardedReaders = new Opcda2ShardedReader[groups.size()];
+		this.lastPolls = new long[groups.size()];
+		this.metrics = endpoint.getMetrics();
+		this.generation = endpoint.getGeneration();
+
+		int delay = 0;
+		for (Opcda2ItemGroup group : groups) {
+			if (isPolled(group)) {
+				delay = delay > 0 ? Math.min(delay, group.getRate(endpoint)) : group.getRate(endpoint);
+			}
+		}
+		createReaders();
+		super.setDelay(delay > 0 ? delay : endpoint.getDelay());
+		super.setUseFixedDelay(!endpoint.isFixedRate());
+		this.scheduler = Opcda2PollScheduler.forEndpoint(endpoint, getDelay());
+		this.scheduler.setMetrics(metrics);
+		this.subscriptions = endpoint.hasItemGroups(true) ? new Opcda2SubscriptionConsumer(endpoint, processor) : null;
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		int maxShards = 1;
+		for (Opcda2ItemGroup group : groups) {
+			if (isPolled(group)) {
+				maxShards = Math.max(maxShards, group.getShards().size());
+			}
+		}
+		if (maxShards > 1) {
+			shardExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+					.newFixedThreadPool(this, "Opcda2Shard", maxShards - 1);
+			createReaders();
+		}
+		if (endpoint.getJournal() != null) {
+			journal = new Opcda2Journal(new File(endpoint.getJournal()), endpoint.getJournalSize());
+		}
+		if (endpoint.isStreaming()) {
+			buffer = new Opcda2TagBuffer<Map<String, Object>>(endpoint.getBufferSize(), endpoint.getOverflowPolicy());
+			streamDropped = 0;
+			streamCoalesced = 0;
+			streamExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+					.newSingleThreadExecutor(this, "Opcda2Stream");
+			streamExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					stream();
+				}
+			});
+		}
+		super.doStart();
+		if (subscriptions != null) {
+			subscriptions.start();
+		}
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		if (subscriptions != null) {
+			subscriptions.stop();
+		}
+		super.doStop();
+		if (streamExecutor != null) {
+			buffer.close();
+			endpoint.getCamelContext().getExecutorServiceManager().shutdown(streamExecutor);
+			streamExecutor = null;
+		}
+		if (shardExecutor != null) {
+			endpoint.getCamelContext().getExecutorServiceManager().shutdown(shardExecutor);
+			shardExecutor = null;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+	}
+
+	/**
+	 * Builds the bulk readers of the polled groups and, once the shard
+	 * executor is started, the sharded readers.
+	 */
+	private void createReaders() {
+		for (int i = 0; i < groups.size(); i++) {
+			final Opcda2ItemGroup group = groups.get(i);
+			bulkReaders[i] = null;
+			shardedReaders[i] = null;
+			if (!isPolled(group)) {
+				continue;
+			}
+			if (group.getShards().size() > 1) {
+				if (shardExecutor != null) {
+					shardedReaders[i] = new Opcda2ShardedReader(shardsOf(group), shardExecutor);
+				}
+			} else if (endpoint.isBulkRead()) {
+				bulkReaders[i] = new Opcda2BulkReader(group.getGroup(), endpoint.getBulkReadChunkSize());
+				bulkReaders[i].setMetrics(metrics);
+			}
+		}
+	}
+
+	/**
+	 * @param group a sharded group
+	 * @return the group's items, split by the shard they were added to
+	 */
+	private List<Opcda2ShardedReader.Shard> shardsOf(Opcda2ItemGroup group) {
+		Map<Opcda2TransportGroup, Opcda2ShardedReader.Shard> byGroup = new IdentityHashMap<Opcda2TransportGroup, Opcda2ShardedReader.Shard>();
+		for (Opcda2TransportGroup shard : group.getShards()) {
+			Opcda2ShardedReader.Shard retShard = new Opcda2ShardedReader.Shard(shard, endpoint.isBulkRead(), endpoint.getBulkReadChunkSize());
+			retShard.setMetrics(metrics);
+			byGroup.put(shard, retShard);
+		}
+		for (Opcda2TransportItem item : group.getItems().values()) {
+			byGroup.get(item.getGroup()).add(item);
+		}
+		List<Opcda2ShardedReader.Shard> retVal = new ArrayList<Opcda2ShardedReader.Shard>();
+		for (Opcda2TransportGroup shard : group.getShards()) {
+			retVal.add(byGroup.get(shard));
+		}
+		return retVal;
+	}
+
+	private boolean isPolled(Opcda2ItemGroup group) {
+		return !group.isSubscribe(endpoint) && !group.getItems().isEmpty();
 	}
 
 	@Override
 	protected int poll() throws Exception {
-		Exchange exchange = endpoint.createExchange();
+		if (!endpoint.isConnected()) {
+			return 0;
+		}
+		if (endpoint.getGeneration() != generation) {
+			//The items were restored on a new session.
+			generation = endpoint.getGeneration();
+			createReaders();
+			changeFilter.clear();
+		}
+		final long now = System.currentTimeMillis();
+		if (!scheduler.isDue(now)) {
+			return 0;
+		}
+		try {
+			return pollGroups(now);
+		} catch (JIException ex) {
+			if (Opcda2Connection.isSessionLost(ex) && endpoint.sessionLost(ex)) {
+				return 0;
+			}
+			throw ex;
+		} finally {
+			scheduler.completed(now, System.currentTimeMillis());
+		}
+	}
 
-		Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
-		final Map<String, Item> opcItems = endpoint.getOpcItems();
+	private int pollGroups(long now) throws Exception {
+		if (endpoint.getOpcItems().size() != itemCount) {
+			//The item set changed, indexes no longer match.
+			changeFilter.clear();
+			decoders.clear();
+			itemCount = endpoint.getOpcItems().size();
+		}
+
+		final long start = System.nanoTime();
+		final long tolerance = getDelay() / 2;
+		if (journal != null && buffer == null && !journal.isEmpty()) {
+			replay();
+		}
+		cycleId++;
+		cycleRead = 0;
+		cycleChanged = 0;
+		cycleBad = 0;
+		cycleDecodeNanos = 0;
+		Body merged = null;
+		int polled = 0;
+		int offset = 0;
+		for (int i = 0; i < groups.size(); i++) {
+			final Opcda2ItemGroup group = groups.get(i);
+			final int groupOffset = offset;
+			offset += group.getItems().size();
+			if (!isPolled(group) || now - lastPolls[i] < group.getRate(endpoint) - tolerance) {
+				continue;
+			}
+			lastPolls[i] = now;
+
+			if (endpoint.isMergeGroups()) {
+				if (merged == null) {
+					merged = new Body(itemCount);
+				}
+				read(i, groupOffset, now, merged);
+			} else {
+				Body body = new Body(group.getItems().size());
+				read(i, groupOffset, now, body);
+				polled += emit(body, group.getName());
+			}
+		}
+		if (merged != null) {
+			polled += emit(merged, null);
+		}
+		if (cycleRead > 0) {
+			metrics.recordCycle(System.nanoTime() - start, cycleRead, cycleChanged);
+			metrics.recordDecode(cycleDecodeNanos);
+			metrics.recordBadQuality(cycleBad);
+		}
+		if (buffer != null) {
+			metrics.recordStreamOverflow(buffer.getDropped() - streamDropped, buffer.getCoalesced() - streamCoalesced);
+			streamDropped = buffer.getDropped();
+			streamCoalesced = buffer.getCoalesced();
+		}
+		return polled;
+	}
+
+	/**
+	 * Emits the buffered items until the consumer stops, on the stream
+	 * thread.
+	 */
+	private void stream() {
+		final int batchSize = Math.max(endpoint.getBatchSize(), 1);
+		while (true) {
+			Map<String, Map<String, Object>> batch = new TreeMap<String, Map<String, Object>>();
+			try {
+				if (buffer.take(batch, batchSize, endpoint.getBatchTime()) == 0) {
+					//Closed and drained.
+					return;
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			metrics.recordExchange(batch.size());
+			Exchange exchange = endpoint.createExchange();
+			exchange.getIn().setBody(endpoint.isCompactBody() ? Opcda2Converters.toTagSnapshot(batch) : batch);
+			try {
+				send(exchange, null);
+			} catch (Exception ex) {
+				exchange.setException(ex);
+				getExceptionHandler().handleException("Error processing exchange", exchange, exchange.getException());
+			}
+		}
+	}
 
-		for (String key : opcItems.keySet()) {
-			Item item = opcItems.get(key);
+	/**
+	 * Reads one group's items into the body.
+	 *
+	 * @param groupIndex the group's index
+	 * @param offset index of the group's first item among all items
+	 * @param now current time (ms)
+	 * @param body the body to add the (changed) items to
+	 */
+	private void read(int groupIndex, int offset, long now, Body body) throws JIException, InterruptedException {
+		final Map<String, Opcda2TransportItem> opcItems = groups.get(groupIndex).getItems();
+		final Map<Opcda2TransportItem, ItemState> bulkStates = shardedReaders[groupIndex] != null
+				? readSharded(shardedReaders[groupIndex])
+				: readBulk(bulkReaders[groupIndex], opcItems);
+		final boolean diffOnly = endpoint.isDiffOnly();
+		final Opcda2ValueCache cache = endpoint.getValueCache();
+		final long decodeStart = System.nanoTime();
+		long readNanos = 0;
+
+		int index = offset - 1;
+		for (Map.Entry<String, Opcda2TransportItem> entry : opcItems.entrySet()) {
+			index++;
+			final String key = entry.getKey();
+			Opcda2TransportItem item = entry.getValue();
 			//TODO this is not serializable... we'll need our own source for this. Dumb.
-			ItemState is = item.read(endpoint.isForceHardwareRead());
-			final Map<String, Object> itemStateAsMap = getItemStateAsMap(is);
-			final boolean diffOnly = endpoint.isDiffOnly();
-
-			if (diffOnly) {
-				Map<String, Object> previousItem = previousData.get(key);
-				if (previousItem == null) {
-					data.put(key, itemStateAsMap);
-					previousData.put(key, itemStateAsMap);
-				} else {
-					final Object newValue = itemStateAsMap.get("value");
-					final Object oldValue = previousItem.get("value");
-					boolean diff = false;
-
-					if (newValue instanceof Object[] && oldValue instanceof Object[]) {
-						if (!Arrays.equals((Object[]) newValue, (Object[]) oldValue)) {
-							diff = true;
-						}
-					} else if (!newValue.equals(oldValue)) {
-						diff = true;
-					}
-					if (diff) {
-						data.put(key, itemStateAsMap);
-						previousData.put(key, itemStateAsMap);
-					}
+			ItemState is;
+			if (bulkStates != null) {
+				is = bulkStates.get(item);
+				if (is == null) {
+					//Already reported by readBulk
+					continue;
+				}
+			} else {
+				final long readStart = System.nanoTime();
+				is = item.read(endpoint.isForceHardwareRead());
+				final long readEnd = System.nanoTime();
+				metrics.recordRead(readEnd - readStart);
+				readNanos += readEnd - readStart;
+			}
+			cycleRead++;
+			if (cache != null) {
+				cache.put(key, is, now);
+			}
+			if (Opcda2Metrics.isBad(is.getQuality())) {
+				cycleBad++;
+			}
+			final JIVariantDecoder decoder = decoders.decoderFor(index, item.getCanonicalType(), is.getValue());
+			final long timestamp = getTimeInMillis(is);
+			final Object value;
+			if (diffOnly && decoder.getKind() != JIVariantDecoder.BOXED) {
+				// compare unboxed, only box the items that are going out
+				if (!acceptPrimitive(decoder, index, key, is, timestamp, now)) {
+					continue;
+				}
+				value = decoder.decode(is.getValue());
+			} else {
+				value = decoder.decode(is.getValue());
+				if (history != null) {
+					history.record(key, value, is.getQuality(), timestamp, now);
+				}
+				// only build the item's map once we know it is going out
+				if (diffOnly && !changeFilter.accept(index, key, value, is.getQuality(), timestamp, now)) {
+					continue;
 				}
-			} else if (!diffOnly) {
-				data.put(key, itemStateAsMap);
-				previousData.put(key, itemStateAsMap);
+			}
+			cycleChanged++;
+			if (buffer != null) {
+				buffer.put(key, endpoint.getItemStateAsMap(is, value));
+			} else if (body.snapshot != null) {
+				body.snapshot.add(key, value, is.getQuality(), timestamp, is.getErrorCode());
+			} else {
+				body.data.put(key, endpoint.getItemStateAsMap(is, value));
 			}
 		}
+		cycleDecodeNanos += System.nanoTime() - decodeStart - readNanos;
+	}
 
-		exchange.getIn().setBody(data);
+	/**
+	 * Runs an item through the change filter (and records it in the history)
+	 * without boxing its value.
+	 *
+	 * @return true if the item changed
+	 */
+	private boolean acceptPrimitive(JIVariantDecoder decoder, int index, String key, ItemState is, long timestamp, long now) throws JIException {
+		final short quality = is.getQuality();
+		final double historyValue;
+		final boolean changed;
+		switch (decoder.getKind()) {
+			case JIVariantDecoder.DOUBLE:
+				final double doubleValue = decoder.decodeDouble(is.getValue());
+				historyValue = doubleValue;
+				changed = changeFilter.acceptDouble(index, key, doubleValue, quality, timestamp, now);
+				break;
+			case JIVariantDecoder.BOOLEAN:
+				final boolean booleanValue = decoder.decodeLong(is.getValue()) != 0;
+				historyValue = booleanValue ? 1 : 0;
+				changed = changeFilter.acceptBoolean(index, key, booleanValue, quality, timestamp, now);
+				break;
+			default:
+				final long longValue = decoder.decodeLong(is.getValue());
+				historyValue = longValue;
+				changed = changeFilter.acceptLong(index, key, longValue, quality, timestamp, now);
+				break;
+		}
+		if (history != null) {
+			history.record(key, historyValue, quality, timestamp > 0 ? timestamp : now);
+		}
+		return changed;
+	}
 
+	/**
+	 * Sends the body to the route, unless it is empty.
+	 *
+	 * @param body the items read
+	 * @param groupName value of the {@link Opcda2Endpoint#GROUP} header, null
+	 * for merged groups
+	 * @return the number of exchanges sent
+	 */
+	private int emit(Body body, String groupName) throws Exception {
+		if (body.size() == 0) {
+			return 0;
+		}
+		metrics.recordExchange(body.size());
+		Exchange exchange = endpoint.createExchange();
+		exchange.getIn().setBody(body.snapshot != null ? body.snapshot.build() : body.data);
+		if (groupName != null) {
+			exchange.getIn().setHeader(Opcda2Endpoint.GROUP, groupName);
+		}
+		exchange.getIn().setHeader(Opcda2Endpoint.CYCLE_ID, cycleId);
+		exchange.getIn().setHeader(Opcda2Endpoint.CYCLE_LAG, scheduler.getLag());
+
+		return send(exchange, groupName) ? 1 : 0; // number of messages polled
+	}
+
+	/**
+	 * Sends an exchange to the route. With a journal, the exchange is
+	 * journaled instead if earlier ones are still waiting, or if the route
+	 * fails it.
+	 *
+	 * @param exchange the exchange
+	 * @param groupName its group, null for merged groups
+	 * @return true if the route got the exchange
+	 */
+	private boolean send(Exchange exchange, String groupName) throws Exception {
+		final Object body = exchange.getIn().getBody();
+		if (journal != null && !journal.isEmpty() && !replay()) {
+			//Still failing, keep the order.
+			journal(body, groupName);
+			return false;
+		}
 		try {
 			// send message to next processor in the route
-			if (!data.isEmpty()) {
-				getProcessor().process(exchange);
-				return 1; // number of messages polled
-			} else {
-				return 0;
+			getProcessor().process(exchange);
+		} catch (Exception ex) {
+			if (journal == null) {
+				throw ex;
 			}
+			exchange.setException(ex);
 		} finally {
 			// log exception if an exception occurred and was not handled
 			if (exchange.getException() != null) {
+				if (journal != null) {
+					journal(body, groupName);
+				}
 				getExceptionHandler().handleException("Error processing exchange", exchange, exchange.getException());
 			}
 		}
+		return true;
+	}
+
+	private void journal(Object body, String groupName) {
+		final TagSnapshot snapshot = body instanceof TagSnapshot ? (TagSnapshot) body : Opcda2Converters.toTagSnapshot((Map<?, ?>) body);
+		try {
+			journal.append(cycleId, groupName, snapshot);
+			metrics.recordJournaled();
+		} catch (IOException ex) {
+			metrics.recordJournalDropped(snapshot.size());
+			logger.warn(ex.getMessage());
+		}
+	}
+
+	/**
+	 * Sends the journaled exchanges, oldest first, until the route fails
+	 * one.
+	 *
+	 * @return true once the journal is empty
+	 */
+	private boolean replay() {
+		Opcda2Journal.Entry entry;
+		while ((entry = journal.peek()) != null) {
+			Exchange exchange = endpoint.createExchange();
+			exchange.getIn().setBody(endpoint.isCompactBody() ? entry.getSnapshot() : Opcda2Converters.toMap(entry.getSnapshot()));
+			if (entry.getGroup() != null) {
+				exchange.getIn().setHeader(Opcda2Endpoint.GROUP, entry.getGroup());
+			}
+			exchange.getIn().setHeader(Opcda2Endpoint.CYCLE_ID, entry.getCycleId());
+			exchange.getIn().setHeader(Opcda2Endpoint.REPLAYED, Boolean.TRUE);
+			try {
+				getProcessor().process(exchange);
+			} catch (Exception ex) {
+				exchange.setException(ex);
+			}
+			if (exchange.getException() != null) {
+				logger.debug(String.format(REPLAY_FAILED_MSG, journal.size(), exchange.getException().getMessage()));
+				return false;
+			}
+			journal.remove();
+			metrics.recordReplayed();
+		}
+		return true;
 	}
+	public static final String REPLAY_FAILED_MSG = "Route still failing, %d exchanges left in the journal: %s";
 
-	private Map<String, Object> getItemStateAsMap(ItemState is) throws JIException {
-		Map<String, Object> retVal = new TreeMap<String, Object>();
-		if (!endpoint.isValuesOnly()) {
-			retVal.put(ERROR_CODE, Integer.valueOf(is.getErrorCode()));
-			retVal.put(QUALITY, Short.valueOf(is.getQuality()));
-			retVal.put(TIMESTAMP, is.getTimestamp().getTime());
+	static long getTimeInMillis(ItemState is) {
+		return is.getTimestamp() != null ? is.getTimestamp().getTimeInMillis() : 0;
+	}
+
+	/**
+	 * Reads every item with as few server calls as the chunk size allows.
+	 *
+	 * @return the read states, or null if bulk reads are not enabled.
+	 * @throws JIException if the session is lost.
+	 */
+	private Map<Opcda2TransportItem, ItemState> readBulk(Opcda2BulkReader bulkReader, Map<String, Opcda2TransportItem> opcItems) throws JIException {
+		if (bulkReader == null) {
+			return null;
 		}
-		retVal.put(VALUE, JIVariantMarshaller.toJavaType(is.getValue()));
+		Map<Opcda2TransportItem, ItemState> retVal = bulkReader.read(opcItems.values(), endpoint.isForceHardwareRead());
+		reportErrors(bulkReader.getLastErrors());
+		return retVal;
+	}
 
+	/**
+	 * Logs the items that could not be read. A lost session is thrown by the
+	 * readers instead, for {@link #poll()} to report.
+	 */
+	private void reportErrors(Map<String, Exception> errors) {
+		metrics.recordReadErrors(errors.size());
+		for (Map.Entry<String, Exception> error : errors.entrySet()) {
+			logger.warn(String.format(READ_FAILED_MSG, error.getKey(), error.getValue().getMessage()));
+		}
+	}
+	public static final String READ_FAILED_MSG = "Unable to read %s, skipping it this cycle: %s";
+
+	/**
+	 * Reads every shard of a group in parallel.
+	 *
+	 * @return the read states of all shards
+	 * @throws JIException if a shard's session is lost.
+	 */
+	private Map<Opcda2TransportItem, ItemState> readSharded(Opcda2ShardedReader shardedReader) throws InterruptedException, JIException {
+		Map<Opcda2TransportItem, ItemState> retVal = shardedReader.read(endpoint.isForceHardwareRead());
+		reportErrors(shardedReader.getLastErrors());
 		return retVal;
 	}
+
+	/**
+	 * @return the bulk reader of the default group, null if bulk reads are
+	 * not enabled on the endpoint, the group is not polled or it is sharded.
+	 */
+	public Opcda2BulkReader getBulkReader() {
+		return bulkReaders[bulkReaders.length - 1];
+	}
+
+	/**
+	 * @param group one of the endpoint's groups
+	 * @return the group's bulk reader, null if bulk reads are not enabled on
+	 * the endpoint, the group is not polled or it is sharded.
+	 */
+	public Opcda2BulkReader getBulkReader(Opcda2ItemGroup group) {
+		int index = groups.indexOf(group);
+		return index >= 0 ? bulkReaders[index] : null;
+	}
+
+	/**
+	 * @param group one of the endpoint's groups
+	 * @return the group's sharded reader, null if the group is not polled,
+	 * not sharded or the consumer is not started.
+	 */
+	public Opcda2ShardedReader getShardedReader(Opcda2ItemGroup group) {
+		int index = groups.indexOf(group);
+		return index >= 0 ? shardedReaders[index] : null;
+	}
+
+	/**
+	 * @return the buffer of the streamed items, null unless the endpoint's
+	 * streaming option is set and the consumer was started
+	 */
+	public Opcda2TagBuffer<Map<String, Object>> getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * @return the scheduler timing the poll cycles
+	 */
+	public Opcda2PollScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return the number of the last poll cycle
+	 */
+	public long getCycleId() {
+		return cycleId;
+	}
+
+	/**
+	 * The body of one exchange, a map of maps or a {@link TagSnapshot}.
+	 */
+	private final class Body {
+
+		final Map<String, Map<String, Object>> data;
+		final TagSnapshot.Builder snapshot;
+
+		Body(int capacity) {
+			if (endpoint.isCompactBody()) {
+				data = null;
+				snapshot = new TagSnapshot.Builder(capacity).valuesOnly(endpoint.isValuesOnly());
+			} else {
+				data = new TreeMap<String, Map<String, Object>>();
+				snapshot = null;
+			}
+		}
+
+		int size() {
+			return snapshot != null ? snapshot.size() : data.size();
+		}
+	}
 }
@@ -0,0 +1,116 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.camel.Converter;
+import org.apache.camel.Exchange;
+import org.apache.camel.FallbackConverter;
+import org.apache.camel.spi.TypeConverterRegistry;
+
+import static com.summit.camel.opc.Opcda2Endpoint.ERROR_CODE;
+import static com.summit.camel.opc.Opcda2Endpoint.QUALITY;
+import static com.summit.camel.opc.Opcda2Endpoint.TIMESTAMP;
+import static com.summit.camel.opc.Opcda2Endpoint.VALUE;
+
+/**
+ * Type converters between {@link TagSnapshot} and the map of maps the
+ * consumers emit by default (item id to VALUE and, unless valuesOnly,
+ * ERROR_CODE, QUALITY and TIMESTAMP). A missing (null) TIMESTAMP is kept
+ * as 0 in the snapshot.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@Converter
+public final class Opcda2Converters {
+
+	private Opcda2Converters() {
+	}
+
+	@Converter
+	public static Map<String, Map<String, Object>> toMap(TagSnapshot snapshot) {
+		Map<String, Map<String, Object>> retVal = new TreeMap<String, Map<String, Object>>();
+		for (int i = 0; i < snapshot.size(); i++) {
+			Map<String, Object> itemStateAsMap = new TreeMap<String, Object>();
+			if (!snapshot.isValuesOnly()) {
+				itemStateAsMap.put(ERROR_CODE, Integer.valueOf(snapshot.getErrorCode(i)));
+				itemStateAsMap.put(QUALITY, Short.valueOf(snapshot.getQuality(i)));
+				itemStateAsMap.put(TIMESTAMP, snapshot.getTimestamp(i) != 0 ? new Date(snapshot.getTimestamp(i)) : null);
+			}
+			itemStateAsMap.put(VALUE, snapshot.getValue(i));
+			retVal.put(snapshot.getItemId(i), itemStateAsMap);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Converts maps to snapshots, as a fallback converter because only maps
+	 * of item id to item state (a map holding at least a VALUE) can be
+	 * converted. A null returned by a regular converter would count as a
+	 * failed conversion in Camel 2.12, a fallback converter's null leaves
+	 * the map to other converters.
+	 *
+	 * @param type the requested type
+	 * @param exchange the exchange, may be null
+	 * @param value the value to convert
+	 * @param registry the registry
+	 * @return the snapshot, or null if the value is not a map in the
+	 * consumers' format or another type is requested
+	 */
+	@FallbackConverter
+	public static <T> T convertTo(Class<T> type, Exchange exchange, Object value, TypeConverterRegistry registry) {
+		if (type == TagSnapshot.class && value instanceof Map) {
+			return type.cast(toTagSnapshot((Map<?, ?>) value));
+		}
+		return null;
+	}
+
+	/**
+	 * @param map the map
+	 * @return the snapshot, or null if the map is not in the consumers'
+	 * format
+	 */
+	public static TagSnapshot toTagSnapshot(Map<?, ?> map) {
+		TagSnapshot.Builder builder = new TagSnapshot.Builder(map.size());
+		boolean valuesOnly = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (!(entry.getValue() instanceof Map) || !((Map<?, ?>) entry.getValue()).containsKey(VALUE)) {
+				//No conversion
+				return null;
+			}
+			Map<?, ?> itemStateAsMap = (Map<?, ?>) entry.getValue();
+			valuesOnly &= !itemStateAsMap.containsKey(QUALITY);
+
+			Object timestamp = itemStateAsMap.get(TIMESTAMP);
+			builder.add(String.valueOf(entry.getKey()),
+					itemStateAsMap.get(VALUE),
+					toNumber(itemStateAsMap.get(QUALITY)).shortValue(),
+					timestamp instanceof Date ? ((Date) timestamp).getTime() : toNumber(timestamp).longValue(),
+					toNumber(itemStateAsMap.get(ERROR_CODE)).intValue());
+		}
+		return builder.valuesOnly(valuesOnly).build();
+	}
+
+	private static Number toNumber(Object value) {
+		return value instanceof Number ? (Number) value : Integer.valueOf(0);
+	}
+}
@@ -0,0 +1,128 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Arrays;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Per item {@link JIVariantDecoder}s, addressed by a dense item index.
+ * <p>
+ * An item's decoder is picked from its canonical type, as the server
+ * reported it when the item was added, or from the VT type of its first
+ * value if the server did not say. It is only looked up again if the server
+ * starts sending another type. Values without a type (VT_EMPTY or VT_NULL,
+ * e.g. with bad quality) are decoded without replacing the item's
+ * decoder.</p>
+ * <p>
+ * Not thread safe, each consumer owns its cache.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2DecoderCache {
+
+	private final boolean primitiveArrays;
+	private JIVariantDecoder[] decoders = new JIVariantDecoder[0];
+
+	/**
+	 * @param primitiveArrays decode numeric and boolean arrays to primitive
+	 * arrays
+	 */
+	public Opcda2DecoderCache(boolean primitiveArrays) {
+		this.primitiveArrays = primitiveArrays;
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param variant the item's value
+	 * @return the converted value
+	 * @throws JIException if the value cannot be read
+	 */
+	public Object decode(int index, JIVariant variant) throws JIException {
+		return decode(index, JIVariant.VT_EMPTY, variant);
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param canonicalType the item's canonical type, VT_EMPTY if unknown
+	 * @param variant the item's value
+	 * @return the converted value
+	 * @throws JIException if the value cannot be read
+	 */
+	public Object decode(int index, int canonicalType, JIVariant variant) throws JIException {
+		return decoderFor(index, canonicalType, variant).decode(variant);
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param variant the item's value
+	 * @return the decoder for the value's type
+	 * @throws JIException if the value's type cannot be read
+	 */
+	public JIVariantDecoder decoderFor(int index, JIVariant variant) throws JIException {
+		return decoderFor(index, JIVariant.VT_EMPTY, variant);
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param canonicalType the item's canonical type, VT_EMPTY if unknown
+	 * (see {@link Opcda2TransportItem#getCanonicalType()})
+	 * @param variant the item's value
+	 * @return the decoder for the value's type
+	 * @throws JIException if the value's type cannot be read
+	 */
+	public JIVariantDecoder decoderFor(int index, int canonicalType, JIVariant variant) throws JIException {
+		if (index >= decoders.length) {
+			decoders = Arrays.copyOf(decoders, Math.max(index + 1, decoders.length * 2));
+		}
+		JIVariantDecoder decoder = decoders[index];
+		if (decoder == null && canonicalType != JIVariant.VT_EMPTY) {
+			decoder = JIVariantDecoder.forType(canonicalType, primitiveArrays);
+			decoders[index] = decoder;
+		}
+		final int type = variant.getType();
+		if (decoder != null && decoder.getType() == type) {
+			return decoder;
+		}
+		if (type == JIVariant.VT_EMPTY || type == JIVariant.VT_NULL) {
+			//No value this time, keep the item's decoder for the next one.
+			return JIVariantDecoder.forType(type, primitiveArrays);
+		}
+		decoder = JIVariantDecoder.forType(type, primitiveArrays);
+		decoders[index] = decoder;
+		return decoder;
+	}
+
+	/**
+	 * @param index the item's index
+	 * @return the item's decoder, null if none was picked yet
+	 */
+	JIVariantDecoder get(int index) {
+		return index < decoders.length ? decoders[index] : null;
+	}
+
+	/**
+	 * Forgets all decoders, e.g. when the item indexes changed.
+	 */
+	public void clear() {
+		Arrays.fill(decoders, null);
+	}
+}
@@ -19,40 +19,44 @@ package com.summit.camel.opc;
  * limitations under the License.
  * #L%
  */
-import java.net.UnknownHostException;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 import org.apache.camel.Consumer;
 import org.apache.camel.EndpointConfiguration;
 import org.apache.camel.Processor;
 import org.apache.camel.Producer;
 import org.apache.camel.RuntimeCamelException;
 import org.apache.camel.impl.DefaultEndpoint;
-import org.jinterop.dcom.common.JIException;
-import org.openscada.opc.lib.common.AlreadyConnectedException;
-import org.openscada.opc.lib.common.ConnectionInformation;
-import org.openscada.opc.lib.common.NotConnectedException;
-import org.openscada.opc.lib.da.AddFailedException;
-import org.openscada.opc.lib.da.DuplicateGroupException;
-import org.openscada.opc.lib.da.Group;
-import org.openscada.opc.lib.da.Item;
-import org.openscada.opc.lib.da.Server;
+import org.openscada.opc.lib.da.ItemState;
 import org.openscada.opc.lib.da.browser.Branch;
 import org.openscada.opc.lib.da.browser.Leaf;
-import org.openscada.opc.lib.da.browser.TreeBrowser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Represents a opcda2 endpoint.
+ * <p>
+ * When one of its server sessions is lost, the endpoint stops reading and
+ * writing until the session is reconnected (see <code>reconnect</code>),
+ * then adds its groups back and re-adds its items from the ids it already
+ * has, without browsing the server again.</p>
  *
  * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
  */
 public class Opcda2Endpoint extends DefaultEndpoint {
 
+	private static final transient Logger LOG = LoggerFactory.getLogger(Opcda2Endpoint.class);
+
 	private String domain = "localhost";
 	private String host = "localhost";
 	private String clsId;
@@ -61,18 +65,124 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 	private String password;
 	private int poolSize = 2;
 	private int delay = 500;
-	private Server opcServer;
-	private Group opcGroup;
+	private Opcda2Connection connection;
+	private final List<Opcda2Connection> shardConnections = new ArrayList<Opcda2Connection>();
+	private Opcda2ConnectionRegistry privateRegistry;
+	private Opcda2TransportFactory transport;
+	private Opcda2Transport opcTransport;
+	private Opcda2TransportGroup opcGroup;
 	private boolean diffOnly = false;
 	private boolean valuesOnly = true;
 	private boolean failIfTagAbsent = true;
+	private boolean bulkRead = false;
+	private int bulkReadChunkSize = 0;
+	private boolean subscribe = false;
+	private int updateRate = 0;
+	private double deadband = 0;
+	private double percentDeadband = 0;
+	private String deadbands;
+	private boolean qualityChangeSignificant = false;
+	private boolean timestampChangeSignificant = false;
+	private long heartbeat = 0;
+	private boolean batchWrite = false;
+	private int writeChunkSize = 0;
+	private boolean asyncWrite = false;
+	private int maxInFlight = 100;
+	private int writeThreads = 1;
+	private boolean compactBody = false;
+	private boolean primitiveArrays = false;
+	private String groups;
+	private boolean mergeGroups = true;
+	private int shards = 1;
+	private boolean shardSessions = false;
+	private String namespaceCacheFile;
+	private Opcda2MetricsFactory metricsFactory;
+	private boolean reconnect = true;
+	private long reconnectDelay = 1000;
+	private long maxReconnectDelay = 60000;
+	private boolean fixedRate = false;
+	private Opcda2PollScheduler.OverrunPolicy overrunPolicy = Opcda2PollScheduler.OverrunPolicy.COALESCE;
+	private boolean adaptiveRate = false;
+	private long maxAdaptiveDelay = 0;
+	private boolean streaming = false;
+	private int batchSize = 1;
+	private long batchTime = 0;
+	private int bufferSize = 10000;
+	private Opcda2TagBuffer.OverflowPolicy overflowPolicy = Opcda2TagBuffer.OverflowPolicy.BLOCK;
+	private String journal;
+	private long journalSize = 64 * 1024 * 1024;
+	private int historySize = 0;
+	private long historyRetention = 0;
+	private boolean historyOffHeap = false;
+	private Opcda2History history;
+	private long maxAge = 1000;
+	private String include;
+	private String exclude;
+	private int browseParallelism = 1;
+	private Opcda2Metrics metrics;
+	private ObjectName metricsName;
+	private volatile boolean connected = true;
+	private volatile int generation = 0;
+	private final Opcda2Connection.Listener connectionListener = new Opcda2Connection.Listener() {
+		@Override
+		public void connectionLost(Opcda2Connection lost) {
+			connected = false;
+		}
+
+		@Override
+		public void connectionRestored(Opcda2Connection restored) throws OPCConnectionException {
+			restore();
+		}
+	};
 
 	public static final String ERROR_CODE = "errorCode";
 	public static final String QUALITY = "quality";
 	public static final String TIMESTAMP = "timestamp";
 	public static final String VALUE = "value";
+	/**
+	 * Header set by the producer, tag name to the HRESULT of its write.
+	 */
+	public static final String WRITE_RESULTS = "CamelOpcWriteResults";
+	/**
+	 * Header set by the consumers when groups are emitted separately, name
+	 * of the group the exchange holds the items of.
+	 */
+	public static final String GROUP = "CamelOpcGroup";
+	/**
+	 * Header set by the polling consumer, number of the poll cycle the
+	 * exchange was read in. Exchanges of the same cycle share it.
+	 */
+	public static final String CYCLE_ID = "CamelOpcCycleId";
+	/**
+	 * Header set by the polling consumer, how late the cycle started after
+	 * its slot (ms), see {@link Opcda2PollScheduler}.
+	 */
+	public static final String CYCLE_LAG = "CamelOpcCycleLag";
+	/**
+	 * Header set by the polling consumer on exchanges replayed from its
+	 * journal, see {@link Opcda2Journal}.
+	 */
+	public static final String REPLAYED = "CamelOpcReplayed";
+	/**
+	 * Header selecting what the producer does with an exchange,
+	 * {@link #OPERATION_WRITE} (the default), {@link #OPERATION_READ} or
+	 * {@link #OPERATION_HISTORY}.
+	 */
+	public static final String OPERATION = "CamelOpcOperation";
+	public static final String OPERATION_WRITE = "write";
+	public static final String OPERATION_READ = "read";
+	public static final String OPERATION_HISTORY = "history";
+	/**
+	 * Header of a history query, the oldest timestamp returned (ms or date).
+	 */
+	public static final String HISTORY_FROM = "CamelOpcHistoryFrom";
+	/**
+	 * Header of a history query, the newest timestamp returned (ms or date).
+	 */
+	public static final String HISTORY_TO = "CamelOpcHistoryTo";
 
-	private final Map<String, Item> opcItems = new TreeMap<String, Item>();
+	private volatile Map<String, Opcda2TransportItem> opcItems = Collections.emptyMap();
+	private final List<Opcda2ItemGroup> itemGroups = new ArrayList<Opcda2ItemGroup>();
 
 	private boolean forceHardwareRead = false;
 
@@ -90,12 +200,18 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 	@Override
 	public Producer createProducer() throws Exception {
 		initializeServerConnection();
+		if (isAsyncWrite()) {
+			return new Opcda2AsyncProducer(this);
+		}
 		return new Opcda2Producer(this);
 	}
 
 	@Override
 	public Consumer createConsumer(Processor processor) throws Exception {
 		initializeServerConnection();
+		if (!hasItemGroups(false) && (isSubscribe() || hasItemGroups(true))) {
+			return new Opcda2SubscriptionConsumer(this, processor);
+		}
 		Opcda2Consumer retVal = new Opcda2Consumer(this, processor);
 		return retVal;
 	}
@@ -105,6 +221,57 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 		return true;
 	}
 
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		if (getCamelContext() != null && getCamelContext().getManagementStrategy() != null) {
+			metricsName = new ObjectName(String.format(METRICS_OBJECT_NAME, getCamelContext().getManagementName(), ObjectName.quote(getEndpointKey())));
+			getCamelContext().getManagementStrategy().manageNamedObject(getMetrics(), metricsName);
+		}
+	}
+	public static final String METRICS_OBJECT_NAME = "org.apache.camel:context=%s,type=opcda2,name=%s";
+
+	@Override
+	protected void doStop() throws Exception {
+		if (metricsName != null) {
+			getCamelContext().getManagementStrategy().unmanageNamedObject(metricsName);
+			metricsName = null;
+		}
+		super.doStop();
+	}
+
+	/**
+	 * @return the metrics of this endpoint's consumers and producers
+	 */
+	public synchronized Opcda2Metrics getMetrics() {
+		if (metrics == null) {
+			metrics = metricsFactory != null
+					? metricsFactory.createMetrics(this)
+					: new Opcda2Metrics();
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return the latest item states of the endpoint's session, fed by the
+	 * consumers of every endpoint sharing it, null until connected
+	 */
+	public Opcda2ValueCache getValueCache() {
+		final Opcda2Connection current = connection;
+		return current != null ? current.getValues() : null;
+	}
+
+	/**
+	 * @return the recent samples of the endpoint's items, fed by its
+	 * consumers, null unless <code>historySize</code> is set
+	 */
+	public synchronized Opcda2History getHistory() {
+		if (history == null && historySize > 0) {
+			history = new Opcda2History(historySize, historyRetention, historyOffHeap, opcItems.size());
+		}
+		return history;
+	}
+
 	/**
 	 * @return the domain
 	 */
@@ -161,156 +328,530 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 		this.host = host;
 	}
 
-	protected Server getOpcServer() {
-		return opcServer;
+	protected Opcda2Transport getOpcTransport() {
+		return opcTransport;
+	}
+
+	protected Opcda2TransportGroup getOpcGroup() {
+		return opcGroup;
 	}
 
 	/**
+	 * @return this endpoint's groups, the default group last
+	 */
+	public List<Opcda2ItemGroup> getItemGroups() {
+		return Collections.unmodifiableList(itemGroups);
+	}
+
+	/**
+	 * @param subscribe true for subscribed groups, false for polled ones
+	 * @return true if at least one group with items has that schedule
+	 */
+	boolean hasItemGroups(boolean subscribe) {
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			if (!itemGroup.getItems().isEmpty() && itemGroup.isSubscribe(this) == subscribe) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Acquires a (shared) connection to this endpoints opc server and
+	 * registers this endpoint's group and tags on it.
 	 *
-	 * @return A connection to this endpoints opc server.
-	 * @throws IllegalArgumentException
-	 * @throws UnknownHostException
-	 * @throws JIException
-	 * @throws AlreadyConnectedException
+	 * @throws OPCConnectionException
 	 */
 	private void initializeServerConnection() throws OPCConnectionException {
-		if (getOpcServer() == null) {
+		if (getOpcTransport() == null) {
+			connection = getConnectionRegistry().acquire(getTransportFactory(), this);
+			opcTransport = connection.getTransport();
 
-			if (getClsId() == null && getProgId() == null) {
-				throw new OPCConnectionException(NO_CLSID_MSG);
+			final Registration registration = new Registration();
+			boolean initialized = false;
+			try {
+				acquireShardConnections();
+				addGroups(registration);
+				registerTags(registration);
+				publish(registration);
+				if (isReconnect()) {
+					for (Opcda2Connection each : getConnections()) {
+						each.addListener(connectionListener);
+					}
+				}
+				initialized = true;
+			} catch (IllegalArgumentException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			} finally {
+				if (!initialized) {
+					removeOpcGroups(registration.shards, true);
+					removeGroups();
+					releaseConnection();
+				}
 			}
+		}
+	}
 
-			ConnectionInformation connInfo = new ConnectionInformation();
+	/**
+	 * @return the registry of the owning component, or a private one if this
+	 * endpoint was created without an {@link Opcda2Component}.
+	 */
+	private synchronized Opcda2ConnectionRegistry getConnectionRegistry() {
+		if (getComponent() instanceof Opcda2Component) {
+			return ((Opcda2Component) getComponent()).getConnectionRegistry();
+		}
+		if (privateRegistry == null) {
+			privateRegistry = new Opcda2ConnectionRegistry();
+		}
+		return privateRegistry;
+	}
 
-			connInfo.setClsid(getClsId());
-			connInfo.setProgId(getProgId());
-			connInfo.setHost(getHost());
-			connInfo.setDomain(getDomain());
-			connInfo.setUser(getUsername());
-			connInfo.setPassword(getPassword());
+	private void releaseConnection() {
+		for (Opcda2Connection shardConnection : shardConnections) {
+			shardConnection.removeListener(connectionListener);
+			getConnectionRegistry().release(shardConnection);
+		}
+		shardConnections.clear();
+		if (connection != null) {
+			connection.removeListener(connectionListener);
+			getConnectionRegistry().release(connection);
+			connection = null;
+		}
+		opcTransport = null;
+		opcGroup = null;
+	}
 
-			ScheduledExecutorService execService
-					= Executors.newScheduledThreadPool(
-							getPoolSize(),
-							new Opcda2EndpointThreadFactory());
+	/**
+	 * @return the session and, with shardSessions, the shards' own sessions
+	 */
+	private List<Opcda2Connection> getConnections() {
+		List<Opcda2Connection> retVal = new ArrayList<Opcda2Connection>(shardConnections.size() + 1);
+		if (connection != null) {
+			retVal.add(connection);
+		}
+		retVal.addAll(shardConnections);
+		return retVal;
+	}
 
-			opcServer = new Server(connInfo, execService);
+	private void acquireShardConnections() throws OPCConnectionException {
+		if (!isShardSessions()) {
+			return;
+		}
+		for (int shard = 1; shard < getShards(); shard++) {
+			shardConnections.add(getConnectionRegistry().acquire(getTransportFactory(), this, shard));
+		}
+	}
 
-			try {
-				opcServer.connect();
+	/**
+	 * Adds the configured groups to the server, plus the default group
+	 * (named after the endpoint's id) for the items matching none of them.
+	 */
+	private void addGroups(Registration registration) throws OPCConnectionException {
+		itemGroups.clear();
+		itemGroups.addAll(Opcda2ItemGroup.parse(getGroups()));
+		itemGroups.add(new Opcda2ItemGroup(Opcda2ItemGroup.DEFAULT_NAME, null, 0, null));
+		addOpcGroups(registration);
+	}
 
-				opcGroup = opcServer.addGroup(getId());
-			} catch (IllegalArgumentException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
-			} catch (UnknownHostException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
-			} catch (JIException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
-			} catch (AlreadyConnectedException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
-			} catch (NotConnectedException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
-			} catch (DuplicateGroupException ex) {
-				throw new OPCConnectionException(ex.getMessage(), ex);
+	/**
+	 * Adds one OPC group per shard for each of the endpoint's groups, on the
+	 * shard's own session if shardSessions is set.
+	 */
+	private void addOpcGroups(Registration registration) throws OPCConnectionException {
+		List<Opcda2Transport> shardTransports = new ArrayList<Opcda2Transport>();
+		shardTransports.add(opcTransport);
+		for (int shard = 1; shard < getShards(); shard++) {
+			shardTransports.add(shard <= shardConnections.size() ? shardConnections.get(shard - 1).getTransport() : opcTransport);
+		}
+
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			final String name = itemGroup.isDefault() ? getId() : getId() + "." + itemGroup.getName();
+			final List<Opcda2TransportGroup> groupShards = new ArrayList<Opcda2TransportGroup>(shardTransports.size());
+			groupShards.add(opcTransport.addGroup(name));
+			for (int shard = 1; shard < shardTransports.size(); shard++) {
+				groupShards.add(shardTransports.get(shard).addGroup(name + "#" + shard));
+			}
+			registration.shards.put(itemGroup, groupShards);
+			registration.groupItems.put(itemGroup, new TreeMap<String, Opcda2TransportItem>());
+		}
+	}
+
+	/**
+	 * Hands the registered groups and items to the consumers and producers.
+	 * Each map is replaced as a whole, so a reader sees either the old items
+	 * or the new ones and never a half-filled map.
+	 */
+	private void publish(Registration registration) {
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			itemGroup.setShards(registration.shards.get(itemGroup));
+			itemGroup.setItems(registration.groupItems.get(itemGroup));
+		}
+		opcItems = Collections.unmodifiableMap(registration.items);
+		opcGroup = itemGroups.get(itemGroups.size() - 1).getGroup();
+	}
+
+	private void removeGroups() {
+		removeOpcGroups(true);
+		itemGroups.clear();
+		opcItems = Collections.emptyMap();
+	}
+
+	/**
+	 * @param warn false to only log failures at debug level, groups of a
+	 * lost session are already gone.
+	 */
+	private void removeOpcGroups(boolean warn) {
+		Map<Opcda2ItemGroup, List<Opcda2TransportGroup>> published = new LinkedHashMap<Opcda2ItemGroup, List<Opcda2TransportGroup>>();
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			published.put(itemGroup, itemGroup.getShards());
+		}
+		removeOpcGroups(published, warn);
+	}
+
+	/**
+	 * @param shards the OPC groups to remove, by the endpoint's group they
+	 * belong to
+	 * @param warn false to only log failures at debug level
+	 */
+	private void removeOpcGroups(Map<Opcda2ItemGroup, List<Opcda2TransportGroup>> shards, boolean warn) {
+		for (Map.Entry<Opcda2ItemGroup, List<Opcda2TransportGroup>> entry : shards.entrySet()) {
+			final Opcda2ItemGroup itemGroup = entry.getKey();
+			for (Opcda2TransportGroup shard : entry.getValue()) {
+				try {
+					shard.remove();
+				} catch (OPCConnectionException ex) {
+					final String message = String.format(GROUP_REMOVE_FAILED_MSG, itemGroup.getName(), getId(), ex.getMessage());
+					if (warn) {
+						LOG.warn(message);
+					} else {
+						LOG.debug(message);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the groups and items back once every session of the endpoint is
+	 * connected again. The items are re-added in batches from the ids
+	 * registered before the session was lost, without browsing the server:
+	 * item handles belong to a session and cannot be reused. The readers keep
+	 * seeing the old (dead) items until all of them are added back.
+	 *
+	 * @throws OPCConnectionException if the groups could not be added, the
+	 * reconnect attempt is then repeated.
+	 */
+	private synchronized void restore() throws OPCConnectionException {
+		if (opcTransport == null) {
+			return;
+		}
+		for (Opcda2Connection each : getConnections()) {
+			if (!each.isConnected()) {
+				//Restored once the last of them is back.
+				return;
+			}
+		}
+		final long start = System.nanoTime();
+		final List<String> itemIds = new ArrayList<String>(getOpcItems().keySet());
+		removeOpcGroups(false);
+		Registration registration = new Registration();
+		Map<String, Integer> failed = null;
+		try {
+			addOpcGroups(registration);
+			failed = registerItems(registration, itemIds);
+		} finally {
+			if (failed == null) {
+				removeOpcGroups(registration.shards, false);
 			}
-			registerTags();
 		}
+		if (!failed.isEmpty()) {
+			LOG.warn(String.format(RESTORE_FAILED_MSG, getId(), failed));
+		}
+		publish(registration);
+		generation++;
+		connected = true;
+		getMetrics().recordReconnect();
+		LOG.info(String.format(RESTORED_MSG, getOpcItems().size(), getId(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+	public static final String RESTORE_FAILED_MSG = "Unable to add items of %s back after reconnecting (item id=error code): %s";
+	public static final String RESTORED_MSG = "Added %d items of %s back in %d ms";
+
+	/**
+	 * Reports a failed call on a lost session, see
+	 * {@link Opcda2Connection#isSessionLost(java.lang.Throwable)}. Every
+	 * session of the endpoint is reconnected, since which of them failed is
+	 * not known.
+	 *
+	 * @param cause the failure
+	 * @return true if the sessions are being reconnected, false if
+	 * reconnect is not set.
+	 */
+	boolean sessionLost(Exception cause) {
+		if (!isReconnect()) {
+			return false;
+		}
+		connected = false;
+		for (Opcda2Connection each : getConnections()) {
+			getConnectionRegistry().sessionLost(each, cause);
+		}
+		return true;
+	}
+
+	/**
+	 * @return false from a session of the endpoint being lost until its
+	 * items are restored.
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return the number of times the endpoint's items were restored, see
+	 * {@link #isConnected()}. Groups and items (and readers made from them)
+	 * of earlier generations are dead.
+	 */
+	public int getGeneration() {
+		return generation;
 	}
 
 	@Override
 	protected void doShutdown() throws Exception {
-		if (opcServer != null) {
-			opcServer.disconnect();
-			opcServer = null;
-		}
+		removeGroups();
+		releaseConnection();
 		super.doShutdown();
 	}
+	public static final String GROUP_REMOVE_FAILED_MSG = "Unable to remove group %s of %s: %s";
 
 	public static final String NO_CLSID_MSG = "clsId OR progId MUST BE SET!";
 
-	private void registerTags() throws RuntimeCamelException, OPCConnectionException {
+	private void registerTags(Registration registration) throws RuntimeCamelException, OPCConnectionException {
 		EndpointConfiguration cfg = getEndpointConfiguration();
 		String opcTreePath = cfg.getParameter("path");
 		String[] pathArray = opcTreePath.split("/");
+		Opcda2NamespaceCache namespace = connection.getNamespace();
+		File cacheFile = getNamespaceCacheFile() != null ? new File(getNamespaceCacheFile()) : null;
 		try {
-			TreeBrowser treeBrowser = opcServer.getTreeBrowser();
-			Branch root = treeBrowser.browse();
-			Branch parent = root;
+			if (cacheFile != null && namespace.isEmpty()) {
+				namespace.load(cacheFile);
+			}
+			Opcda2ItemSelector selector = Opcda2ItemSelector.parse(getInclude(), getExclude());
+			Map<String, Integer> failed = selectItems(registration, namespace, selector, pathArray);
+			if (!failed.isEmpty()) {
+				//The cached namespace may be stale, browse this path again.
+				namespace.invalidate(pathArray);
+				failed = selectItems(registration, namespace, selector, pathArray);
+			}
+			if (!failed.isEmpty()) {
+				throw new OPCConnectionException(String.format(ADD_FAILED_MSG, failed));
+			}
 
-			Leaf leaf = null;
+			if (cacheFile != null && namespace.isDirty()) {
+				namespace.save(cacheFile);
+			}
+		} catch (OPCConnectionException ex) {
+			throw ex;
+		} catch (Exception ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+	}
+	public static final String NO_SUBGROUP_MSG = "Unable to find sub-group: %s %nPossible Matches:%s";
+	public static final String ADD_FAILED_MSG = "Unable to add items (item id=error code): %s";
 
-			for (int i = 0; i < pathArray.length; i++) {
-				boolean found = false;
-				//This should handle "//" and the first /
-				if (pathArray[i].isEmpty()) {
-					continue;
-				}
-				for (Branch candidate : parent.getBranches()) {
-					if (candidate.getName().equals(pathArray[i])) {
-						parent = candidate;
-						found = true;
-						break;
+	/**
+	 * With includes, picks the items from the server's flat item index and
+	 * leaves the path alone, unless the server cannot browse flat. Otherwise
+	 * takes the items below the path, less the excluded ones, registering
+	 * them while the rest of the path is still being browsed.
+	 *
+	 * @return item id to error code of the items that could not be added.
+	 */
+	private Map<String, Integer> selectItems(final Registration registration, Opcda2NamespaceCache namespace, final Opcda2ItemSelector selector, final String[] pathArray) throws OPCConnectionException {
+		if (selector.hasIncludes()) {
+			try {
+				List<String> index = namespace.getItemIndex(opcTransport);
+				List<String> selected = selector.select(index);
+				LOG.info(String.format(SELECTED_MSG, selected.size(), index.size()));
+				return registerItems(registration, selected);
+			} catch (OPCConnectionException ex) {
+				LOG.warn(String.format(FLAT_BROWSE_FAILED_MSG, ex.getMessage()));
+			}
+		}
+		final Map<String, Integer> failed = new TreeMap<String, Integer>();
+		final List<String> pending = new ArrayList<String>();
+		final String path = getEndpointConfiguration().getParameter("path");
+		Opcda2NamespaceCache.BrowseListener listener = new Opcda2NamespaceCache.BrowseListener() {
+
+			@Override
+			public void leaves(List<String> itemIds) throws OPCConnectionException {
+				for (String itemId : itemIds) {
+					if (selector.matches(itemId)) {
+						pending.add(itemId);
 					}
 				}
-				//If we are on the last item, and its still not found,
-				//check to see if it is a tag (leaf)
-				if (!found && i == pathArray.length - 1) {
-					for (Leaf l : parent.getLeaves()) {
-						if (l.getName().equals(pathArray[i])) {
-							leaf = l;
-							found = true;
-							break;
-						}
-					}
+				if (pending.size() >= REGISTER_BATCH_SIZE) {
+					failed.putAll(registerItems(registration, pending));
+					pending.clear();
 				}
+			}
 
-				if (!found) {
-					ArrayList<String> possibleBranches = new ArrayList<String>();
-					StringBuilder possibleMatches = new StringBuilder();
-					for (Branch b : parent.getBranches()) {
-						possibleBranches.add(String.format("%n[B] %s", b.getName()));
-					}
-					Collections.sort(possibleBranches, String.CASE_INSENSITIVE_ORDER);
-					ArrayList<String> possibleLeaves = new ArrayList<String>();
-					for (Leaf l : parent.getLeaves()) {
-						possibleLeaves.add(String.format("%n[T] %s", l.getName()));
-					}
-					Collections.sort(possibleLeaves, String.CASE_INSENSITIVE_ORDER);
-
-					for (String s : possibleBranches) {
-						possibleMatches.append(s);
-					}
-					for (String s : possibleLeaves) {
-						possibleMatches.append(s);
-					}
-
-					throw new OPCConnectionException(String.format(NO_SUBGROUP_MSG, pathArray[i], possibleMatches.toString()));
+			@Override
+			public void progress(int browsed, int remaining, int items) {
+				LOG.info(String.format(BROWSE_PROGRESS_MSG, path, browsed, remaining, items, registration.items.size()));
+			}
+		};
+		final List<Opcda2Connection> browseConnections = new ArrayList<Opcda2Connection>();
+		ExecutorService browseExecutor = null;
+		try {
+			final int parallelism = Math.min(getBrowseParallelism(), MAX_BROWSE_PARALLELISM);
+			final List<Opcda2Transport> browsers = new ArrayList<Opcda2Transport>();
+			browsers.add(opcTransport);
+			for (Opcda2Connection shardConnection : shardConnections) {
+				if (browsers.size() >= parallelism) {
+					break;
 				}
+				browsers.add(shardConnection.getTransport());
 			}
-			if (leaf != null) {
-				registerLeaf(leaf);
-			} else {
-				populateItemsMapRecursive(parent);
+			//Numbered after the shards' sessions, so they are never shared with them.
+			for (int session = browsers.size(); session < parallelism; session++) {
+				Opcda2Connection browseConnection = getConnectionRegistry().acquire(getTransportFactory(), this, session);
+				browseConnections.add(browseConnection);
+				browsers.add(browseConnection.getTransport());
+			}
+			if (browsers.size() > 1) {
+				browseExecutor = getCamelContext() != null
+						? getCamelContext().getExecutorServiceManager().newFixedThreadPool(this, "Opcda2Browse", browsers.size())
+						: Executors.newFixedThreadPool(browsers.size(), new Opcda2Connection.Opcda2ConnectionThreadFactory("OPC_Browse"));
+			}
+			namespace.resolve(browsers, pathArray, browseExecutor, listener);
+		} finally {
+			if (browseExecutor != null) {
+				if (getCamelContext() != null) {
+					getCamelContext().getExecutorServiceManager().shutdown(browseExecutor);
+				} else {
+					browseExecutor.shutdown();
+				}
+			}
+			for (Opcda2Connection browseConnection : browseConnections) {
+				getConnectionRegistry().release(browseConnection);
 			}
-		} catch (Exception ex) {
-			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+		failed.putAll(registerItems(registration, pending));
+		return failed;
+	}
+	public static final String SELECTED_MSG = "Selected %d of the server's %d items";
+	public static final String FLAT_BROWSE_FAILED_MSG = "Unable to browse the server flat, selecting from the path instead: %s";
+	public static final String BROWSE_PROGRESS_MSG = "Browsing %s: %d branches browsed, %d to go, %d items found, %d registered";
+	/**
+	 * Upper bound of <code>browseParallelism</code>, each browsing session
+	 * costs the server a client connection.
+	 */
+	public static final int MAX_BROWSE_PARALLELISM = 8;
+
+	public synchronized void populateItemsMapRecursive(Branch parent) throws OPCConnectionException {
+		List<String> itemIds = new ArrayList<String>();
+		collectItemIds(parent, itemIds);
+		Registration registration = new Registration();
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			registration.shards.put(itemGroup, itemGroup.getShards());
+			registration.groupItems.put(itemGroup, new TreeMap<String, Opcda2TransportItem>(itemGroup.getItems()));
+		}
+		registration.items.putAll(getOpcItems());
+		Map<String, Integer> failed = registerItems(registration, itemIds);
+		publish(registration);
+		if (!failed.isEmpty()) {
+			throw new OPCConnectionException(String.format(ADD_FAILED_MSG, failed));
 		}
 	}
-	public static final String NO_SUBGROUP_MSG = "Unable to find sub-group: %s %nPossible Matches:%s";
 
-	public void populateItemsMapRecursive(Branch parent) throws JIException, AddFailedException {
+	private void collectItemIds(Branch parent, List<String> itemIds) {
 		for (Leaf l : parent.getLeaves()) {
-			registerLeaf(l);
+			itemIds.add(l.getItemId());
 		}
 		for (Branch child : parent.getBranches()) {
-			populateItemsMapRecursive(child);
+			collectItemIds(child, itemIds);
+		}
+	}
+
+	/**
+	 * Adds the items to the first group they match, in batches of
+	 * {@link #REGISTER_BATCH_SIZE}.
+	 *
+	 * @param registration receives the added items
+	 * @param itemIds the ids to add, ids already registered are skipped.
+	 * @return item id to error code of the items that could not be added.
+	 * @throws OPCConnectionException
+	 */
+	private Map<String, Integer> registerItems(Registration registration, Collection<String> itemIds) throws OPCConnectionException {
+		Map<String, Integer> failed = new TreeMap<String, Integer>();
+		Map<Opcda2ItemGroup, List<String>> batches = new LinkedHashMap<Opcda2ItemGroup, List<String>>();
+		for (String itemId : itemIds) {
+			if (registration.items.containsKey(itemId)) {
+				continue;
+			}
+			Opcda2ItemGroup itemGroup = matchItemGroup(itemId);
+			List<String> batch = batches.get(itemGroup);
+			if (batch == null) {
+				batch = new ArrayList<String>(Math.min(REGISTER_BATCH_SIZE, itemIds.size()));
+				batches.put(itemGroup, batch);
+			}
+			batch.add(itemId);
+			if (batch.size() == REGISTER_BATCH_SIZE) {
+				registerBatch(registration, itemGroup, batch, failed);
+				batch.clear();
+			}
+		}
+		for (Map.Entry<Opcda2ItemGroup, List<String>> batch : batches.entrySet()) {
+			if (!batch.getValue().isEmpty()) {
+				registerBatch(registration, batch.getKey(), batch.getValue(), failed);
+			}
+		}
+		return failed;
+	}
+	public static final int REGISTER_BATCH_SIZE = 1000;
+
+	private Opcda2ItemGroup matchItemGroup(String itemId) {
+		for (Opcda2ItemGroup itemGroup : itemGroups) {
+			if (itemGroup.matches(itemId)) {
+				return itemGroup;
+			}
+		}
+		//Not reached, the default group matches everything.
+		return itemGroups.get(itemGroups.size() - 1);
+	}
+
+	/**
+	 * Adds a batch to the group, split evenly over its shards.
+	 */
+	private void registerBatch(Registration registration, Opcda2ItemGroup itemGroup, List<String> batch, Map<String, Integer> failed) throws OPCConnectionException {
+		final List<Opcda2TransportGroup> groupShards = registration.shards.get(itemGroup);
+		final int sliceSize = (batch.size() + groupShards.size() - 1) / groupShards.size();
+		for (int from = 0, shard = 0; from < batch.size(); from += sliceSize, shard++) {
+			List<String> slice = batch.subList(from, Math.min(from + sliceSize, batch.size()));
+			Map<String, Opcda2TransportItem> added = groupShards.get(shard).addItems(slice, failed);
+			registration.items.putAll(added);
+			registration.groupItems.get(itemGroup).putAll(added);
 		}
 	}
 
-	private void registerLeaf(Leaf l) throws JIException, AddFailedException {
-		String itemId = l.getItemId();
-		Item i = opcGroup.addItem(itemId);
-		getOpcItems().put(itemId, i);
+	/**
+	 * Converts an item state to the map sent in exchange bodies.
+	 *
+	 * @param is the state read from (or reported by) the server
+	 * @param value the state's value, already converted
+	 * @return VALUE and, unless valuesOnly is set, ERROR_CODE, QUALITY and
+	 * TIMESTAMP (null if the server sent none).
+	 */
+	Map<String, Object> getItemStateAsMap(ItemState is, Object value) {
+		Map<String, Object> retVal = new TreeMap<String, Object>();
+		if (!isValuesOnly()) {
+			retVal.put(ERROR_CODE, Integer.valueOf(is.getErrorCode()));
+			retVal.put(QUALITY, Short.valueOf(is.getQuality()));
+			retVal.put(TIMESTAMP, is.getTimestamp() != null ? is.getTimestamp().getTime() : null);
+		}
+		retVal.put(VALUE, value);
+
+		return retVal;
 	}
 
 	/**
@@ -321,6 +862,9 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 	}
 
 	/**
+	 * Size of the thread pool of the server session. Sessions are shared
+	 * between endpoints, so only the first endpoint to connect decides it.
+	 *
 	 * @param poolSize the poolSize to set
 	 */
 	public void setPoolSize(int poolSize) {
@@ -391,6 +935,11 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 	}
 
 	/**
+	 * When set, the consumer only emits items that changed, as decided by
+	 * the deadband, quality, timestamp and heartbeat options. This applies
+	 * when polling and when subscribed. Without it, polls emit every item and
+	 * subscriptions every change the server reports.
+	 *
 	 * @param diffOnly the diffOnly to set
 	 */
 	public void setDiffOnly(boolean diffOnly) {
@@ -412,9 +961,10 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 	}
 
 	/**
-	 * @return the opcItems
+	 * @return the opcItems, replaced as a whole when the items are restored
+	 * and never changed in place
 	 */
-	public Map<String, Item> getOpcItems() {
+	public Map<String, Opcda2TransportItem> getOpcItems() {
 		return opcItems;
 	}
 
@@ -432,14 +982,808 @@ public class Opcda2Endpoint extends DefaultEndpoint {
 		this.failIfTagAbsent = failIfTagAbsent;
 	}
 
-	private final class Opcda2EndpointThreadFactory implements ThreadFactory {
+	/**
+	 * @return the bulkRead
+	 */
+	public boolean isBulkRead() {
+		return bulkRead;
+	}
 
-		int count = 0;
+	/**
+	 * When set, the consumer reads all items of the group through one SyncIO
+	 * call (per chunk) instead of one call per item.
+	 *
+	 * @param bulkRead the bulkRead to set
+	 */
+	public void setBulkRead(boolean bulkRead) {
+		this.bulkRead = bulkRead;
+	}
 
-		@Override
-		public Thread newThread(Runnable r) {
-			Thread t = new Thread(r, Opcda2Endpoint.this.getId() + "_" + count);
-			return t;
-		}
+	/**
+	 * @return the bulkReadChunkSize
+	 */
+	public int getBulkReadChunkSize() {
+		return bulkReadChunkSize;
+	}
+
+	/**
+	 * Maximum number of items per bulk read call, 0 (the default) reads the
+	 * whole group at once.
+	 *
+	 * @param bulkReadChunkSize the bulkReadChunkSize to set
+	 */
+	public void setBulkReadChunkSize(int bulkReadChunkSize) {
+		this.bulkReadChunkSize = bulkReadChunkSize;
+	}
+
+	/**
+	 * @return the subscribe
+	 */
+	public boolean isSubscribe() {
+		return subscribe;
+	}
+
+	/**
+	 * When set, the consumer subscribes to data change notifications instead
+	 * of polling, and only emits the items the server reports as changed.
+	 *
+	 * @param subscribe the subscribe to set
+	 */
+	public void setSubscribe(boolean subscribe) {
+		this.subscribe = subscribe;
+	}
+
+	/**
+	 * @return the updateRate
+	 */
+	public int getUpdateRate() {
+		return updateRate;
+	}
+
+	/**
+	 * Requested update rate (ms) of the subscription group, 0 (the default)
+	 * uses the delay.
+	 *
+	 * @param updateRate the updateRate to set
+	 */
+	public void setUpdateRate(int updateRate) {
+		this.updateRate = updateRate;
+	}
+
+	/**
+	 * @return the deadband
+	 */
+	public double getDeadband() {
+		return deadband;
+	}
+
+	/**
+	 * Absolute deadband for numeric items, with diffOnly (polled or
+	 * subscribed) changes smaller than this are not emitted. 0 (the default)
+	 * emits every change.
+	 *
+	 * @param deadband the deadband to set
+	 */
+	public void setDeadband(double deadband) {
+		this.deadband = deadband;
+	}
+
+	/**
+	 * @return the namespaceCacheFile
+	 */
+	public String getNamespaceCacheFile() {
+		return namespaceCacheFile;
+	}
+
+	/**
+	 * Local file the browsed namespace is saved to, and loaded from on the
+	 * next start. Unset (the default) keeps the namespace in memory only.
+	 *
+	 * @param namespaceCacheFile the namespaceCacheFile to set
+	 */
+	public void setNamespaceCacheFile(String namespaceCacheFile) {
+		this.namespaceCacheFile = namespaceCacheFile;
+	}
+
+	/**
+	 * @return the percentDeadband
+	 */
+	public double getPercentDeadband() {
+		return percentDeadband;
+	}
+
+	/**
+	 * Deadband in percent of the last emitted value, used instead of the
+	 * absolute deadband when set.
+	 *
+	 * @param percentDeadband the percentDeadband to set
+	 */
+	public void setPercentDeadband(double percentDeadband) {
+		this.percentDeadband = percentDeadband;
+	}
+
+	/**
+	 * @return the deadbands
+	 */
+	public String getDeadbands() {
+		return deadbands;
+	}
+
+	/**
+	 * Per item deadbands, <code>glob=value</code> or
+	 * <code>glob=value%</code> rules separated by <code>;</code>, see
+	 * {@link Opcda2ChangeFilter}.
+	 *
+	 * @param deadbands the deadbands to set
+	 */
+	public void setDeadbands(String deadbands) {
+		this.deadbands = deadbands;
+	}
+
+	/**
+	 * @return the qualityChangeSignificant
+	 */
+	public boolean isQualityChangeSignificant() {
+		return qualityChangeSignificant;
+	}
+
+	/**
+	 * Emit items whose quality changed, even if the value did not.
+	 *
+	 * @param qualityChangeSignificant the qualityChangeSignificant to set
+	 */
+	public void setQualityChangeSignificant(boolean qualityChangeSignificant) {
+		this.qualityChangeSignificant = qualityChangeSignificant;
+	}
+
+	/**
+	 * @return the timestampChangeSignificant
+	 */
+	public boolean isTimestampChangeSignificant() {
+		return timestampChangeSignificant;
+	}
+
+	/**
+	 * Emit items whose timestamp changed, even if the value did not.
+	 *
+	 * @param timestampChangeSignificant the timestampChangeSignificant to set
+	 */
+	public void setTimestampChangeSignificant(boolean timestampChangeSignificant) {
+		this.timestampChangeSignificant = timestampChangeSignificant;
+	}
+
+	/**
+	 * @return the heartbeat
+	 */
+	public long getHeartbeat() {
+		return heartbeat;
+	}
+
+	/**
+	 * Re-emit items that have not been emitted for this many ms, even if they
+	 * did not change. 0 (the default) disables the heartbeat.
+	 *
+	 * @param heartbeat the heartbeat to set
+	 */
+	public void setHeartbeat(long heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * @return the batchWrite
+	 */
+	public boolean isBatchWrite() {
+		return batchWrite;
+	}
+
+	/**
+	 * When set, the producer writes all tags of an exchange through one
+	 * SyncIO call (per chunk) instead of one call per tag.
+	 *
+	 * @param batchWrite the batchWrite to set
+	 */
+	public void setBatchWrite(boolean batchWrite) {
+		this.batchWrite = batchWrite;
+	}
+
+	/**
+	 * @return the writeChunkSize
+	 */
+	public int getWriteChunkSize() {
+		return writeChunkSize;
+	}
+
+	/**
+	 * Maximum number of tags per batch write call, 0 (the default) writes the
+	 * whole exchange at once.
+	 *
+	 * @param writeChunkSize the writeChunkSize to set
+	 */
+	public void setWriteChunkSize(int writeChunkSize) {
+		this.writeChunkSize = writeChunkSize;
+	}
+
+	/**
+	 * @return the asyncWrite
+	 */
+	public boolean isAsyncWrite() {
+		return asyncWrite;
+	}
+
+	/**
+	 * When set, writes are done by {@link Opcda2AsyncProducer} on its own
+	 * threads, without blocking the routing thread.
+	 *
+	 * @param asyncWrite the asyncWrite to set
+	 */
+	public void setAsyncWrite(boolean asyncWrite) {
+		this.asyncWrite = asyncWrite;
+	}
+
+	/**
+	 * @return the maxInFlight
+	 */
+	public int getMaxInFlight() {
+		return maxInFlight;
+	}
+
+	/**
+	 * Maximum number of exchanges queued or being written by the async
+	 * producer, further exchanges block until one completes.
+	 *
+	 * @param maxInFlight the maxInFlight to set
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = maxInFlight;
+	}
+
+	/**
+	 * @return the writeThreads
+	 */
+	public int getWriteThreads() {
+		return writeThreads;
+	}
+
+	/**
+	 * Number of threads of the async producer. The default of 1 keeps writes
+	 * in the order they were sent.
+	 *
+	 * @param writeThreads the writeThreads to set
+	 */
+	public void setWriteThreads(int writeThreads) {
+		this.writeThreads = writeThreads;
+	}
+
+	/**
+	 * @return the compactBody
+	 */
+	public boolean isCompactBody() {
+		return compactBody;
+	}
+
+	/**
+	 * When set, consumers emit a columnar {@link TagSnapshot} instead of a
+	 * map of maps. Routes still expecting the map can convert the body with
+	 * <code>convertBodyTo(Map.class)</code>.
+	 *
+	 * @param compactBody the compactBody to set
+	 */
+	public void setCompactBody(boolean compactBody) {
+		this.compactBody = compactBody;
+	}
+
+	/**
+	 * @return the primitiveArrays
+	 */
+	public boolean isPrimitiveArrays() {
+		return primitiveArrays;
+	}
+
+	/**
+	 * When set, numeric and boolean array tags are emitted as primitive
+	 * arrays (double[], int[], ...) instead of boxed Object[] arrays.
+	 *
+	 * @param primitiveArrays the primitiveArrays to set
+	 */
+	public void setPrimitiveArrays(boolean primitiveArrays) {
+		this.primitiveArrays = primitiveArrays;
+	}
+
+	/**
+	 * @return the groups
+	 */
+	public String getGroups() {
+		return groups;
+	}
+
+	/**
+	 * Splits the endpoint's items over several OPC groups, each with its own
+	 * rate and schedule, see {@link Opcda2ItemGroup}.
+	 *
+	 * @param groups the groups to set
+	 */
+	public void setGroups(String groups) {
+		this.groups = groups;
+	}
+
+	/**
+	 * @return the mergeGroups
+	 */
+	public boolean isMergeGroups() {
+		return mergeGroups;
+	}
+
+	/**
+	 * When set (the default), the groups due in a cycle are emitted in one
+	 * exchange. Otherwise each group is emitted in its own exchange, with
+	 * the {@link #GROUP} header.
+	 *
+	 * @param mergeGroups the mergeGroups to set
+	 */
+	public void setMergeGroups(boolean mergeGroups) {
+		this.mergeGroups = mergeGroups;
+	}
+
+	/**
+	 * @return the shards
+	 */
+	public int getShards() {
+		return shards;
+	}
+
+	/**
+	 * Number of OPC groups each group's items are split over. The polling
+	 * consumer reads the shards in parallel, which pays off for large item
+	 * sets once the shards are on separate sessions. 1 (the default)
+	 * disables sharding.
+	 *
+	 * @param shards the shards to set
+	 */
+	public void setShards(int shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * @return the shardSessions
+	 */
+	public boolean isShardSessions() {
+		return shardSessions;
+	}
+
+	/**
+	 * When set, each shard uses its own server session (and DCOM
+	 * connection) instead of the endpoint's shared session, so the shards'
+	 * calls are not serialized.
+	 *
+	 * @param shardSessions the shardSessions to set
+	 */
+	public void setShardSessions(boolean shardSessions) {
+		this.shardSessions = shardSessions;
+	}
+
+	/**
+	 * @return the transport
+	 */
+	public Opcda2TransportFactory getTransport() {
+		return transport;
+	}
+
+	/**
+	 * @return the transport, or the Utgard transport if none is set
+	 */
+	Opcda2TransportFactory getTransportFactory() {
+		return transport != null ? transport : DEFAULT_TRANSPORT;
+	}
+	private static final Opcda2TransportFactory DEFAULT_TRANSPORT = new Opcda2UtgardTransportFactory();
+
+	/**
+	 * Creates the endpoint's server sessions, unset (the default) talks DCOM
+	 * through Utgard, see {@link Opcda2Transport}. In the URI, either a
+	 * <code>#bean</code> reference or the name of a transport registered
+	 * under {@link Opcda2Component#TRANSPORT_RESOURCE_PATH}, configured with
+	 * <code>transport.</code> prefixed options.
+	 *
+	 * @param transport the transport to set
+	 */
+	public void setTransport(Opcda2TransportFactory transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the metricsFactory
+	 */
+	public Opcda2MetricsFactory getMetricsFactory() {
+		return metricsFactory;
+	}
+
+	/**
+	 * Creates the endpoint's {@link #getMetrics() metrics} to publish them
+	 * somewhere besides JMX, e.g. the camel-opc-micrometer module's factory.
+	 *
+	 * @param metricsFactory the metricsFactory to set
+	 */
+	public void setMetricsFactory(Opcda2MetricsFactory metricsFactory) {
+		this.metricsFactory = metricsFactory;
+	}
+
+	/**
+	 * @return the reconnect
+	 */
+	public boolean isReconnect() {
+		return reconnect;
+	}
+
+	/**
+	 * Reconnects lost server sessions (the default) and adds the endpoint's
+	 * items back, instead of failing every read and write until the route
+	 * is restarted. Sessions are shared, so the first endpoint to connect
+	 * decides the delays.
+	 *
+	 * @param reconnect the reconnect to set
+	 */
+	public void setReconnect(boolean reconnect) {
+		this.reconnect = reconnect;
+	}
+
+	/**
+	 * @return the reconnectDelay
+	 */
+	public long getReconnectDelay() {
+		return reconnectDelay;
+	}
+
+	/**
+	 * Delay before the first reconnect attempt (ms), doubled after each
+	 * failed attempt up to maxReconnectDelay.
+	 *
+	 * @param reconnectDelay the reconnectDelay to set
+	 */
+	public void setReconnectDelay(long reconnectDelay) {
+		this.reconnectDelay = reconnectDelay;
+	}
+
+	/**
+	 * @return the maxReconnectDelay
+	 */
+	public long getMaxReconnectDelay() {
+		return maxReconnectDelay;
+	}
+
+	/**
+	 * @param maxReconnectDelay the upper bound of the delay between
+	 * reconnect attempts (ms)
+	 */
+	public void setMaxReconnectDelay(long maxReconnectDelay) {
+		this.maxReconnectDelay = maxReconnectDelay;
+	}
+
+	/**
+	 * @return the fixedRate
+	 */
+	public boolean isFixedRate() {
+		return fixedRate;
+	}
+
+	/**
+	 * Polls on a fixed grid of slots instead of waiting the delay after each
+	 * cycle, see overrunPolicy for cycles that run late.
+	 *
+	 * @param fixedRate the fixedRate to set
+	 */
+	public void setFixedRate(boolean fixedRate) {
+		this.fixedRate = fixedRate;
+	}
+
+	/**
+	 * @return the overrunPolicy
+	 */
+	public Opcda2PollScheduler.OverrunPolicy getOverrunPolicy() {
+		return overrunPolicy;
+	}
+
+	/**
+	 * What a fixed rate does with the slots a long cycle ran into: SKIP
+	 * waits for the next slot, COALESCE (the default) polls once at once.
+	 *
+	 * @param overrunPolicy the overrunPolicy to set
+	 */
+	public void setOverrunPolicy(Opcda2PollScheduler.OverrunPolicy overrunPolicy) {
+		this.overrunPolicy = overrunPolicy;
+	}
+
+	/**
+	 * @return the adaptiveRate
+	 */
+	public boolean isAdaptiveRate() {
+		return adaptiveRate;
+	}
+
+	/**
+	 * Doubles the poll period while cycles take most of it, e.g. when the
+	 * server slows down, and shortens it again once they are fast.
+	 *
+	 * @param adaptiveRate the adaptiveRate to set
+	 */
+	public void setAdaptiveRate(boolean adaptiveRate) {
+		this.adaptiveRate = adaptiveRate;
+	}
+
+	/**
+	 * @return the maxAdaptiveDelay
+	 */
+	public long getMaxAdaptiveDelay() {
+		return maxAdaptiveDelay;
+	}
+
+	/**
+	 * Longest poll period adaptiveRate slows down to (ms), 0 for ten times
+	 * the delay.
+	 *
+	 * @param maxAdaptiveDelay the maxAdaptiveDelay to set
+	 */
+	public void setMaxAdaptiveDelay(long maxAdaptiveDelay) {
+		this.maxAdaptiveDelay = maxAdaptiveDelay;
+	}
+
+	/**
+	 * @return the streaming
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Emits the changed items of a poll in exchanges of up to batchSize
+	 * items, from a separate thread fed through a buffer of bufferSize
+	 * items. Polls then no longer wait for the route, and do not build one
+	 * exchange holding every item.
+	 *
+	 * @param streaming the streaming to set
+	 */
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @return the batchSize
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * The most items of a streamed exchange, 1 (the default) for one
+	 * exchange per item.
+	 *
+	 * @param batchSize the batchSize to set
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * @return the batchTime
+	 */
+	public long getBatchTime() {
+		return batchTime;
+	}
+
+	/**
+	 * How long a streamed exchange waits for batchSize items after its
+	 * first one (ms), 0 (the default) sends what is there.
+	 *
+	 * @param batchTime the batchTime to set
+	 */
+	public void setBatchTime(long batchTime) {
+		this.batchTime = batchTime;
+	}
+
+	/**
+	 * @return the bufferSize
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * @param bufferSize the most item states waiting to be streamed
+	 */
+	public void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @return the overflowPolicy
+	 */
+	public Opcda2TagBuffer.OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * What a poll does when the streaming buffer is full: BLOCK (the
+	 * default) waits for the route, DROP_OLDEST drops the oldest states,
+	 * COALESCE replaces a waiting state of the same item.
+	 *
+	 * @param overflowPolicy the overflowPolicy to set
+	 */
+	public void setOverflowPolicy(Opcda2TagBuffer.OverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * @return the journal
+	 */
+	public String getJournal() {
+		return journal;
+	}
+
+	/**
+	 * File of a memory-mapped journal keeping the polling consumer's
+	 * exchanges while the route fails. They are replayed in order once it
+	 * accepts them again, see {@link Opcda2Journal}. Unset (the default)
+	 * loses them.
+	 *
+	 * @param journal the journal to set
+	 */
+	public void setJournal(String journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @return the journalSize
+	 */
+	public long getJournalSize() {
+		return journalSize;
+	}
+
+	/**
+	 * Most bytes of the journal file (64 MB by default). Once full, the
+	 * journal keeps only the latest state of each item.
+	 *
+	 * @param journalSize the journalSize to set
+	 */
+	public void setJournalSize(long journalSize) {
+		this.journalSize = journalSize;
+	}
+
+	/**
+	 * @return the historySize
+	 */
+	public int getHistorySize() {
+		return historySize;
+	}
+
+	/**
+	 * Samples kept per item for history queries, see {@link Opcda2History}
+	 * and {@link Opcda2Producer#queryHistory(org.apache.camel.Exchange)}.
+	 * 0 (the default) keeps no history.
+	 *
+	 * @param historySize the historySize to set
+	 */
+	public void setHistorySize(int historySize) {
+		this.historySize = historySize;
+	}
+
+	/**
+	 * @return the historyRetention
+	 */
+	public long getHistoryRetention() {
+		return historyRetention;
+	}
+
+	/**
+	 * Age of the oldest sample history queries return (ms before the newest
+	 * sample), 0 (the default) for as many as <code>historySize</code> keeps.
+	 *
+	 * @param historyRetention the historyRetention to set
+	 */
+	public void setHistoryRetention(long historyRetention) {
+		this.historyRetention = historyRetention;
+	}
+
+	/**
+	 * @return the historyOffHeap
+	 */
+	public boolean isHistoryOffHeap() {
+		return historyOffHeap;
+	}
+
+	/**
+	 * Keeps the history in direct memory rather than on the heap, for large
+	 * item sets. Size it with <code>-XX:MaxDirectMemorySize</code>.
+	 *
+	 * @param historyOffHeap the historyOffHeap to set
+	 */
+	public void setHistoryOffHeap(boolean historyOffHeap) {
+		this.historyOffHeap = historyOffHeap;
+	}
+
+	/**
+	 * @return the maxAge
+	 */
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Oldest cached state a producer read returns (ms, 1000 by default),
+	 * older ones are read from the device. 0 always reads the device, -1
+	 * takes any cached state. Subscribed items are cached when they change,
+	 * so a route reading only subscribed items can set -1. See
+	 * {@link Opcda2Producer#readItems(org.apache.camel.Exchange)}.
+	 *
+	 * @param maxAge the maxAge to set
+	 */
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * @return the include
+	 */
+	public String getInclude() {
+		return include;
+	}
+
+	/**
+	 * Items to register, globs or <code>regex:</code> expressions on the item
+	 * id separated by <code>;</code>, see {@link Opcda2ItemSelector}. When
+	 * set, items are picked from a flat browse of the whole server instead
+	 * of the tree below the path.
+	 *
+	 * @param include the include to set
+	 */
+	public void setInclude(String include) {
+		this.include = include;
+	}
+
+	/**
+	 * @return the exclude
+	 */
+	public String getExclude() {
+		return exclude;
+	}
+
+	/**
+	 * Items not to register, in the same form as <code>include</code>.
+	 *
+	 * @param exclude the exclude to set
+	 */
+	public void setExclude(String exclude) {
+		this.exclude = exclude;
+	}
+
+	/**
+	 * @return the browseParallelism
+	 */
+	public int getBrowseParallelism() {
+		return browseParallelism;
+	}
+
+	/**
+	 * Branches browsed at the same time when the path is resolved (1 by
+	 * default, at most {@link #MAX_BROWSE_PARALLELISM}). A session browses
+	 * one branch at a time: the endpoint's session and, with
+	 * <code>shardSessions</code>, the shards' sessions are used first, and
+	 * each one still missing opens another session to the server for the
+	 * duration of the browse. So up to browseParallelism - 1 extra sessions
+	 * are opened while starting. Worth it for deep namespaces that are not
+	 * cached yet, see <code>namespaceCacheFile</code>.
+	 *
+	 * @param browseParallelism the browseParallelism to set
+	 */
+	public void setBrowseParallelism(int browseParallelism) {
+		this.browseParallelism = browseParallelism;
+	}
+
+	/**
+	 * Groups and items added to the server but not yet handed to the
+	 * readers, see {@link #publish(Registration)}.
+	 */
+	private static final class Registration {
+
+		final Map<String, Opcda2TransportItem> items = new TreeMap<String, Opcda2TransportItem>();
+		final Map<Opcda2ItemGroup, List<Opcda2TransportGroup>> shards = new LinkedHashMap<Opcda2ItemGroup, List<Opcda2TransportGroup>>();
+		final Map<Opcda2ItemGroup, Map<String, Opcda2TransportItem>> groupItems = new LinkedHashMap<Opcda2ItemGroup, Map<String, Opcda2TransportItem>>();
 	}
 }
@@ -0,0 +1,143 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative longs, cheap enough to record every
+ * poll, read call and write.
+ * <p>
+ * Values are counted in log-linear buckets: each power of two is split into
+ * 8 buckets, so percentiles are within 12.5% of the recorded values. Count,
+ * sum and max are exact. Recording is safe from any thread, reads may see a
+ * record half applied.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2Histogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS) * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value the value to record, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		final long v = Math.max(0, value);
+		buckets.incrementAndGet(indexOf(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		long current;
+		while (v > (current = max.get()) && !max.compareAndSet(current, v)) {
+			//retry
+		}
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return the highest value counted in the bucket
+	 */
+	static long upperBoundOf(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+		final long sub = index % SUB_BUCKETS;
+		final long bound = ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+		return bound < 0 ? Long.MAX_VALUE : bound;
+	}
+
+	/**
+	 * @param quantile between 0 and 1
+	 * @return the value below which the quantile of the recorded values
+	 * fall, never above the max, 0 if nothing was recorded.
+	 */
+	public long getPercentile(double quantile) {
+		final long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBoundOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the number of recorded values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the sum of the recorded values
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return the highest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return the mean of the recorded values, 0 if nothing was recorded
+	 */
+	public double getMean() {
+		final long total = count.get();
+		return total > 0 ? (double) sum.get() / total : 0;
+	}
+
+	/**
+	 * Forgets the recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < buckets.length(); i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+}
@@ -0,0 +1,350 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recent values of an endpoint's items, kept in memory so time ranges can
+ * be queried without a call to the server, see the endpoint's
+ * <code>historySize</code> option.
+ * <p>
+ * Each item gets a ring of <code>size</code> samples, a sample being the
+ * server timestamp, the value as a double and the quality. Once the ring is
+ * full the oldest sample is overwritten, samples older than the retention
+ * are never returned. Numbers, booleans (1 or 0), characters and dates (ms)
+ * are kept, other values are not. A sample with the same timestamp as the
+ * item's latest one is a repeated read of an unchanged value and is not
+ * added again.</p>
+ * <p>
+ * All rings live in one buffer of fixed size samples, on or off the heap:
+ * the heap holds no object per sample, so a large history does not weigh on
+ * the garbage collector. The buffer grows as items are added, up to 2 GB.</p>
+ * <p>
+ * Thread safe, fed by the consumers and queried by any thread.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2History {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2History.class);
+
+	static final int TIMESTAMP_OFFSET = 0;
+	static final int VALUE_OFFSET = 8;
+	static final int QUALITY_OFFSET = 16;
+	/**
+	 * Bytes per sample.
+	 */
+	static final int SAMPLE_SIZE = 18;
+
+	private final int size;
+	private final long retention;
+	private final boolean offHeap;
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private ByteBuffer samples;
+	private int[] heads = new int[0];
+	private int[] counts = new int[0];
+	private long latest;
+	private boolean full;
+
+	/**
+	 * @param size the most samples kept per item
+	 * @param retention the oldest sample returned (ms before the latest
+	 * sample of any item), &lt;= 0 for no limit
+	 * @param offHeap true to keep the samples in direct memory
+	 * @param items the expected number of items, rings for more are added
+	 * as needed
+	 */
+	public Opcda2History(int size, long retention, boolean offHeap, int items) {
+		if (size <= 0) {
+			throw new IllegalArgumentException(String.format(INVALID_SIZE_MSG, size));
+		}
+		this.size = size;
+		this.retention = retention;
+		this.offHeap = offHeap;
+		grow(Math.max(items, 1));
+	}
+	public static final String INVALID_SIZE_MSG = "History size must be > 0, was %d";
+
+	/**
+	 * Adds a sample of an item, see the class description for the values
+	 * kept.
+	 *
+	 * @param itemId the item's id
+	 * @param value its value, as decoded
+	 * @param quality its quality
+	 * @param timestamp its server timestamp (ms), &lt;= 0 for <code>now</code>
+	 * @param now the time of the read (ms)
+	 * @return true if the sample was added
+	 */
+	public boolean record(String itemId, Object value, short quality, long timestamp, long now) {
+		final double bits;
+		if (value instanceof Number) {
+			bits = ((Number) value).doubleValue();
+		} else if (value instanceof Boolean) {
+			bits = ((Boolean) value).booleanValue() ? 1 : 0;
+		} else if (value instanceof Date) {
+			bits = ((Date) value).getTime();
+		} else if (value instanceof Character) {
+			bits = ((Character) value).charValue();
+		} else {
+			return false;
+		}
+		return record(itemId, bits, quality, timestamp > 0 ? timestamp : now);
+	}
+
+	/**
+	 * Adds a sample of an item.
+	 *
+	 * @param itemId the item's id
+	 * @param value its value
+	 * @param quality its quality
+	 * @param timestamp its timestamp (ms)
+	 * @return true if the sample was added
+	 */
+	public synchronized boolean record(String itemId, double value, short quality, long timestamp) {
+		final int slot = slot(itemId);
+		if (slot < 0) {
+			return false;
+		}
+		final int count = counts[slot];
+		if (count > 0 && timestamp == samples.getLong(offset(slot, count - 1) + TIMESTAMP_OFFSET)) {
+			return false;
+		}
+		final int position;
+		if (count < size) {
+			position = offset(slot, count);
+			counts[slot] = count + 1;
+		} else {
+			position = offset(slot, 0);
+			heads[slot] = (heads[slot] + 1) % size;
+		}
+		samples.putLong(position + TIMESTAMP_OFFSET, timestamp);
+		samples.putDouble(position + VALUE_OFFSET, value);
+		samples.putShort(position + QUALITY_OFFSET, quality);
+		latest = Math.max(latest, timestamp);
+		return true;
+	}
+
+	/**
+	 * Returns the samples of an item in a time range, oldest first.
+	 *
+	 * @param itemId the item's id
+	 * @param from the oldest timestamp returned (ms, inclusive)
+	 * @param to the newest timestamp returned (ms, inclusive)
+	 * @return the samples, empty if none or the item is unknown
+	 */
+	public synchronized Slice query(String itemId, long from, long to) {
+		final Integer slot = slots.get(itemId);
+		if (slot == null) {
+			return Slice.EMPTY;
+		}
+		final long oldest = retention > 0 ? Math.max(from, latest - retention) : from;
+		final int count = counts[slot];
+		// timestamps are mostly ascending, but a server may step its clock
+		// back, so scan rather than search
+		int first = 0;
+		while (first < count && timestamp(slot, first) < oldest) {
+			first++;
+		}
+		int matched = 0;
+		for (int i = first; i < count; i++) {
+			final long timestamp = timestamp(slot, i);
+			if (timestamp >= oldest && timestamp <= to) {
+				matched++;
+			}
+		}
+		final long[] timestamps = new long[matched];
+		final double[] values = new double[matched];
+		final short[] qualities = new short[matched];
+		int j = 0;
+		for (int i = first; i < count; i++) {
+			final int position = offset(slot, i);
+			final long timestamp = samples.getLong(position + TIMESTAMP_OFFSET);
+			if (timestamp >= oldest && timestamp <= to) {
+				timestamps[j] = timestamp;
+				values[j] = samples.getDouble(position + VALUE_OFFSET);
+				qualities[j] = samples.getShort(position + QUALITY_OFFSET);
+				j++;
+			}
+		}
+		return new Slice(timestamps, values, qualities);
+	}
+
+	/**
+	 * @param itemId the item's id
+	 * @return the item's latest sample, empty if none
+	 */
+	public synchronized Slice latest(String itemId) {
+		final Integer slot = slots.get(itemId);
+		if (slot == null || counts[slot] == 0) {
+			return Slice.EMPTY;
+		}
+		final int position = offset(slot, counts[slot] - 1);
+		final long timestamp = samples.getLong(position + TIMESTAMP_OFFSET);
+		if (retention > 0 && timestamp < latest - retention) {
+			return Slice.EMPTY;
+		}
+		return new Slice(new long[]{timestamp},
+				new double[]{samples.getDouble(position + VALUE_OFFSET)},
+				new short[]{samples.getShort(position + QUALITY_OFFSET)});
+	}
+
+	/**
+	 * Drops every sample, the rings are kept.
+	 */
+	public synchronized void clear() {
+		Arrays.fill(heads, 0);
+		Arrays.fill(counts, 0);
+		latest = 0;
+	}
+
+	/**
+	 * @return the number of items with a ring
+	 */
+	public synchronized int getItemCount() {
+		return slots.size();
+	}
+
+	/**
+	 * @return the bytes held by the rings
+	 */
+	public synchronized long getCapacityBytes() {
+		return samples.capacity();
+	}
+
+	/**
+	 * @return the most samples kept per item
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the retention (ms), &lt;= 0 for no limit
+	 */
+	public long getRetention() {
+		return retention;
+	}
+
+	private long timestamp(int slot, int i) {
+		return samples.getLong(offset(slot, i) + TIMESTAMP_OFFSET);
+	}
+
+	/**
+	 * @param i the sample's age rank, 0 is the oldest
+	 */
+	private int offset(int slot, int i) {
+		return (slot * size + (heads[slot] + i) % size) * SAMPLE_SIZE;
+	}
+
+	private int slot(String itemId) {
+		Integer slot = slots.get(itemId);
+		if (slot == null) {
+			if (slots.size() == heads.length && !grow(heads.length * 2)) {
+				return -1;
+			}
+			slot = slots.size();
+			slots.put(itemId, slot);
+		}
+		return slot;
+	}
+
+	private boolean grow(int items) {
+		long bytes = (long) items * size * SAMPLE_SIZE;
+		if (bytes > Integer.MAX_VALUE) {
+			items = Integer.MAX_VALUE / (size * SAMPLE_SIZE);
+			bytes = (long) items * size * SAMPLE_SIZE;
+		}
+		if (items <= heads.length) {
+			if (samples == null) {
+				throw new IllegalArgumentException(String.format(SIZE_TOO_LARGE_MSG, size));
+			}
+			if (!full) {
+				full = true;
+				logger.warn(String.format(HISTORY_FULL_MSG, heads.length, size));
+			}
+			return false;
+		}
+		final ByteBuffer grown = offHeap ? ByteBuffer.allocateDirect((int) bytes) : ByteBuffer.allocate((int) bytes);
+		if (samples != null) {
+			samples.clear();
+			grown.put(samples);
+		}
+		samples = grown;
+		heads = Arrays.copyOf(heads, items);
+		counts = Arrays.copyOf(counts, items);
+		return true;
+	}
+	public static final String SIZE_TOO_LARGE_MSG = "History size %d is too large, an item's samples must fit in 2 GB";
+	public static final String HISTORY_FULL_MSG = "History is full at %d items of %d samples, new items are not recorded";
+
+	/**
+	 * Samples of one item, oldest first.
+	 */
+	public static class Slice {
+
+		static final Slice EMPTY = new Slice(new long[0], new double[0], new short[0]);
+
+		private final long[] timestamps;
+		private final double[] values;
+		private final short[] qualities;
+
+		Slice(long[] timestamps, double[] values, short[] qualities) {
+			this.timestamps = timestamps;
+			this.values = values;
+			this.qualities = qualities;
+		}
+
+		/**
+		 * @return the number of samples
+		 */
+		public int size() {
+			return timestamps.length;
+		}
+
+		/**
+		 * @return the timestamps (ms)
+		 */
+		public long[] getTimestamps() {
+			return timestamps;
+		}
+
+		/**
+		 * @return the values
+		 */
+		public double[] getValues() {
+			return values;
+		}
+
+		/**
+		 * @return the qualities
+		 */
+		public short[] getQualities() {
+			return qualities;
+		}
+	}
+}
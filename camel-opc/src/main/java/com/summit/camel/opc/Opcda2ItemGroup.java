@@ -0,0 +1,192 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * One OPC group of an endpoint, with its own rate and schedule.
+ * <p>
+ * An endpoint's items can be split over several groups with the
+ * <code>groups</code> option, rules of the form
+ * <code>name=pattern@rate</code>, optionally followed by
+ * <code>:poll</code> or <code>:subscribe</code> and separated by
+ * <code>;</code>. Patterns are globs on the item id, so a browse sub-branch
+ * is selected by its id prefix, e.g. <code>Plant.Tanks.*</code>. Each item
+ * goes to the first group it matches, items matching no group go to the
+ * default group, which runs at the endpoint's own rate and schedule.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ItemGroup {
+
+	public static final String DEFAULT_NAME = "default";
+
+	private final String name;
+	private final Pattern pattern;
+	private final int rate;
+	private final Boolean subscribe;
+	private volatile Map<String, Opcda2TransportItem> items = Collections.emptyMap();
+	private volatile List<Opcda2TransportGroup> shards = Collections.emptyList();
+
+	/**
+	 * @param name the group's name
+	 * @param pattern item ids of the group, null for the default group
+	 * @param rate update or poll rate in ms, &lt;= 0 for the endpoint's
+	 * @param subscribe true to subscribe, false to poll, null for the
+	 * endpoint's schedule
+	 */
+	public Opcda2ItemGroup(String name, Pattern pattern, int rate, Boolean subscribe) {
+		this.name = name;
+		this.pattern = pattern;
+		this.rate = rate;
+		this.subscribe = subscribe;
+	}
+
+	/**
+	 * Parses the <code>groups</code> option.
+	 *
+	 * @param spec the rules, may be null
+	 * @return the groups, in rule order
+	 */
+	static List<Opcda2ItemGroup> parse(String spec) {
+		List<Opcda2ItemGroup> retVal = new ArrayList<Opcda2ItemGroup>();
+		if (spec == null || spec.trim().isEmpty()) {
+			return retVal;
+		}
+		for (String rule : spec.split(";")) {
+			if (rule.trim().isEmpty()) {
+				continue;
+			}
+			int split = rule.indexOf('=');
+			int at = rule.lastIndexOf('@');
+			if (split <= 0 || at < split) {
+				throw new IllegalArgumentException(String.format(INVALID_GROUP_MSG, rule));
+			}
+			String name = rule.substring(0, split).trim();
+			String schedule = rule.substring(at + 1).trim();
+			Boolean subscribe = null;
+			int colon = schedule.indexOf(':');
+			if (colon >= 0) {
+				String mode = schedule.substring(colon + 1).trim();
+				if ("subscribe".equalsIgnoreCase(mode)) {
+					subscribe = Boolean.TRUE;
+				} else if ("poll".equalsIgnoreCase(mode)) {
+					subscribe = Boolean.FALSE;
+				} else {
+					throw new IllegalArgumentException(String.format(INVALID_GROUP_MSG, rule));
+				}
+				schedule = schedule.substring(0, colon).trim();
+			}
+			if (DEFAULT_NAME.equals(name)) {
+				throw new IllegalArgumentException(String.format(INVALID_GROUP_MSG, rule));
+			}
+			try {
+				retVal.add(new Opcda2ItemGroup(name, Opcda2ChangeFilter.globToPattern(rule.substring(split + 1, at).trim()),
+						Integer.parseInt(schedule), subscribe));
+			} catch (NumberFormatException ex) {
+				throw new IllegalArgumentException(String.format(INVALID_GROUP_MSG, rule), ex);
+			}
+		}
+		return retVal;
+	}
+	public static final String INVALID_GROUP_MSG = "Invalid group '%s', expected name=pattern@rate, optionally followed by :poll or :subscribe (name must not be '" + DEFAULT_NAME + "')";
+
+	/**
+	 * @param itemId an item id
+	 * @return true if the item belongs to this group, the default group
+	 * matches every item.
+	 */
+	public boolean matches(String itemId) {
+		return pattern == null || pattern.matcher(itemId).matches();
+	}
+
+	/**
+	 * @return true for the group of the items matching no rule
+	 */
+	public boolean isDefault() {
+		return pattern == null;
+	}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param endpoint the owning endpoint
+	 * @return the group's rate, or the endpoint's rate for its schedule
+	 */
+	public int getRate(Opcda2Endpoint endpoint) {
+		if (rate > 0) {
+			return rate;
+		}
+		return isSubscribe(endpoint) && endpoint.getUpdateRate() > 0 ? endpoint.getUpdateRate() : endpoint.getDelay();
+	}
+
+	/**
+	 * @param endpoint the owning endpoint
+	 * @return true if the group's items are subscribed to rather than polled
+	 */
+	public boolean isSubscribe(Opcda2Endpoint endpoint) {
+		return subscribe != null ? subscribe.booleanValue() : endpoint.isSubscribe();
+	}
+
+	/**
+	 * @return the group (the first shard), null until the endpoint is
+	 * connected
+	 */
+	public Opcda2TransportGroup getGroup() {
+		final List<Opcda2TransportGroup> current = shards;
+		return current.isEmpty() ? null : current.get(0);
+	}
+
+	/**
+	 * @return the groups the items are split over, see the
+	 * endpoint's <code>shards</code> option. Each item belongs to the group
+	 * returned by {@link Opcda2TransportItem#getGroup()}.
+	 */
+	public List<Opcda2TransportGroup> getShards() {
+		return shards;
+	}
+
+	void setShards(List<Opcda2TransportGroup> shards) {
+		this.shards = Collections.unmodifiableList(new ArrayList<Opcda2TransportGroup>(shards));
+	}
+
+	/**
+	 * @return the group's items, by item id. Replaced as a whole when the
+	 * endpoint's items are restored, never changed in place.
+	 */
+	public Map<String, Opcda2TransportItem> getItems() {
+		return items;
+	}
+
+	void setItems(Map<String, Opcda2TransportItem> items) {
+		this.items = Collections.unmodifiableMap(new TreeMap<String, Opcda2TransportItem>(items));
+	}
+}
@@ -0,0 +1,220 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Picks the items an endpoint registers, from its <code>include</code> and
+ * <code>exclude</code> options.
+ * <p>
+ * Each option is a list of selectors separated by <code>;</code>: a glob
+ * on the item id (<code>*</code> any characters, <code>?</code> one
+ * character), or a regular expression prefixed with <code>regex:</code>.
+ * An item is selected if it matches an include and no exclude; without
+ * includes, every item of the endpoint's path is a candidate.</p>
+ * <p>
+ * Against the server's sorted item index (see
+ * {@link Opcda2NamespaceCache#getItemIndex(com.summit.camel.opc.Opcda2Transport)}),
+ * each include only scans the range of ids starting with its literal
+ * prefix, so <code>Plant.Tanks.*</code> costs a binary search plus the
+ * tank items rather than a pass over the whole namespace.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ItemSelector {
+
+	public static final String REGEX_PREFIX = "regex:";
+
+	private final List<Selector> includes;
+	private final List<Selector> excludes;
+
+	Opcda2ItemSelector(List<Selector> includes, List<Selector> excludes) {
+		this.includes = includes;
+		this.excludes = excludes;
+	}
+
+	/**
+	 * @param include the <code>include</code> option, may be null
+	 * @param exclude the <code>exclude</code> option, may be null
+	 * @return the selector
+	 */
+	public static Opcda2ItemSelector parse(String include, String exclude) {
+		return new Opcda2ItemSelector(parseSelectors(include), parseSelectors(exclude));
+	}
+
+	private static List<Selector> parseSelectors(String spec) {
+		List<Selector> retVal = new ArrayList<Selector>();
+		if (spec == null || spec.trim().isEmpty()) {
+			return retVal;
+		}
+		for (String rule : spec.split(";")) {
+			final String trimmed = rule.trim();
+			if (trimmed.isEmpty()) {
+				continue;
+			}
+			if (trimmed.startsWith(REGEX_PREFIX)) {
+				final String regex = trimmed.substring(REGEX_PREFIX.length());
+				try {
+					retVal.add(new Selector(Pattern.compile(regex), regexPrefix(regex)));
+				} catch (PatternSyntaxException ex) {
+					throw new IllegalArgumentException(String.format(INVALID_SELECTOR_MSG, trimmed, ex.getDescription()), ex);
+				}
+			} else {
+				retVal.add(new Selector(Opcda2ChangeFilter.globToPattern(trimmed), globPrefix(trimmed)));
+			}
+		}
+		return retVal;
+	}
+	public static final String INVALID_SELECTOR_MSG = "Invalid selector '%s': %s";
+
+	/**
+	 * @return the characters before the first wildcard
+	 */
+	static String globPrefix(String glob) {
+		for (int i = 0; i < glob.length(); i++) {
+			final char c = glob.charAt(i);
+			if (c == '*' || c == '?') {
+				return glob.substring(0, i);
+			}
+		}
+		return glob;
+	}
+
+	/**
+	 * @return the literal characters every match starts with, possibly
+	 * fewer, empty when in doubt (e.g. alternations)
+	 */
+	static String regexPrefix(String regex) {
+		if (regex.indexOf('|') >= 0) {
+			return "";
+		}
+		final int start = regex.startsWith("^") ? 1 : 0;
+		for (int i = start; i < regex.length(); i++) {
+			final char c = regex.charAt(i);
+			if ("\\.[]{}()*+?^$".indexOf(c) >= 0) {
+				// a quantifier makes the last literal optional
+				final int end = c == '?' || c == '*' || c == '{' ? Math.max(start, i - 1) : i;
+				return regex.substring(start, end);
+			}
+		}
+		return regex.substring(start);
+	}
+
+	/**
+	 * @return true if items are picked from the server's whole item index
+	 * rather than the endpoint's path
+	 */
+	public boolean hasIncludes() {
+		return !includes.isEmpty();
+	}
+
+	/**
+	 * @return true if every item of the path is selected
+	 */
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty();
+	}
+
+	/**
+	 * @param itemId an item id
+	 * @return true if the item matches an include (or there are none) and
+	 * no exclude
+	 */
+	public boolean matches(String itemId) {
+		if (!includes.isEmpty() && !matchesAny(includes, itemId)) {
+			return false;
+		}
+		return !matchesAny(excludes, itemId);
+	}
+
+	private static boolean matchesAny(List<Selector> selectors, String itemId) {
+		for (Selector selector : selectors) {
+			if (selector.pattern.matcher(itemId).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param itemIds candidate item ids, e.g. the leaves of the endpoint's
+	 * path
+	 * @return the ids that match, in the same order
+	 */
+	public List<String> filter(Collection<String> itemIds) {
+		if (isEmpty()) {
+			return new ArrayList<String>(itemIds);
+		}
+		List<String> retVal = new ArrayList<String>();
+		for (String itemId : itemIds) {
+			if (matches(itemId)) {
+				retVal.add(itemId);
+			}
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param index every item id of the server, sorted
+	 * @return the ids that match an include and no exclude, sorted
+	 */
+	public List<String> select(List<String> index) {
+		TreeSet<String> retVal = new TreeSet<String>();
+		for (Selector include : includes) {
+			int i = include.prefix.isEmpty() ? 0 : lowerBound(index, include.prefix);
+			for (; i < index.size(); i++) {
+				final String itemId = index.get(i);
+				if (!itemId.startsWith(include.prefix)) {
+					break;
+				}
+				if (include.pattern.matcher(itemId).matches() && !matchesAny(excludes, itemId)) {
+					retVal.add(itemId);
+				}
+			}
+		}
+		return new ArrayList<String>(retVal);
+	}
+
+	/**
+	 * @return the index of the first id &gt;= key
+	 */
+	private static int lowerBound(List<String> index, String key) {
+		final int found = Collections.binarySearch(index, key);
+		return found >= 0 ? found : -found - 1;
+	}
+
+	static final class Selector {
+
+		final Pattern pattern;
+		final String prefix;
+
+		Selector(Pattern pattern, String prefix) {
+			this.pattern = pattern;
+			this.prefix = prefix;
+		}
+	}
+}
@@ -0,0 +1,354 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of tag snapshots in a memory-mapped file, holding a
+ * consumer's exchanges while its route fails so they can be replayed in
+ * order once it recovers, see the endpoint's <code>journal</code> option.
+ * <p>
+ * The file is a header, holding the positions of the oldest record and
+ * of the end of the journal, followed by the records. Each record is its
+ * length, the cycle id, the group name and the snapshot as encoded by
+ * {@link TagSnapshotCodec}. The file never grows past its size. When a
+ * record does not fit, the pending records are compacted into a single
+ * snapshot holding the latest state of each item. A journal left by a
+ * previous run is picked up where it stopped.</p>
+ * <p>
+ * Thread safe.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2Journal {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2Journal.class);
+
+	public static final int MAGIC = 0x4f504a4c;
+	public static final int VERSION = 1;
+	/**
+	 * Magic, version, record count, oldest record and end positions.
+	 */
+	public static final int HEADER_SIZE = 32;
+	private static final int READ_POSITION = 12;
+	private static final int WRITE_POSITION = 20;
+	private static final int COUNT = 8;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer map;
+	private int readPosition;
+	private int writePosition;
+	private int count;
+	private long compactions;
+
+	/**
+	 * Opens (or creates) a journal.
+	 *
+	 * @param file the journal file
+	 * @param size the most bytes the file holds, an existing larger file
+	 * keeps its size
+	 * @throws IOException if the file could not be opened or mapped.
+	 */
+	public Opcda2Journal(File file, long size) throws IOException {
+		if (size <= HEADER_SIZE || size > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(INVALID_SIZE_MSG, size, HEADER_SIZE, Integer.MAX_VALUE));
+		}
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			final long length = raf.length();
+			this.channel = raf.getChannel();
+			this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(length, size));
+		} catch (IOException ex) {
+			raf.close();
+			throw ex;
+		}
+		if (map.getInt(0) == MAGIC && map.getInt(4) == VERSION && isValid()) {
+			count = map.getInt(COUNT);
+			readPosition = map.getInt(READ_POSITION);
+			writePosition = map.getInt(WRITE_POSITION);
+			if (count > 0) {
+				logger.info(String.format(RECOVERED_MSG, count, file));
+			}
+		} else {
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			reset();
+		}
+	}
+	public static final String INVALID_SIZE_MSG = "Journal size %d must be > %d and <= %d";
+	public static final String RECOVERED_MSG = "Replaying %d records left in journal %s";
+
+	private boolean isValid() {
+		final int read = map.getInt(READ_POSITION);
+		final int write = map.getInt(WRITE_POSITION);
+		return read >= HEADER_SIZE && read <= write && write <= map.capacity() && map.getInt(COUNT) >= 0;
+	}
+
+	/**
+	 * Appends a snapshot, compacting the journal if it does not fit.
+	 *
+	 * @param cycleId the cycle the snapshot was read in
+	 * @param group its group, null for merged groups
+	 * @param snapshot the items
+	 * @throws IOException if the snapshot does not fit even in a compacted
+	 * journal, it is then dropped.
+	 */
+	public synchronized void append(long cycleId, String group, TagSnapshot snapshot) throws IOException {
+		ByteBuffer record = encode(cycleId, group, snapshot);
+		if (writePosition + record.remaining() > map.capacity()) {
+			List<Entry> pending = readAll();
+			pending.add(new Entry(cycleId, group, snapshot));
+			compact(pending);
+			return;
+		}
+		write(record);
+		flush();
+	}
+	public static final String JOURNAL_FULL_MSG = "Journal %s is full even with one state per item, dropping %d items";
+
+	/**
+	 * Replaces the pending records with one snapshot holding the latest state
+	 * of each item.
+	 */
+	private void compact(List<Entry> pending) throws IOException {
+		Map<String, Integer> latest = new LinkedHashMap<String, Integer>();
+		List<TagSnapshot> sources = new ArrayList<TagSnapshot>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		boolean valuesOnly = true;
+		int total = 0;
+		for (Entry entry : pending) {
+			valuesOnly &= entry.snapshot.isValuesOnly();
+			total += entry.snapshot.size();
+			for (int i = 0; i < entry.snapshot.size(); i++) {
+				final String itemId = entry.snapshot.getItemId(i);
+				latest.remove(itemId);
+				latest.put(itemId, sources.size());
+				sources.add(entry.snapshot);
+				indexes.add(i);
+			}
+		}
+		TagSnapshot.Builder builder = new TagSnapshot.Builder(latest.size()).valuesOnly(valuesOnly);
+		for (Integer at : latest.values()) {
+			final TagSnapshot source = sources.get(at);
+			final int i = indexes.get(at);
+			builder.add(source.getItemId(i), source.getType(i), source.getValue(i),
+					source.getQuality(i), source.getTimestamp(i), source.getErrorCode(i));
+		}
+		final Entry last = pending.get(pending.size() - 1);
+		ByteBuffer record = encode(last.cycleId, null, builder.build());
+		reset();
+		compactions++;
+		if (HEADER_SIZE + record.remaining() > map.capacity()) {
+			flush();
+			throw new IOException(String.format(JOURNAL_FULL_MSG, file, latest.size()));
+		}
+		write(record);
+		flush();
+		logger.info(String.format(COMPACTED_MSG, file, pending.size(), total, latest.size()));
+	}
+	public static final String COMPACTED_MSG = "Compacted journal %s from %d records of %d items to the latest state of %d items";
+
+	/**
+	 * @return the oldest record, null if the journal is empty
+	 */
+	public synchronized Entry peek() {
+		return count > 0 ? read(readPosition) : null;
+	}
+
+	/**
+	 * Removes the oldest record, once it has been sent.
+	 */
+	public synchronized void remove() {
+		if (count == 0) {
+			return;
+		}
+		readPosition += 4 + map.getInt(readPosition);
+		count--;
+		if (count == 0) {
+			reset();
+		} else {
+			map.putInt(READ_POSITION, readPosition);
+			map.putInt(COUNT, count);
+		}
+	}
+
+	/**
+	 * @return the number of records waiting
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	/**
+	 * @return true if no record is waiting
+	 */
+	public synchronized boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @return the bytes used by the waiting records
+	 */
+	public synchronized long getUsed() {
+		return writePosition - readPosition;
+	}
+
+	/**
+	 * @return the number of times the journal was compacted
+	 */
+	public synchronized long getCompactions() {
+		return compactions;
+	}
+
+	/**
+	 * Writes the journal to disk and closes the file. Waiting records stay
+	 * in the file for the next run.
+	 */
+	public synchronized void close() {
+		flush();
+		try {
+			channel.close();
+			raf.close();
+		} catch (IOException ex) {
+			logger.warn(String.format(CLOSE_FAILED_MSG, file, ex.getMessage()));
+		}
+	}
+	public static final String CLOSE_FAILED_MSG = "Unable to close journal %s: %s";
+
+	private void reset() {
+		readPosition = HEADER_SIZE;
+		writePosition = HEADER_SIZE;
+		count = 0;
+		map.putInt(COUNT, count);
+		map.putInt(READ_POSITION, readPosition);
+		map.putInt(WRITE_POSITION, writePosition);
+	}
+
+	private void write(ByteBuffer record) {
+		final int length = record.remaining();
+		ByteBuffer target = map.duplicate();
+		target.position(writePosition);
+		target.put(record);
+		writePosition += length;
+		count++;
+		map.putInt(COUNT, count);
+		map.putInt(WRITE_POSITION, writePosition);
+	}
+
+	private void flush() {
+		map.force();
+	}
+
+	private List<Entry> readAll() {
+		List<Entry> retVal = new ArrayList<Entry>(count + 1);
+		int position = readPosition;
+		for (int i = 0; i < count; i++) {
+			retVal.add(read(position));
+			position += 4 + map.getInt(position);
+		}
+		return retVal;
+	}
+
+	private Entry read(int position) {
+		ByteBuffer source = map.duplicate();
+		source.position(position + 4);
+		final long cycleId = source.getLong();
+		final int groupLength = source.getInt();
+		String group = null;
+		if (groupLength >= 0) {
+			byte[] bytes = new byte[groupLength];
+			source.get(bytes);
+			group = new String(bytes, UTF8);
+		}
+		return new Entry(cycleId, group, TagSnapshotCodec.decode(source));
+	}
+
+	private static ByteBuffer encode(long cycleId, String group, TagSnapshot snapshot) {
+		final byte[] groupBytes = group != null ? group.getBytes(UTF8) : null;
+		final ByteBuffer encoded = TagSnapshotCodec.encode(snapshot);
+		final int length = 8 + 4 + (groupBytes != null ? groupBytes.length : 0) + encoded.remaining();
+		ByteBuffer retVal = ByteBuffer.allocate(4 + length);
+		retVal.putInt(length);
+		retVal.putLong(cycleId);
+		if (groupBytes != null) {
+			retVal.putInt(groupBytes.length);
+			retVal.put(groupBytes);
+		} else {
+			retVal.putInt(-1);
+		}
+		retVal.put(encoded);
+		retVal.flip();
+		return retVal;
+	}
+
+	/**
+	 * One journaled exchange.
+	 */
+	public static final class Entry {
+
+		private final long cycleId;
+		private final String group;
+		private final TagSnapshot snapshot;
+
+		Entry(long cycleId, String group, TagSnapshot snapshot) {
+			this.cycleId = cycleId;
+			this.group = group;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * @return the cycle the items were read in
+		 */
+		public long getCycleId() {
+			return cycleId;
+		}
+
+		/**
+		 * @return the group, null for merged groups or a compacted record
+		 */
+		public String getGroup() {
+			return group;
+		}
+
+		/**
+		 * @return the items
+		 */
+		public TagSnapshot getSnapshot() {
+			return snapshot;
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.camel.api.management.ManagedAttribute;
+import org.apache.camel.api.management.ManagedOperation;
+import org.apache.camel.api.management.ManagedResource;
+
+/**
+ * Where an endpoint's time goes: poll cycles, server calls, decoding and
+ * writes.
+ * <p>
+ * Each endpoint has one, shared by its consumers and producers and
+ * registered with Camel's management (JMX) as
+ * <code>org.apache.camel:context=...,type=opcda2,name="endpoint uri"</code>.
+ * Recording is a few atomic increments and a {@link System#nanoTime()}
+ * call per cycle, server call or write, so metrics are always on. An
+ * endpoint's <code>metricsFactory</code> option can subclass them to also
+ * publish elsewhere, see {@link Opcda2MetricsFactory}.</p>
+ * <p>
+ * A subscription's cycle is one flush: the changes received and accepted
+ * since the previous flush.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+@ManagedResource(description = "OPC DA 2 endpoint metrics")
+public class Opcda2Metrics {
+
+	/**
+	 * Quality bits of an OPC quality, 0xC0 is good.
+	 */
+	public static final int QUALITY_MASK = 0xC0;
+	public static final int QUALITY_GOOD = 0xC0;
+
+	private final Opcda2Histogram pollDuration = new Opcda2Histogram();
+	private final Opcda2Histogram readLatency = new Opcda2Histogram();
+	private final Opcda2Histogram decodeDuration = new Opcda2Histogram();
+	private final Opcda2Histogram itemsRead = new Opcda2Histogram();
+	private final Opcda2Histogram itemsChanged = new Opcda2Histogram();
+	private final Opcda2Histogram exchangeSize = new Opcda2Histogram();
+	private final Opcda2Histogram writeLatency = new Opcda2Histogram();
+	private final AtomicLong badQuality = new AtomicLong();
+	private final AtomicLong readErrors = new AtomicLong();
+	private final AtomicLong writeItems = new AtomicLong();
+	private final AtomicLong writeFailures = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	private final Opcda2Histogram cycleLag = new Opcda2Histogram();
+	private final AtomicLong overruns = new AtomicLong();
+	private final AtomicLong skippedCycles = new AtomicLong();
+	private final AtomicLong pollPeriod = new AtomicLong();
+	private final AtomicLong streamDropped = new AtomicLong();
+	private final AtomicLong streamCoalesced = new AtomicLong();
+	private final AtomicLong journaled = new AtomicLong();
+	private final AtomicLong replayed = new AtomicLong();
+	private final AtomicLong journalDropped = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+
+	/**
+	 * @param quality an OPC quality
+	 * @return true unless the quality is good
+	 */
+	public static boolean isBad(short quality) {
+		return (quality & QUALITY_MASK) != QUALITY_GOOD;
+	}
+
+	/**
+	 * @param durationNanos time the cycle took, reads to emitted exchanges
+	 * @param read the number of item states read
+	 * @param changed the number of those that passed the change filter
+	 */
+	public void recordCycle(long durationNanos, int read, int changed) {
+		pollDuration.record(durationNanos);
+		itemsRead.record(read);
+		itemsChanged.record(changed);
+	}
+
+	/**
+	 * @param latencyNanos time one read call to the server took
+	 */
+	public void recordRead(long latencyNanos) {
+		readLatency.record(latencyNanos);
+	}
+
+	/**
+	 * @param durationNanos time a cycle spent decoding, filtering and
+	 * building the body, outside of server calls
+	 */
+	public void recordDecode(long durationNanos) {
+		decodeDuration.record(durationNanos);
+	}
+
+	/**
+	 * @param items the number of items of an emitted exchange
+	 */
+	public void recordExchange(int items) {
+		exchangeSize.record(items);
+	}
+
+	/**
+	 * @param count the number of item states read without good quality
+	 */
+	public void recordBadQuality(int count) {
+		if (count > 0) {
+			badQuality.addAndGet(count);
+		}
+	}
+
+	/**
+	 * @param count the number of items that could not be read
+	 */
+	public void recordReadErrors(int count) {
+		if (count > 0) {
+			readErrors.addAndGet(count);
+		}
+	}
+
+	/**
+	 * @param latencyNanos time one write call to the server took
+	 * @param items the number of items written by the call
+	 * @param failed the number of those the server did not accept
+	 */
+	public void recordWrite(long latencyNanos, int items, int failed) {
+		writeLatency.record(latencyNanos);
+		writeItems.addAndGet(items);
+		if (failed > 0) {
+			writeFailures.addAndGet(failed);
+		}
+	}
+
+	/**
+	 * Counts a lost server session that was connected again.
+	 */
+	public void recordReconnect() {
+		reconnects.incrementAndGet();
+	}
+
+	/**
+	 * @param lagNanos how late a poll cycle started after its slot
+	 */
+	public void recordLag(long lagNanos) {
+		cycleLag.record(lagNanos);
+	}
+
+	/**
+	 * Counts a poll cycle that took longer than the poll period.
+	 */
+	public void recordOverrun() {
+		overruns.incrementAndGet();
+	}
+
+	/**
+	 * @param count the number of fixed rate slots skipped or coalesced
+	 */
+	public void recordSkipped(long count) {
+		if (count > 0) {
+			skippedCycles.addAndGet(count);
+		}
+	}
+
+	/**
+	 * @param dropped the number of streamed item states dropped to make room
+	 * in a full buffer
+	 * @param coalesced the number replaced by a newer state of their item
+	 */
+	public void recordStreamOverflow(long dropped, long coalesced) {
+		if (dropped > 0) {
+			streamDropped.addAndGet(dropped);
+		}
+		if (coalesced > 0) {
+			streamCoalesced.addAndGet(coalesced);
+		}
+	}
+
+	/**
+	 * Counts an exchange written to the journal because the route failed.
+	 */
+	public void recordJournaled() {
+		journaled.incrementAndGet();
+	}
+
+	/**
+	 * Counts a journaled exchange the route accepted on replay.
+	 */
+	public void recordReplayed() {
+		replayed.incrementAndGet();
+	}
+
+	/**
+	 * @param items the number of items lost because the journal was full
+	 */
+	public void recordJournalDropped(int items) {
+		if (items > 0) {
+			journalDropped.addAndGet(items);
+		}
+	}
+
+	/**
+	 * @param hits items a producer read served from the value cache
+	 * @param misses items it had to read from the server
+	 */
+	public void recordCacheRead(int hits, int misses) {
+		cacheHits.addAndGet(hits);
+		cacheMisses.addAndGet(misses);
+	}
+
+	/**
+	 * @param periodMillis the poll period in use, changed by adaptive rate
+	 */
+	public void setPollPeriod(long periodMillis) {
+		pollPeriod.set(periodMillis);
+	}
+
+	@ManagedAttribute(description = "Poll cycles (or subscription flushes)")
+	public long getCycles() {
+		return pollDuration.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean cycle duration (ms)")
+	public double getCycleMeanMillis() {
+		return pollDuration.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "99th percentile of the cycle duration (ms)")
+	public double getCycle99thMillis() {
+		return (double) pollDuration.getPercentile(0.99) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Longest cycle (ms)")
+	public double getCycleMaxMillis() {
+		return (double) pollDuration.getMax() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Read calls to the server")
+	public long getReadCalls() {
+		return readLatency.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean latency of a read call (ms)")
+	public double getReadMeanMillis() {
+		return readLatency.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "99th percentile of the read call latency (ms)")
+	public double getRead99thMillis() {
+		return (double) readLatency.getPercentile(0.99) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Mean time a cycle spends decoding and filtering (ms)")
+	public double getDecodeMeanMillis() {
+		return decodeDuration.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Item states read")
+	public long getItemsRead() {
+		return itemsRead.getSum();
+	}
+
+	@ManagedAttribute(description = "Item states that passed the change filter")
+	public long getItemsChanged() {
+		return itemsChanged.getSum();
+	}
+
+	@ManagedAttribute(description = "Share of the read item states that passed the change filter")
+	public double getChangeRatio() {
+		final long read = itemsRead.getSum();
+		return read > 0 ? (double) itemsChanged.getSum() / read : 0;
+	}
+
+	@ManagedAttribute(description = "Exchanges emitted")
+	public long getExchanges() {
+		return exchangeSize.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean items per emitted exchange")
+	public double getExchangeMeanSize() {
+		return exchangeSize.getMean();
+	}
+
+	@ManagedAttribute(description = "Largest emitted exchange (items)")
+	public long getExchangeMaxSize() {
+		return exchangeSize.getMax();
+	}
+
+	@ManagedAttribute(description = "Item states read without good quality")
+	public long getBadQuality() {
+		return badQuality.get();
+	}
+
+	@ManagedAttribute(description = "Items that could not be read")
+	public long getReadErrors() {
+		return readErrors.get();
+	}
+
+	@ManagedAttribute(description = "Write calls to the server")
+	public long getWriteCalls() {
+		return writeLatency.getCount();
+	}
+
+	@ManagedAttribute(description = "Mean latency of a write call (ms)")
+	public double getWriteMeanMillis() {
+		return writeLatency.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "99th percentile of the write call latency (ms)")
+	public double getWrite99thMillis() {
+		return (double) writeLatency.getPercentile(0.99) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Mean write latency per item (ms)")
+	public double getWriteItemMeanMillis() {
+		final long items = writeItems.get();
+		return items > 0 ? (double) writeLatency.getSum() / items / TimeUnit.MILLISECONDS.toNanos(1) : 0;
+	}
+
+	@ManagedAttribute(description = "Items written")
+	public long getWriteItems() {
+		return writeItems.get();
+	}
+
+	@ManagedAttribute(description = "Item writes the server did not accept")
+	public long getWriteFailures() {
+		return writeFailures.get();
+	}
+
+	@ManagedAttribute(description = "Server sessions connected again after being lost")
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	@ManagedAttribute(description = "Mean lag of a poll cycle behind its slot (ms)")
+	public double getLagMeanMillis() {
+		return cycleLag.getMean() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "99th percentile of the poll cycle lag (ms)")
+	public double getLag99thMillis() {
+		return (double) cycleLag.getPercentile(0.99) / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Largest poll cycle lag (ms)")
+	public double getLagMaxMillis() {
+		return (double) cycleLag.getMax() / TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	@ManagedAttribute(description = "Poll cycles that took longer than the poll period")
+	public long getOverruns() {
+		return overruns.get();
+	}
+
+	@ManagedAttribute(description = "Fixed rate poll slots skipped or coalesced after overruns")
+	public long getSkippedCycles() {
+		return skippedCycles.get();
+	}
+
+	@ManagedAttribute(description = "Poll period in use (ms), longer than the delay while adaptive rate slows down")
+	public long getPollPeriodMillis() {
+		return pollPeriod.get();
+	}
+
+	@ManagedAttribute(description = "Streamed item states dropped to make room in a full buffer")
+	public long getStreamDropped() {
+		return streamDropped.get();
+	}
+
+	@ManagedAttribute(description = "Streamed item states replaced by a newer state of their item")
+	public long getStreamCoalesced() {
+		return streamCoalesced.get();
+	}
+
+	@ManagedAttribute(description = "Exchanges written to the journal while the route failed")
+	public long getJournaled() {
+		return journaled.get();
+	}
+
+	@ManagedAttribute(description = "Journaled exchanges replayed to the route")
+	public long getReplayed() {
+		return replayed.get();
+	}
+
+	@ManagedAttribute(description = "Items lost because the journal was full")
+	public long getJournalDropped() {
+		return journalDropped.get();
+	}
+
+	@ManagedAttribute(description = "Items producer reads served from the value cache")
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	@ManagedAttribute(description = "Items producer reads had to read from the server")
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/**
+	 * Starts counting again, e.g. after changing a setting.
+	 */
+	@ManagedOperation(description = "Reset the metrics")
+	public void reset() {
+		pollDuration.reset();
+		readLatency.reset();
+		decodeDuration.reset();
+		itemsRead.reset();
+		itemsChanged.reset();
+		exchangeSize.reset();
+		writeLatency.reset();
+		badQuality.set(0);
+		readErrors.set(0);
+		writeItems.set(0);
+		writeFailures.set(0);
+		reconnects.set(0);
+		cycleLag.reset();
+		overruns.set(0);
+		skippedCycles.set(0);
+		streamDropped.set(0);
+		streamCoalesced.set(0);
+		journaled.set(0);
+		replayed.set(0);
+		journalDropped.set(0);
+		cacheHits.set(0);
+		cacheMisses.set(0);
+	}
+}
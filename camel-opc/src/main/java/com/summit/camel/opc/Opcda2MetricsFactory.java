@@ -0,0 +1,39 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Creates the {@link Opcda2Metrics} of endpoints, to publish them somewhere
+ * besides JMX.
+ * <p>
+ * Set a factory on an endpoint with <code>metricsFactory=#beanName</code>.
+ * The camel-opc-micrometer module has one for Micrometer.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public interface Opcda2MetricsFactory {
+
+	/**
+	 * @param endpoint the endpoint the metrics are for
+	 * @return the metrics of the endpoint's consumers and producers
+	 */
+	Opcda2Metrics createMetrics(Opcda2Endpoint endpoint);
+}
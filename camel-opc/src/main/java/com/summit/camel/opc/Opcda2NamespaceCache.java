@@ -0,0 +1,624 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lazily browsed copy of a server's address space.
+ * <p>
+ * The namespace is kept as a trie keyed on branch names. A branch is only
+ * browsed when a path resolution walks through it, so resolving
+ * <code>A/B/C</code> costs three branch browses instead of a walk of the
+ * whole namespace. Browsed branches are remembered for the lifetime of the
+ * server session, and can be saved to (and loaded from) a local file.</p>
+ * <p>
+ * Entries loaded from a file are trusted until they are contradicted: a
+ * lookup miss or a failed item registration calls
+ * {@link #invalidate(java.lang.String[])}, and the affected branch is
+ * browsed again.</p>
+ * <p>
+ * The branches below the resolved path can be browsed over several
+ * sessions at once, see
+ * {@link #resolve(java.util.List, java.lang.String[], java.util.concurrent.ExecutorService, com.summit.camel.opc.Opcda2NamespaceCache.BrowseListener)}.</p>
+ * <p>
+ * Next to the tree, the cache keeps a sorted index of every item id of the
+ * server, filled by one flat browse on first use, for selecting items by
+ * pattern (see {@link Opcda2ItemSelector}).</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2NamespaceCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2NamespaceCache.class);
+
+	private static final String ENCODING = "UTF-8";
+	private static final String KEY_PREFIX = "key=";
+
+	private final String key;
+	private final Node root = new Node(null, "");
+	private List<String> itemIndex;
+	private boolean dirty = false;
+
+	/**
+	 * @param key identifies the server the namespace belongs to, files saved
+	 * for another key are ignored.
+	 */
+	public Opcda2NamespaceCache(String key) {
+		this.key = key;
+	}
+
+	/**
+	 * Resolves a path to the item ids below it.
+	 *
+	 * @param browser the server's transport, used to browse the branches that
+	 * are not cached yet.
+	 * @param pathArray the path, empty segments are ignored.
+	 * @return the item id of the leaf the path points to, or the ids of every
+	 * leaf below the branch it points to.
+	 * @throws OPCConnectionException if the path does not exist or browsing
+	 * failed.
+	 */
+	public List<String> resolve(Opcda2Transport browser, String[] pathArray) throws OPCConnectionException {
+		return resolve(Collections.singletonList(browser), pathArray, null, null);
+	}
+
+	/**
+	 * Resolves a path to the item ids below it, browsing the branches below
+	 * a branch in parallel.
+	 * <p>
+	 * The path itself is walked with the first browser. Below it, sibling
+	 * branches are browsed concurrently, one per browser at a time, so the
+	 * parallelism is bounded by the number of browsers (sessions: a session
+	 * browses one branch at a time). The leaves of each branch are handed to
+	 * the listener as soon as they are known, on the calling thread, while
+	 * the other branches are still being browsed.</p>
+	 *
+	 * @param browsers the transports of one or more sessions with the server
+	 * @param pathArray the path, empty segments are ignored.
+	 * @param executor runs the browses, null to browse on the calling thread
+	 * with the first browser only
+	 * @param listener told about leaves and progress, may be null
+	 * @return the item id of the leaf the path points to, or the ids of every
+	 * leaf below the branch it points to.
+	 * @throws OPCConnectionException if the path does not exist, browsing
+	 * failed, or the listener failed.
+	 */
+	public synchronized List<String> resolve(List<Opcda2Transport> browsers, String[] pathArray, ExecutorService executor, BrowseListener listener) throws OPCConnectionException {
+		final Opcda2Transport browser = browsers.get(0);
+		Node parent = root;
+
+		for (int i = 0; i < pathArray.length; i++) {
+			//This should handle "//" and the first /
+			if (pathArray[i].isEmpty()) {
+				continue;
+			}
+			final boolean last = i == pathArray.length - 1;
+			Node next = findChild(browser, parent, pathArray[i], last);
+			if (next == null && parent.fromFile) {
+				//Cached from a file, make sure the file is not stale.
+				parent.reset();
+				next = findChild(browser, parent, pathArray[i], last);
+			}
+			if (next == null) {
+				loadLeaves(browser, parent);
+				throw new OPCConnectionException(String.format(Opcda2Endpoint.NO_SUBGROUP_MSG, pathArray[i], describeChildren(parent)));
+			}
+			parent = next;
+			if (parent.itemId != null) {
+				break;
+			}
+		}
+
+		List<String> retVal = new ArrayList<String>();
+		if (parent.itemId != null) {
+			retVal.add(parent.itemId);
+			if (listener != null) {
+				listener.leaves(retVal);
+			}
+		} else {
+			collectItemIds(executor != null ? browsers : browsers.subList(0, 1), executor, parent, retVal, listener);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param browser the server's transport, used for a flat browse if the
+	 * index is not cached yet.
+	 * @return the id of every item of the server, sorted
+	 * @throws OPCConnectionException if the server could not be browsed or
+	 * does not support flat browsing.
+	 */
+	public synchronized List<String> getItemIndex(Opcda2Transport browser) throws OPCConnectionException {
+		if (itemIndex == null) {
+			List<String> itemIds = new ArrayList<String>(browser.browseFlat());
+			Collections.sort(itemIds);
+			itemIndex = Collections.unmodifiableList(itemIds);
+			dirty = true;
+		}
+		return itemIndex;
+	}
+
+	/**
+	 * Drops the cached content of the branch at the given path (and below),
+	 * it will be browsed again on next use. The item index is dropped too.
+	 *
+	 * @param pathArray path of a branch, empty segments are ignored.
+	 */
+	public synchronized void invalidate(String[] pathArray) {
+		Node node = root;
+		for (String name : pathArray) {
+			if (name.isEmpty()) {
+				continue;
+			}
+			Node child = node.branches.get(name);
+			if (child == null) {
+				break;
+			}
+			node = child;
+		}
+		node.reset();
+		itemIndex = null;
+		dirty = true;
+	}
+
+	private Node findChild(Opcda2Transport browser, Node parent, String name, boolean includeLeaves) throws OPCConnectionException {
+		loadBranches(browser, parent);
+		Node retVal = parent.branches.get(name);
+		//If we are on the last item, and its still not found,
+		//check to see if it is a tag (leaf)
+		if (retVal == null && includeLeaves) {
+			loadLeaves(browser, parent);
+			retVal = parent.leaves.get(name);
+		}
+		return retVal;
+	}
+
+	/**
+	 * Walks the tree below a branch breadth first. Cached branches are
+	 * visited right away, the others are browsed by the idle browsers,
+	 * and visited once their browse completes. Only the calling thread
+	 * touches the tree.
+	 */
+	private void collectItemIds(List<Opcda2Transport> browsers, ExecutorService executor, Node top, List<String> itemIds, BrowseListener listener) throws OPCConnectionException {
+		final Queue<Opcda2Transport> idle = new ArrayDeque<Opcda2Transport>(browsers);
+		final CompletionService<Expansion> completed = executor != null ? new ExecutorCompletionService<Expansion>(executor) : null;
+		final Queue<Node> known = new ArrayDeque<Node>();
+		final Queue<Node> unknown = new ArrayDeque<Node>();
+		(top.leavesLoaded && top.branchesLoaded ? known : unknown).add(top);
+		int running = 0;
+		int browsed = 0;
+		long lastProgress = System.currentTimeMillis();
+		try {
+			while (!known.isEmpty() || !unknown.isEmpty() || running > 0) {
+				Node node;
+				while ((node = known.poll()) != null) {
+					if (!node.leaves.isEmpty()) {
+						List<String> leaves = new ArrayList<String>(node.leaves.size());
+						for (Node leaf : node.leaves.values()) {
+							leaves.add(leaf.itemId);
+						}
+						itemIds.addAll(leaves);
+						if (listener != null) {
+							listener.leaves(leaves);
+						}
+					}
+					for (Node child : node.branches.values()) {
+						(child.leavesLoaded && child.branchesLoaded ? known : unknown).add(child);
+					}
+				}
+				while (!unknown.isEmpty() && !idle.isEmpty()) {
+					node = unknown.poll();
+					final Expansion expansion = new Expansion(node, idle.poll());
+					if (completed == null) {
+						apply(expansion.call());
+						idle.add(expansion.browser);
+						known.add(node);
+						browsed++;
+					} else {
+						completed.submit(expansion);
+						running++;
+					}
+				}
+				if (running > 0) {
+					final Future<Expansion> done = completed.take();
+					running--;
+					final Expansion expansion = done.get();
+					idle.add(expansion.browser);
+					apply(expansion);
+					known.add(expansion.node);
+					browsed++;
+				}
+				final long now = System.currentTimeMillis();
+				if (listener != null && now - lastProgress >= PROGRESS_INTERVAL) {
+					lastProgress = now;
+					listener.progress(browsed, unknown.size() + running, itemIds.size());
+				}
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new OPCConnectionException(BROWSE_INTERRUPTED_MSG, ex);
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof OPCConnectionException) {
+				throw (OPCConnectionException) ex.getCause();
+			}
+			throw new OPCConnectionException(ex.getCause().getMessage(), ex.getCause());
+		} finally {
+			// let the browses still running finish, their sessions may be
+			// released once we return
+			for (; running > 0; running--) {
+				try {
+					completed.take();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+		if (listener != null && browsed > 0) {
+			listener.progress(browsed, 0, itemIds.size());
+		}
+	}
+	public static final String BROWSE_INTERRUPTED_MSG = "Interrupted while browsing the namespace";
+	/**
+	 * Least time between two progress reports (ms).
+	 */
+	public static final long PROGRESS_INTERVAL = 2000;
+
+	private void apply(Expansion expansion) {
+		if (expansion.leaves != null) {
+			setLeaves(expansion.node, expansion.leaves);
+		}
+		if (expansion.branches != null) {
+			setBranches(expansion.node, expansion.branches);
+		}
+	}
+
+	private void loadBranches(Opcda2Transport browser, Node node) throws OPCConnectionException {
+		if (node.branchesLoaded) {
+			return;
+		}
+		setBranches(node, browser.browseBranches(node.path()));
+	}
+
+	private void setBranches(Node node, List<String> names) {
+		Map<String, Node> branches = new HashMap<String, Node>();
+		for (String name : names) {
+			Node child = node.branches.get(name);
+			branches.put(name, child != null ? child : new Node(node, name));
+		}
+		node.branches.clear();
+		node.branches.putAll(branches);
+		node.branchesLoaded = true;
+		dirty = true;
+	}
+
+	private void loadLeaves(Opcda2Transport browser, Node node) throws OPCConnectionException {
+		if (node.leavesLoaded) {
+			return;
+		}
+		setLeaves(node, browser.browseLeaves(node.path()));
+	}
+
+	private void setLeaves(Node node, Map<String, String> leaves) {
+		node.leaves.clear();
+		for (Map.Entry<String, String> l : leaves.entrySet()) {
+			Node leaf = new Node(node, l.getKey());
+			leaf.itemId = l.getValue();
+			node.leaves.put(l.getKey(), leaf);
+		}
+		node.leavesLoaded = true;
+		dirty = true;
+	}
+
+	private String describeChildren(Node parent) {
+		ArrayList<String> possibleBranches = new ArrayList<String>();
+		for (String b : parent.branches.keySet()) {
+			possibleBranches.add(String.format("%n[B] %s", b));
+		}
+		Collections.sort(possibleBranches, String.CASE_INSENSITIVE_ORDER);
+		ArrayList<String> possibleLeaves = new ArrayList<String>();
+		for (String l : parent.leaves.keySet()) {
+			possibleLeaves.add(String.format("%n[T] %s", l));
+		}
+		Collections.sort(possibleLeaves, String.CASE_INSENSITIVE_ORDER);
+
+		StringBuilder possibleMatches = new StringBuilder();
+		for (String s : possibleBranches) {
+			possibleMatches.append(s);
+		}
+		for (String s : possibleLeaves) {
+			possibleMatches.append(s);
+		}
+		return possibleMatches.toString();
+	}
+
+	/**
+	 * @return true if nothing has been browsed or loaded yet.
+	 */
+	public synchronized boolean isEmpty() {
+		return !root.branchesLoaded && !root.leavesLoaded && root.branches.isEmpty() && root.leaves.isEmpty()
+				&& itemIndex == null;
+	}
+
+	/**
+	 * @return true if the cache changed since it was last saved or loaded.
+	 */
+	public synchronized boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Saves the browsed part of the namespace.
+	 * <p>
+	 * Each line is either <code>B &lt;flags&gt; &lt;path&gt;</code> for a
+	 * browsed branch (flags <code>b</code> and/or <code>l</code> telling
+	 * whether its branches and leaves are known) or
+	 * <code>L &lt;path&gt; &lt;itemId&gt;</code> for a leaf, tab separated,
+	 * with URL encoded path segments. The item index follows, one
+	 * <code>I &lt;itemId&gt;</code> line per item.</p>
+	 *
+	 * @param file the file to write
+	 * @throws IOException if the file could not be written.
+	 */
+	public synchronized void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), ENCODING));
+		try {
+			writer.write(KEY_PREFIX + URLEncoder.encode(key, ENCODING));
+			writer.newLine();
+			write(writer, root);
+			if (itemIndex != null) {
+				for (String itemId : itemIndex) {
+					writer.write("I\t" + URLEncoder.encode(itemId, ENCODING));
+					writer.newLine();
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new IOException(String.format(SAVE_FAILED_MSG, file));
+		}
+		if (!tmp.renameTo(file)) {
+			throw new IOException(String.format(SAVE_FAILED_MSG, file));
+		}
+		dirty = false;
+	}
+	public static final String SAVE_FAILED_MSG = "Unable to replace namespace cache %s";
+
+	private void write(BufferedWriter writer, Node node) throws IOException {
+		if (node.branchesLoaded || node.leavesLoaded) {
+			writer.write("B\t" + (node.branchesLoaded ? "b" : "") + (node.leavesLoaded ? "l" : "") + "\t" + node.encodedPath());
+			writer.newLine();
+		}
+		for (Node leaf : node.leaves.values()) {
+			writer.write("L\t" + leaf.encodedPath() + "\t" + URLEncoder.encode(leaf.itemId, ENCODING));
+			writer.newLine();
+		}
+		for (Node child : node.branches.values()) {
+			write(writer, child);
+		}
+	}
+
+	/**
+	 * Loads a namespace saved by {@link #save(java.io.File)}, replacing the
+	 * current content. Files written for another server are ignored.
+	 *
+	 * @param file the file to read
+	 * @return true if the file was loaded
+	 * @throws IOException if the file could not be read.
+	 */
+	public synchronized boolean load(File file) throws IOException {
+		if (!file.isFile()) {
+			return false;
+		}
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+		List<String> itemIds = null;
+		try {
+			String header = reader.readLine();
+			if (header == null || !header.equals(KEY_PREFIX + URLEncoder.encode(key, ENCODING))) {
+				logger.info(String.format(OTHER_SERVER_MSG, file));
+				return false;
+			}
+			root.reset();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 2 && "I".equals(fields[0])) {
+					if (itemIds == null) {
+						itemIds = new ArrayList<String>();
+					}
+					itemIds.add(URLDecoder.decode(fields[1], ENCODING));
+					continue;
+				}
+				if (fields.length != 3) {
+					continue;
+				}
+				if ("B".equals(fields[0])) {
+					Node node = getOrCreateBranch(fields[2]);
+					node.branchesLoaded = fields[1].indexOf('b') >= 0;
+					node.leavesLoaded = fields[1].indexOf('l') >= 0;
+					node.fromFile = true;
+				} else if ("L".equals(fields[0])) {
+					int split = fields[1].lastIndexOf('/');
+					Node parent = getOrCreateBranch(split < 0 ? "" : fields[1].substring(0, split));
+					String name = URLDecoder.decode(fields[1].substring(split + 1), ENCODING);
+					Node leaf = new Node(parent, name);
+					leaf.itemId = URLDecoder.decode(fields[2], ENCODING);
+					parent.leaves.put(name, leaf);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (itemIds != null) {
+			Collections.sort(itemIds);
+			itemIndex = Collections.unmodifiableList(itemIds);
+		} else {
+			itemIndex = null;
+		}
+		dirty = false;
+		return true;
+	}
+	public static final String OTHER_SERVER_MSG = "Ignoring namespace cache %s, it was saved for another server.";
+
+	private Node getOrCreateBranch(String encodedPath) throws UnsupportedEncodingException {
+		Node node = root;
+		for (String segment : encodedPath.split("/")) {
+			if (segment.isEmpty()) {
+				continue;
+			}
+			String name = URLDecoder.decode(segment, ENCODING);
+			Node child = node.branches.get(name);
+			if (child == null) {
+				child = new Node(node, name);
+				node.branches.put(name, child);
+			}
+			node = child;
+		}
+		return node;
+	}
+
+	/**
+	 * Told about a parallel browse, on the thread that started it.
+	 */
+	public interface BrowseListener {
+
+		/**
+		 * @param itemIds the item ids of the leaves of one branch
+		 * @throws OPCConnectionException to abort the browse
+		 */
+		void leaves(List<String> itemIds) throws OPCConnectionException;
+
+		/**
+		 * @param browsed branches browsed so far
+		 * @param pending branches known but not browsed yet
+		 * @param items item ids found so far
+		 */
+		void progress(int browsed, int pending, int items);
+	}
+
+	/**
+	 * The browse of one branch's unknown content, by one browser. Reads
+	 * nothing the calling thread changes: the node's path is immutable and
+	 * the flags are taken when it is created.
+	 */
+	private static final class Expansion implements Callable<Expansion> {
+
+		private final Node node;
+		private final Opcda2Transport browser;
+		private final List<String> path;
+		private final boolean browseLeaves;
+		private final boolean browseBranches;
+		private Map<String, String> leaves;
+		private List<String> branches;
+
+		Expansion(Node node, Opcda2Transport browser) {
+			this.node = node;
+			this.browser = browser;
+			this.path = node.path();
+			this.browseLeaves = !node.leavesLoaded;
+			this.browseBranches = !node.branchesLoaded;
+		}
+
+		@Override
+		public Expansion call() throws OPCConnectionException {
+			if (browseLeaves) {
+				leaves = browser.browseLeaves(path);
+			}
+			if (browseBranches) {
+				branches = browser.browseBranches(path);
+			}
+			return this;
+		}
+	}
+
+	private static final class Node {
+
+		private final Node parent;
+		private final String name;
+		private final Map<String, Node> branches = new HashMap<String, Node>();
+		private final Map<String, Node> leaves = new HashMap<String, Node>();
+		private String itemId;
+		private boolean branchesLoaded = false;
+		private boolean leavesLoaded = false;
+		private boolean fromFile = false;
+
+		Node(Node parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		void reset() {
+			branches.clear();
+			leaves.clear();
+			branchesLoaded = false;
+			leavesLoaded = false;
+			fromFile = false;
+		}
+
+		/**
+		 * @return the names of the branches from the root to this node
+		 */
+		List<String> path() {
+			if (parent == null) {
+				return new ArrayList<String>();
+			}
+			List<String> retVal = parent.path();
+			retVal.add(name);
+			return retVal;
+		}
+
+		String encodedPath() throws UnsupportedEncodingException {
+			if (parent == null) {
+				return "";
+			}
+			String parentPath = parent.encodedPath();
+			String encodedName = URLEncoder.encode(name, ENCODING);
+			return parentPath.isEmpty() ? encodedName : parentPath + "/" + encodedName;
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the polling consumer reads, and keeps track of how late its
+ * cycles run.
+ * <p>
+ * The consumer's scheduler fires every <code>delay</code> ms, either that
+ * long after the previous cycle ended (fixed delay, the default) or on a
+ * fixed grid of slots (fixed rate). A cycle's lag is how long after its
+ * slot it started. A cycle that takes longer than the period is an
+ * overrun. On a fixed rate, the slots it ran into are either skipped, so
+ * the next cycle waits for the next slot, or coalesced into a single
+ * cycle that runs at once. Either way, the missed slots are never caught
+ * up back to back.</p>
+ * <p>
+ * With adaptive rate, the period is doubled when cycles take most of it,
+ * up to a maximum. This happens e.g. when the server's latency grows. The
+ * period is halved again, down to <code>delay</code>, once cycles take less
+ * than a quarter of it. Runs of the consumer's scheduler before the next
+ * slot are ignored.</p>
+ * <p>
+ * Not thread safe, each consumer owns its scheduler.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2PollScheduler {
+
+	/**
+	 * What a fixed rate cycle does with the slots an overrun ran into.
+	 */
+	public enum OverrunPolicy {
+
+		/**
+		 * Skips them, and the late cycle too, waiting for the next slot.
+		 */
+		SKIP,
+		/**
+		 * Runs one cycle for all of them at once.
+		 */
+		COALESCE
+	}
+
+	/**
+	 * Share of the period above which an adaptive rate is slowed down.
+	 */
+	public static final double SLOW_DOWN_RATIO = 0.8;
+	/**
+	 * Share of the period below which an adaptive rate is sped up again.
+	 */
+	public static final double SPEED_UP_RATIO = 0.25;
+	/**
+	 * Maximum period of an adaptive rate, as a multiple of the delay, when
+	 * no maximum is set.
+	 */
+	public static final int DEFAULT_MAX_FACTOR = 10;
+
+	private final long delay;
+	private final boolean fixedRate;
+	private final OverrunPolicy overrunPolicy;
+	private final boolean adaptive;
+	private final long maxPeriod;
+	private Opcda2Metrics metrics;
+	private long period;
+	private long due = -1;
+	private long lag;
+	private long overruns;
+	private long skipped;
+
+	/**
+	 * @param delay the consumer's delay (ms)
+	 * @param fixedRate true for a fixed grid of slots, false to wait delay
+	 * ms after each cycle
+	 * @param overrunPolicy what a fixed rate does with missed slots
+	 * @param adaptive true to slow down while cycles take most of the
+	 * period
+	 * @param maxPeriod the longest period of an adaptive rate (ms), &lt;= 0
+	 * for {@link #DEFAULT_MAX_FACTOR} times the delay
+	 */
+	public Opcda2PollScheduler(long delay, boolean fixedRate, OverrunPolicy overrunPolicy, boolean adaptive, long maxPeriod) {
+		this.delay = Math.max(delay, 1);
+		this.fixedRate = fixedRate;
+		this.overrunPolicy = overrunPolicy != null ? overrunPolicy : OverrunPolicy.COALESCE;
+		this.adaptive = adaptive;
+		this.maxPeriod = maxPeriod > 0 ? Math.max(maxPeriod, this.delay) : this.delay * DEFAULT_MAX_FACTOR;
+		this.period = this.delay;
+	}
+
+	/**
+	 * @param endpoint the endpoint
+	 * @param delay the consumer's delay (ms), the fastest group's rate
+	 * @return the scheduler configured by the endpoint's options
+	 */
+	public static Opcda2PollScheduler forEndpoint(Opcda2Endpoint endpoint, long delay) {
+		return new Opcda2PollScheduler(delay, endpoint.isFixedRate(), endpoint.getOverrunPolicy(),
+				endpoint.isAdaptiveRate(), endpoint.getMaxAdaptiveDelay());
+	}
+
+	/**
+	 * Called on every run of the consumer's scheduler.
+	 *
+	 * @param now current time (ms)
+	 * @return true to read now, false to skip this run
+	 */
+	public boolean isDue(long now) {
+		if (due < 0) {
+			due = now;
+		}
+		//Fixed delay runs are timed from the end of the previous run, fixed
+		//rate runs follow a grid they can only be late on.
+		if (now < due - (fixedRate ? delay / 10 : delay / 2)) {
+			//Slowed down, or a catch-up run for a slot already served.
+			return false;
+		}
+		lag = Math.max(now - due, 0);
+		if (!fixedRate) {
+			record();
+			return true;
+		}
+		final long missed = lag / period;
+		due += (missed + 1) * period;
+		if (missed == 0) {
+			record();
+			return true;
+		}
+		final boolean skip = overrunPolicy == OverrunPolicy.SKIP;
+		final long count = skip ? missed + 1 : missed;
+		skipped += count;
+		if (metrics != null) {
+			metrics.recordSkipped(count);
+		}
+		if (skip) {
+			return false;
+		}
+		record();
+		return true;
+	}
+
+	private void record() {
+		if (metrics != null) {
+			metrics.recordLag(TimeUnit.MILLISECONDS.toNanos(lag));
+		}
+	}
+
+	/**
+	 * Called once a cycle is over.
+	 *
+	 * @param start when {@link #isDue(long)} allowed it (ms)
+	 * @param end current time (ms)
+	 */
+	public void completed(long start, long end) {
+		final long duration = end - start;
+		final long previous = period;
+		if (duration > period) {
+			overruns++;
+			if (metrics != null) {
+				metrics.recordOverrun();
+			}
+		}
+		if (adaptive) {
+			if (duration > period * SLOW_DOWN_RATIO) {
+				period = Math.min(period * 2, maxPeriod);
+			} else if (duration < period * SPEED_UP_RATIO) {
+				period = Math.max(period / 2, delay);
+			}
+			if (metrics != null && period != previous) {
+				metrics.setPollPeriod(period);
+			}
+		}
+		if (fixedRate) {
+			due += period - previous;
+		} else {
+			due = end + period;
+		}
+	}
+
+	/**
+	 * @return how late the last cycle started (ms)
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * @return the current period (ms), the delay unless adaptive rate slowed
+	 * it down
+	 */
+	public long getPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return the number of cycles that took longer than the period
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	/**
+	 * @return the number of fixed rate slots that were skipped or coalesced
+	 */
+	public long getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * @param metrics the metrics to record lag, overruns and skipped slots
+	 * in
+	 */
+	public void setMetrics(Opcda2Metrics metrics) {
+		this.metrics = metrics;
+		metrics.setPollPeriod(period);
+	}
+}
@@ -19,16 +19,31 @@ package com.summit.camel.opc;
  * limitations under the License.
  * #L%
  */
+import static com.summit.camel.opc.Opcda2Endpoint.HISTORY_FROM;
+import static com.summit.camel.opc.Opcda2Endpoint.HISTORY_TO;
+import static com.summit.camel.opc.Opcda2Endpoint.OPERATION;
+import static com.summit.camel.opc.Opcda2Endpoint.OPERATION_HISTORY;
+import static com.summit.camel.opc.Opcda2Endpoint.OPERATION_READ;
+import static com.summit.camel.opc.Opcda2Endpoint.OPERATION_WRITE;
+import static com.summit.camel.opc.Opcda2Endpoint.QUALITY;
+import static com.summit.camel.opc.Opcda2Endpoint.TIMESTAMP;
 import static com.summit.camel.opc.Opcda2Endpoint.VALUE;
-import java.math.BigDecimal;
+import static com.summit.camel.opc.Opcda2Endpoint.WRITE_RESULTS;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.apache.camel.Exchange;
 import org.apache.camel.impl.DefaultProducer;
 import org.jinterop.dcom.common.JIException;
-import org.jinterop.dcom.core.JICurrency;
 import org.jinterop.dcom.core.JIVariant;
-import org.openscada.opc.lib.da.Item;
+import org.openscada.opc.lib.da.ItemState;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,10 +56,84 @@ public class Opcda2Producer extends DefaultProducer {
 
 	private static final transient Logger LOG = LoggerFactory.getLogger(Opcda2Producer.class);
 	private final Opcda2Endpoint endpoint;
+	private final ConcurrentMap<String, JIVariantEncoder> encoders = new ConcurrentHashMap<String, JIVariantEncoder>();
+	private final Opcda2Metrics metrics;
 
 	public Opcda2Producer(Opcda2Endpoint endpoint) {
 		super(endpoint);
 		this.endpoint = endpoint;
+		this.metrics = endpoint.getMetrics();
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+		resolveEncoders();
+	}
+
+	/**
+	 * Picks each item's encoder from its canonical type, as the server
+	 * reported it when the item was added. Items the transport has no type
+	 * for are read from the server's cache instead, in as few calls as the
+	 * bulk read chunk size allows. Items that still have no type are written
+	 * by their Java type.
+	 */
+	private void resolveEncoders() {
+		final Map<String, Opcda2TransportItem> opcItems = endpoint.getOpcItems();
+		Map<Opcda2TransportGroup, List<Opcda2TransportItem>> byGroup = new LinkedHashMap<Opcda2TransportGroup, List<Opcda2TransportItem>>();
+		for (Opcda2TransportItem item : opcItems.values()) {
+			if (item.getCanonicalType() != JIVariant.VT_EMPTY) {
+				encoders.put(item.getId(), JIVariantEncoder.forType(item.getCanonicalType()));
+				continue;
+			}
+			List<Opcda2TransportItem> groupItems = byGroup.get(item.getGroup());
+			if (groupItems == null) {
+				groupItems = new ArrayList<Opcda2TransportItem>();
+				byGroup.put(item.getGroup(), groupItems);
+			}
+			groupItems.add(item);
+		}
+		try {
+			for (Map.Entry<Opcda2TransportGroup, List<Opcda2TransportItem>> group : byGroup.entrySet()) {
+				Opcda2BulkReader reader = new Opcda2BulkReader(group.getKey(), endpoint.getBulkReadChunkSize());
+				for (Map.Entry<Opcda2TransportItem, ItemState> entry : reader.read(group.getValue(), false).entrySet()) {
+					encoders.put(entry.getKey().getId(), encoderOf(entry.getValue()));
+				}
+			}
+		} catch (JIException ex) {
+			LOG.warn(String.format(TYPE_READ_FAILED_MSG, ex.getMessage()));
+			endpoint.sessionLost(ex);
+		}
+		LOG.debug(String.format(ENCODERS_RESOLVED_MSG, encoders.size(), opcItems.size()));
+	}
+	public static final String ENCODERS_RESOLVED_MSG = "Resolved the write type of %d of %d items";
+	public static final String TYPE_READ_FAILED_MSG = "Lost the session while reading the write types, unresolved items are written by their Java type: %s";
+
+	/**
+	 * @param tagName the item's id
+	 * @param item the item
+	 * @return the item's encoder, {@link JIVariantEncoder#DYNAMIC} if its
+	 * type is unknown. Never calls the server.
+	 */
+	JIVariantEncoder getEncoder(String tagName, Opcda2TransportItem item) {
+		JIVariantEncoder encoder = encoders.get(tagName);
+		if (encoder != null) {
+			return encoder;
+		}
+		//Registered after the producer started.
+		encoder = JIVariantEncoder.forType(item.getCanonicalType());
+		encoders.put(tagName, encoder);
+		return encoder;
+	}
+
+	private static JIVariantEncoder encoderOf(ItemState state) {
+		try {
+			return state != null && state.getValue() != null
+					? JIVariantEncoder.forType(state.getValue().getType())
+					: JIVariantEncoder.DYNAMIC;
+		} catch (JIException ex) {
+			return JIVariantEncoder.DYNAMIC;
+		}
 	}
 
 	/**
@@ -64,69 +153,295 @@ public class Opcda2Producer extends DefaultProducer {
 	 * </pre>
 	 * <p>
 	 * Its a map, String-&gt;Map(String,Object) (value's type may change...)</p>
+	 * <p>
+	 * Values are converted to the item's own VT type, its canonical type or,
+	 * if the server did not report one, the type of its value when the
+	 * producer started (see {@link JIVariantEncoder}),
+	 * so e.g. a Double[] can be written to an array of VT_R4.</p>
+	 * <p>
+	 * The HRESULT of each write (0 on success) is returned in the
+	 * {@link Opcda2Endpoint#WRITE_RESULTS} header, as a map of tag name to
+	 * code. With batchWrite set, failed writes are only reported there
+	 * instead of failing the exchange.</p>
+	 * <p>
+	 * While the endpoint's session is lost, exchanges fail without a call to
+	 * the server.</p>
+	 * <p>
+	 * With the {@link Opcda2Endpoint#OPERATION} header set to
+	 * {@link Opcda2Endpoint#OPERATION_READ}, the exchange reads the items
+	 * instead, see {@link #readItems(org.apache.camel.Exchange)}. Set to
+	 * {@link Opcda2Endpoint#OPERATION_HISTORY}, it queries the endpoint's
+	 * history, see {@link #queryHistory(org.apache.camel.Exchange)}.</p>
 	 *
 	 * @param exchange the camel exchange
 	 * @throws com.summit.camel.opc.CamelOpcException if the data type is not
-	 * supported or the tag was not found.
+	 * supported, the tag was not found, the session is lost or the operation
+	 * is unknown.
 	 * @throws org.jinterop.dcom.common.JIException if there was an error
 	 * writing the tag.
 	 */
 	@Override
 	public void process(Exchange exchange) throws CamelOpcException, JIException {
 		//TODO we need a (optional) custom data type for converters.
+		final String operation = exchange.getIn().getHeader(OPERATION, String.class);
+		if (OPERATION_READ.equalsIgnoreCase(operation)) {
+			readItems(exchange);
+			return;
+		} else if (OPERATION_HISTORY.equalsIgnoreCase(operation)) {
+			queryHistory(exchange);
+			return;
+		} else if (operation != null && !OPERATION_WRITE.equalsIgnoreCase(operation)) {
+			throw new CamelOpcException(String.format(UNKNOWN_OPERATION_MSG, operation));
+		}
+		if (!endpoint.isConnected()) {
+			throw new CamelOpcException(String.format(NOT_CONNECTED_MSG, endpoint.getId()));
+		}
 		Map<String, Map<String, Object>> data = exchange.getIn().getBody(Map.class);
+		Map<String, Integer> results = new TreeMap<String, Integer>();
+		Map<Opcda2TransportGroup, Map<Opcda2TransportItem, JIVariant>> requests = new LinkedHashMap<Opcda2TransportGroup, Map<Opcda2TransportItem, JIVariant>>();
 
 		for (String tagName : data.keySet()) {
 			Object value = data.get(tagName).get(VALUE);
 
-			Item item = endpoint.getOpcItems().get(tagName);
+			Opcda2TransportItem item = endpoint.getOpcItems().get(tagName);
 			if (item != null) {
-				JIVariant writeValue;
-				if (value instanceof Boolean) {
-					writeValue = new JIVariant((Boolean) value);
-				} else if (value instanceof Character) {
-					writeValue = new JIVariant((Character) value);
-				} else if (value instanceof Date) {
-					writeValue = new JIVariant((Date) value);
-				} else if (value instanceof Double) {
-					writeValue = new JIVariant((Double) value);
-				} else if (value instanceof Float) {
-					writeValue = new JIVariant((Float) value);
-				} else if (value instanceof Integer) {
-					writeValue = new JIVariant((Integer) value);
-				} else if (value instanceof String) {
-					writeValue = new JIVariant((String) value);
-				} else if (value instanceof Byte) {
-					writeValue = new JIVariant((Byte) value);
-				} else if (value instanceof Short) {
-					writeValue = new JIVariant((Short) value);
-					//TODO we need a class for currency...
-				} else if (value instanceof BigDecimal) {
-					writeValue = new JIVariant(new JICurrency(((BigDecimal) value).toPlainString()));
-				} else if (value instanceof Long) {
-					writeValue = new JIVariant((Long) value);
-					//TODO Array's, Currency
-				} else if (value instanceof Object[]) {
-					final String msg = String.format("Arrays not currently supported <- %s", tagName);
-					/*
-					 System.out.println(tagName);
-					 writeValue = new JIVariant(new JIArray(value));
-					 */
-					log.info(msg);
-					if (endpoint.isFailIfTagAbsent()) {
-						throw new CamelOpcException(msg);
-					}
-					writeValue = new JIVariant(JIVariant.NULL());
+				JIVariant writeValue = getEncoder(tagName, item).encode(value);
+				if (endpoint.isBatchWrite()) {
+					addRequest(requests, item, writeValue);
 				} else {
-					throw new CamelOpcException(String.format("Data Type not supported: %s", value.getClass()));
+					final long start = System.nanoTime();
+					final Integer result;
+					try {
+						result = item.write(writeValue);
+					} catch (JIException ex) {
+						if (Opcda2Connection.isSessionLost(ex)) {
+							endpoint.sessionLost(ex);
+						}
+						throw ex;
+					}
+					metrics.recordWrite(System.nanoTime() - start, 1, result != null && result != 0 ? 1 : 0);
+					results.put(tagName, result);
 				}
-				item.write(writeValue);
 			} else {
 				if (endpoint.isFailIfTagAbsent()) {
 					throw new CamelOpcException(String.format("Tag %s not found.", tagName));
 				}
 			}
 		}
+
+		for (Map.Entry<Opcda2TransportGroup, Map<Opcda2TransportItem, JIVariant>> entry : requests.entrySet()) {
+			writeBatch(entry.getKey(), entry.getValue(), results);
+		}
+		exchange.getIn().setHeader(WRITE_RESULTS, results);
+	}
+	public static final String NOT_CONNECTED_MSG = "The OPC server session of %s is lost, reconnecting";
+	public static final String UNKNOWN_OPERATION_MSG = "Unknown operation %s";
+
+	/**
+	 * Replaces the body with the endpoint's recent samples of the items it
+	 * names, without a call to the server.
+	 * <p>
+	 * The body names the items: an item id, a collection of item ids or a
+	 * map keyed by item id (as the consumers emit). An empty body names all
+	 * the endpoint's items. The range is given by the
+	 * {@link Opcda2Endpoint#HISTORY_FROM} and {@link Opcda2Endpoint#HISTORY_TO}
+	 * headers (ms, or dates), by default everything kept.</p>
+	 * <p>
+	 * The new body maps each item id to its samples, oldest first, each a
+	 * map of value, quality and timestamp.</p>
+	 *
+	 * @param exchange the camel exchange
+	 * @throws CamelOpcException if the endpoint keeps no history
+	 */
+	void queryHistory(Exchange exchange) throws CamelOpcException {
+		final Opcda2History history = endpoint.getHistory();
+		if (history == null) {
+			throw new CamelOpcException(String.format(NO_HISTORY_MSG, endpoint.getId()));
+		}
+		final Long from = exchange.getIn().getHeader(HISTORY_FROM, Long.class);
+		final Long to = exchange.getIn().getHeader(HISTORY_TO, Long.class);
+		Map<String, List<Map<String, Object>>> retVal = new TreeMap<String, List<Map<String, Object>>>();
+		for (Object itemId : itemIdsOf(exchange)) {
+			Opcda2History.Slice slice = history.query(itemId.toString(),
+					from != null ? from : Long.MIN_VALUE, to != null ? to : Long.MAX_VALUE);
+			List<Map<String, Object>> samples = new ArrayList<Map<String, Object>>(slice.size());
+			for (int i = 0; i < slice.size(); i++) {
+				Map<String, Object> sample = new TreeMap<String, Object>();
+				sample.put(QUALITY, Short.valueOf(slice.getQualities()[i]));
+				sample.put(TIMESTAMP, new Date(slice.getTimestamps()[i]));
+				sample.put(VALUE, Double.valueOf(slice.getValues()[i]));
+				samples.add(sample);
+			}
+			retVal.put(itemId.toString(), samples);
+		}
+		exchange.getIn().setBody(retVal);
+	}
+	public static final String NO_HISTORY_MSG = "%s keeps no history, set its historySize option";
+
+	/**
+	 * Replaces the body with the current state of the items it names, as
+	 * {@link Opcda2Consumer} would emit them.
+	 * <p>
+	 * The body names the items as for
+	 * {@link #queryHistory(org.apache.camel.Exchange)}. States the session's
+	 * consumers read less than the endpoint's <code>maxAge</code> ago are
+	 * taken from its {@link Opcda2ValueCache}, the others are read from the
+	 * device in one call per group (and chunk), and cached in turn. Items
+	 * that cannot be read are left out of the body.</p>
+	 *
+	 * @param exchange the camel exchange
+	 * @throws CamelOpcException if an item is not found (with
+	 * failIfTagAbsent) or the items are not cached and the session is lost.
+	 */
+	void readItems(Exchange exchange) throws CamelOpcException {
+		final Opcda2ValueCache cache = endpoint.getValueCache();
+		final long maxAge = endpoint.getMaxAge();
+		final long now = System.currentTimeMillis();
+		final Map<String, ItemState> states = new TreeMap<String, ItemState>();
+		final Map<Opcda2TransportGroup, List<Opcda2TransportItem>> misses = new LinkedHashMap<Opcda2TransportGroup, List<Opcda2TransportItem>>();
+		int missed = 0;
+		for (Object each : itemIdsOf(exchange)) {
+			final String itemId = each.toString();
+			final Opcda2TransportItem item = endpoint.getOpcItems().get(itemId);
+			if (item == null) {
+				if (endpoint.isFailIfTagAbsent()) {
+					throw new CamelOpcException(String.format("Tag %s not found.", itemId));
+				}
+				continue;
+			}
+			final ItemState cached = cache != null && maxAge != 0 ? cache.get(itemId, maxAge, now) : null;
+			if (cached != null) {
+				states.put(itemId, cached);
+				continue;
+			}
+			List<Opcda2TransportItem> groupItems = misses.get(item.getGroup());
+			if (groupItems == null) {
+				groupItems = new ArrayList<Opcda2TransportItem>();
+				misses.put(item.getGroup(), groupItems);
+			}
+			groupItems.add(item);
+			missed++;
+		}
+		metrics.recordCacheRead(states.size(), missed);
+		if (missed > 0 && !endpoint.isConnected()) {
+			throw new CamelOpcException(String.format(NOT_CONNECTED_MSG, endpoint.getId()));
+		}
+		for (Map.Entry<Opcda2TransportGroup, List<Opcda2TransportItem>> group : misses.entrySet()) {
+			Opcda2BulkReader reader = new Opcda2BulkReader(group.getKey(), endpoint.getBulkReadChunkSize());
+			reader.setMetrics(metrics);
+			final long readAt = System.currentTimeMillis();
+			final Map<Opcda2TransportItem, ItemState> read;
+			try {
+				read = reader.read(group.getValue(), true);
+			} catch (JIException ex) {
+				endpoint.sessionLost(ex);
+				throw new CamelOpcException(String.format(NOT_CONNECTED_MSG, endpoint.getId()));
+			}
+			for (Map.Entry<Opcda2TransportItem, ItemState> entry : read.entrySet()) {
+				states.put(entry.getKey().getId(), entry.getValue());
+				if (cache != null) {
+					cache.put(entry.getKey().getId(), entry.getValue(), readAt);
+				}
+			}
+			for (Map.Entry<String, Exception> error : reader.getLastErrors().entrySet()) {
+				LOG.debug(String.format(READ_FAILED_MSG, error.getKey(), error.getValue().getMessage()));
+			}
+		}
+		Map<String, Map<String, Object>> retVal = new TreeMap<String, Map<String, Object>>();
+		for (Map.Entry<String, ItemState> entry : states.entrySet()) {
+			final ItemState is = entry.getValue();
+			try {
+				retVal.put(entry.getKey(), endpoint.getItemStateAsMap(is,
+						JIVariantDecoder.forType(is.getValue().getType(), endpoint.isPrimitiveArrays()).decode(is.getValue())));
+			} catch (JIException ex) {
+				LOG.debug(String.format(READ_FAILED_MSG, entry.getKey(), ex.getMessage()));
+			}
+		}
+		exchange.getIn().setBody(retVal);
+	}
+	public static final String READ_FAILED_MSG = "Unable to read %s: %s";
+
+	/**
+	 * @param exchange a read or history query
+	 * @return the item ids named by the body: an item id, a collection of
+	 * item ids or a map keyed by item id, all the endpoint's items if empty
+	 */
+	private Collection<?> itemIdsOf(Exchange exchange) {
+		final Object body = exchange.getIn().getBody();
+		if (body instanceof Map) {
+			return ((Map<?, ?>) body).keySet();
+		} else if (body instanceof Collection) {
+			return (Collection<?>) body;
+		} else if (body != null) {
+			return Collections.singleton(body.toString());
+		}
+		return endpoint.getOpcItems().keySet();
 	}
 
+	/**
+	 * Queues a batch write, writes are split by the OPC group (or shard)
+	 * their items belong to, in request order.
+	 */
+	private static void addRequest(Map<Opcda2TransportGroup, Map<Opcda2TransportItem, JIVariant>> requests, Opcda2TransportItem item, JIVariant value) {
+		Map<Opcda2TransportItem, JIVariant> groupRequests = requests.get(item.getGroup());
+		if (groupRequests == null) {
+			groupRequests = new LinkedHashMap<Opcda2TransportItem, JIVariant>();
+			requests.put(item.getGroup(), groupRequests);
+		}
+		groupRequests.put(item, value);
+	}
+
+	/**
+	 * Writes the requests through the group's SyncIO interface, one call per
+	 * chunk. Failures are recorded per item instead of aborting the exchange.
+	 *
+	 * @param group the group all the items belong to
+	 * @param requests item to value, in write order
+	 * @param results item id to HRESULT of the write (0 is success)
+	 */
+	private void writeBatch(Opcda2TransportGroup group, Map<Opcda2TransportItem, JIVariant> requests, Map<String, Integer> results) {
+		final int chunkSize = endpoint.getWriteChunkSize() > 0 ? endpoint.getWriteChunkSize() : requests.size();
+		Map<Opcda2TransportItem, JIVariant> chunk = new LinkedHashMap<Opcda2TransportItem, JIVariant>();
+		for (Map.Entry<Opcda2TransportItem, JIVariant> request : requests.entrySet()) {
+			chunk.put(request.getKey(), request.getValue());
+			if (chunk.size() == chunkSize) {
+				writeChunk(group, chunk, results);
+				chunk.clear();
+			}
+		}
+		if (!chunk.isEmpty()) {
+			writeChunk(group, chunk, results);
+		}
+	}
+
+	private void writeChunk(Opcda2TransportGroup group, Map<Opcda2TransportItem, JIVariant> chunk, Map<String, Integer> results) {
+		final long start = System.nanoTime();
+		try {
+			Map<Opcda2TransportItem, Integer> chunkResult = group.write(chunk);
+			int failed = 0;
+			for (Opcda2TransportItem item : chunk.keySet()) {
+				Integer result = chunkResult.get(item);
+				if (result == null || result != 0) {
+					failed++;
+				}
+				results.put(item.getId(), result != null ? result : Integer.valueOf(E_FAIL));
+			}
+			metrics.recordWrite(System.nanoTime() - start, chunk.size(), failed);
+		} catch (JIException ex) {
+			metrics.recordWrite(System.nanoTime() - start, chunk.size(), chunk.size());
+			LOG.warn(String.format(WRITE_FAILED_MSG, chunk.size(), ex.getMessage()));
+			if (Opcda2Connection.isSessionLost(ex)) {
+				endpoint.sessionLost(ex);
+			}
+			for (Opcda2TransportItem item : chunk.keySet()) {
+				results.put(item.getId(), ex.getErrorCode());
+			}
+		}
+	}
+	public static final String WRITE_FAILED_MSG = "Batch write of %d items failed: %s";
+	/**
+	 * HRESULT reported for items the server did not return a result for.
+	 */
+	public static final int E_FAIL = 0x80004005;
+
 }
@@ -0,0 +1,248 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * Reads the items of a group split over several shards (OPC groups,
+ * possibly on separate server sessions) in parallel.
+ * <p>
+ * A DCOM session serializes its calls, so reading a large item set through
+ * one group is bound by the round trip latency of every call. Each shard is
+ * read by its own task, the first one on the calling thread and the others
+ * on the executor, and the results are merged once all shards are done so
+ * the caller always gets one consistent cycle.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ShardedReader {
+
+	private final List<Shard> shards;
+	private final ExecutorService executor;
+	private final Map<String, Exception> lastErrors = new HashMap<String, Exception>();
+
+	/**
+	 * @param shards the shards, every item read must belong to one of them
+	 * @param executor runs all but the first shard, may be null if there is
+	 * only one shard.
+	 */
+	public Opcda2ShardedReader(List<Shard> shards, ExecutorService executor) {
+		this.shards = shards;
+		this.executor = executor;
+	}
+
+	/**
+	 * Reads every shard.
+	 *
+	 * @param device true for a device read, false to read from the server's
+	 * cache.
+	 * @return the state of every item that could be read.
+	 * @throws InterruptedException if interrupted while waiting for the
+	 * shards.
+	 * @throws JIException if a shard's session is lost.
+	 */
+	public Map<Opcda2TransportItem, ItemState> read(final boolean device) throws InterruptedException, JIException {
+		List<Callable<Map<Opcda2TransportItem, ItemState>>> tasks = new ArrayList<Callable<Map<Opcda2TransportItem, ItemState>>>(shards.size());
+		for (final Shard shard : shards) {
+			tasks.add(new Callable<Map<Opcda2TransportItem, ItemState>>() {
+
+				@Override
+				public Map<Opcda2TransportItem, ItemState> call() throws JIException {
+					return shard.read(device);
+				}
+			});
+		}
+
+		Map<Opcda2TransportItem, ItemState> retVal = null;
+		lastErrors.clear();
+		try {
+			for (Map<Opcda2TransportItem, ItemState> shardStates : invokeAll(executor, tasks)) {
+				if (retVal == null) {
+					retVal = shardStates;
+				} else {
+					retVal.putAll(shardStates);
+				}
+			}
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof JIException) {
+				//A lost session, items fail one by one otherwise.
+				throw (JIException) ex.getCause();
+			}
+			throw new IllegalStateException(ex.getCause());
+		}
+		for (Shard shard : shards) {
+			lastErrors.putAll(shard.getLastErrors());
+		}
+		return retVal != null ? retVal : new HashMap<Opcda2TransportItem, ItemState>();
+	}
+
+	/**
+	 * Runs the first task on the calling thread and the others on the
+	 * executor, and waits for all of them.
+	 *
+	 * @param <T> the result type
+	 * @param executor runs all but the first task, may be null for a single
+	 * task.
+	 * @param tasks the tasks
+	 * @return the results, in task order
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException wrapping the first task failure, the other
+	 * tasks are still waited for.
+	 */
+	public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+		if (tasks.isEmpty()) {
+			return Collections.emptyList();
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size() - 1);
+		for (int i = 1; i < tasks.size(); i++) {
+			futures.add(executor.submit(tasks.get(i)));
+		}
+
+		List<T> retVal = new ArrayList<T>(tasks.size());
+		ExecutionException failure = null;
+		try {
+			retVal.add(tasks.get(0).call());
+		} catch (Exception ex) {
+			failure = new ExecutionException(ex);
+		}
+		for (Future<T> future : futures) {
+			try {
+				retVal.add(future.get());
+			} catch (ExecutionException ex) {
+				if (failure == null) {
+					failure = ex;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return item id to cause, for the items that could not be read during
+	 * the last call to {@link #read(boolean)}.
+	 */
+	public Map<String, Exception> getLastErrors() {
+		return lastErrors;
+	}
+
+	/**
+	 * @return the shards
+	 */
+	public List<Shard> getShards() {
+		return shards;
+	}
+
+	/**
+	 * The items of one OPC group, read in bulk or one by one.
+	 */
+	public static class Shard {
+
+		private final List<Opcda2TransportItem> items = new ArrayList<Opcda2TransportItem>();
+		private final Opcda2BulkReader bulkReader;
+		private final Map<String, Exception> lastErrors = new HashMap<String, Exception>();
+		private Opcda2Metrics metrics;
+
+		/**
+		 * @param group the shard's group
+		 * @param bulkRead true to read the items through the group's SyncIO
+		 * interface, false to read them one by one.
+		 * @param chunkSize maximum items per bulk read call
+		 */
+		public Shard(Opcda2TransportGroup group, boolean bulkRead, int chunkSize) {
+			this.bulkReader = bulkRead ? new Opcda2BulkReader(group, chunkSize) : null;
+		}
+
+		/**
+		 * @param item an item of the shard's group
+		 */
+		public void add(Opcda2TransportItem item) {
+			items.add(item);
+		}
+
+		Map<Opcda2TransportItem, ItemState> read(boolean device) throws JIException {
+			if (bulkReader != null) {
+				return bulkReader.read(items, device);
+			}
+			Map<Opcda2TransportItem, ItemState> retVal = new HashMap<Opcda2TransportItem, ItemState>(items.size() * 2);
+			lastErrors.clear();
+			for (Opcda2TransportItem item : items) {
+				try {
+					final long start = System.nanoTime();
+					retVal.put(item, item.read(device));
+					if (metrics != null) {
+						metrics.recordRead(System.nanoTime() - start);
+					}
+				} catch (JIException ex) {
+					if (Opcda2Connection.isSessionLost(ex)) {
+						throw ex;
+					}
+					lastErrors.put(item.getId(), ex);
+				}
+			}
+			return retVal;
+		}
+
+		/**
+		 * @param metrics records the latency of each server call, may be null
+		 */
+		public void setMetrics(Opcda2Metrics metrics) {
+			this.metrics = metrics;
+			if (bulkReader != null) {
+				bulkReader.setMetrics(metrics);
+			}
+		}
+
+		/**
+		 * @return item id to cause, for the items that could not be read
+		 * during the last read.
+		 */
+		public Map<String, Exception> getLastErrors() {
+			return bulkReader != null ? bulkReader.getLastErrors() : lastErrors;
+		}
+
+		/**
+		 * @return the bulk reader, null if the items are read one by one.
+		 */
+		public Opcda2BulkReader getBulkReader() {
+			return bulkReader;
+		}
+
+		/**
+		 * @return the items
+		 */
+		public List<Opcda2TransportItem> getItems() {
+			return items;
+		}
+	}
+}
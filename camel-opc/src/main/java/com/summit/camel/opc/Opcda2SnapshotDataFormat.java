@@ -0,0 +1,72 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import org.apache.camel.Exchange;
+import org.apache.camel.spi.DataFormat;
+
+/**
+ * Marshals tag snapshots with {@link TagSnapshotCodec}, for forwarding
+ * consumer exchanges over queues without Java serialization.
+ * <p>
+ * Map bodies are converted to a {@link TagSnapshot} before marshalling.
+ * Unmarshalling always produces a {@link TagSnapshot}. When the body is
+ * already a byte array or a ByteBuffer, it is decoded in place instead of
+ * going through the stream. Registered as the <code>opcsnapshot</code>
+ * data format.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2SnapshotDataFormat implements DataFormat {
+
+	@Override
+	public void marshal(Exchange exchange, Object graph, OutputStream stream) throws Exception {
+		final TagSnapshot snapshot;
+		if (graph instanceof TagSnapshot) {
+			snapshot = (TagSnapshot) graph;
+		} else {
+			snapshot = exchange.getContext().getTypeConverter().mandatoryConvertTo(TagSnapshot.class, graph);
+		}
+		ByteBuffer buffer = TagSnapshotCodec.encode(snapshot);
+		stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+	}
+
+	@Override
+	public Object unmarshal(Exchange exchange, InputStream stream) throws Exception {
+		final Object body = exchange.getIn().getBody();
+		if (body instanceof ByteBuffer) {
+			return TagSnapshotCodec.decode(((ByteBuffer) body).duplicate());
+		} else if (body instanceof byte[]) {
+			return TagSnapshotCodec.decode(ByteBuffer.wrap((byte[]) body));
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int read;
+		while ((read = stream.read(chunk)) != -1) {
+			bytes.write(chunk, 0, read);
+		}
+		return TagSnapshotCodec.decode(ByteBuffer.wrap(bytes.toByteArray()));
+	}
+}
@@ -0,0 +1,368 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.impl.DefaultConsumer;
+import org.jinterop.dcom.common.JIException;
+import org.openscada.opc.lib.da.ItemState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.summit.camel.opc.Opcda2Endpoint.VALUE;
+
+/**
+ * The opcda2 subscription consumer.
+ * <p>
+ * Instead of polling, the endpoint's OPC groups are subscribed to through
+ * its transport (an OPC DA 2.0 data callback with Utgard) and the server
+ * calls back whenever an item changes. Changes are
+ * collected and emitted once per update rate, so each exchange only holds
+ * the items the server reported as changed since the last one. As when
+ * polling, the endpoint's {@link Opcda2ChangeFilter} settings (deadbands,
+ * quality and timestamp changes, heartbeat) only apply with
+ * <code>diffOnly</code>, otherwise every reported change is emitted.</p>
+ * <p>
+ * Only the endpoint's subscribed groups are handled, each at its own
+ * update rate. Merged groups are emitted together at the fastest group's
+ * rate, otherwise each group is emitted at its own rate.</p>
+ * <p>
+ * Subscriptions live on the server session, so once the endpoint's items
+ * are restored after a lost session they are made again, on the next
+ * flush.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2SubscriptionConsumer extends DefaultConsumer implements Opcda2TransportListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2SubscriptionConsumer.class);
+
+	private final Opcda2Endpoint endpoint;
+	private final List<Opcda2ItemGroup> groups;
+	private final Opcda2ChangeFilter changeFilter;
+	private final boolean diffOnly;
+	private final Opcda2DecoderCache decoders;
+	private final Opcda2History history;
+	private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+	private final List<Map<String, Object>> lastEmitted = new ArrayList<Map<String, Object>>();
+	private final List<String> itemIds = new ArrayList<String>();
+	private final List<Integer> itemGroups = new ArrayList<Integer>();
+	private final List<Integer> itemTypes = new ArrayList<Integer>();
+	private final List<Map<String, Map<String, Object>>> pending = new ArrayList<Map<String, Map<String, Object>>>();
+	private final List<Opcda2TransportSubscription> subscriptions = new ArrayList<Opcda2TransportSubscription>();
+	private final List<ScheduledFuture<?>> flushTasks = new ArrayList<ScheduledFuture<?>>();
+	private ScheduledExecutorService flushExecutor;
+	private final Opcda2Metrics metrics;
+	private int generation;
+	private int received;
+	private int accepted;
+	private int bad;
+
+	public Opcda2SubscriptionConsumer(Opcda2Endpoint endpoint, Processor processor) {
+		super(endpoint, processor);
+		this.endpoint = endpoint;
+		this.groups = endpoint.getItemGroups();
+		this.changeFilter = Opcda2ChangeFilter.forEndpoint(endpoint);
+		this.diffOnly = endpoint.isDiffOnly();
+		this.decoders = new Opcda2DecoderCache(endpoint.isPrimitiveArrays());
+		this.history = endpoint.getHistory();
+		this.metrics = endpoint.getMetrics();
+	}
+
+	@Override
+	protected void doStart() throws Exception {
+		super.doStart();
+
+		int fastest = 0;
+		for (int i = 0; i < groups.size(); i++) {
+			final Opcda2ItemGroup group = groups.get(i);
+			pending.add(new TreeMap<String, Map<String, Object>>());
+			if (!isSubscribed(group)) {
+				continue;
+			}
+			final int updateRate = group.getRate(endpoint);
+			fastest = fastest > 0 ? Math.min(fastest, updateRate) : updateRate;
+
+			synchronized (this) {
+				for (Map.Entry<String, Opcda2TransportItem> item : group.getItems().entrySet()) {
+					indexes.put(item.getKey(), itemIds.size());
+					itemIds.add(item.getKey());
+					itemGroups.add(i);
+					itemTypes.add(item.getValue().getCanonicalType());
+					lastEmitted.add(null);
+				}
+			}
+		}
+
+		flushExecutor = endpoint.getCamelContext().getExecutorServiceManager()
+				.newSingleThreadScheduledExecutor(this, "Opcda2Subscription");
+		if (endpoint.isMergeGroups()) {
+			scheduleFlush(-1, fastest > 0 ? fastest : endpoint.getDelay());
+		} else {
+			for (int i = 0; i < groups.size(); i++) {
+				if (isSubscribed(groups.get(i))) {
+					scheduleFlush(i, groups.get(i).getRate(endpoint));
+				}
+			}
+		}
+
+		synchronized (subscriptions) {
+			generation = endpoint.getGeneration();
+			subscribe();
+		}
+	}
+
+	/**
+	 * Attaches to the OPC groups (one per shard) the endpoint registered the
+	 * items in, so the items are not added to the server a second time.
+	 */
+	private void subscribe() throws OPCConnectionException {
+		for (Opcda2ItemGroup group : groups) {
+			if (isSubscribed(group)) {
+				for (Opcda2TransportGroup shard : group.getShards()) {
+					subscriptions.add(shard.subscribe(group.getRate(endpoint), this));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Subscribes again once the endpoint's items are restored on a new
+	 * session. Retried on the next flush if it fails.
+	 */
+	private void resubscribe() {
+		synchronized (subscriptions) {
+			if (!isRunAllowed() || !endpoint.isConnected() || endpoint.getGeneration() == generation) {
+				return;
+			}
+			cancelSubscriptions();
+			try {
+				subscribe();
+				generation = endpoint.getGeneration();
+			} catch (OPCConnectionException ex) {
+				logger.warn(String.format(RESUBSCRIBE_FAILED_MSG, endpoint.getId(), ex.getMessage()));
+				cancelSubscriptions();
+			}
+		}
+	}
+	public static final String RESUBSCRIBE_FAILED_MSG = "Unable to subscribe to the items of %s again, retrying: %s";
+
+	private void cancelSubscriptions() {
+		for (Opcda2TransportSubscription subscription : subscriptions) {
+			try {
+				subscription.cancel();
+			} catch (OPCConnectionException ex) {
+				logger.debug(String.format(CANCEL_FAILED_MSG, endpoint.getId(), ex.getMessage()));
+			}
+		}
+		subscriptions.clear();
+	}
+	public static final String CANCEL_FAILED_MSG = "Unable to cancel a subscription of %s: %s";
+
+	private boolean isSubscribed(Opcda2ItemGroup group) {
+		return group.isSubscribe(endpoint) && !group.getItems().isEmpty();
+	}
+
+	/**
+	 * @param groupIndex the group to flush, -1 for all groups merged
+	 * @param rate the flush rate (ms)
+	 */
+	private void scheduleFlush(final int groupIndex, int rate) {
+		flushTasks.add(flushExecutor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				flush(groupIndex);
+			}
+		}, rate, rate, TimeUnit.MILLISECONDS));
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		synchronized (subscriptions) {
+			for (Opcda2TransportSubscription subscription : subscriptions) {
+				subscription.cancel();
+			}
+			subscriptions.clear();
+		}
+		for (ScheduledFuture<?> flushTask : flushTasks) {
+			flushTask.cancel(false);
+		}
+		flushTasks.clear();
+		if (flushExecutor != null) {
+			endpoint.getCamelContext().getExecutorServiceManager().shutdown(flushExecutor);
+			flushExecutor = null;
+		}
+		synchronized (this) {
+			pending.clear();
+			changeFilter.clear();
+			decoders.clear();
+			indexes.clear();
+			itemIds.clear();
+			itemGroups.clear();
+			itemTypes.clear();
+			lastEmitted.clear();
+		}
+		super.doStop();
+	}
+
+	/**
+	 * Called by the transport whenever an item changes.
+	 *
+	 * @param itemId the changed item's id
+	 * @param itemState its new state
+	 */
+	@Override
+	public void changed(String itemId, ItemState itemState) {
+		synchronized (this) {
+			final Integer index = indexes.get(itemId);
+			if (index == null) {
+				return;
+			}
+			received++;
+			final long now = System.currentTimeMillis();
+			final Opcda2ValueCache cache = endpoint.getValueCache();
+			if (cache != null) {
+				cache.put(itemId, itemState, now);
+			}
+			if (Opcda2Metrics.isBad(itemState.getQuality())) {
+				bad++;
+			}
+			final Map<String, Object> itemStateAsMap;
+			try {
+				itemStateAsMap = endpoint.getItemStateAsMap(itemState, decoders.decode(index, itemTypes.get(index), itemState.getValue()));
+			} catch (JIException ex) {
+				logger.warn(String.format(CONVERSION_FAILED_MSG, itemId, ex.getMessage()));
+				return;
+			}
+			if (history != null) {
+				history.record(itemId, itemStateAsMap.get(VALUE), itemState.getQuality(), Opcda2Consumer.getTimeInMillis(itemState), now);
+			}
+			if (!diffOnly || changeFilter.accept(index, itemId, itemStateAsMap.get(VALUE), itemState.getQuality(),
+					Opcda2Consumer.getTimeInMillis(itemState), now)) {
+				accepted++;
+				lastEmitted.set(index, itemStateAsMap);
+				pending.get(itemGroups.get(index)).put(itemId, itemStateAsMap);
+			}
+		}
+	}
+	public static final String CONVERSION_FAILED_MSG = "Unable to convert data change of %s: %s";
+
+	/**
+	 * @param groupIndex the group to emit, -1 for all groups merged
+	 */
+	private void flush(int groupIndex) {
+		if (endpoint.getGeneration() != generation) {
+			resubscribe();
+		}
+		final long start = System.nanoTime();
+		final Map<String, Map<String, Object>> data;
+		final int cycleReceived;
+		final int cycleAccepted;
+		synchronized (this) {
+			cycleReceived = received;
+			cycleAccepted = accepted;
+			metrics.recordBadQuality(bad);
+			received = 0;
+			accepted = 0;
+			bad = 0;
+			addHeartbeats(groupIndex);
+			if (groupIndex >= 0) {
+				data = pending.get(groupIndex);
+				if (data.isEmpty()) {
+					recordCycle(start, cycleReceived, cycleAccepted);
+					return;
+				}
+				pending.set(groupIndex, new TreeMap<String, Map<String, Object>>());
+			} else {
+				data = new TreeMap<String, Map<String, Object>>();
+				for (int i = 0; i < pending.size(); i++) {
+					if (!pending.get(i).isEmpty()) {
+						data.putAll(pending.get(i));
+						pending.set(i, new TreeMap<String, Map<String, Object>>());
+					}
+				}
+				if (data.isEmpty()) {
+					recordCycle(start, cycleReceived, cycleAccepted);
+					return;
+				}
+			}
+		}
+		metrics.recordExchange(data.size());
+
+		Exchange exchange = endpoint.createExchange();
+		if (endpoint.isCompactBody()) {
+			exchange.getIn().setBody(Opcda2Converters.toTagSnapshot(data));
+		} else {
+			exchange.getIn().setBody(data);
+		}
+		if (groupIndex >= 0) {
+			exchange.getIn().setHeader(Opcda2Endpoint.GROUP, groups.get(groupIndex).getName());
+		}
+		try {
+			getProcessor().process(exchange);
+		} catch (Exception ex) {
+			exchange.setException(ex);
+		} finally {
+			// log exception if an exception occurred and was not handled
+			if (exchange.getException() != null) {
+				getExceptionHandler().handleException("Error processing exchange", exchange, exchange.getException());
+			}
+		}
+		recordCycle(start, cycleReceived, cycleAccepted);
+	}
+
+	private void recordCycle(long start, int cycleReceived, int cycleAccepted) {
+		if (cycleReceived > 0) {
+			metrics.recordCycle(System.nanoTime() - start, cycleReceived, cycleAccepted);
+		}
+	}
+
+	/**
+	 * The server only reports changes, so items due for a heartbeat are
+	 * re-emitted with their last state.
+	 *
+	 * @param groupIndex the group being emitted, -1 for all groups
+	 */
+	private void addHeartbeats(int groupIndex) {
+		final long now = System.currentTimeMillis();
+		for (int index = 0; index < itemIds.size(); index++) {
+			final int itemGroup = itemGroups.get(index);
+			if (groupIndex >= 0 && itemGroup != groupIndex) {
+				continue;
+			}
+			if (changeFilter.isHeartbeatDue(index, now) && lastEmitted.get(index) != null) {
+				if (!pending.get(itemGroup).containsKey(itemIds.get(index))) {
+					pending.get(itemGroup).put(itemIds.get(index), lastEmitted.get(index));
+				}
+				changeFilter.markEmitted(index, now);
+			}
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffer of item states between the thread reading the server
+ * and the thread routing them, see the endpoint's <code>streaming</code>
+ * option.
+ * <p>
+ * When the buffer is full, the {@link OverflowPolicy} decides whether the
+ * reader waits for room or old states make way. Coalescing keeps at most
+ * one pending state per item: a newer state replaces the pending one in
+ * place, so a buffer at least as large as the item count never fills
+ * up.</p>
+ * <p>
+ * Thread safe, for one or more writers and one reader.</p>
+ *
+ * @param <T> the type of the item states
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2TagBuffer<T> {
+
+	/**
+	 * What a full buffer does with a new state.
+	 */
+	public enum OverflowPolicy {
+
+		/**
+		 * The reader waits for room, slowing the polls down to the route's
+		 * pace.
+		 */
+		BLOCK,
+		/**
+		 * The oldest pending state is dropped.
+		 */
+		DROP_OLDEST,
+		/**
+		 * A pending state of the same item is replaced, otherwise the
+		 * reader waits for room.
+		 */
+		COALESCE
+	}
+
+	private final String[] itemIds;
+	private final Object[] states;
+	private final OverflowPolicy overflowPolicy;
+	private final Map<String, Long> pending = new HashMap<String, Long>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	private long head;
+	private long tail;
+	private long dropped;
+	private long coalesced;
+	private boolean closed;
+
+	/**
+	 * @param capacity the most states held
+	 * @param overflowPolicy what to do when it is full
+	 */
+	public Opcda2TagBuffer(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException(String.format(INVALID_CAPACITY_MSG, capacity));
+		}
+		this.itemIds = new String[capacity];
+		this.states = new Object[capacity];
+		this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.BLOCK;
+	}
+	public static final String INVALID_CAPACITY_MSG = "Buffer size must be > 0, was %d";
+
+	/**
+	 * Adds an item's state, waiting for room if the policy says so.
+	 *
+	 * @param itemId the item's id
+	 * @param state its state
+	 * @return false if the buffer was closed, the state is then dropped
+	 * @throws InterruptedException if interrupted while waiting for room
+	 */
+	public boolean put(String itemId, T state) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if (overflowPolicy == OverflowPolicy.COALESCE) {
+				final Long sequence = pending.get(itemId);
+				if (sequence != null) {
+					states[slot(sequence)] = state;
+					coalesced++;
+					return !closed;
+				}
+			}
+			while (!closed && tail - head == itemIds.length) {
+				if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+					remove();
+					dropped++;
+				} else {
+					notFull.await();
+				}
+			}
+			if (closed) {
+				return false;
+			}
+			itemIds[slot(tail)] = itemId;
+			states[slot(tail)] = state;
+			if (overflowPolicy == OverflowPolicy.COALESCE) {
+				pending.put(itemId, tail);
+			}
+			tail++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes a batch of states, waiting for the first one as long as the
+	 * buffer is open, then up to maxWait for the batch to fill up.
+	 *
+	 * @param batch the map to add the states to, by item id. A later state
+	 * of an item replaces an earlier one.
+	 * @param maxSize the most states to take
+	 * @param maxWait how long to wait for more states after the first one
+	 * (ms), 0 to take only what is already there
+	 * @return the number of states taken, 0 once the buffer is closed and
+	 * empty
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	@SuppressWarnings("unchecked")
+	public int take(Map<String, T> batch, int maxSize, long maxWait) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (!closed && tail == head) {
+				notEmpty.await();
+			}
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+			int taken = 0;
+			while (taken < maxSize) {
+				if (tail == head) {
+					final long remaining = deadline - System.nanoTime();
+					if (closed || remaining <= 0) {
+						break;
+					}
+					notEmpty.awaitNanos(remaining);
+					continue;
+				}
+				final int slot = slot(head);
+				batch.put(itemIds[slot], (T) states[slot]);
+				remove();
+				taken++;
+			}
+			return taken;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void remove() {
+		final int slot = slot(head);
+		if (overflowPolicy == OverflowPolicy.COALESCE) {
+			pending.remove(itemIds[slot]);
+		}
+		itemIds[slot] = null;
+		states[slot] = null;
+		head++;
+		notFull.signal();
+	}
+
+	private int slot(long sequence) {
+		return (int) (sequence % itemIds.length);
+	}
+
+	/**
+	 * Wakes up the reader and the writers, later states are refused. States
+	 * already in the buffer can still be taken.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of states waiting
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return (int) (tail - head);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return itemIds.length;
+	}
+
+	/**
+	 * @return the number of states dropped to make room
+	 */
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of states replaced by a newer one of the same item
+	 */
+	public long getCoalesced() {
+		lock.lock();
+		try {
+			return coalesced;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A session with an OPC DA server, as seen by the endpoint.
+ * <p>
+ * Values keep the DA model: item states are Utgard {@link
+ * org.openscada.opc.lib.da.ItemState}s holding a {@link
+ * org.jinterop.dcom.core.JIVariant}, and per item failures are HRESULTs.
+ * {@link Opcda2UtgardTransport}, talking DCOM through Utgard, is the
+ * default. Other transports, such as an in-memory server for benchmarks,
+ * are selected with the endpoint's <code>transport</code> option.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public interface Opcda2Transport {
+
+	/**
+	 * Opens the session.
+	 *
+	 * @throws OPCConnectionException if the server could not be reached.
+	 */
+	void connect() throws OPCConnectionException;
+
+	/**
+	 * Closes the session, releasing its groups and threads.
+	 */
+	void disconnect();
+
+	/**
+	 * @param name the group's name, unique within the session
+	 * @return the new, active group
+	 * @throws OPCConnectionException if the group could not be added.
+	 */
+	Opcda2TransportGroup addGroup(String name) throws OPCConnectionException;
+
+	/**
+	 * @param path names of the branches from the root to the browsed branch,
+	 * empty for the root.
+	 * @return the names of the branch's sub-branches
+	 * @throws OPCConnectionException if the branch could not be browsed.
+	 */
+	List<String> browseBranches(List<String> path) throws OPCConnectionException;
+
+	/**
+	 * @param path names of the branches from the root to the browsed branch,
+	 * empty for the root.
+	 * @return leaf name to item id, for the branch's leaves
+	 * @throws OPCConnectionException if the branch could not be browsed.
+	 */
+	Map<String, String> browseLeaves(List<String> path) throws OPCConnectionException;
+
+	/**
+	 * @return the id of every item of the server, from a single flat browse
+	 * of its address space
+	 * @throws OPCConnectionException if the server could not be browsed or
+	 * does not support flat browsing.
+	 */
+	List<String> browseFlat() throws OPCConnectionException;
+}
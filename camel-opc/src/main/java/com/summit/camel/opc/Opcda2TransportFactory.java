@@ -0,0 +1,49 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+/**
+ * Creates the {@link Opcda2Transport} sessions of endpoints.
+ * <p>
+ * Set a factory on an endpoint with
+ * <code>transport=#beanName</code>. Sessions are shared through the
+ * component's {@link Opcda2ConnectionRegistry} between endpoints whose
+ * factories return the same key.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public interface Opcda2TransportFactory {
+
+	/**
+	 * @param endpoint the endpoint asking for a session
+	 * @return identifies the server the endpoint talks to, endpoints with the
+	 * same key share a session.
+	 */
+	String getKey(Opcda2Endpoint endpoint);
+
+	/**
+	 * @param endpoint the first endpoint of the session
+	 * @return a new, not yet connected, session
+	 * @throws OPCConnectionException if the endpoint's settings are not
+	 * usable by this transport.
+	 */
+	Opcda2Transport createTransport(Opcda2Endpoint endpoint) throws OPCConnectionException;
+}
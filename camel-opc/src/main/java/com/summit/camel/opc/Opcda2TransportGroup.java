@@ -0,0 +1,89 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.Collection;
+import java.util.Map;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * An OPC group of a {@link Opcda2Transport}.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public interface Opcda2TransportGroup {
+
+	/**
+	 * @return the group's name
+	 */
+	String getName();
+
+	/**
+	 * Adds items to the group in one call.
+	 *
+	 * @param itemIds the ids to add
+	 * @param failed receives item id to error code, for the items that could
+	 * not be added.
+	 * @return item id to item, for the added items
+	 * @throws OPCConnectionException if the call failed as a whole.
+	 */
+	Map<String, Opcda2TransportItem> addItems(Collection<String> itemIds, Map<String, Integer> failed) throws OPCConnectionException;
+
+	/**
+	 * Reads items of this group in one call.
+	 *
+	 * @param device true for a device read, false to read from the server's
+	 * cache.
+	 * @param items the items to read
+	 * @return the state of each item the server returned one for
+	 * @throws JIException if the call failed as a whole.
+	 */
+	Map<Opcda2TransportItem, ItemState> read(boolean device, Collection<Opcda2TransportItem> items) throws JIException;
+
+	/**
+	 * Writes items of this group in one call.
+	 *
+	 * @param values item to value, in write order
+	 * @return item to HRESULT of its write (0 is success), for each item the
+	 * server returned one for
+	 * @throws JIException if the call failed as a whole.
+	 */
+	Map<Opcda2TransportItem, Integer> write(Map<Opcda2TransportItem, JIVariant> values) throws JIException;
+
+	/**
+	 * Subscribes to data changes of the group's items, instead of polling
+	 * them. The items are not added again.
+	 *
+	 * @param updateRate the requested update rate (ms)
+	 * @param listener receives the changes
+	 * @return the active subscription
+	 * @throws OPCConnectionException if the subscription could not be set up.
+	 */
+	Opcda2TransportSubscription subscribe(int updateRate, Opcda2TransportListener listener) throws OPCConnectionException;
+
+	/**
+	 * Removes the group and its items from the server.
+	 *
+	 * @throws OPCConnectionException if the group could not be removed.
+	 */
+	void remove() throws OPCConnectionException;
+}
@@ -0,0 +1,64 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * An item added to an {@link Opcda2TransportGroup}.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public interface Opcda2TransportItem {
+
+	/**
+	 * @return the item id
+	 */
+	String getId();
+
+	/**
+	 * @return the group the item was added to
+	 */
+	Opcda2TransportGroup getGroup();
+
+	/**
+	 * @return the VT type the server reported for the item when it was added
+	 * (its canonical data type), {@link JIVariant#VT_EMPTY} if it did not
+	 * say
+	 */
+	int getCanonicalType();
+
+	/**
+	 * @param device true for a device read, false to read from the server's
+	 * cache.
+	 * @return the item's state
+	 * @throws JIException if the item could not be read.
+	 */
+	ItemState read(boolean device) throws JIException;
+
+	/**
+	 * @param value the value to write
+	 * @return the HRESULT of the write, 0 on success
+	 * @throws JIException if the call failed.
+	 */
+	Integer write(JIVariant value) throws JIException;
+}
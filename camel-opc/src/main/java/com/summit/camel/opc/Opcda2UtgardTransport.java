@@ -0,0 +1,475 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.openscada.opc.dcom.common.EventHandler;
+import org.openscada.opc.dcom.common.KeyedResult;
+import org.openscada.opc.dcom.common.KeyedResultSet;
+import org.openscada.opc.dcom.common.Result;
+import org.openscada.opc.dcom.common.ResultSet;
+import org.openscada.opc.dcom.da.IOPCDataCallback;
+import org.openscada.opc.dcom.da.OPCDATASOURCE;
+import org.openscada.opc.dcom.da.OPCITEMRESULT;
+import org.openscada.opc.dcom.da.ValueData;
+import org.openscada.opc.dcom.da.impl.OPCAsyncIO2;
+import org.openscada.opc.lib.common.AlreadyConnectedException;
+import org.openscada.opc.lib.common.ConnectionInformation;
+import org.openscada.opc.lib.common.NotConnectedException;
+import org.openscada.opc.lib.da.AddFailedException;
+import org.openscada.opc.lib.da.DuplicateGroupException;
+import org.openscada.opc.lib.da.Group;
+import org.openscada.opc.lib.da.Item;
+import org.openscada.opc.lib.da.ItemState;
+import org.openscada.opc.lib.da.Server;
+import org.openscada.opc.lib.da.WriteRequest;
+import org.openscada.opc.lib.da.browser.Branch;
+import org.openscada.opc.lib.da.browser.FlatBrowser;
+import org.openscada.opc.lib.da.browser.Leaf;
+import org.openscada.opc.lib.da.browser.TreeBrowser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default transport, a DCOM session through Utgard/J-Interop.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2UtgardTransport implements Opcda2Transport {
+
+	private static final Logger logger = LoggerFactory.getLogger(Opcda2UtgardTransport.class);
+
+	private final ConnectionInformation connInfo;
+	private final int poolSize;
+	private ScheduledExecutorService executor;
+	private Server server;
+	private TreeBrowser treeBrowser;
+
+	/**
+	 * @param connInfo the connection settings
+	 * @param poolSize size of the session's thread pool
+	 */
+	public Opcda2UtgardTransport(ConnectionInformation connInfo, int poolSize) {
+		this.connInfo = connInfo;
+		this.poolSize = poolSize;
+	}
+
+	/**
+	 * @param endpoint an endpoint
+	 * @return the endpoint's connection settings
+	 */
+	static ConnectionInformation toConnectionInformation(Opcda2Endpoint endpoint) {
+		ConnectionInformation connInfo = new ConnectionInformation();
+		connInfo.setClsid(endpoint.getClsId());
+		connInfo.setProgId(endpoint.getProgId());
+		connInfo.setHost(endpoint.getHost());
+		connInfo.setDomain(endpoint.getDomain());
+		connInfo.setUser(endpoint.getUsername());
+		connInfo.setPassword(endpoint.getPassword());
+		return connInfo;
+	}
+
+	@Override
+	public void connect() throws OPCConnectionException {
+		executor = Executors.newScheduledThreadPool(
+				poolSize,
+				new Opcda2Connection.Opcda2ConnectionThreadFactory("opcda2_" + connInfo.getHost()));
+		server = new Server(connInfo, executor);
+		try {
+			server.connect();
+		} catch (IllegalArgumentException ex) {
+			disconnect();
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (UnknownHostException ex) {
+			disconnect();
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (JIException ex) {
+			disconnect();
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (AlreadyConnectedException ex) {
+			disconnect();
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		if (server != null) {
+			server.disconnect();
+			server = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+		treeBrowser = null;
+	}
+
+	@Override
+	public Opcda2TransportGroup addGroup(String name) throws OPCConnectionException {
+		try {
+			return new UtgardGroup(server.addGroup(name), name);
+		} catch (NotConnectedException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (IllegalArgumentException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (UnknownHostException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (JIException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (DuplicateGroupException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+	}
+
+	@Override
+	public List<String> browseBranches(List<String> path) throws OPCConnectionException {
+		Branch branch = toBranch(path);
+		try {
+			getTreeBrowser().fillBranches(branch);
+		} catch (IllegalArgumentException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (UnknownHostException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (JIException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+		List<String> retVal = new ArrayList<String>();
+		for (Branch b : branch.getBranches()) {
+			retVal.add(b.getName());
+		}
+		return retVal;
+	}
+
+	@Override
+	public Map<String, String> browseLeaves(List<String> path) throws OPCConnectionException {
+		Branch branch = toBranch(path);
+		try {
+			getTreeBrowser().fillLeaves(branch);
+		} catch (IllegalArgumentException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (UnknownHostException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (JIException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+		Map<String, String> retVal = new LinkedHashMap<String, String>();
+		for (Leaf l : branch.getLeaves()) {
+			retVal.put(l.getName(), l.getItemId());
+		}
+		return retVal;
+	}
+
+	@Override
+	public List<String> browseFlat() throws OPCConnectionException {
+		try {
+			FlatBrowser browser = server.getFlatBrowser();
+			if (browser == null) {
+				throw new OPCConnectionException(FLAT_BROWSE_UNSUPPORTED_MSG);
+			}
+			return new ArrayList<String>(browser.browse());
+		} catch (IllegalArgumentException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (UnknownHostException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		} catch (JIException ex) {
+			throw new OPCConnectionException(ex.getMessage(), ex);
+		}
+	}
+	public static final String FLAT_BROWSE_UNSUPPORTED_MSG = "The server does not support flat browsing";
+
+	private TreeBrowser getTreeBrowser() throws IllegalArgumentException, UnknownHostException, JIException {
+		if (treeBrowser == null) {
+			treeBrowser = server.getTreeBrowser();
+		}
+		return treeBrowser;
+	}
+
+	/**
+	 * @return a fresh browser branch, the browser only needs the chain of
+	 * names to move to it.
+	 */
+	private static Branch toBranch(List<String> path) {
+		Branch retVal = new Branch();
+		for (String name : path) {
+			retVal = new Branch(retVal, name);
+		}
+		return retVal;
+	}
+
+	/**
+	 * @return the Utgard server, null while not connected
+	 */
+	public Server getServer() {
+		return server;
+	}
+
+	/**
+	 * @return the executor used by the server for this session
+	 */
+	public ScheduledExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * A Utgard group.
+	 */
+	static final class UtgardGroup implements Opcda2TransportGroup {
+
+		private final Group group;
+		private final String name;
+
+		UtgardGroup(Group group, String name) {
+			this.group = group;
+			this.name = name;
+		}
+
+		@Override
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public Map<String, Opcda2TransportItem> addItems(Collection<String> itemIds, Map<String, Integer> failed) throws OPCConnectionException {
+			Map<String, Item> added;
+			try {
+				added = group.addItems(itemIds.toArray(new String[itemIds.size()]));
+			} catch (AddFailedException ex) {
+				added = ex.getItems();
+				failed.putAll(ex.getErrors());
+			} catch (JIException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			}
+			final Map<String, Integer> types = canonicalTypes(added.keySet());
+			Map<String, Opcda2TransportItem> retVal = new HashMap<String, Opcda2TransportItem>(added.size() * 2);
+			for (Map.Entry<String, Item> entry : added.entrySet()) {
+				final Integer type = types.get(entry.getKey());
+				retVal.put(entry.getKey(), new UtgardItem(entry.getValue(), this, type != null ? type.intValue() : JIVariant.VT_EMPTY));
+			}
+			return retVal;
+		}
+
+		/**
+		 * Utgard's items do not keep the OPCITEMRESULT of the add, so the
+		 * canonical types are asked for once, in one call for all added
+		 * items.
+		 *
+		 * @return item id to canonical VT type, empty if the server could not
+		 * tell
+		 */
+		private Map<String, Integer> canonicalTypes(Collection<String> itemIds) {
+			Map<String, Integer> retVal = new HashMap<String, Integer>(itemIds.size() * 2);
+			if (itemIds.isEmpty()) {
+				return retVal;
+			}
+			try {
+				for (Map.Entry<String, Result<OPCITEMRESULT>> entry : group.validateItems(itemIds.toArray(new String[itemIds.size()])).entrySet()) {
+					if (!entry.getValue().isFailed() && entry.getValue().getValue() != null) {
+						retVal.put(entry.getKey(), Integer.valueOf(entry.getValue().getValue().getCanonicalDataType()));
+					}
+				}
+			} catch (JIException ex) {
+				logger.debug(String.format(CANONICAL_TYPES_FAILED_MSG, itemIds.size(), ex.getMessage()));
+			}
+			return retVal;
+		}
+		public static final String CANONICAL_TYPES_FAILED_MSG = "Unable to get the canonical types of %d items: %s";
+
+		@Override
+		public Map<Opcda2TransportItem, ItemState> read(boolean device, Collection<Opcda2TransportItem> items) throws JIException {
+			Item[] utgardItems = new Item[items.size()];
+			int i = 0;
+			for (Opcda2TransportItem item : items) {
+				utgardItems[i++] = ((UtgardItem) item).item;
+			}
+			Map<Item, ItemState> states = group.read(device, utgardItems);
+
+			Map<Opcda2TransportItem, ItemState> retVal = new HashMap<Opcda2TransportItem, ItemState>(items.size() * 2);
+			for (Opcda2TransportItem item : items) {
+				ItemState is = states.get(((UtgardItem) item).item);
+				if (is != null) {
+					retVal.put(item, is);
+				}
+			}
+			return retVal;
+		}
+
+		@Override
+		public Map<Opcda2TransportItem, Integer> write(Map<Opcda2TransportItem, JIVariant> values) throws JIException {
+			WriteRequest[] requests = new WriteRequest[values.size()];
+			int i = 0;
+			for (Map.Entry<Opcda2TransportItem, JIVariant> entry : values.entrySet()) {
+				requests[i++] = new WriteRequest(((UtgardItem) entry.getKey()).item, entry.getValue());
+			}
+			Map<Item, Integer> results = group.write(requests);
+
+			Map<Opcda2TransportItem, Integer> retVal = new HashMap<Opcda2TransportItem, Integer>(values.size() * 2);
+			for (Opcda2TransportItem item : values.keySet()) {
+				Integer result = results.get(((UtgardItem) item).item);
+				if (result != null) {
+					retVal.put(item, result);
+				}
+			}
+			return retVal;
+		}
+
+		/**
+		 * Attaches a data callback to this group, as Utgard's Async20Access
+		 * does to the group it adds, and asks for the items' current values
+		 * once. Utgard has no call to change the update rate of a group, as
+		 * with Async20Access the server's rate for the group applies.
+		 */
+		@Override
+		public Opcda2TransportSubscription subscribe(int updateRate, final Opcda2TransportListener listener) throws OPCConnectionException {
+			final EventHandler handler;
+			try {
+				handler = group.attach(new IOPCDataCallback() {
+
+					@Override
+					public void dataChange(int transactionId, int serverGroupHandle, int masterQuality, int masterErrorCode, KeyedResultSet<Integer, ValueData> result) {
+						for (KeyedResult<Integer, ValueData> entry : result) {
+							final Item item = group.findItemByClientHandle(entry.getKey());
+							if (item != null) {
+								listener.changed(item.getId(), new ItemState(entry.getErrorCode(), entry.getValue().getValue(),
+										entry.getValue().getTimestamp(), entry.getValue().getQuality()));
+							}
+						}
+					}
+
+					@Override
+					public void readComplete(int transactionId, int serverGroupHandle, int masterQuality, int masterErrorCode, KeyedResultSet<Integer, ValueData> result) {
+					}
+
+					@Override
+					public void writeComplete(int transactionId, int serverGroupHandle, int masterErrorCode, ResultSet<Integer> result) {
+					}
+
+					@Override
+					public void cancelComplete(int transactionId, int serverGroupHandle) {
+					}
+				});
+			} catch (JIException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			}
+			final OPCAsyncIO2 async = group.getAsyncIO20();
+			try {
+				if (async != null) {
+					async.refresh(OPCDATASOURCE.OPC_DS_CACHE, 0);
+				}
+			} catch (JIException ex) {
+				logger.debug(String.format(REFRESH_FAILED_MSG, name, ex.getMessage()));
+			}
+			return new UtgardSubscription(handler);
+		}
+		public static final String REFRESH_FAILED_MSG = "Unable to refresh the subscribed group %s: %s";
+
+		@Override
+		public void remove() throws OPCConnectionException {
+			try {
+				group.remove();
+			} catch (IllegalArgumentException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			} catch (UnknownHostException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			} catch (JIException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			}
+		}
+
+		/**
+		 * @return the Utgard group
+		 */
+		Group getGroup() {
+			return group;
+		}
+	}
+
+	/**
+	 * A data callback (OPC DA 2.0) attached to a Utgard group.
+	 */
+	static final class UtgardSubscription implements Opcda2TransportSubscription {
+
+		private final EventHandler handler;
+
+		UtgardSubscription(EventHandler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void cancel() throws OPCConnectionException {
+			try {
+				handler.detach();
+			} catch (JIException ex) {
+				throw new OPCConnectionException(ex.getMessage(), ex);
+			}
+		}
+	}
+
+	/**
+	 * A Utgard item.
+	 */
+	static final class UtgardItem implements Opcda2TransportItem {
+
+		private final Item item;
+		private final UtgardGroup group;
+		private final int canonicalType;
+
+		UtgardItem(Item item, UtgardGroup group, int canonicalType) {
+			this.item = item;
+			this.group = group;
+			this.canonicalType = canonicalType;
+		}
+
+		@Override
+		public String getId() {
+			return item.getId();
+		}
+
+		@Override
+		public Opcda2TransportGroup getGroup() {
+			return group;
+		}
+
+		@Override
+		public int getCanonicalType() {
+			return canonicalType;
+		}
+
+		@Override
+		public ItemState read(boolean device) throws JIException {
+			return item.read(device);
+		}
+
+		@Override
+		public Integer write(JIVariant value) throws JIException {
+			return item.write(value);
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+/**
+ * Creates Utgard sessions from the endpoint's host, domain, credentials and
+ * clsId or progId. The default transport, named <code>utgard</code>.
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2UtgardTransportFactory implements Opcda2TransportFactory {
+
+	@Override
+	public String getKey(Opcda2Endpoint endpoint) {
+		return Opcda2Connection.keyOf(Opcda2UtgardTransport.toConnectionInformation(endpoint));
+	}
+
+	@Override
+	public Opcda2Transport createTransport(Opcda2Endpoint endpoint) throws OPCConnectionException {
+		if (endpoint.getClsId() == null && endpoint.getProgId() == null) {
+			throw new OPCConnectionException(Opcda2Endpoint.NO_CLSID_MSG);
+		}
+		return new Opcda2UtgardTransport(Opcda2UtgardTransport.toConnectionInformation(endpoint), endpoint.getPoolSize());
+	}
+}
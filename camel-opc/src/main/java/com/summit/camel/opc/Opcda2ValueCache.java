@@ -0,0 +1,89 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.openscada.opc.lib.da.ItemState;
+
+/**
+ * Latest state of a server's items, as last read by any consumer of the
+ * session, so producers can answer reads without a call to the server.
+ * <p>
+ * A state's age is the time since it was read, not its server timestamp:
+ * an item that has not changed for an hour but was polled a second ago is
+ * a second old.</p>
+ * <p>
+ * Thread safe, shared by the endpoints of an {@link Opcda2Connection}.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ValueCache {
+
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/**
+	 * @param itemId the item's id
+	 * @param state its state
+	 * @param readAt when it was read (ms)
+	 */
+	public void put(String itemId, ItemState state, long readAt) {
+		entries.put(itemId, new Entry(state, readAt));
+	}
+
+	/**
+	 * @param itemId the item's id
+	 * @param maxAge the oldest state returned (ms), &lt; 0 for any age
+	 * @param now the current time (ms)
+	 * @return the item's state, null if none or older than maxAge
+	 */
+	public ItemState get(String itemId, long maxAge, long now) {
+		final Entry entry = entries.get(itemId);
+		if (entry == null || (maxAge >= 0 && now - entry.readAt > maxAge)) {
+			return null;
+		}
+		return entry.state;
+	}
+
+	/**
+	 * Forgets every state, e.g. when the session is lost.
+	 */
+	public void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of items with a state
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private static final class Entry {
+
+		private final ItemState state;
+		private final long readAt;
+
+		Entry(ItemState state, long readAt) {
+			this.state = state;
+			this.readAt = readAt;
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Last value store for change detection, addressed by a dense item index.
+ * <p>
+ * Numeric, boolean and date values are kept as raw bits in a primitive
+ * slot. Strings, arrays (boxed or primitive) and anything else are kept as
+ * objects, arrays as a copy, with their hash as a fast reject before
+ * comparing them with equals. Checking an unchanged value does not
+ * allocate.</p>
+ * <p>
+ * Not thread safe, each consumer owns its store.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class Opcda2ValueStore {
+
+	static final byte EMPTY = 0;
+	static final byte LONG = 1;
+	static final byte DOUBLE = 2;
+	static final byte BOOLEAN = 3;
+	static final byte OBJECT = 4;
+
+	private byte[] kinds;
+	private long[] bits;
+	private int[] hashes;
+	private Object[] objects;
+
+	public Opcda2ValueStore(int capacity) {
+		kinds = new byte[capacity];
+		bits = new long[capacity];
+		hashes = new int[capacity];
+		objects = new Object[capacity];
+	}
+
+	/**
+	 * Stores a value, converted by {@link JIVariantMarshaller}.
+	 *
+	 * @param index the item's index
+	 * @param value the new value
+	 * @return true if the value differs from the stored one (or nothing was
+	 * stored for the index yet).
+	 */
+	public boolean update(int index, Object value) {
+		if (value instanceof Double || value instanceof Float) {
+			return updateDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Long || value instanceof Integer
+				|| value instanceof Short || value instanceof Byte) {
+			return updateLong(index, ((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			return updateBoolean(index, ((Boolean) value).booleanValue());
+		} else if (value instanceof Date) {
+			return updateLong(index, ((Date) value).getTime());
+		} else if (value instanceof Character) {
+			return updateLong(index, ((Character) value).charValue());
+		} else if (value instanceof Object[]) {
+			return updateObject(index, value, Arrays.deepHashCode((Object[]) value));
+		} else if (value != null && value.getClass().isArray()) {
+			return updateObject(index, value, primitiveArrayHash(value));
+		} else if (value == null) {
+			return updateObject(index, null, 0);
+		} else {
+			return updateObject(index, value, value.hashCode());
+		}
+	}
+
+	private static int primitiveArrayHash(Object array) {
+		if (array instanceof double[]) {
+			return Arrays.hashCode((double[]) array);
+		} else if (array instanceof float[]) {
+			return Arrays.hashCode((float[]) array);
+		} else if (array instanceof int[]) {
+			return Arrays.hashCode((int[]) array);
+		} else if (array instanceof long[]) {
+			return Arrays.hashCode((long[]) array);
+		} else if (array instanceof short[]) {
+			return Arrays.hashCode((short[]) array);
+		} else if (array instanceof byte[]) {
+			return Arrays.hashCode((byte[]) array);
+		} else if (array instanceof boolean[]) {
+			return Arrays.hashCode((boolean[]) array);
+		}
+		return Arrays.hashCode((char[]) array);
+	}
+
+	public boolean updateLong(int index, long value) {
+		return set(index, LONG, value, 0);
+	}
+
+	public boolean updateDouble(int index, double value) {
+		return set(index, DOUBLE, Double.doubleToLongBits(value), 0);
+	}
+
+	public boolean updateBoolean(int index, boolean value) {
+		return set(index, BOOLEAN, value ? 1 : 0, 0);
+	}
+
+	/**
+	 * @param index the item's index
+	 * @param value a string, array or other non-primitive value, or null
+	 * @param hash hash of the value, deep for arrays
+	 * @return true if the value is not equal to the stored one.
+	 */
+	private boolean updateObject(int index, Object value, int hash) {
+		ensureCapacity(index + 1);
+		if (kinds[index] == OBJECT && hashes[index] == hash && valueEquals(objects[index], value)) {
+			return false;
+		}
+		kinds[index] = OBJECT;
+		bits[index] = 0;
+		hashes[index] = hash;
+		objects[index] = copy(value);
+		return true;
+	}
+
+	private static boolean valueEquals(Object stored, Object value) {
+		if (stored == null || value == null) {
+			return stored == value;
+		} else if (stored.getClass() != value.getClass()) {
+			return false;
+		} else if (value instanceof Object[]) {
+			return Arrays.deepEquals((Object[]) stored, (Object[]) value);
+		} else if (value instanceof double[]) {
+			return Arrays.equals((double[]) stored, (double[]) value);
+		} else if (value instanceof float[]) {
+			return Arrays.equals((float[]) stored, (float[]) value);
+		} else if (value instanceof int[]) {
+			return Arrays.equals((int[]) stored, (int[]) value);
+		} else if (value instanceof long[]) {
+			return Arrays.equals((long[]) stored, (long[]) value);
+		} else if (value instanceof short[]) {
+			return Arrays.equals((short[]) stored, (short[]) value);
+		} else if (value instanceof byte[]) {
+			return Arrays.equals((byte[]) stored, (byte[]) value);
+		} else if (value instanceof boolean[]) {
+			return Arrays.equals((boolean[]) stored, (boolean[]) value);
+		} else if (value instanceof char[]) {
+			return Arrays.equals((char[]) stored, (char[]) value);
+		}
+		return stored.equals(value);
+	}
+
+	/**
+	 * Arrays are copied, the caller may reuse them for the next read.
+	 */
+	private static Object copy(Object value) {
+		if (value == null || !value.getClass().isArray()) {
+			return value;
+		}
+		int length = Array.getLength(value);
+		Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+		System.arraycopy(value, 0, copy, 0, length);
+		return copy;
+	}
+
+	private boolean set(int index, byte kind, long newBits, int newHash) {
+		ensureCapacity(index + 1);
+		if (kinds[index] == kind && bits[index] == newBits && hashes[index] == newHash) {
+			return false;
+		}
+		kinds[index] = kind;
+		bits[index] = newBits;
+		hashes[index] = newHash;
+		objects[index] = null;
+		return true;
+	}
+
+	/**
+	 * @param index the item's index
+	 * @return true if a numeric value is stored for the index.
+	 */
+	public boolean isNumeric(int index) {
+		return index < kinds.length && (kinds[index] == LONG || kinds[index] == DOUBLE);
+	}
+
+	/**
+	 * @param index the item's index
+	 * @return the stored numeric value, only meaningful if
+	 * {@link #isNumeric(int)}.
+	 */
+	public double doubleValue(int index) {
+		return kinds[index] == DOUBLE ? Double.longBitsToDouble(bits[index]) : (double) bits[index];
+	}
+
+	/**
+	 * Forgets the value stored for an index, its next update will count as a
+	 * change.
+	 *
+	 * @param index the item's index
+	 */
+	public void reset(int index) {
+		if (index < kinds.length) {
+			kinds[index] = EMPTY;
+			objects[index] = null;
+		}
+	}
+
+	/**
+	 * Forgets all stored values.
+	 */
+	public void clear() {
+		Arrays.fill(kinds, EMPTY);
+		Arrays.fill(objects, null);
+	}
+
+	/**
+	 * @return the number of slots currently allocated.
+	 */
+	public int capacity() {
+		return kinds.length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > kinds.length) {
+			int newCapacity = Math.max(capacity, kinds.length * 2);
+			kinds = Arrays.copyOf(kinds, newCapacity);
+			bits = Arrays.copyOf(bits, newCapacity);
+			hashes = Arrays.copyOf(hashes, newCapacity);
+			objects = Arrays.copyOf(objects, newCapacity);
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Date;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * A compact, columnar body holding the state of a set of tags.
+ * <p>
+ * Instead of a map of maps, the snapshot keeps parallel arrays: item ids,
+ * VT types, primitive values, qualities, timestamps and error codes.
+ * Numeric, boolean and date values are stored as raw bits in a
+ * <code>long</code> column and read back through the typed getters;
+ * strings, currency and arrays (boxed, or primitive as decoded with
+ * <code>primitiveArrays</code>) go to an object column that is only
+ * allocated if needed.</p>
+ * <p>
+ * {@link Opcda2Converters} converts between snapshots and the map format
+ * emitted by default, so existing routes keep working.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public class TagSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int size;
+	private final boolean valuesOnly;
+	private final String[] itemIds;
+	private final short[] types;
+	private final long[] bits;
+	private final Object[] objects;
+	private final short[] qualities;
+	private final long[] timestamps;
+	private final int[] errorCodes;
+
+	private TagSnapshot(Builder builder) {
+		this.size = builder.size;
+		this.valuesOnly = builder.valuesOnly;
+		this.itemIds = Arrays.copyOf(builder.itemIds, size);
+		this.types = Arrays.copyOf(builder.types, size);
+		this.bits = Arrays.copyOf(builder.bits, size);
+		this.objects = builder.objects != null ? Arrays.copyOf(builder.objects, size) : null;
+		this.qualities = Arrays.copyOf(builder.qualities, size);
+		this.timestamps = Arrays.copyOf(builder.timestamps, size);
+		this.errorCodes = Arrays.copyOf(builder.errorCodes, size);
+	}
+
+	/**
+	 * @return the number of tags in this snapshot
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return true if only the values are meaningful (the endpoint's
+	 * valuesOnly option), quality, timestamp and error code are then left
+	 * out when converting to a map.
+	 */
+	public boolean isValuesOnly() {
+		return valuesOnly;
+	}
+
+	public String getItemId(int index) {
+		return itemIds[index];
+	}
+
+	/**
+	 * @param index the tag's index
+	 * @return the JIVariant VT type of the value, including
+	 * {@link JIVariant#VT_ARRAY} for arrays
+	 */
+	public int getType(int index) {
+		return types[index];
+	}
+
+	public short getQuality(int index) {
+		return qualities[index];
+	}
+
+	/**
+	 * @param index the tag's index
+	 * @return the server timestamp in ms, 0 if the server sent none
+	 */
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	public int getErrorCode(int index) {
+		return errorCodes[index];
+	}
+
+	/**
+	 * @param index the tag's index
+	 * @return the value of an integer, boolean (0/1) or date (ms) tag.
+	 */
+	public long getLong(int index) {
+		return types[index] == JIVariant.VT_R4 || types[index] == JIVariant.VT_R8
+				? (long) Double.longBitsToDouble(bits[index])
+				: bits[index];
+	}
+
+	/**
+	 * @param index the tag's index
+	 * @return the value of a numeric tag.
+	 */
+	public double getDouble(int index) {
+		return types[index] == JIVariant.VT_R4 || types[index] == JIVariant.VT_R8
+				? Double.longBitsToDouble(bits[index])
+				: (double) bits[index];
+	}
+
+	public boolean getBoolean(int index) {
+		return bits[index] != 0;
+	}
+
+	/**
+	 * @param index the tag's index
+	 * @return the value boxed to the type {@link JIVariantMarshaller} would
+	 * have returned.
+	 */
+	public Object getValue(int index) {
+		switch (types[index]) {
+			case JIVariant.VT_I1:
+			case JIVariant.VT_UI1:
+				return Byte.valueOf((byte) bits[index]);
+			case JIVariant.VT_I2:
+			case JIVariant.VT_UI2:
+				return Short.valueOf((short) bits[index]);
+			case JIVariant.VT_I4:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+				return Integer.valueOf((int) bits[index]);
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+				return Long.valueOf(bits[index]);
+			case JIVariant.VT_R4:
+				return Float.valueOf((float) Double.longBitsToDouble(bits[index]));
+			case JIVariant.VT_R8:
+				return Double.valueOf(Double.longBitsToDouble(bits[index]));
+			case JIVariant.VT_BOOL:
+				return Boolean.valueOf(bits[index] != 0);
+			case JIVariant.VT_DATE:
+				return new Date(bits[index]);
+			default:
+				return objects != null ? objects[index] : null;
+		}
+	}
+
+	/**
+	 * @param value a value as returned by {@link JIVariantMarshaller} or a
+	 * {@link JIVariantDecoder}
+	 * @return the VT type the value was most likely converted from.
+	 */
+	public static int typeOf(Object value) {
+		if (value != null && value.getClass().isArray()) {
+			Class<?> component = value.getClass().getComponentType();
+			int elementType = scalarTypeOf(component);
+			return JIVariant.VT_ARRAY | (elementType == JIVariant.VT_EMPTY ? JIVariant.VT_VARIANT : elementType);
+		}
+		return value == null ? JIVariant.VT_EMPTY : scalarTypeOf(value.getClass());
+	}
+
+	private static int scalarTypeOf(Class<?> type) {
+		if (type == Double.class || type == double.class) {
+			return JIVariant.VT_R8;
+		} else if (type == Float.class || type == float.class) {
+			return JIVariant.VT_R4;
+		} else if (type == Integer.class || type == int.class) {
+			return JIVariant.VT_I4;
+		} else if (type == Short.class || type == short.class) {
+			return JIVariant.VT_I2;
+		} else if (type == Byte.class || type == byte.class) {
+			return JIVariant.VT_I1;
+		} else if (type == Long.class || type == long.class) {
+			return JIVariant.VT_I8;
+		} else if (type == Boolean.class || type == boolean.class) {
+			return JIVariant.VT_BOOL;
+		} else if (Date.class.isAssignableFrom(type)) {
+			return JIVariant.VT_DATE;
+		} else if (type == String.class) {
+			return JIVariant.VT_BSTR;
+		} else if (type == BigDecimal.class) {
+			return JIVariant.VT_CY;
+		}
+		return JIVariant.VT_EMPTY;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("TagSnapshot{");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(itemIds[i]).append('=');
+			appendValue(sb, getValue(i));
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Appends a value, the elements of boxed and primitive arrays.
+	 */
+	private static void appendValue(StringBuilder sb, Object value) {
+		if (value == null || !value.getClass().isArray()) {
+			sb.append(value);
+			return;
+		}
+		sb.append('[');
+		final int length = Array.getLength(value);
+		for (int i = 0; i < length; i++) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			appendValue(sb, Array.get(value, i));
+		}
+		sb.append(']');
+	}
+
+	/**
+	 * Builds a {@link TagSnapshot}, the columns grow as tags are added.
+	 */
+	public static class Builder {
+
+		private int size = 0;
+		private boolean valuesOnly = false;
+		private String[] itemIds;
+		private short[] types;
+		private long[] bits;
+		private Object[] objects;
+		private short[] qualities;
+		private long[] timestamps;
+		private int[] errorCodes;
+
+		public Builder(int capacity) {
+			capacity = Math.max(capacity, 1);
+			itemIds = new String[capacity];
+			types = new short[capacity];
+			bits = new long[capacity];
+			qualities = new short[capacity];
+			timestamps = new long[capacity];
+			errorCodes = new int[capacity];
+		}
+
+		public Builder valuesOnly(boolean valuesOnly) {
+			this.valuesOnly = valuesOnly;
+			return this;
+		}
+
+		/**
+		 * Adds a tag, typing the value with {@link TagSnapshot#typeOf(java.lang.Object)}.
+		 */
+		public Builder add(String itemId, Object value, short quality, long timestamp, int errorCode) {
+			return add(itemId, typeOf(value), value, quality, timestamp, errorCode);
+		}
+
+		/**
+		 * Adds a tag.
+		 *
+		 * @param itemId the item id
+		 * @param type the VT type of the value
+		 * @param value the value, boxed
+		 * @param quality the OPC quality
+		 * @param timestamp the server timestamp (ms)
+		 * @param errorCode the read's error code
+		 * @return this builder
+		 */
+		public Builder add(String itemId, int type, Object value, short quality, long timestamp, int errorCode) {
+			final int index = next(itemId, type, quality, timestamp, errorCode);
+			switch (type) {
+				case JIVariant.VT_R4:
+				case JIVariant.VT_R8:
+					bits[index] = Double.doubleToRawLongBits(((Number) value).doubleValue());
+					break;
+				case JIVariant.VT_I1:
+				case JIVariant.VT_UI1:
+				case JIVariant.VT_I2:
+				case JIVariant.VT_UI2:
+				case JIVariant.VT_I4:
+				case JIVariant.VT_UI4:
+				case JIVariant.VT_UINT:
+				case JIVariant.VT_I8:
+				case JIVariant.VT_INT:
+					bits[index] = ((Number) value).longValue();
+					break;
+				case JIVariant.VT_BOOL:
+					bits[index] = ((Boolean) value).booleanValue() ? 1 : 0;
+					break;
+				case JIVariant.VT_DATE:
+					bits[index] = ((Date) value).getTime();
+					break;
+				default:
+					setObject(index, value);
+			}
+			return this;
+		}
+
+		/**
+		 * Adds an integer tag without boxing.
+		 */
+		public Builder addLong(String itemId, int type, long value, short quality, long timestamp, int errorCode) {
+			final int index = next(itemId, type, quality, timestamp, errorCode);
+			bits[index] = value;
+			return this;
+		}
+
+		/**
+		 * Adds a VT_R4 or VT_R8 tag without boxing.
+		 */
+		public Builder addDouble(String itemId, int type, double value, short quality, long timestamp, int errorCode) {
+			final int index = next(itemId, type, quality, timestamp, errorCode);
+			bits[index] = Double.doubleToRawLongBits(value);
+			return this;
+		}
+
+		private int next(String itemId, int type, short quality, long timestamp, int errorCode) {
+			if (size == itemIds.length) {
+				grow();
+			}
+			itemIds[size] = itemId;
+			types[size] = (short) type;
+			qualities[size] = quality;
+			timestamps[size] = timestamp;
+			errorCodes[size] = errorCode;
+			return size++;
+		}
+
+		private void setObject(int index, Object value) {
+			if (objects == null) {
+				objects = new Object[itemIds.length];
+			}
+			objects[index] = value;
+		}
+
+		private void grow() {
+			int capacity = itemIds.length * 2;
+			itemIds = Arrays.copyOf(itemIds, capacity);
+			types = Arrays.copyOf(types, capacity);
+			bits = Arrays.copyOf(bits, capacity);
+			if (objects != null) {
+				objects = Arrays.copyOf(objects, capacity);
+			}
+			qualities = Arrays.copyOf(qualities, capacity);
+			timestamps = Arrays.copyOf(timestamps, capacity);
+			errorCodes = Arrays.copyOf(errorCodes, capacity);
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public TagSnapshot build() {
+			return new TagSnapshot(this);
+		}
+	}
+}
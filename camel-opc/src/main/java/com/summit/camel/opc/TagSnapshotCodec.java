@@ -0,0 +1,524 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+import org.jinterop.dcom.core.JIVariant;
+
+/**
+ * Compact binary encoding of a {@link TagSnapshot}.
+ * <p>
+ * Layout, all integers being unsigned LEB128 varints unless noted:</p>
+ * <ul>
+ * <li>magic (2 bytes), version (1 byte), flags (1 byte, bit 0 =
+ * valuesOnly), tag count</li>
+ * <li>item id table, front coded: length of the prefix shared with the
+ * previous id, length of the rest, rest (UTF-8). Sorted ids, as emitted by
+ * the consumers, mostly reduce to their last characters. The n-th value
+ * belongs to the n-th id.</li>
+ * <li>values: VT type, then the value encoded for that type (see
+ * {@link #putValue(ByteBuffer, int, Object)}). Primitive arrays have
+ * {@link #PRIMITIVE_ARRAY} added to their type, so they decode to
+ * primitive arrays again.</li>
+ * <li>unless valuesOnly: qualities, timestamps (zigzag delta to the
+ * previous tag's), error codes (zigzag)</li>
+ * </ul>
+ * <p>
+ * Encoding and decoding work directly on ByteBuffers, the only copies made
+ * are those of strings.</p>
+ *
+ * @author <a href="mailto:justin.smith@summitsystemsinc.com">Justin Smith</a>
+ */
+public final class TagSnapshotCodec {
+
+	public static final short MAGIC = 0x4f54;
+	public static final byte VERSION = 1;
+	private static final int FLAG_VALUES_ONLY = 1;
+	/**
+	 * Added to the VT type of a primitive array value on the wire, outside
+	 * the 16 bits of VT types.
+	 */
+	public static final int PRIMITIVE_ARRAY = 0x10000;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private TagSnapshotCodec() {
+	}
+
+	/**
+	 * Encodes a snapshot into a new heap buffer, sized as needed.
+	 *
+	 * @param snapshot the snapshot
+	 * @return the buffer, flipped for reading
+	 */
+	public static ByteBuffer encode(TagSnapshot snapshot) {
+		int capacity = 64 + snapshot.size() * 24;
+		while (true) {
+			ByteBuffer buffer = ByteBuffer.allocate(capacity);
+			try {
+				encode(snapshot, buffer);
+				buffer.flip();
+				return buffer;
+			} catch (BufferOverflowException ex) {
+				capacity *= 2;
+			}
+		}
+	}
+
+	/**
+	 * Encodes a snapshot at the buffer's position.
+	 *
+	 * @param snapshot the snapshot
+	 * @param buffer the target buffer
+	 * @throws BufferOverflowException if the buffer is too small, its
+	 * position is then undefined
+	 */
+	public static void encode(TagSnapshot snapshot, ByteBuffer buffer) {
+		final int size = snapshot.size();
+		buffer.putShort(MAGIC);
+		buffer.put(VERSION);
+		buffer.put((byte) (snapshot.isValuesOnly() ? FLAG_VALUES_ONLY : 0));
+		putVarLong(buffer, size);
+
+		byte[] previous = new byte[0];
+		for (int i = 0; i < size; i++) {
+			byte[] id = snapshot.getItemId(i).getBytes(UTF8);
+			int shared = 0;
+			int max = Math.min(previous.length, id.length);
+			while (shared < max && previous[shared] == id[shared]) {
+				shared++;
+			}
+			putVarLong(buffer, shared);
+			putVarLong(buffer, id.length - shared);
+			buffer.put(id, shared, id.length - shared);
+			previous = id;
+		}
+
+		for (int i = 0; i < size; i++) {
+			final int type = snapshot.getType(i);
+			if ((type & JIVariant.VT_ARRAY) == JIVariant.VT_ARRAY && isPrimitiveArray(snapshot.getValue(i))) {
+				putVarLong(buffer, type | PRIMITIVE_ARRAY);
+			} else {
+				putVarLong(buffer, type);
+			}
+			switch (type) {
+				case JIVariant.VT_R4:
+					buffer.putFloat((float) snapshot.getDouble(i));
+					break;
+				case JIVariant.VT_R8:
+					buffer.putDouble(snapshot.getDouble(i));
+					break;
+				case JIVariant.VT_I1:
+				case JIVariant.VT_UI1:
+				case JIVariant.VT_BOOL:
+					buffer.put((byte) snapshot.getLong(i));
+					break;
+				case JIVariant.VT_I2:
+				case JIVariant.VT_UI2:
+				case JIVariant.VT_I4:
+				case JIVariant.VT_UI4:
+				case JIVariant.VT_UINT:
+				case JIVariant.VT_I8:
+				case JIVariant.VT_INT:
+				case JIVariant.VT_DATE:
+					putVarLong(buffer, zigzag(snapshot.getLong(i)));
+					break;
+				default:
+					putValue(buffer, type, snapshot.getValue(i));
+			}
+		}
+
+		if (!snapshot.isValuesOnly()) {
+			for (int i = 0; i < size; i++) {
+				putVarLong(buffer, snapshot.getQuality(i) & 0xffff);
+			}
+			long last = 0;
+			for (int i = 0; i < size; i++) {
+				putVarLong(buffer, zigzag(snapshot.getTimestamp(i) - last));
+				last = snapshot.getTimestamp(i);
+			}
+			for (int i = 0; i < size; i++) {
+				putVarLong(buffer, zigzag(snapshot.getErrorCode(i)));
+			}
+		}
+	}
+
+	/**
+	 * Decodes a snapshot from the buffer's position, which is left after the
+	 * snapshot.
+	 *
+	 * @param buffer the buffer
+	 * @return the snapshot
+	 * @throws IllegalArgumentException if the buffer does not hold a
+	 * snapshot
+	 * @throws java.nio.BufferUnderflowException if the snapshot is truncated
+	 */
+	public static TagSnapshot decode(ByteBuffer buffer) {
+		if (buffer.getShort() != MAGIC) {
+			throw new IllegalArgumentException(NOT_A_SNAPSHOT_MSG);
+		}
+		final byte version = buffer.get();
+		if (version != VERSION) {
+			throw new IllegalArgumentException(String.format(UNSUPPORTED_VERSION_MSG, version));
+		}
+		final boolean valuesOnly = (buffer.get() & FLAG_VALUES_ONLY) != 0;
+		final int size = (int) getVarLong(buffer);
+
+		String[] itemIds = new String[size];
+		byte[] previous = new byte[0];
+		for (int i = 0; i < size; i++) {
+			int shared = (int) getVarLong(buffer);
+			int rest = (int) getVarLong(buffer);
+			byte[] id = new byte[shared + rest];
+			System.arraycopy(previous, 0, id, 0, shared);
+			buffer.get(id, shared, rest);
+			itemIds[i] = new String(id, UTF8);
+			previous = id;
+		}
+
+		int[] types = new int[size];
+		long[] bits = new long[size];
+		Object[] objects = new Object[size];
+		for (int i = 0; i < size; i++) {
+			final int wireType = (int) getVarLong(buffer);
+			final int type = wireType & ~PRIMITIVE_ARRAY;
+			types[i] = type;
+			switch (type) {
+				case JIVariant.VT_R4:
+					bits[i] = Double.doubleToRawLongBits(buffer.getFloat());
+					break;
+				case JIVariant.VT_R8:
+					bits[i] = Double.doubleToRawLongBits(buffer.getDouble());
+					break;
+				case JIVariant.VT_I1:
+				case JIVariant.VT_UI1:
+				case JIVariant.VT_BOOL:
+					bits[i] = buffer.get();
+					break;
+				case JIVariant.VT_I2:
+				case JIVariant.VT_UI2:
+				case JIVariant.VT_I4:
+				case JIVariant.VT_UI4:
+				case JIVariant.VT_UINT:
+				case JIVariant.VT_I8:
+				case JIVariant.VT_INT:
+				case JIVariant.VT_DATE:
+					bits[i] = unzigzag(getVarLong(buffer));
+					break;
+				default:
+					objects[i] = (wireType & PRIMITIVE_ARRAY) != 0
+							? getPrimitiveArray(buffer, type)
+							: getValue(buffer, type);
+			}
+		}
+
+		TagSnapshot.Builder builder = new TagSnapshot.Builder(size).valuesOnly(valuesOnly);
+		short[] qualities = new short[size];
+		long[] timestamps = new long[size];
+		int[] errorCodes = new int[size];
+		if (!valuesOnly) {
+			for (int i = 0; i < size; i++) {
+				qualities[i] = (short) getVarLong(buffer);
+			}
+			long last = 0;
+			for (int i = 0; i < size; i++) {
+				last += unzigzag(getVarLong(buffer));
+				timestamps[i] = last;
+			}
+			for (int i = 0; i < size; i++) {
+				errorCodes[i] = (int) unzigzag(getVarLong(buffer));
+			}
+		}
+
+		for (int i = 0; i < size; i++) {
+			switch (types[i]) {
+				case JIVariant.VT_R4:
+				case JIVariant.VT_R8:
+					builder.addDouble(itemIds[i], types[i], Double.longBitsToDouble(bits[i]), qualities[i], timestamps[i], errorCodes[i]);
+					break;
+				case JIVariant.VT_I1:
+				case JIVariant.VT_UI1:
+				case JIVariant.VT_BOOL:
+				case JIVariant.VT_I2:
+				case JIVariant.VT_UI2:
+				case JIVariant.VT_I4:
+				case JIVariant.VT_UI4:
+				case JIVariant.VT_UINT:
+				case JIVariant.VT_I8:
+				case JIVariant.VT_INT:
+				case JIVariant.VT_DATE:
+					builder.addLong(itemIds[i], types[i], bits[i], qualities[i], timestamps[i], errorCodes[i]);
+					break;
+				default:
+					builder.add(itemIds[i], types[i], objects[i], qualities[i], timestamps[i], errorCodes[i]);
+			}
+		}
+		return builder.build();
+	}
+	public static final String NOT_A_SNAPSHOT_MSG = "Buffer does not start with a tag snapshot";
+	public static final String UNSUPPORTED_VERSION_MSG = "Unsupported tag snapshot version %d";
+
+	/**
+	 * Encodes a boxed value, as returned by {@link JIVariantMarshaller}.
+	 * Arrays are written as their length followed by the elements, each
+	 * element of a VT_VARIANT array carrying its own type. Currency is
+	 * written exactly, as the unscaled value and scale of its BigDecimal.
+	 *
+	 * @param buffer the target buffer
+	 * @param type the value's VT type
+	 * @param value the value
+	 */
+	static void putValue(ByteBuffer buffer, int type, Object value) {
+		if ((type & JIVariant.VT_ARRAY) == JIVariant.VT_ARRAY) {
+			final int elementType = type ^ JIVariant.VT_ARRAY;
+			final int length = Array.getLength(value);
+			putVarLong(buffer, length);
+			for (int i = 0; i < length; i++) {
+				Object element = Array.get(value, i);
+				if (elementType == JIVariant.VT_VARIANT) {
+					int actualType = TagSnapshot.typeOf(element);
+					putVarLong(buffer, actualType);
+					putValue(buffer, actualType, element);
+				} else {
+					putValue(buffer, elementType, element);
+				}
+			}
+			return;
+		}
+		switch (type) {
+			case JIVariant.VT_EMPTY:
+			case JIVariant.VT_NULL:
+				if (value != null) {
+					throw new IllegalArgumentException(String.format(UNSUPPORTED_VALUE_MSG, value.getClass().getName()));
+				}
+				break;
+			case JIVariant.VT_R4:
+				buffer.putFloat(((Number) value).floatValue());
+				break;
+			case JIVariant.VT_R8:
+				buffer.putDouble(((Number) value).doubleValue());
+				break;
+			case JIVariant.VT_I1:
+			case JIVariant.VT_UI1:
+				buffer.put(((Number) value).byteValue());
+				break;
+			case JIVariant.VT_BOOL:
+				buffer.put((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+				break;
+			case JIVariant.VT_I2:
+			case JIVariant.VT_UI2:
+			case JIVariant.VT_I4:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+				putVarLong(buffer, zigzag(((Number) value).longValue()));
+				break;
+			case JIVariant.VT_DATE:
+				putVarLong(buffer, zigzag(((Date) value).getTime()));
+				break;
+			case JIVariant.VT_BSTR:
+				byte[] bytes = ((String) value).getBytes(UTF8);
+				putVarLong(buffer, bytes.length);
+				buffer.put(bytes);
+				break;
+			case JIVariant.VT_CY:
+				BigDecimal decimal = (BigDecimal) value;
+				byte[] unscaled = decimal.unscaledValue().toByteArray();
+				putVarLong(buffer, zigzag(decimal.scale()));
+				putVarLong(buffer, unscaled.length);
+				buffer.put(unscaled);
+				break;
+			default:
+				throw new IllegalArgumentException(String.format(UNSUPPORTED_TYPE_MSG, Integer.toHexString(type)));
+		}
+	}
+	public static final String UNSUPPORTED_TYPE_MSG = "Unsupported VT type 0x%s";
+	public static final String UNSUPPORTED_VALUE_MSG = "Unable to encode a value of type %s";
+
+	static Object getValue(ByteBuffer buffer, int type) {
+		if ((type & JIVariant.VT_ARRAY) == JIVariant.VT_ARRAY) {
+			final int elementType = type ^ JIVariant.VT_ARRAY;
+			final int length = (int) getVarLong(buffer);
+			Object[] retVal = (Object[]) Array.newInstance(elementClass(elementType), length);
+			for (int i = 0; i < length; i++) {
+				retVal[i] = getValue(buffer, elementType == JIVariant.VT_VARIANT ? (int) getVarLong(buffer) : elementType);
+			}
+			return retVal;
+		}
+		switch (type) {
+			case JIVariant.VT_EMPTY:
+			case JIVariant.VT_NULL:
+				return null;
+			case JIVariant.VT_R4:
+				return Float.valueOf(buffer.getFloat());
+			case JIVariant.VT_R8:
+				return Double.valueOf(buffer.getDouble());
+			case JIVariant.VT_I1:
+			case JIVariant.VT_UI1:
+				return Byte.valueOf(buffer.get());
+			case JIVariant.VT_BOOL:
+				return Boolean.valueOf(buffer.get() != 0);
+			case JIVariant.VT_I2:
+			case JIVariant.VT_UI2:
+				return Short.valueOf((short) unzigzag(getVarLong(buffer)));
+			case JIVariant.VT_I4:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+				return Integer.valueOf((int) unzigzag(getVarLong(buffer)));
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+				return Long.valueOf(unzigzag(getVarLong(buffer)));
+			case JIVariant.VT_DATE:
+				return new Date(unzigzag(getVarLong(buffer)));
+			case JIVariant.VT_BSTR:
+				byte[] bytes = new byte[(int) getVarLong(buffer)];
+				buffer.get(bytes);
+				return new String(bytes, UTF8);
+			case JIVariant.VT_CY:
+				int scale = (int) unzigzag(getVarLong(buffer));
+				byte[] unscaled = new byte[(int) getVarLong(buffer)];
+				buffer.get(unscaled);
+				return new BigDecimal(new BigInteger(unscaled), scale);
+			default:
+				throw new IllegalArgumentException(String.format(UNSUPPORTED_TYPE_MSG, Integer.toHexString(type)));
+		}
+	}
+
+	private static boolean isPrimitiveArray(Object value) {
+		return value != null && value.getClass().isArray() && value.getClass().getComponentType().isPrimitive();
+	}
+
+	/**
+	 * Decodes an array encoded by {@link #putValue(ByteBuffer, int, Object)}
+	 * from a primitive array, to the primitive array the decoders return.
+	 */
+	static Object getPrimitiveArray(ByteBuffer buffer, int type) {
+		final int elementType = type ^ JIVariant.VT_ARRAY;
+		final int length = (int) getVarLong(buffer);
+		Object retVal = Array.newInstance(primitiveClass(elementType), length);
+		for (int i = 0; i < length; i++) {
+			Array.set(retVal, i, getValue(buffer, elementType));
+		}
+		return retVal;
+	}
+
+	/**
+	 * @param elementType the VT type of an array's elements
+	 * @return the component type of the primitive arrays a
+	 * {@link JIVariantDecoder} returns for that VT type
+	 */
+	static Class<?> primitiveClass(int elementType) {
+		switch (elementType) {
+			case JIVariant.VT_R4:
+				return float.class;
+			case JIVariant.VT_R8:
+				return double.class;
+			case JIVariant.VT_I1:
+			case JIVariant.VT_UI1:
+				return byte.class;
+			case JIVariant.VT_BOOL:
+				return boolean.class;
+			case JIVariant.VT_I2:
+			case JIVariant.VT_UI2:
+				return short.class;
+			case JIVariant.VT_I4:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+				return int.class;
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+				return long.class;
+			default:
+				throw new IllegalArgumentException(String.format(UNSUPPORTED_TYPE_MSG, Integer.toHexString(elementType | JIVariant.VT_ARRAY)));
+		}
+	}
+
+	/**
+	 * @param elementType the VT type of an array's elements
+	 * @return the component type {@link JIVariantMarshaller} returns arrays
+	 * of for that VT type
+	 */
+	static Class<?> elementClass(int elementType) {
+		switch (elementType) {
+			case JIVariant.VT_R4:
+				return Float.class;
+			case JIVariant.VT_R8:
+				return Double.class;
+			case JIVariant.VT_I1:
+			case JIVariant.VT_UI1:
+				return Byte.class;
+			case JIVariant.VT_BOOL:
+				return Boolean.class;
+			case JIVariant.VT_I2:
+			case JIVariant.VT_UI2:
+				return Short.class;
+			case JIVariant.VT_I4:
+			case JIVariant.VT_UI4:
+			case JIVariant.VT_UINT:
+				return Integer.class;
+			case JIVariant.VT_I8:
+			case JIVariant.VT_INT:
+				return Long.class;
+			case JIVariant.VT_DATE:
+				return Date.class;
+			case JIVariant.VT_BSTR:
+				return String.class;
+			case JIVariant.VT_CY:
+				return BigDecimal.class;
+			default:
+				return Object.class;
+		}
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7fL) != 0) {
+			buffer.put((byte) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer buffer) {
+		long retVal = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			retVal |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return retVal;
+			}
+		}
+		throw new IllegalArgumentException(MALFORMED_VARINT_MSG);
+	}
+	public static final String MALFORMED_VARINT_MSG = "Malformed varint in tag snapshot";
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
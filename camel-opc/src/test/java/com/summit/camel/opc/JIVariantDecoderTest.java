@@ -0,0 +1,155 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import java.math.BigDecimal;
+import java.util.Date;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIArray;
+import org.jinterop.dcom.core.JICurrency;
+import org.jinterop.dcom.core.JIFlags;
+import org.jinterop.dcom.core.JIString;
+import org.jinterop.dcom.core.JIUnsignedFactory;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JIVariantDecoderTest {
+
+    @Test
+    public void testScalars() throws JIException {
+        assertEquals(Byte.valueOf((byte) 42), decode(new JIVariant((char) 42)));
+        assertEquals(Short.valueOf((short) -3), decode(new JIVariant((short) -3)));
+        assertEquals(Integer.valueOf(7), decode(new JIVariant(7)));
+        assertEquals(Long.valueOf(1L << 40), decode(new JIVariant(1L << 40)));
+        assertEquals(Float.valueOf(1.5f), decode(new JIVariant(1.5f)));
+        assertEquals(Double.valueOf(2.25), decode(new JIVariant(2.25)));
+        assertEquals(Boolean.TRUE, decode(new JIVariant(true)));
+        assertEquals(new Date(1000), decode(new JIVariant(new Date(1000))));
+        assertEquals("abc", decode(new JIVariant("abc")));
+        assertEquals(new BigDecimal("12.0345"), decode(new JIVariant(new JICurrency(12, 345))));
+    }
+
+    @Test
+    public void testSameAsMarshaller() throws JIException {
+        JIVariant[] variants = {new JIVariant((char) 1), new JIVariant((short) 2), new JIVariant(3),
+            new JIVariant(4.5f), new JIVariant(5.5), new JIVariant(false), new JIVariant("s"),
+            new JIVariant(new JICurrency(1, 5000))};
+        for (JIVariant variant : variants) {
+            assertEquals(JIVariantMarshaller.toJavaType(variant), decode(variant));
+        }
+    }
+
+    @Test
+    public void testPrimitives() throws JIException {
+        JIVariant int4 = new JIVariant(-7);
+        assertEquals(JIVariantDecoder.LONG, decoder(int4).getKind());
+        assertEquals(-7L, decoder(int4).decodeLong(int4));
+        assertEquals(-7.0, decoder(int4).decodeDouble(int4), 0);
+
+        JIVariant real8 = new JIVariant(2.75);
+        assertEquals(JIVariantDecoder.DOUBLE, decoder(real8).getKind());
+        assertEquals(2.75, decoder(real8).decodeDouble(real8), 0);
+        assertEquals(2L, decoder(real8).decodeLong(real8));
+
+        JIVariant real4 = new JIVariant(0.5f);
+        assertEquals(JIVariantDecoder.DOUBLE, decoder(real4).getKind());
+        assertEquals(0.5, decoder(real4).decodeDouble(real4), 0);
+
+        JIVariant bool = new JIVariant(true);
+        assertEquals(JIVariantDecoder.BOOLEAN, decoder(bool).getKind());
+        assertEquals(1L, decoder(bool).decodeLong(bool));
+
+        JIVariant date = new JIVariant(new Date(1234));
+        assertEquals(JIVariantDecoder.BOXED, decoder(date).getKind());
+        assertEquals(1234L, decoder(date).decodeLong(date));
+
+        JIVariant currency = new JIVariant(new JICurrency(3, 2500));
+        assertEquals(JIVariantDecoder.BOXED, decoder(currency).getKind());
+        assertEquals(3.25, decoder(currency).decodeDouble(currency), 0);
+
+        assertEquals(JIVariantDecoder.BOXED, decoder(new JIVariant("s")).getKind());
+    }
+
+    @Test
+    public void testUnsignedAgreesWithDecodeLong() throws JIException {
+        JIVariant[] variants = {
+            new JIVariant(JIUnsignedFactory.getUnsigned(Short.valueOf((short) 200), JIFlags.FLAG_REPRESENTATION_UNSIGNED_BYTE)),
+            new JIVariant(JIUnsignedFactory.getUnsigned(Integer.valueOf(65535), JIFlags.FLAG_REPRESENTATION_UNSIGNED_SHORT)),
+            new JIVariant(JIUnsignedFactory.getUnsigned(Long.valueOf(4000000000L), JIFlags.FLAG_REPRESENTATION_UNSIGNED_INT))};
+        Object[] expected = {Byte.valueOf((byte) 200), Short.valueOf((short) 65535), Integer.valueOf((int) 4000000000L)};
+        for (int i = 0; i < variants.length; i++) {
+            JIVariantDecoder decoder = decoder(variants[i]);
+            assertEquals(JIVariantDecoder.LONG, decoder.getKind());
+            assertEquals(expected[i], decoder.decode(variants[i]));
+            assertEquals(JIVariantMarshaller.toJavaType(variants[i]), decoder.decode(variants[i]));
+            assertEquals(((Number) expected[i]).longValue(), decoder.decodeLong(variants[i]));
+        }
+        JIVariant uint = variants[2];
+        assertEquals(-294967296L, JIVariantDecoder.forType(JIVariant.VT_UINT, false).decodeLong(uint));
+    }
+
+    @Test
+    public void testArrays() throws JIException {
+        JIVariant doubles = new JIVariant(new JIArray(new Double[]{1.0, 2.0}, true));
+        assertArrayEquals(new Double[]{1.0, 2.0}, (Object[]) JIVariantDecoder.forType(doubles.getType(), false).decode(doubles));
+        assertArrayEquals(new double[]{1.0, 2.0}, (double[]) JIVariantDecoder.forType(doubles.getType(), true).decode(doubles), 0);
+
+        JIVariant ints = new JIVariant(new JIArray(new Integer[]{3, 4}, true));
+        assertArrayEquals(new int[]{3, 4}, (int[]) JIVariantDecoder.forType(ints.getType(), true).decode(ints));
+
+        JIVariant bools = new JIVariant(new JIArray(new Boolean[]{true, false}, true));
+        boolean[] decoded = (boolean[]) JIVariantDecoder.forType(bools.getType(), true).decode(bools);
+        assertTrue(decoded[0] && !decoded[1]);
+
+        // no primitive form, boxed either way
+        JIVariant strings = new JIVariant(new JIArray(new JIString[]{new JIString("a")}, true));
+        assertEquals(JIVariantDecoder.forType(strings.getType(), false).getClass(),
+                JIVariantDecoder.forType(strings.getType(), true).getClass());
+    }
+
+    @Test
+    public void testEmpty() throws JIException {
+        assertNull(decode(JIVariant.EMPTY()));
+        assertNull(decode(JIVariant.NULL()));
+        assertEquals(JIVariantDecoder.BOXED, decoder(JIVariant.EMPTY()).getKind());
+    }
+
+    @Test
+    public void testShared() {
+        assertSame(JIVariantDecoder.forType(JIVariant.VT_R8, false), JIVariantDecoder.forType(JIVariant.VT_R8, true));
+        assertSame(JIVariantDecoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_R8, true),
+                JIVariantDecoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_R8, true));
+    }
+
+    private static JIVariantDecoder decoder(JIVariant variant) throws JIException {
+        return JIVariantDecoder.forType(variant.getType(), false);
+    }
+
+    private static Object decode(JIVariant variant) throws JIException {
+        return decoder(variant).decode(variant);
+    }
+}
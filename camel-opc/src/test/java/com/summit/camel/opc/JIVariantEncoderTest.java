@@ -0,0 +1,65 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.math.BigDecimal;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class JIVariantEncoderTest {
+
+    @Test
+    public void testForType() {
+        assertEquals(JIVariant.VT_R4, JIVariantEncoder.forType(JIVariant.VT_R4).getType());
+        assertEquals(JIVariant.VT_UI2, JIVariantEncoder.forType(JIVariant.VT_UI2).getType());
+        assertEquals(JIVariant.VT_ARRAY | JIVariant.VT_R8, JIVariantEncoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_R8).getType());
+        assertEquals(JIVariant.VT_ARRAY | JIVariant.VT_BSTR, JIVariantEncoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_BSTR).getType());
+        assertSame(JIVariantEncoder.DYNAMIC, JIVariantEncoder.forType(JIVariant.VT_EMPTY));
+        assertSame(JIVariantEncoder.DYNAMIC, JIVariantEncoder.forType(JIVariant.VT_DISPATCH));
+        assertSame(JIVariantEncoder.DYNAMIC, JIVariantEncoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_VARIANT));
+    }
+
+    @Test
+    public void testToNumber() throws CamelOpcException {
+        assertEquals(Integer.valueOf(3), JIVariantEncoder.toNumber(Integer.valueOf(3), JIVariant.VT_I4));
+        assertEquals(new BigDecimal("2.5"), JIVariantEncoder.toNumber(" 2.5 ", JIVariant.VT_R8));
+        assertEquals(Integer.valueOf(1), JIVariantEncoder.toNumber(Boolean.TRUE, JIVariant.VT_I2));
+    }
+
+    @Test(expected = CamelOpcException.class)
+    public void testNotANumber() throws CamelOpcException {
+        JIVariantEncoder.toNumber("abc", JIVariant.VT_R8);
+    }
+
+    @Test(expected = CamelOpcException.class)
+    public void testScalarToArray() throws CamelOpcException {
+        JIVariantEncoder.forType(JIVariant.VT_ARRAY | JIVariant.VT_R8).encode(Double.valueOf(1));
+    }
+
+    @Test(expected = CamelOpcException.class)
+    public void testUnsupportedDynamic() throws CamelOpcException {
+        JIVariantEncoder.DYNAMIC.encode(new Object());
+    }
+}
@@ -0,0 +1,240 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+import org.openscada.opc.lib.da.ItemState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Opcda2BulkReaderTest {
+
+    private static final int OPC_E_UNKNOWNITEMID = 0xC0040007;
+
+    @Test
+    public void testChunks() throws Exception {
+        FakeGroup group = new FakeGroup(5);
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 2);
+
+        Map<Opcda2TransportItem, ItemState> read = reader.read(group.items, true);
+        assertEquals(5, read.size());
+        assertEquals(3, group.chunkReads);
+        assertEquals(0, group.itemReads);
+        assertEquals(3, reader.getLastRoundTrips());
+        assertTrue(reader.getLastErrors().isEmpty());
+
+        reader.read(group.items, true);
+        assertEquals(3, reader.getLastRoundTrips());
+        assertEquals(6, reader.getRoundTrips());
+    }
+
+    @Test
+    public void testWholeSetInOneCall() throws Exception {
+        FakeGroup group = new FakeGroup(5);
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 0);
+
+        assertEquals(5, reader.read(group.items, false).size());
+        assertEquals(1, reader.getLastRoundTrips());
+        assertTrue(reader.read(new ArrayList<Opcda2TransportItem>(), false).isEmpty());
+        assertEquals(0, reader.getLastRoundTrips());
+    }
+
+    @Test
+    public void testFallbackToItemReads() throws Exception {
+        FakeGroup group = new FakeGroup(4);
+        group.chunkError = OPC_E_UNKNOWNITEMID;
+        group.itemErrors.put("tag2", OPC_E_UNKNOWNITEMID);
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 2);
+
+        Map<Opcda2TransportItem, ItemState> read = reader.read(group.items, true);
+        // the bad item is left out, the rest of its chunk is still read
+        assertEquals(3, read.size());
+        assertFalse(read.containsKey(group.items.get(2)));
+        assertEquals(2, group.chunkReads);
+        assertEquals(4, group.itemReads);
+        assertEquals(6, reader.getLastRoundTrips());
+        assertEquals(1, reader.getLastErrors().size());
+        assertEquals(OPC_E_UNKNOWNITEMID, ((JIException) reader.getLastErrors().get("tag2")).getErrorCode());
+    }
+
+    @Test
+    public void testNoResult() throws Exception {
+        FakeGroup group = new FakeGroup(3);
+        group.missing.add("tag1");
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 0);
+
+        assertEquals(2, reader.read(group.items, true).size());
+        assertTrue(reader.getLastErrors().get("tag1") instanceof CamelOpcException);
+        assertEquals(0, group.itemReads);
+
+        group.missing.clear();
+        reader.read(group.items, true);
+        assertTrue(reader.getLastErrors().isEmpty());
+    }
+
+    @Test
+    public void testSessionLostInChunk() throws Exception {
+        FakeGroup group = new FakeGroup(4);
+        group.chunkError = Opcda2Connection.RPC_E_DISCONNECTED;
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 2);
+
+        try {
+            reader.read(group.items, true);
+            fail();
+        } catch (JIException ex) {
+            assertEquals(Opcda2Connection.RPC_E_DISCONNECTED, ex.getErrorCode());
+        }
+        // neither the other chunk nor the items are tried
+        assertEquals(1, group.chunkReads);
+        assertEquals(0, group.itemReads);
+        assertEquals(1, reader.getRoundTrips());
+    }
+
+    @Test
+    public void testSessionLostInFallback() throws Exception {
+        FakeGroup group = new FakeGroup(4);
+        group.chunkError = OPC_E_UNKNOWNITEMID;
+        group.itemErrors.put("tag0", Opcda2Connection.RPC_S_SERVER_UNAVAILABLE);
+        Opcda2BulkReader reader = new Opcda2BulkReader(group, 0);
+
+        try {
+            reader.read(group.items, true);
+            fail();
+        } catch (JIException ex) {
+            assertEquals(Opcda2Connection.RPC_S_SERVER_UNAVAILABLE, ex.getErrorCode());
+        }
+        assertEquals(1, group.itemReads);
+    }
+
+    /**
+     * Answers reads from memory, failing them as told.
+     */
+    static final class FakeGroup implements Opcda2TransportGroup {
+
+        final List<Opcda2TransportItem> items = new ArrayList<Opcda2TransportItem>();
+        final Set<String> missing = new HashSet<String>();
+        final Map<String, Integer> itemErrors = new HashMap<String, Integer>();
+        Integer chunkError;
+        int chunkReads = 0;
+        int itemReads = 0;
+
+        FakeGroup(int itemCount) {
+            for (int i = 0; i < itemCount; i++) {
+                items.add(new FakeItem("tag" + i, this));
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "fake";
+        }
+
+        @Override
+        public Map<String, Opcda2TransportItem> addItems(Collection<String> itemIds, Map<String, Integer> failed) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<Opcda2TransportItem, ItemState> read(boolean device, Collection<Opcda2TransportItem> items) throws JIException {
+            chunkReads++;
+            if (chunkError != null) {
+                throw new JIException(chunkError);
+            }
+            Map<Opcda2TransportItem, ItemState> retVal = new HashMap<Opcda2TransportItem, ItemState>();
+            for (Opcda2TransportItem item : items) {
+                if (!missing.contains(item.getId())) {
+                    retVal.put(item, new ItemState());
+                }
+            }
+            return retVal;
+        }
+
+        @Override
+        public Map<Opcda2TransportItem, Integer> write(Map<Opcda2TransportItem, JIVariant> values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Opcda2TransportSubscription subscribe(int updateRate, Opcda2TransportListener listener) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove() {
+        }
+    }
+
+    static final class FakeItem implements Opcda2TransportItem {
+
+        private final String id;
+        private final FakeGroup group;
+
+        FakeItem(String id, FakeGroup group) {
+            this.id = id;
+            this.group = group;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public Opcda2TransportGroup getGroup() {
+            return group;
+        }
+
+        @Override
+        public int getCanonicalType() {
+            return JIVariant.VT_EMPTY;
+        }
+
+        @Override
+        public ItemState read(boolean device) throws JIException {
+            group.itemReads++;
+            final Integer error = group.itemErrors.get(id);
+            if (error != null) {
+                throw new JIException(error);
+            }
+            return new ItemState();
+        }
+
+        @Override
+        public Integer write(JIVariant value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
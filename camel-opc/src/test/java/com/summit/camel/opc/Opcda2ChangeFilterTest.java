@@ -0,0 +1,124 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2ChangeFilterTest {
+
+    private static final short GOOD = 192;
+    private static final short BAD = 0;
+
+    @Test
+    public void testAbsoluteDeadband() {
+        Opcda2ChangeFilter filter = new Opcda2ChangeFilter(0.5, 0, null, false, false, 0);
+
+        assertTrue(filter.accept(0, "Real8", 10.0, GOOD, 1, 1));
+        assertFalse(filter.accept(0, "Real8", 10.4, GOOD, 2, 2));
+        // compared against the last emitted value, so drift adds up
+        assertFalse(filter.accept(0, "Real8", 10.5, GOOD, 3, 3));
+        assertTrue(filter.accept(0, "Real8", 10.6, GOOD, 4, 4));
+        assertFalse(filter.accept(0, "Real8", 10.6, GOOD, 5, 5));
+    }
+
+    @Test
+    public void testPercentDeadbandRules() {
+        Opcda2ChangeFilter filter = new Opcda2ChangeFilter(0, 0, "Tank*=10%;Flow.?=2", false, false, 0);
+
+        assertTrue(filter.accept(0, "Tank1", 100.0, GOOD, 0, 0));
+        assertFalse(filter.accept(0, "Tank1", 109.0, GOOD, 0, 0));
+        assertTrue(filter.accept(0, "Tank1", 111.0, GOOD, 0, 0));
+
+        assertTrue(filter.accept(1, "Flow.A", 1, GOOD, 0, 0));
+        assertFalse(filter.accept(1, "Flow.A", 3, GOOD, 0, 0));
+        assertTrue(filter.accept(1, "Flow.A", 4, GOOD, 0, 0));
+
+        // no rule, no default deadband
+        assertTrue(filter.accept(2, "Flow.AB", 1, GOOD, 0, 0));
+        assertTrue(filter.accept(2, "Flow.AB", 2, GOOD, 0, 0));
+    }
+
+    @Test
+    public void testQualityAndTimestamp() {
+        Opcda2ChangeFilter plain = new Opcda2ChangeFilter(0, 0, null, false, false, 0);
+        Opcda2ChangeFilter quality = new Opcda2ChangeFilter(0, 0, null, true, false, 0);
+        Opcda2ChangeFilter timestamp = new Opcda2ChangeFilter(0, 0, null, false, true, 0);
+
+        for (Opcda2ChangeFilter filter : new Opcda2ChangeFilter[]{plain, quality, timestamp}) {
+            assertTrue(filter.accept(0, "Int4", 1, GOOD, 1000, 0));
+        }
+        assertFalse(plain.accept(0, "Int4", 1, BAD, 2000, 0));
+        assertTrue(quality.accept(0, "Int4", 1, BAD, 2000, 0));
+        assertFalse(quality.accept(0, "Int4", 1, BAD, 3000, 0));
+        assertFalse(timestamp.accept(0, "Int4", 1, BAD, 1000, 0));
+        assertTrue(timestamp.accept(0, "Int4", 1, BAD, 2000, 0));
+    }
+
+    @Test
+    public void testHeartbeat() {
+        Opcda2ChangeFilter filter = new Opcda2ChangeFilter(0, 0, null, false, false, 1000);
+
+        assertTrue(filter.accept(0, "String", "a", GOOD, 0, 10000));
+        assertFalse(filter.accept(0, "String", "a", GOOD, 0, 10500));
+        assertTrue(filter.accept(0, "String", "a", GOOD, 0, 11000));
+        assertFalse(filter.accept(0, "String", "a", GOOD, 0, 11999));
+        assertTrue(filter.isHeartbeatDue(0, 12000));
+        filter.markEmitted(0, 12000);
+        assertFalse(filter.isHeartbeatDue(0, 12500));
+    }
+
+    @Test
+    public void testPrimitives() {
+        Opcda2ChangeFilter filter = new Opcda2ChangeFilter(0.5, 0, "Int*=2", true, false, 1000);
+
+        assertTrue(filter.acceptDouble(0, "Real8", 10.0, GOOD, 0, 0));
+        assertFalse(filter.acceptDouble(0, "Real8", 10.4, GOOD, 0, 0));
+        assertTrue(filter.acceptDouble(0, "Real8", 10.6, GOOD, 0, 0));
+        // within the deadband, but the quality changed
+        assertTrue(filter.acceptDouble(0, "Real8", 10.7, BAD, 0, 0));
+        assertFalse(filter.acceptDouble(0, "Real8", 11.1, BAD, 0, 0));
+        assertTrue(filter.acceptDouble(0, "Real8", 11.3, BAD, 0, 0));
+
+        assertTrue(filter.acceptLong(1, "Int4", 1, GOOD, 0, 0));
+        assertFalse(filter.acceptLong(1, "Int4", 3, GOOD, 0, 0));
+        assertTrue(filter.acceptLong(1, "Int4", 4, GOOD, 0, 1000));
+        assertFalse(filter.acceptLong(1, "Int4", 4, GOOD, 0, 1999));
+        assertTrue(filter.acceptLong(1, "Int4", 4, GOOD, 0, 2000));
+
+        // no deadband on booleans
+        assertTrue(filter.acceptBoolean(2, "Bool", false, GOOD, 0, 0));
+        assertTrue(filter.acceptBoolean(2, "Bool", true, GOOD, 0, 0));
+        assertFalse(filter.acceptBoolean(2, "Bool", true, GOOD, 0, 0));
+
+        // the boxed and unboxed paths share the stored values
+        assertFalse(filter.accept(1, "Int4", 5, GOOD, 0, 2000));
+        assertTrue(filter.accept(2, "Bool", Boolean.FALSE, GOOD, 0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRule() {
+        new Opcda2ChangeFilter(0, 0, "Tank*", false, false, 0);
+    }
+}
@@ -0,0 +1,341 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jinterop.dcom.common.JIException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Opcda2ConnectionTest {
+
+    @Test
+    public void testBackoff() {
+        assertEquals(100, Opcda2Connection.backoff(100, 1000, 1));
+        assertEquals(200, Opcda2Connection.backoff(100, 1000, 2));
+        assertEquals(800, Opcda2Connection.backoff(100, 1000, 4));
+        assertEquals(1000, Opcda2Connection.backoff(100, 1000, 5));
+        assertEquals(1000, Opcda2Connection.backoff(100, 1000, 100));
+        assertEquals(Long.MAX_VALUE, Opcda2Connection.backoff(3, Long.MAX_VALUE, 64));
+    }
+
+    @Test
+    public void testIsSessionLost() {
+        assertTrue(Opcda2Connection.isSessionLost(new JIException(Opcda2Connection.RPC_E_DISCONNECTED)));
+        assertTrue(Opcda2Connection.isSessionLost(new JIException(Opcda2Connection.RPC_S_SERVER_UNAVAILABLE)));
+        assertTrue(Opcda2Connection.isSessionLost(new OPCConnectionException("wrapped", new IOException("reset"))));
+        assertFalse(Opcda2Connection.isSessionLost(new JIException(0xC0040007)));
+        assertFalse(Opcda2Connection.isSessionLost(new OPCConnectionException("no cause")));
+        assertFalse(Opcda2Connection.isSessionLost(null));
+    }
+
+    @Test
+    public void testSharedUntilLastRelease() throws Exception {
+        final FlakyTransport transport = new FlakyTransport();
+        Opcda2TransportFactory factory = factoryOf(transport);
+        Opcda2Endpoint endpoint = new Opcda2Endpoint();
+        Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+
+        Opcda2Connection first = registry.acquire(factory, endpoint);
+        Opcda2Connection second = registry.acquire(factory, new Opcda2Endpoint());
+        assertSame(first, second);
+        assertEquals(2, first.getReferences());
+        assertEquals(1, transport.connects.get());
+
+        registry.release(first);
+        assertEquals(1, second.getReferences());
+        assertEquals(0, transport.disconnects.get());
+        registry.release(second);
+        assertEquals(1, transport.disconnects.get());
+
+        // the last release closed it, the next user gets a new session
+        Opcda2Connection third = registry.acquire(factory, endpoint);
+        assertNotSame(first, third);
+        assertEquals(1, third.getReferences());
+        assertEquals(2, transport.connects.get());
+        registry.closeAll();
+        assertEquals(2, transport.disconnects.get());
+    }
+
+    @Test
+    public void testNumberedSessions() throws Exception {
+        final FlakyTransport transport = new FlakyTransport();
+        Opcda2TransportFactory factory = factoryOf(transport);
+        Opcda2Endpoint endpoint = new Opcda2Endpoint();
+        Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+
+        Opcda2Connection session = registry.acquire(factory, endpoint);
+        Opcda2Connection shard = registry.acquire(factory, endpoint, 1);
+        assertNotSame(session, shard);
+        assertEquals("flaky", session.getKey());
+        assertEquals("flaky#1", shard.getKey());
+        assertSame(session, registry.acquire(factory, endpoint, 0));
+        assertSame(shard, registry.acquire(factory, endpoint, 1));
+        assertEquals(2, transport.connects.get());
+
+        registry.release(shard);
+        registry.release(shard);
+        assertEquals(1, transport.disconnects.get());
+        assertEquals(2, session.getReferences());
+        registry.closeAll();
+    }
+
+    @Test
+    public void testConnectOutsideLock() throws Exception {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final FlakyTransport blocked = new FlakyTransport() {
+
+            @Override
+            public void connect() throws OPCConnectionException {
+                super.connect();
+                entered.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException ex) {
+                    throw new OPCConnectionException("interrupted", ex);
+                }
+            }
+        };
+        final Opcda2TransportFactory blockedFactory = factoryOf(blocked);
+        final Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+        final Opcda2Connection[] acquired = new Opcda2Connection[2];
+        final Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        acquired[index] = registry.acquire(blockedFactory, new Opcda2Endpoint());
+                    } catch (OPCConnectionException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+        // another server is reachable while the first one hangs
+        final FlakyTransport other = new FlakyTransport();
+        Opcda2Connection connection = registry.acquire(new Opcda2TransportFactory() {
+
+            @Override
+            public String getKey(Opcda2Endpoint endpoint) {
+                return "other";
+            }
+
+            @Override
+            public Opcda2Transport createTransport(Opcda2Endpoint endpoint) {
+                return other;
+            }
+        }, new Opcda2Endpoint());
+        assertEquals("other", connection.getKey());
+        assertEquals(1, registry.size());
+
+        unblock.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertSame(acquired[0], acquired[1]);
+        assertEquals(2, acquired[0].getReferences());
+        assertEquals(1, blocked.connects.get());
+        assertEquals(2, registry.size());
+        registry.closeAll();
+    }
+
+    @Test
+    public void testFailedConnectNotShared() throws Exception {
+        final FlakyTransport transport = new FlakyTransport();
+        transport.failures.set(1);
+        Opcda2TransportFactory factory = factoryOf(transport);
+        Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+        try {
+            registry.acquire(factory, new Opcda2Endpoint());
+            fail("connect should fail");
+        } catch (OPCConnectionException ex) {
+            assertEquals(0, registry.size());
+        }
+        // the failed attempt left nothing behind, the next one connects
+        Opcda2Connection connection = registry.acquire(factory, new Opcda2Endpoint());
+        assertEquals(1, connection.getReferences());
+        assertEquals(2, transport.connects.get());
+        registry.closeAll();
+    }
+
+    private static Opcda2TransportFactory factoryOf(final Opcda2Transport transport) {
+        return new Opcda2TransportFactory() {
+
+            @Override
+            public String getKey(Opcda2Endpoint endpoint) {
+                return "flaky";
+            }
+
+            @Override
+            public Opcda2Transport createTransport(Opcda2Endpoint endpoint) {
+                return transport;
+            }
+        };
+    }
+
+    @Test
+    public void testReconnect() throws Exception {
+        final FlakyTransport transport = new FlakyTransport();
+        Opcda2Endpoint endpoint = new Opcda2Endpoint();
+        endpoint.setReconnectDelay(10);
+        endpoint.setMaxReconnectDelay(20);
+        Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+        Opcda2Connection connection = registry.acquire(factoryOf(transport), endpoint);
+        assertEquals(1, transport.connects.get());
+
+        final CountDownLatch lost = new CountDownLatch(1);
+        final CountDownLatch restored = new CountDownLatch(1);
+        connection.addListener(new Opcda2Connection.Listener() {
+
+            @Override
+            public void connectionLost(Opcda2Connection connection) {
+                lost.countDown();
+            }
+
+            @Override
+            public void connectionRestored(Opcda2Connection connection) {
+                restored.countDown();
+            }
+        });
+
+        transport.failures.set(2);
+        JIException cause = new JIException(Opcda2Connection.RPC_E_DISCONNECTED);
+        registry.sessionLost(connection, cause);
+        registry.sessionLost(connection, cause);
+        assertEquals(0, lost.getCount());
+        assertFalse(connection.isConnected());
+
+        assertTrue(restored.await(5, TimeUnit.SECONDS));
+        assertTrue(connection.isConnected());
+        assertEquals(1, connection.getGeneration());
+        assertEquals(4, transport.connects.get());
+        registry.closeAll();
+    }
+
+    @Test
+    public void testRestoreRetriesOnlyFailedListener() throws Exception {
+        final FlakyTransport transport = new FlakyTransport();
+        Opcda2Endpoint endpoint = new Opcda2Endpoint();
+        endpoint.setReconnectDelay(10);
+        endpoint.setMaxReconnectDelay(20);
+        Opcda2ConnectionRegistry registry = new Opcda2ConnectionRegistry();
+        Opcda2Connection connection = registry.acquire(factoryOf(transport), endpoint);
+
+        final AtomicInteger healthyRestores = new AtomicInteger();
+        final AtomicInteger failingRestores = new AtomicInteger();
+        final CountDownLatch restored = new CountDownLatch(1);
+        connection.addListener(new Opcda2Connection.Listener() {
+
+            @Override
+            public void connectionLost(Opcda2Connection connection) {
+            }
+
+            @Override
+            public void connectionRestored(Opcda2Connection connection) {
+                healthyRestores.incrementAndGet();
+            }
+        });
+        connection.addListener(new Opcda2Connection.Listener() {
+
+            @Override
+            public void connectionLost(Opcda2Connection connection) {
+            }
+
+            @Override
+            public void connectionRestored(Opcda2Connection connection) throws OPCConnectionException {
+                if (failingRestores.incrementAndGet() < 3) {
+                    throw new OPCConnectionException("item refused");
+                }
+                restored.countDown();
+            }
+        });
+
+        registry.sessionLost(connection, new JIException(Opcda2Connection.RPC_E_DISCONNECTED));
+        assertTrue(restored.await(5, TimeUnit.SECONDS));
+        assertTrue(connection.isConnected());
+        assertEquals(1, connection.getGeneration());
+        assertEquals(2, transport.connects.get());
+        assertEquals(1, healthyRestores.get());
+        assertEquals(3, failingRestores.get());
+        registry.closeAll();
+    }
+
+    /**
+     * Refuses as many connects as failures says.
+     */
+    private static class FlakyTransport implements Opcda2Transport {
+
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger connects = new AtomicInteger();
+        final AtomicInteger disconnects = new AtomicInteger();
+
+        @Override
+        public void connect() throws OPCConnectionException {
+            connects.incrementAndGet();
+            if (failures.getAndDecrement() > 0) {
+                throw new OPCConnectionException("refused");
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            disconnects.incrementAndGet();
+        }
+
+        @Override
+        public Opcda2TransportGroup addGroup(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> browseBranches(List<String> path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Map<String, String> browseLeaves(List<String> path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> browseFlat() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+import org.jinterop.dcom.common.JIException;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class Opcda2DecoderCacheTest {
+
+    @Test
+    public void testCanonicalType() throws JIException {
+        Opcda2DecoderCache decoders = new Opcda2DecoderCache(false);
+
+        // bad quality first read, the canonical type is kept
+        assertNull(decoders.decode(0, JIVariant.VT_R8, JIVariant.EMPTY()));
+        assertEquals(JIVariant.VT_R8, decoders.get(0).getType());
+        assertEquals(Double.valueOf(1.5), decoders.decode(0, JIVariant.VT_R8, new JIVariant(1.5)));
+        assertSame(decoders.get(0), decoders.decoderFor(0, JIVariant.VT_R8, new JIVariant(2.5)));
+    }
+
+    @Test
+    public void testUnknownCanonicalType() throws JIException {
+        Opcda2DecoderCache decoders = new Opcda2DecoderCache(false);
+
+        assertNull(decoders.decode(0, JIVariant.EMPTY()));
+        assertNull(decoders.get(0));
+        assertEquals(Integer.valueOf(3), decoders.decode(0, new JIVariant(3)));
+        assertEquals(JIVariant.VT_I4, decoders.get(0).getType());
+        assertNull(decoders.decode(0, JIVariant.NULL()));
+        assertEquals(JIVariant.VT_I4, decoders.get(0).getType());
+    }
+
+    @Test
+    public void testTypeChange() throws JIException {
+        Opcda2DecoderCache decoders = new Opcda2DecoderCache(false);
+
+        assertEquals(Double.valueOf(1), decoders.decode(3, JIVariant.VT_R8, new JIVariant(1.0)));
+        // the server sends another type than it said
+        assertEquals(Integer.valueOf(2), decoders.decode(3, JIVariant.VT_R8, new JIVariant(2)));
+        assertEquals(JIVariant.VT_I4, decoders.get(3).getType());
+
+        decoders.clear();
+        assertNull(decoders.get(3));
+    }
+}
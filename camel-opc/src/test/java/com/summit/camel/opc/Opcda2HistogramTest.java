@@ -0,0 +1,72 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2HistogramTest {
+
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            int index = Opcda2Histogram.indexOf(value);
+            assertTrue(value <= Opcda2Histogram.upperBoundOf(index));
+            if (index > 0) {
+                assertTrue(value > Opcda2Histogram.upperBoundOf(index - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, Opcda2Histogram.upperBoundOf(Opcda2Histogram.indexOf(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void testPercentiles() {
+        Opcda2Histogram histogram = new Opcda2Histogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        long median = histogram.getPercentile(0.5);
+        assertTrue(median >= 500000 && median <= 500000 * 1.125);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+    }
+
+    @Test
+    public void testReset() {
+        Opcda2Histogram histogram = new Opcda2Histogram();
+        histogram.record(-5);
+        histogram.record(42);
+        assertEquals(0, histogram.getPercentile(0.5));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+}
@@ -0,0 +1,103 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.util.Date;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2HistoryTest {
+
+    @Test
+    public void testRange() {
+        Opcda2History history = new Opcda2History(10, 0, false, 1);
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(history.record("tag", Integer.valueOf(i), (short) 192, i * 1000L, 0));
+        }
+        Opcda2History.Slice slice = history.query("tag", 2000, 4000);
+        assertArrayEquals(new long[]{2000, 3000, 4000}, slice.getTimestamps());
+        assertEquals(3, slice.getValues()[1], 0);
+        assertEquals(192, slice.getQualities()[2]);
+        assertEquals(0, history.query("other", 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testRingOverwritesOldest() {
+        Opcda2History history = new Opcda2History(3, 0, true, 1);
+        for (int i = 1; i <= 5; i++) {
+            history.record("tag", (double) i, (short) 192, i);
+        }
+        Opcda2History.Slice slice = history.query("tag", 0, Long.MAX_VALUE);
+        assertArrayEquals(new long[]{3, 4, 5}, slice.getTimestamps());
+        assertEquals(5, history.latest("tag").getValues()[0], 0);
+    }
+
+    @Test
+    public void testRetention() {
+        Opcda2History history = new Opcda2History(10, 100, false, 1);
+        history.record("tag", 1, (short) 192, 1000);
+        history.record("tag", 2, (short) 192, 1050);
+        history.record("other", 3, (short) 192, 1200);
+        assertEquals(0, history.query("tag", 0, Long.MAX_VALUE).size());
+        assertEquals(0, history.latest("tag").size());
+        history.record("tag", 4, (short) 192, 1150);
+        assertArrayEquals(new long[]{1150}, history.query("tag", 0, Long.MAX_VALUE).getTimestamps());
+    }
+
+    @Test
+    public void testValues() {
+        Opcda2History history = new Opcda2History(10, 0, false, 1);
+        assertTrue(history.record("tag", Boolean.TRUE, (short) 192, 1, 0));
+        assertTrue(history.record("tag", new Date(42), (short) 192, 0, 2));
+        assertFalse(history.record("tag", "text", (short) 192, 3, 0));
+        // unchanged timestamp, a repeated read
+        assertFalse(history.record("tag", Boolean.FALSE, (short) 192, 2, 0));
+        Opcda2History.Slice slice = history.query("tag", 0, Long.MAX_VALUE);
+        assertArrayEquals(new long[]{1, 2}, slice.getTimestamps());
+        assertEquals(1, slice.getValues()[0], 0);
+        assertEquals(42, slice.getValues()[1], 0);
+    }
+
+    @Test
+    public void testGrows() {
+        Opcda2History history = new Opcda2History(4, 0, false, 1);
+        for (int i = 0; i < 5; i++) {
+            history.record("tag" + i, i, (short) 192, 1);
+            history.record("tag" + i, i + 10, (short) 192, 2);
+        }
+        assertEquals(5, history.getItemCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, history.query("tag" + i, 0, Long.MAX_VALUE).getValues()[0], 0);
+            assertEquals(i + 10, history.latest("tag" + i).getValues()[0], 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidSize() {
+        new Opcda2History(0, 0, false, 1);
+    }
+}
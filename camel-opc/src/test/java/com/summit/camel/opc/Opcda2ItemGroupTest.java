@@ -0,0 +1,95 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2ItemGroupTest {
+
+    @Test
+    public void testParse() {
+        List<Opcda2ItemGroup> groups = Opcda2ItemGroup.parse("fast=Random.Int*@100:subscribe; slow = Bucket Brigade.*@5000 ;");
+
+        assertEquals(2, groups.size());
+        assertEquals("fast", groups.get(0).getName());
+        assertEquals("slow", groups.get(1).getName());
+        assertFalse(groups.get(0).isDefault());
+    }
+
+    @Test
+    public void testMatches() {
+        List<Opcda2ItemGroup> groups = Opcda2ItemGroup.parse("fast=Random.Int*@100;slow=Bucket Brigade.*@5000");
+
+        assertTrue(groups.get(0).matches("Random.Int4"));
+        assertFalse(groups.get(0).matches("Random.Real8"));
+        assertTrue(groups.get(1).matches("Bucket Brigade.Int4"));
+        assertTrue(new Opcda2ItemGroup(Opcda2ItemGroup.DEFAULT_NAME, null, 0, null).matches("Random.Real8"));
+    }
+
+    @Test
+    public void testItemsReplacedAsAWhole() {
+        Opcda2ItemGroup group = new Opcda2ItemGroup(Opcda2ItemGroup.DEFAULT_NAME, null, 0, null);
+        assertTrue(group.getItems().isEmpty());
+        assertNull(group.getGroup());
+
+        Map<String, Opcda2TransportItem> items = new TreeMap<String, Opcda2TransportItem>();
+        items.put("tag", null);
+        group.setItems(items);
+        Map<String, Opcda2TransportItem> before = group.getItems();
+        items.put("other", null);
+        group.setItems(new TreeMap<String, Opcda2TransportItem>());
+
+        // a reader holding the old map keeps seeing it whole
+        assertEquals(1, before.size());
+        assertTrue(group.getItems().isEmpty());
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(Opcda2ItemGroup.parse(null).isEmpty());
+        assertTrue(Opcda2ItemGroup.parse(" ").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingRate() {
+        Opcda2ItemGroup.parse("fast=Random.*");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSchedule() {
+        Opcda2ItemGroup.parse("fast=Random.*@100:push");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReservedName() {
+        Opcda2ItemGroup.parse("default=Random.*@100");
+    }
+}
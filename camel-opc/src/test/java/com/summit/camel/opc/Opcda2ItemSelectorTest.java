@@ -0,0 +1,76 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2ItemSelectorTest {
+
+    private static final List<String> INDEX = Arrays.asList(
+            "Plant.Pumps.P1", "Plant.Pumps.P2", "Plant.Tanks.T1.Level", "Plant.Tanks.T1.Temp",
+            "Plant.Tanks.T2.Level", "Plant.Tanks.T2.Temp", "Site.Power");
+
+    @Test
+    public void testGlobs() {
+        Opcda2ItemSelector selector = Opcda2ItemSelector.parse("Plant.Tanks.*;Site.*", "*.Temp");
+        assertEquals(Arrays.asList("Plant.Tanks.T1.Level", "Plant.Tanks.T2.Level", "Site.Power"), selector.select(INDEX));
+        assertTrue(selector.matches("Site.Power"));
+        assertFalse(selector.matches("Plant.Tanks.T1.Temp"));
+        assertFalse(selector.matches("Plant.Pumps.P1"));
+    }
+
+    @Test
+    public void testRegex() {
+        Opcda2ItemSelector selector = Opcda2ItemSelector.parse("regex:Plant\\.(Pumps|Tanks\\.T2)\\..*", null);
+        assertEquals(Arrays.asList("Plant.Pumps.P1", "Plant.Pumps.P2", "Plant.Tanks.T2.Level", "Plant.Tanks.T2.Temp"),
+                selector.select(INDEX));
+    }
+
+    @Test
+    public void testExcludeOnly() {
+        Opcda2ItemSelector selector = Opcda2ItemSelector.parse(null, "Plant.Tanks.*");
+        assertFalse(selector.hasIncludes());
+        assertEquals(Arrays.asList("Plant.Pumps.P1", "Plant.Pumps.P2", "Site.Power"), selector.filter(INDEX));
+    }
+
+    @Test
+    public void testPrefixes() {
+        assertEquals("Plant.Tanks.", Opcda2ItemSelector.globPrefix("Plant.Tanks.*"));
+        assertEquals("Site.Power", Opcda2ItemSelector.globPrefix("Site.Power"));
+        assertEquals("Plant", Opcda2ItemSelector.regexPrefix("^Plant\\.Tanks"));
+        assertEquals("Plan", Opcda2ItemSelector.regexPrefix("Plant?"));
+        assertEquals("Plant", Opcda2ItemSelector.regexPrefix("Plant+"));
+        assertEquals("", Opcda2ItemSelector.regexPrefix("Plant|Site"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegex() {
+        Opcda2ItemSelector.parse("regex:Plant(", null);
+    }
+}
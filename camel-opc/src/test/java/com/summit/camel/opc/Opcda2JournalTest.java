@@ -0,0 +1,127 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Opcda2JournalTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("opcda2", ".journal");
+        assertTrue(file.delete());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private static TagSnapshot snapshot(String itemId, int value) {
+        return new TagSnapshot.Builder(1).add(itemId, Integer.valueOf(value), (short) 0xC0, 1000L + value, 0).build();
+    }
+
+    @Test
+    public void testOrder() throws IOException {
+        Opcda2Journal journal = new Opcda2Journal(file, 4096);
+        journal.append(1, "fast", snapshot("a", 1));
+        journal.append(2, null, snapshot("b", 2));
+        assertEquals(2, journal.size());
+
+        Opcda2Journal.Entry entry = journal.peek();
+        assertEquals(1, entry.getCycleId());
+        assertEquals("fast", entry.getGroup());
+        assertEquals("a", entry.getSnapshot().getItemId(0));
+        assertEquals(1, entry.getSnapshot().getLong(0));
+        journal.remove();
+
+        entry = journal.peek();
+        assertEquals(2, entry.getCycleId());
+        assertNull(entry.getGroup());
+        journal.remove();
+        assertTrue(journal.isEmpty());
+        assertEquals(0, journal.getUsed());
+        journal.close();
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        Opcda2Journal journal = new Opcda2Journal(file, 4096);
+        journal.append(1, null, snapshot("a", 1));
+        journal.append(2, null, snapshot("a", 2));
+        journal.remove();
+        journal.close();
+
+        journal = new Opcda2Journal(file, 4096);
+        assertEquals(1, journal.size());
+        assertEquals(2, journal.peek().getCycleId());
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        Opcda2Journal journal = new Opcda2Journal(file, 256);
+        for (int i = 0; i < 20; i++) {
+            journal.append(i, null, snapshot(i % 2 == 0 ? "even" : "odd", i));
+        }
+        assertTrue(journal.getCompactions() > 0);
+
+        //The compacted record holds the latest state of each item.
+        Opcda2Journal.Entry entry = journal.peek();
+        TagSnapshot compacted = entry.getSnapshot();
+        assertEquals(2, compacted.size());
+        long last = -1;
+        while (!journal.isEmpty()) {
+            last = journal.peek().getCycleId();
+            journal.remove();
+        }
+        assertEquals(19, last);
+        journal.close();
+    }
+
+    @Test
+    public void testTooLarge() throws IOException {
+        Opcda2Journal journal = new Opcda2Journal(file, 64);
+        TagSnapshot.Builder builder = new TagSnapshot.Builder(10);
+        for (int i = 0; i < 10; i++) {
+            builder.add("item" + i, Integer.valueOf(i), (short) 0xC0, 0, 0);
+        }
+        try {
+            journal.append(1, null, builder.build());
+            fail("snapshot larger than the journal");
+        } catch (IOException ex) {
+            assertTrue(journal.isEmpty());
+        }
+        journal.close();
+    }
+}
@@ -0,0 +1,73 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2MetricsTest {
+
+    @Test
+    public void testCycles() {
+        Opcda2Metrics metrics = new Opcda2Metrics();
+        metrics.recordCycle(2000000, 100, 10);
+        metrics.recordCycle(4000000, 100, 30);
+        metrics.recordExchange(10);
+        metrics.recordExchange(30);
+
+        assertEquals(2, metrics.getCycles());
+        assertEquals(3.0, metrics.getCycleMeanMillis(), 0.001);
+        assertEquals(200, metrics.getItemsRead());
+        assertEquals(40, metrics.getItemsChanged());
+        assertEquals(0.2, metrics.getChangeRatio(), 0.001);
+        assertEquals(2, metrics.getExchanges());
+        assertEquals(20.0, metrics.getExchangeMeanSize(), 0.001);
+    }
+
+    @Test
+    public void testWrites() {
+        Opcda2Metrics metrics = new Opcda2Metrics();
+        metrics.recordWrite(1000000, 10, 0);
+        metrics.recordWrite(3000000, 10, 2);
+
+        assertEquals(2, metrics.getWriteCalls());
+        assertEquals(20, metrics.getWriteItems());
+        assertEquals(2, metrics.getWriteFailures());
+        assertEquals(0.2, metrics.getWriteItemMeanMillis(), 0.001);
+
+        metrics.reset();
+        assertEquals(0, metrics.getWriteCalls());
+        assertEquals(0, metrics.getWriteItems());
+    }
+
+    @Test
+    public void testQuality() {
+        assertFalse(Opcda2Metrics.isBad((short) 192));
+        assertFalse(Opcda2Metrics.isBad((short) 216));
+        assertTrue(Opcda2Metrics.isBad((short) 0));
+        assertTrue(Opcda2Metrics.isBad((short) 64));
+    }
+}
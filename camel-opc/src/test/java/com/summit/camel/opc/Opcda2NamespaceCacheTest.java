@@ -0,0 +1,264 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Opcda2NamespaceCacheTest {
+
+    private static final String[] PATH = {"", "Plant"};
+
+    @Test
+    public void testParallelResolve() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        List<Opcda2Transport> browsers = new ArrayList<Opcda2Transport>();
+        for (int i = 0; i < 4; i++) {
+            browsers.add(new TreeTransport(active, maxActive));
+        }
+        final List<String> streamed = new ArrayList<String>();
+        final int[] lastProgress = new int[3];
+        Opcda2NamespaceCache.BrowseListener listener = new Opcda2NamespaceCache.BrowseListener() {
+
+            @Override
+            public void leaves(List<String> itemIds) {
+                streamed.addAll(itemIds);
+            }
+
+            @Override
+            public void progress(int browsed, int pending, int items) {
+                lastProgress[0] = browsed;
+                lastProgress[1] = pending;
+                lastProgress[2] = items;
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<String> itemIds = new Opcda2NamespaceCache("key").resolve(browsers, PATH, executor, listener);
+            List<String> expected = new Opcda2NamespaceCache("key").resolve(new TreeTransport(active, new AtomicInteger()), PATH);
+            assertEquals(new HashSet<String>(expected), new HashSet<String>(itemIds));
+            // 1 + 3 + 9 branches below Plant, 2 leaves each
+            assertEquals(26, itemIds.size());
+            assertEquals(new HashSet<String>(itemIds), new HashSet<String>(streamed));
+            assertTrue(maxActive.get() > 1);
+            assertEquals(13, lastProgress[0]);
+            assertEquals(0, lastProgress[1]);
+            assertEquals(26, lastProgress[2]);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCachedBranchesAreNotBrowsed() throws Exception {
+        TreeTransport browser = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+        Opcda2NamespaceCache namespace = new Opcda2NamespaceCache("key");
+        assertEquals(26, namespace.resolve(browser, PATH).size());
+        final int browses = browser.browses.get();
+        assertEquals(26, namespace.resolve(browser, PATH).size());
+        assertEquals(browses, browser.browses.get());
+    }
+
+    @Test
+    public void testBrowseFailure() throws Exception {
+        List<Opcda2Transport> browsers = new ArrayList<Opcda2Transport>();
+        for (int i = 0; i < 2; i++) {
+            TreeTransport failing = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+            failing.failAt = Arrays.asList("Plant", "B1", "B1");
+            browsers.add(failing);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new Opcda2NamespaceCache("key").resolve(browsers, PATH, executor, null);
+            fail();
+        } catch (OPCConnectionException ex) {
+            assertEquals("unreachable", ex.getMessage());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        TreeTransport browser = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+        Opcda2NamespaceCache namespace = new Opcda2NamespaceCache("key");
+        assertTrue(namespace.isEmpty());
+        List<String> itemIds = namespace.resolve(browser, PATH);
+        List<String> index = namespace.getItemIndex(browser);
+        assertTrue(namespace.isDirty());
+
+        File file = File.createTempFile("opcda2", ".namespace");
+        try {
+            namespace.save(file);
+            assertFalse(namespace.isDirty());
+
+            Opcda2NamespaceCache loaded = new Opcda2NamespaceCache("key");
+            assertTrue(loaded.load(file));
+            assertFalse(loaded.isEmpty());
+            assertFalse(loaded.isDirty());
+            TreeTransport unused = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+            assertEquals(itemIds, loaded.resolve(unused, PATH));
+            assertEquals(index, loaded.getItemIndex(unused));
+            assertEquals(0, unused.browses.get());
+
+            // saved for another server
+            Opcda2NamespaceCache other = new Opcda2NamespaceCache("other");
+            assertFalse(other.load(file));
+            assertTrue(other.isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testItemIndex() throws Exception {
+        TreeTransport browser = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+        Opcda2NamespaceCache namespace = new Opcda2NamespaceCache("key");
+        assertEquals(Arrays.asList("Plant.A", "Plant.B", "Plant.C"), namespace.getItemIndex(browser));
+        namespace.getItemIndex(browser);
+        assertEquals(1, browser.flatBrowses.get());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        TreeTransport browser = new TreeTransport(new AtomicInteger(), new AtomicInteger());
+        Opcda2NamespaceCache namespace = new Opcda2NamespaceCache("key");
+        namespace.resolve(browser, PATH);
+        namespace.getItemIndex(browser);
+        final int browses = browser.browses.get();
+
+        namespace.invalidate(new String[]{"", "Plant", "B1"});
+        assertEquals(26, namespace.resolve(browser, PATH).size());
+        // B1 and its three branches, branches and leaves of each
+        assertEquals(browses + 8, browser.browses.get());
+        namespace.getItemIndex(browser);
+        assertEquals(2, browser.flatBrowses.get());
+    }
+
+    /**
+     * A tree of three levels of three branches below Plant, each with two
+     * leaves. Fails if used by two threads at once.
+     */
+    private static class TreeTransport implements Opcda2Transport {
+
+        final AtomicInteger active;
+        final AtomicInteger maxActive;
+        final AtomicInteger browses = new AtomicInteger();
+        final AtomicInteger flatBrowses = new AtomicInteger();
+        final AtomicInteger inUse = new AtomicInteger();
+        List<String> failAt;
+
+        TreeTransport(AtomicInteger active, AtomicInteger maxActive) {
+            this.active = active;
+            this.maxActive = maxActive;
+        }
+
+        private void enter() {
+            assertEquals(1, inUse.incrementAndGet());
+            browses.incrementAndGet();
+            final int now = active.incrementAndGet();
+            int max;
+            while ((max = maxActive.get()) < now && !maxActive.compareAndSet(max, now)) {
+            }
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void exit() {
+            active.decrementAndGet();
+            inUse.decrementAndGet();
+        }
+
+        @Override
+        public List<String> browseBranches(List<String> path) throws OPCConnectionException {
+            enter();
+            try {
+                if (path.equals(failAt)) {
+                    throw new OPCConnectionException("unreachable");
+                }
+                if (path.isEmpty()) {
+                    return Arrays.asList("Plant");
+                }
+                return path.size() < 3 ? Arrays.asList("B0", "B1", "B2") : new ArrayList<String>();
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public Map<String, String> browseLeaves(List<String> path) {
+            enter();
+            try {
+                Map<String, String> retVal = new LinkedHashMap<String, String>();
+                if (!path.isEmpty()) {
+                    StringBuilder prefix = new StringBuilder();
+                    for (String name : path) {
+                        prefix.append(name).append('.');
+                    }
+                    retVal.put("L0", prefix + "L0");
+                    retVal.put("L1", prefix + "L1");
+                }
+                return retVal;
+            } finally {
+                exit();
+            }
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public Opcda2TransportGroup addGroup(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> browseFlat() {
+            flatBrowses.incrementAndGet();
+            return Arrays.asList("Plant.C", "Plant.A", "Plant.B");
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.summit.camel.opc.Opcda2PollScheduler.OverrunPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2PollSchedulerTest {
+
+    @Test
+    public void testFixedDelayLag() {
+        Opcda2PollScheduler scheduler = new Opcda2PollScheduler(100, false, OverrunPolicy.COALESCE, false, 0);
+        assertTrue(scheduler.isDue(1000));
+        assertEquals(0, scheduler.getLag());
+        scheduler.completed(1000, 1030);
+        assertTrue(scheduler.isDue(1145));
+        assertEquals(15, scheduler.getLag());
+        scheduler.completed(1145, 1400);
+        assertEquals(1, scheduler.getOverruns());
+    }
+
+    @Test
+    public void testFixedRateCoalesce() {
+        Opcda2Metrics metrics = new Opcda2Metrics();
+        Opcda2PollScheduler scheduler = new Opcda2PollScheduler(100, true, OverrunPolicy.COALESCE, false, 0);
+        scheduler.setMetrics(metrics);
+        assertTrue(scheduler.isDue(0));
+        scheduler.completed(0, 350);
+        //The slots at 100, 200 and 300 were missed, one cycle serves them.
+        assertTrue(scheduler.isDue(350));
+        assertEquals(250, scheduler.getLag());
+        assertEquals(2, scheduler.getSkipped());
+        scheduler.completed(350, 360);
+        //Catch-up runs of the scheduler are ignored.
+        assertFalse(scheduler.isDue(360));
+        assertTrue(scheduler.isDue(400));
+        assertEquals(0, scheduler.getLag());
+        assertEquals(1, metrics.getOverruns());
+        assertEquals(2, metrics.getSkippedCycles());
+    }
+
+    @Test
+    public void testFixedRateSkip() {
+        Opcda2PollScheduler scheduler = new Opcda2PollScheduler(100, true, OverrunPolicy.SKIP, false, 0);
+        assertTrue(scheduler.isDue(0));
+        scheduler.completed(0, 250);
+        assertFalse(scheduler.isDue(250));
+        assertEquals(2, scheduler.getSkipped());
+        assertTrue(scheduler.isDue(300));
+        assertEquals(0, scheduler.getLag());
+    }
+
+    @Test
+    public void testAdaptiveRate() {
+        Opcda2PollScheduler scheduler = new Opcda2PollScheduler(100, false, OverrunPolicy.COALESCE, true, 300);
+        long now = 0;
+        assertTrue(scheduler.isDue(now));
+        scheduler.completed(now, now + 90);
+        assertEquals(200, scheduler.getPeriod());
+        now += 90;
+        //The consumer still runs every 100 ms, the period is 200.
+        assertFalse(scheduler.isDue(now + 100));
+        assertTrue(scheduler.isDue(now + 200));
+        now += 200;
+        scheduler.completed(now, now + 190);
+        assertEquals(300, scheduler.getPeriod());
+        now += 190;
+
+        //The server is fast again.
+        assertTrue(scheduler.isDue(now + 300));
+        now += 300;
+        scheduler.completed(now, now + 10);
+        assertEquals(150, scheduler.getPeriod());
+        now += 10;
+        assertTrue(scheduler.isDue(now + 150));
+        now += 150;
+        scheduler.completed(now, now + 10);
+        assertEquals(100, scheduler.getPeriod());
+    }
+}
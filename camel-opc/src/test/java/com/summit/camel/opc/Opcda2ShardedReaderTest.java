@@ -0,0 +1,134 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Opcda2ShardedReaderTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testResultsInTaskOrder() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 4; i++) {
+            final int shard = i;
+            tasks.add(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(10 * (4 - shard));
+                    return shard;
+                }
+            });
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2, 3), Opcda2ShardedReader.invokeAll(executor, tasks));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(4);
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (int i = 0; i < 4; i++) {
+            tasks.add(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    latch.countDown();
+                    // only completes if all four run at the same time
+                    return latch.await(5, TimeUnit.SECONDS);
+                }
+            });
+        }
+
+        for (Boolean completed : Opcda2ShardedReader.invokeAll(executor, tasks)) {
+            assertTrue(completed);
+        }
+    }
+
+    @Test
+    public void testSingleTaskWithoutExecutor() throws Exception {
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+        tasks.add(new Callable<String>() {
+
+            @Override
+            public String call() {
+                return Thread.currentThread().getName();
+            }
+        });
+
+        assertEquals(Thread.currentThread().getName(), Opcda2ShardedReader.invokeAll(null, tasks).get(0));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        tasks.add(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                return 0;
+            }
+        });
+        tasks.add(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                throw new IllegalStateException("shard 1");
+            }
+        });
+
+        try {
+            Opcda2ShardedReader.invokeAll(executor, tasks);
+            fail();
+        } catch (ExecutionException ex) {
+            assertEquals("shard 1", ex.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import com.summit.camel.opc.Opcda2TagBuffer.OverflowPolicy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2TagBufferTest {
+
+    @Test
+    public void testBatches() throws Exception {
+        Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(10, OverflowPolicy.BLOCK);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.put("tag" + i, i));
+        }
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        assertEquals(2, buffer.take(batch, 2, 0));
+        assertEquals(Integer.valueOf(0), batch.get("tag0"));
+        assertEquals(Integer.valueOf(1), batch.get("tag1"));
+        batch.clear();
+        assertEquals(3, buffer.take(batch, 10, 0));
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testBatchTime() throws Exception {
+        final Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(10, OverflowPolicy.BLOCK);
+        buffer.put("tag0", 0);
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    buffer.put("tag1", 1);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).start();
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        assertEquals(2, buffer.take(batch, 2, 5000));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(2, OverflowPolicy.DROP_OLDEST);
+        buffer.put("tag0", 0);
+        buffer.put("tag1", 1);
+        buffer.put("tag2", 2);
+        assertEquals(1, buffer.getDropped());
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        buffer.take(batch, 10, 0);
+        assertFalse(batch.containsKey("tag0"));
+        assertEquals(2, batch.size());
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(2, OverflowPolicy.COALESCE);
+        buffer.put("tag0", 0);
+        buffer.put("tag1", 1);
+        buffer.put("tag0", 10);
+        buffer.put("tag1", 11);
+        assertEquals(2, buffer.size());
+        assertEquals(2, buffer.getCoalesced());
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        buffer.take(batch, 1, 0);
+        assertEquals(Integer.valueOf(10), batch.get("tag0"));
+        //tag0 is no longer pending, so it is queued again.
+        buffer.put("tag0", 20);
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void testBlockUntilTaken() throws Exception {
+        final Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(1, OverflowPolicy.BLOCK);
+        buffer.put("tag0", 0);
+        final CountDownLatch put = new CountDownLatch(1);
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    buffer.put("tag1", 1);
+                    put.countDown();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }).start();
+        assertFalse(put.await(50, TimeUnit.MILLISECONDS));
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        buffer.take(batch, 1, 0);
+        assertTrue(put.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        Opcda2TagBuffer<Integer> buffer = new Opcda2TagBuffer<Integer>(4, OverflowPolicy.BLOCK);
+        buffer.put("tag0", 0);
+        buffer.close();
+        assertFalse(buffer.put("tag1", 1));
+        Map<String, Integer> batch = new TreeMap<String, Integer>();
+        assertEquals(1, buffer.take(batch, 4, 1000));
+        assertEquals(0, buffer.take(batch, 4, 1000));
+    }
+}
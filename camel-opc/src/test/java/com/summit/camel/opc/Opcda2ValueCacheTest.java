@@ -0,0 +1,51 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+
+import org.junit.Test;
+import org.openscada.opc.lib.da.ItemState;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class Opcda2ValueCacheTest {
+
+    @Test
+    public void testMaxAge() {
+        Opcda2ValueCache cache = new Opcda2ValueCache();
+        ItemState state = new ItemState();
+        cache.put("tag", state, 1000);
+        assertSame(state, cache.get("tag", 500, 1500));
+        assertNull(cache.get("tag", 500, 1501));
+        assertSame(state, cache.get("tag", -1, Long.MAX_VALUE));
+        assertNull(cache.get("other", -1, 1000));
+    }
+
+    @Test
+    public void testClearedWhenSessionLost() {
+        Opcda2Connection connection = new Opcda2Connection("key", null);
+        connection.getValues().put("tag", new ItemState(), 1000);
+        connection.markLost();
+        assertNull(connection.getValues().get("tag", -1, 1000));
+    }
+}
@@ -0,0 +1,129 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.util.Date;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Opcda2ValueStoreTest {
+
+    @Test
+    public void testFirstUpdateIsAChange() {
+        Opcda2ValueStore store = new Opcda2ValueStore(0);
+
+        assertTrue(store.update(0, Double.valueOf(1.5)));
+        assertTrue(store.update(5, "text"));
+        assertFalse(store.update(0, Double.valueOf(1.5)));
+        assertFalse(store.update(5, new String("text")));
+    }
+
+    @Test
+    public void testHashCollisions() {
+        Opcda2ValueStore store = new Opcda2ValueStore(2);
+
+        // "Aa" and "BB" have the same hashCode
+        store.update(0, "Aa");
+        assertTrue(store.update(0, "BB"));
+        assertFalse(store.update(0, "BB"));
+        store.update(1, new String[]{"Aa"});
+        assertTrue(store.update(1, new String[]{"BB"}));
+    }
+
+    @Test
+    public void testReusedArray() {
+        Opcda2ValueStore store = new Opcda2ValueStore(1);
+
+        int[] buffer = {1, 2};
+        store.update(0, buffer);
+        buffer[1] = 3;
+        assertTrue(store.update(0, buffer));
+        assertFalse(store.update(0, new int[]{1, 3}));
+    }
+
+    @Test
+    public void testNumericValues() {
+        Opcda2ValueStore store = new Opcda2ValueStore(4);
+
+        store.update(0, Integer.valueOf(7));
+        assertFalse(store.update(0, Integer.valueOf(7)));
+        assertTrue(store.update(0, Integer.valueOf(8)));
+
+        store.update(1, Float.valueOf(0.1f));
+        assertFalse(store.update(1, Float.valueOf(0.1f)));
+        assertTrue(store.update(1, Float.valueOf(0.2f)));
+
+        store.update(2, Boolean.TRUE);
+        assertFalse(store.update(2, Boolean.TRUE));
+        assertTrue(store.update(2, Boolean.FALSE));
+
+        store.update(3, new Date(1000));
+        assertFalse(store.update(3, new Date(1000)));
+        assertTrue(store.update(3, new Date(2000)));
+    }
+
+    @Test
+    public void testTypeChangeIsAChange() {
+        Opcda2ValueStore store = new Opcda2ValueStore(1);
+
+        store.update(0, Long.valueOf(1));
+        assertTrue(store.update(0, Double.valueOf(Double.longBitsToDouble(1))));
+        assertTrue(store.update(0, Boolean.TRUE));
+    }
+
+    @Test
+    public void testArrays() {
+        Opcda2ValueStore store = new Opcda2ValueStore(1);
+
+        store.update(0, new Double[]{1.0, 2.0});
+        assertFalse(store.update(0, new Double[]{1.0, 2.0}));
+        assertTrue(store.update(0, new Double[]{1.0, 3.0}));
+        assertTrue(store.update(0, new Double[]{1.0, 3.0, 0.0}));
+    }
+
+    @Test
+    public void testPrimitiveArrays() {
+        Opcda2ValueStore store = new Opcda2ValueStore(2);
+
+        store.update(0, new double[]{1.0, 2.0});
+        assertFalse(store.update(0, new double[]{1.0, 2.0}));
+        assertTrue(store.update(0, new double[]{1.0, 3.0}));
+        store.update(1, new boolean[]{true});
+        assertFalse(store.update(1, new boolean[]{true}));
+        assertTrue(store.update(1, new boolean[]{false}));
+    }
+
+    @Test
+    public void testReset() {
+        Opcda2ValueStore store = new Opcda2ValueStore(2);
+
+        store.update(0, "a");
+        store.update(1, "b");
+        store.reset(0);
+        assertTrue(store.update(0, "a"));
+        assertFalse(store.update(1, "b"));
+        store.clear();
+        assertTrue(store.update(1, "b"));
+    }
+}
@@ -0,0 +1,189 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagSnapshotCodecTest {
+
+    @Test
+    public void testScalarTypes() {
+        TagSnapshot snapshot = new TagSnapshot.Builder(4)
+                .add("Tag.Empty", JIVariant.VT_EMPTY, null, (short) 0, 1000L, 0)
+                .add("Tag.I1", JIVariant.VT_I1, Byte.valueOf((byte) -5), (short) 192, 1000L, 0)
+                .add("Tag.I2", JIVariant.VT_I2, Short.valueOf((short) -300), (short) 192, 1001L, 0)
+                .add("Tag.I4", JIVariant.VT_I4, Integer.valueOf(Integer.MIN_VALUE), (short) 192, 999L, 0)
+                .add("Tag.I8", JIVariant.VT_I8, Long.valueOf(Long.MAX_VALUE), (short) 192, 1000L, 0)
+                .add("Tag.INT", JIVariant.VT_INT, Long.valueOf(-1), (short) 192, 1000L, 0)
+                .add("Tag.UI1", JIVariant.VT_UI1, Byte.valueOf((byte) 200), (short) 192, 1000L, 0)
+                .add("Tag.UI2", JIVariant.VT_UI2, Short.valueOf((short) 60000), (short) 192, 1000L, 0)
+                .add("Tag.UI4", JIVariant.VT_UI4, Integer.valueOf(-2), (short) 192, 1000L, 0)
+                .add("Tag.UINT", JIVariant.VT_UINT, Integer.valueOf(7), (short) 192, 1000L, 0)
+                .add("Tag.R4", JIVariant.VT_R4, Float.valueOf(1.25f), (short) 192, 1000L, 0)
+                .add("Tag.R8", JIVariant.VT_R8, Double.valueOf(Math.PI), (short) 192, 1000L, 0)
+                .add("Tag.BOOL", JIVariant.VT_BOOL, Boolean.TRUE, (short) 192, 1000L, 0)
+                .add("Tag.DATE", JIVariant.VT_DATE, new Date(1400000000000L), (short) 192, 1000L, 0)
+                .add("Tag.BSTR", JIVariant.VT_BSTR, "gr\u00fc\u00dfe", (short) 192, 1000L, 0)
+                .add("Tag.CY", JIVariant.VT_CY, new BigDecimal("-922337203685477.5808"), (short) 192, 1000L, 0x80004005)
+                .build();
+
+        TagSnapshot decoded = roundTrip(snapshot);
+
+        assertEquals(snapshot.size(), decoded.size());
+        assertFalse(decoded.isValuesOnly());
+        for (int i = 0; i < snapshot.size(); i++) {
+            assertEquals(snapshot.getItemId(i), decoded.getItemId(i));
+            assertEquals(snapshot.getType(i), decoded.getType(i));
+            assertEquals(snapshot.getValue(i), decoded.getValue(i));
+            assertEquals(snapshot.getQuality(i), decoded.getQuality(i));
+            assertEquals(snapshot.getTimestamp(i), decoded.getTimestamp(i));
+            assertEquals(snapshot.getErrorCode(i), decoded.getErrorCode(i));
+        }
+        assertNull(decoded.getValue(0));
+    }
+
+    @Test
+    public void testArrayTypes() {
+        Object[][] arrays = new Object[][]{
+            new Byte[]{1, -1},
+            new Short[]{1, -1},
+            new Integer[]{1, Integer.MAX_VALUE},
+            new Long[]{1L, Long.MIN_VALUE},
+            new Float[]{1.5f, -0f},
+            new Double[]{Double.NaN, 2.5},
+            new Boolean[]{true, false},
+            new Date[]{new Date(0), new Date(1400000000000L)},
+            new String[]{"a", ""},
+            new BigDecimal[]{new BigDecimal("1.0001"), BigDecimal.ZERO},
+            new Object[]{Integer.valueOf(1), "two", null, new Double[]{3.0}}
+        };
+        int[] elementTypes = new int[]{JIVariant.VT_I1, JIVariant.VT_I2, JIVariant.VT_I4, JIVariant.VT_I8,
+            JIVariant.VT_R4, JIVariant.VT_R8, JIVariant.VT_BOOL, JIVariant.VT_DATE, JIVariant.VT_BSTR,
+            JIVariant.VT_CY, JIVariant.VT_VARIANT};
+
+        TagSnapshot.Builder builder = new TagSnapshot.Builder(arrays.length).valuesOnly(true);
+        for (int i = 0; i < arrays.length; i++) {
+            builder.add("Array" + i, JIVariant.VT_ARRAY | elementTypes[i], arrays[i], (short) 0, 0L, 0);
+        }
+        TagSnapshot decoded = roundTrip(builder.build());
+
+        assertTrue(decoded.isValuesOnly());
+        for (int i = 0; i < arrays.length; i++) {
+            Object[] value = (Object[]) decoded.getValue(i);
+            assertEquals(arrays[i].getClass(), value.getClass());
+            assertArrayEquals(arrays[i], value);
+        }
+
+        Object[] primitives = new Object[]{
+            new byte[]{1, -1},
+            new short[]{1, -1},
+            new int[]{1, Integer.MAX_VALUE},
+            new long[]{1L, Long.MIN_VALUE},
+            new float[]{1.5f, -0f},
+            new double[]{Double.NaN, 2.5},
+            new boolean[]{true, false}
+        };
+        builder = new TagSnapshot.Builder(primitives.length).valuesOnly(true);
+        for (int i = 0; i < primitives.length; i++) {
+            builder.add("Primitive" + i, primitives[i], (short) 0, 0L, 0);
+        }
+        decoded = roundTrip(builder.build());
+
+        for (int i = 0; i < primitives.length; i++) {
+            Object value = decoded.getValue(i);
+            assertEquals(primitives[i].getClass(), value.getClass());
+            assertTrue(Arrays.deepEquals(new Object[]{primitives[i]}, new Object[]{value}));
+        }
+        assertTrue(decoded.toString(), decoded.toString().contains("Primitive5=[NaN, 2.5]"));
+    }
+
+    @Test
+    public void testFrontCodedIds() {
+        TagSnapshot.Builder builder = new TagSnapshot.Builder(100).valuesOnly(true);
+        for (int i = 0; i < 100; i++) {
+            builder.addLong("Simulation.Device1.Random.Tag" + i, JIVariant.VT_I4, i, (short) 0, 0L, 0);
+        }
+        ByteBuffer buffer = TagSnapshotCodec.encode(builder.build());
+
+        // header + per tag: 2 length bytes, at most 2 id bytes, type and value
+        assertTrue(buffer.remaining() < 100 * 6 + 64);
+        TagSnapshot decoded = TagSnapshotCodec.decode(buffer);
+        assertEquals("Simulation.Device1.Random.Tag42", decoded.getItemId(42));
+        assertEquals(42L, decoded.getLong(42));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void testEncodeIntoExistingBuffer() {
+        TagSnapshot snapshot = new TagSnapshot.Builder(1)
+                .add("a", "value", (short) 192, 5L, 0)
+                .build();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256);
+        buffer.putInt(0xCAFE);
+        TagSnapshotCodec.encode(snapshot, buffer);
+        TagSnapshotCodec.encode(snapshot, buffer);
+        buffer.flip();
+
+        assertEquals(0xCAFE, buffer.getInt());
+        assertEquals("value", TagSnapshotCodec.decode(buffer).getValue(0));
+        assertEquals("value", TagSnapshotCodec.decode(buffer).getValue(0));
+        assertEquals(0, buffer.remaining());
+    }
+
+    @Test
+    public void testVarLong() {
+        long[] values = new long[]{0, 1, -1, 127, 128, Long.MAX_VALUE, Long.MIN_VALUE};
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        for (long value : values) {
+            TagSnapshotCodec.putVarLong(buffer, TagSnapshotCodec.zigzag(value));
+        }
+        buffer.flip();
+        for (long value : values) {
+            assertEquals(value, TagSnapshotCodec.unzigzag(TagSnapshotCodec.getVarLong(buffer)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotASnapshot() {
+        TagSnapshotCodec.decode(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedValue() {
+        TagSnapshotCodec.encode(new TagSnapshot.Builder(1).add("a", new StringBuilder(), (short) 0, 0L, 0).build());
+    }
+
+    private static TagSnapshot roundTrip(TagSnapshot snapshot) {
+        return TagSnapshotCodec.decode(TagSnapshotCodec.encode(snapshot));
+    }
+}
@@ -0,0 +1,146 @@
+package com.summit.camel.opc;
+
+/*
+ * #%L
+ * Camel-OPC :: OPCDA 2 Component
+ * %%
+ * Copyright (C) 2013 - 2014 Summit Management Systems, Inc.
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import org.jinterop.dcom.core.JIVariant;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagSnapshotTest {
+
+    @Test
+    public void testTypedColumns() {
+        TagSnapshot snapshot = new TagSnapshot.Builder(1)
+                .addDouble("a", JIVariant.VT_R8, 1.5, (short) 192, 1000L, 0)
+                .addLong("b", JIVariant.VT_I4, 42, (short) 0, 2000L, 1)
+                .add("c", "text", (short) 192, 3000L, 0)
+                .add("d", Boolean.TRUE, (short) 192, 4000L, 0)
+                .build();
+
+        assertEquals(4, snapshot.size());
+        assertEquals(1.5, snapshot.getDouble(0), 0);
+        assertEquals(1L, snapshot.getLong(0));
+        assertEquals(42L, snapshot.getLong(1));
+        assertEquals(Integer.valueOf(42), snapshot.getValue(1));
+        assertEquals(JIVariant.VT_BSTR, snapshot.getType(2));
+        assertEquals("text", snapshot.getValue(2));
+        assertTrue(snapshot.getBoolean(3));
+        assertEquals(2000L, snapshot.getTimestamp(1));
+        assertEquals(1, snapshot.getErrorCode(1));
+    }
+
+    @Test
+    public void testTypeOf() {
+        assertEquals(JIVariant.VT_R4, TagSnapshot.typeOf(Float.valueOf(1)));
+        assertEquals(JIVariant.VT_I8, TagSnapshot.typeOf(Long.valueOf(1)));
+        assertEquals(JIVariant.VT_DATE, TagSnapshot.typeOf(new Date()));
+        assertEquals(JIVariant.VT_CY, TagSnapshot.typeOf(BigDecimal.ONE));
+        assertEquals(JIVariant.VT_ARRAY | JIVariant.VT_R8, TagSnapshot.typeOf(new Double[]{1.0}));
+        assertEquals(JIVariant.VT_ARRAY | JIVariant.VT_VARIANT, TagSnapshot.typeOf(new Object[]{1.0}));
+        assertEquals(JIVariant.VT_EMPTY, TagSnapshot.typeOf(null));
+    }
+
+    @Test
+    public void testMapRoundTrip() {
+        Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
+        data.put("a", state(Double.valueOf(2.5), 192, 1000L));
+        data.put("b", state(new Short[]{1, 2, 3}, 0, 2000L));
+        data.put("c", state(new Date(5000L), 192, 3000L));
+
+        TagSnapshot snapshot = Opcda2Converters.toTagSnapshot(data);
+        assertFalse(snapshot.isValuesOnly());
+        assertEquals(3, snapshot.size());
+
+        Map<String, Map<String, Object>> converted = Opcda2Converters.toMap(snapshot);
+        assertEquals(data.keySet(), converted.keySet());
+        assertEquals(data.get("a"), converted.get("a"));
+        assertEquals(data.get("c"), converted.get("c"));
+        assertArrayEquals((Object[]) data.get("b").get(Opcda2Endpoint.VALUE),
+                (Object[]) converted.get("b").get(Opcda2Endpoint.VALUE));
+        assertEquals(Short.valueOf((short) 0), converted.get("b").get(Opcda2Endpoint.QUALITY));
+    }
+
+    @Test
+    public void testMissingTimestamp() {
+        Map<String, Object> state = state(Integer.valueOf(3), 192, 0L);
+        state.put(Opcda2Endpoint.TIMESTAMP, null);
+        Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
+        data.put("a", state);
+
+        TagSnapshot snapshot = Opcda2Converters.toTagSnapshot(data);
+        assertEquals(0L, snapshot.getTimestamp(0));
+        assertEquals(data, Opcda2Converters.toMap(snapshot));
+    }
+
+    @Test
+    public void testValuesOnlyRoundTrip() {
+        Map<String, Object> state = new TreeMap<String, Object>();
+        state.put(Opcda2Endpoint.VALUE, Integer.valueOf(3));
+        Map<String, Map<String, Object>> data = new TreeMap<String, Map<String, Object>>();
+        data.put("a", state);
+
+        TagSnapshot snapshot = Opcda2Converters.toTagSnapshot(data);
+        assertTrue(snapshot.isValuesOnly());
+        assertEquals(data, Opcda2Converters.toMap(snapshot));
+    }
+
+    @Test
+    public void testNotAStateMap() {
+        Map<String, Object> data = new TreeMap<String, Object>();
+        data.put("a", Integer.valueOf(1));
+        assertNull(Opcda2Converters.toTagSnapshot(data));
+
+        data.put("a", new TreeMap<String, Object>());
+        assertNull(Opcda2Converters.toTagSnapshot(data));
+    }
+
+    @Test
+    public void testFallbackConverter() {
+        Map<String, Object> data = new TreeMap<String, Object>();
+        data.put("a", Integer.valueOf(1));
+        assertNull(Opcda2Converters.convertTo(TagSnapshot.class, null, data, null));
+
+        data.put("a", state(Integer.valueOf(1), 192, 1000L));
+        assertNull(Opcda2Converters.convertTo(String.class, null, data, null));
+        TagSnapshot snapshot = Opcda2Converters.convertTo(TagSnapshot.class, null, data, null);
+        assertEquals(1, snapshot.size());
+        assertEquals("a", snapshot.getItemId(0));
+    }
+
+    private static Map<String, Object> state(Object value, int quality, long timestamp) {
+        Map<String, Object> retVal = new TreeMap<String, Object>();
+        retVal.put(Opcda2Endpoint.ERROR_CODE, Integer.valueOf(0));
+        retVal.put(Opcda2Endpoint.QUALITY, Short.valueOf((short) quality));
+        retVal.put(Opcda2Endpoint.TIMESTAMP, new Date(timestamp));
+        retVal.put(Opcda2Endpoint.VALUE, value);
+        return retVal;
+    }
+}